@@ -30,10 +30,12 @@ import me.lucko.spark.api.placeholder.PlaceholderResolver;
 import me.lucko.spark.api.statistic.misc.DoubleAverageInfo;
 import me.lucko.spark.api.statistic.types.DoubleStatistic;
 import me.lucko.spark.api.statistic.types.GenericStatistic;
+import me.lucko.spark.api.tick.TickAnomaly;
 import org.jspecify.annotations.NonNull;
 import org.jspecify.annotations.Nullable;
 
 import java.util.Map;
+import java.util.function.Consumer;
 
 import static me.lucko.spark.api.statistic.StatisticWindow.CpuUsage;
 import static me.lucko.spark.api.statistic.StatisticWindow.MillisPerTick;
@@ -58,6 +60,21 @@ public interface Spark {
      */
     @NonNull DoubleStatistic<CpuUsage> cpuSystem();
 
+    /**
+     * Gets the CPU usage statistic for each thread pool in the current process,
+     * keyed by pool name.
+     *
+     * <p>Unlike {@link #cpuProcess()}, the values are measured in CPU cores, so
+     * a value of 1.5 means that the threads in the pool used one and a half cores
+     * on average during the window.</p>
+     *
+     * <p>Returns an empty map if the JVM does not support measuring the CPU time
+     * of each thread.</p>
+     *
+     * @return the CPU usage statistic for each thread pool
+     */
+    @NonNull Map<String, DoubleStatistic<CpuUsage>> cpuThreadPools();
+
     /**
      * Gets the ticks per second statistic.
      *
@@ -76,6 +93,37 @@ public interface Spark {
      */
     @Nullable GenericStatistic<DoubleAverageInfo, MillisPerTick> mspt();
 
+    /**
+     * Gets the milliseconds per tick statistic for each world (level/dimension)
+     * ticked by the server, keyed by world name. On modded platforms the key is
+     * the namespaced dimension id, e.g. {@code minecraft:overworld}.
+     *
+     * <p>Returns an empty map if the platform does not report the
+     * duration of each world tick separately.</p>
+     *
+     * @return the milliseconds per tick statistic for each world
+     */
+    @NonNull Map<String, GenericStatistic<DoubleAverageInfo, MillisPerTick>> msptPerWorld();
+
+    /**
+     * Registers a listener to be called when an anomalous tick is detected.
+     *
+     * <p>Listeners are called synchronously on the server thread immediately
+     * after the anomalous tick has ended, so should return quickly.</p>
+     *
+     * <p>Listeners are never called if the platform does not report tick durations.</p>
+     *
+     * @param listener the listener
+     */
+    void addTickAnomalyListener(@NonNull Consumer<? super TickAnomaly> listener);
+
+    /**
+     * Unregisters a tick anomaly listener.
+     *
+     * @param listener the listener
+     */
+    void removeTickAnomalyListener(@NonNull Consumer<? super TickAnomaly> listener);
+
     /**
      * Gets the garbage collector statistics.
      *
@@ -0,0 +1,74 @@
+/*
+ * This file is part of spark, licensed under the MIT License.
+ *
+ *  Copyright (c) lucko (Luck) <luck@lucko.me>
+ *  Copyright (c) contributors
+ *
+ *  Permission is hereby granted, free of charge, to any person obtaining a copy
+ *  of this software and associated documentation files (the "Software"), to deal
+ *  in the Software without restriction, including without limitation the rights
+ *  to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ *  copies of the Software, and to permit persons to whom the Software is
+ *  furnished to do so, subject to the following conditions:
+ *
+ *  The above copyright notice and this permission notice shall be included in all
+ *  copies or substantial portions of the Software.
+ *
+ *  THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ *  IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ *  FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ *  AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ *  LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ *  OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ *  SOFTWARE.
+ */
+
+package me.lucko.spark.api.tick;
+
+/**
+ * A tick which took significantly longer than expected.
+ *
+ * <p>The expected duration is a baseline that continuously adapts to the recent tick durations,
+ * so it follows gradual changes in load (e.g. as players join and leave) and only
+ * sudden spikes are reported.</p>
+ *
+ * <p>All durations are measured in milliseconds.</p>
+ */
+public interface TickAnomaly {
+
+    /**
+     * Gets the duration of the anomalous tick.
+     *
+     * @return the tick duration
+     */
+    double duration();
+
+    /**
+     * Gets the expected duration of the tick, according to the recent baseline.
+     *
+     * @return the expected tick duration
+     */
+    double expectedDuration();
+
+    /**
+     * Gets the standard deviation of recent tick durations around the baseline.
+     *
+     * @return the standard deviation
+     */
+    double standardDeviation();
+
+    /**
+     * Gets the number of standard deviations by which the tick exceeded the baseline.
+     *
+     * @return the anomaly score
+     */
+    double score();
+
+    /**
+     * Gets the time the tick ended, as a unix timestamp in milliseconds.
+     *
+     * @return the timestamp
+     */
+    long timestamp();
+
+}
@@ -26,24 +26,34 @@ import me.lucko.spark.common.activitylog.ActivityLog;
 import me.lucko.spark.common.api.SparkApi;
 import me.lucko.spark.common.command.CommandManager;
 import me.lucko.spark.common.command.sender.CommandSender;
+import me.lucko.spark.common.heapdump.HeapTrendMonitor;
 import me.lucko.spark.common.monitor.cpu.CpuMonitor;
 import me.lucko.spark.common.monitor.memory.GarbageCollectorStatistics;
 import me.lucko.spark.common.monitor.memory.MemoryAllocationInfo;
 import me.lucko.spark.common.monitor.memory.MemoryMonitor;
 import me.lucko.spark.common.monitor.net.NetworkMonitor;
+import me.lucko.spark.common.monitor.openmetrics.OpenMetricsServer;
 import me.lucko.spark.common.monitor.ping.PingStatistics;
 import me.lucko.spark.common.monitor.ping.PlayerPingProvider;
+import me.lucko.spark.common.monitor.tick.GcTickLagCorrelator;
+import me.lucko.spark.common.monitor.tick.LevelTickStatistics;
 import me.lucko.spark.common.monitor.tick.SparkTickStatistics;
+import me.lucko.spark.common.monitor.tick.TickAnomalyDetector;
+import me.lucko.spark.common.monitor.tick.TickPhaseStatistics;
 import me.lucko.spark.common.monitor.tick.TickStatistics;
+import me.lucko.spark.common.monitor.vm.VmMonitor;
+import me.lucko.spark.common.payloadstore.LocalPayloadStore;
 import me.lucko.spark.common.platform.PlatformInfo;
 import me.lucko.spark.common.platform.PlatformStatisticsProvider;
 import me.lucko.spark.common.platform.WorldMetricsCollector;
+import me.lucko.spark.common.sampler.AnomalySamplerTrigger;
 import me.lucko.spark.common.sampler.BackgroundSamplerManager;
 import me.lucko.spark.common.sampler.SamplerContainer;
 import me.lucko.spark.common.sampler.source.ClassSourceLookup;
 import me.lucko.spark.common.tick.TickHook;
 import me.lucko.spark.common.tick.TickReporter;
 import me.lucko.spark.common.util.BytebinClient;
+import me.lucko.spark.common.util.BytebinOutbox;
 import me.lucko.spark.common.util.TemporaryFiles;
 import me.lucko.spark.common.util.TimeUtil;
 import me.lucko.spark.common.util.classfinder.ClassFinder;
@@ -79,14 +89,22 @@ public class SparkPlatform {
     private final BytesocksClient bytesocksClient;
     private final TrustedKeyStore trustedKeyStore;
     private final ActivityLog activityLog;
+    private final BytebinOutbox bytebinOutbox;
     private final SamplerContainer samplerContainer;
     private final BackgroundSamplerManager backgroundSamplerManager;
     private final TickHook tickHook;
     private final TickReporter tickReporter;
     private final TickStatistics tickStatistics;
+    private final LevelTickStatistics levelTickStatistics;
+    private final TickPhaseStatistics tickPhaseStatistics;
+    private final TickAnomalyDetector tickAnomalyDetector;
+    private final GcTickLagCorrelator gcTickLagCorrelator;
     private final PingStatistics pingStatistics;
     private final PlatformStatisticsProvider statisticsProvider;
     private final WorldMetricsCollector worldMetricsCollector;
+    private final HeapTrendMonitor heapTrendMonitor;
+    private final OpenMetricsServer openMetricsServer;
+    private final LocalPayloadStore localPayloadStore;
     private final CommandManager commandManager;
     private final AtomicBoolean enabled = new AtomicBoolean(false);
     private Map<String, GarbageCollectorStatistics> startupGcStatistics = ImmutableMap.of();
@@ -110,12 +128,17 @@ public class SparkPlatform {
         String bytebinUrl = this.configuration.getString("bytebinUrl", "https://spark-usercontent.lucko.me/");
         String bytesocksHost = this.configuration.getString("bytesocksHost", "spark-usersockets.lucko.me");
 
-        this.bytebinClient = new BytebinClient(bytebinUrl, "spark-plugin");
+        // the local payload store replaces bytebin only - its url is resolved once the server is bound in enable()
+        this.localPayloadStore = LocalPayloadStore.createIfEnabled(this, this.configuration);
+        this.bytebinClient = this.localPayloadStore != null
+                ? new BytebinClient(this.localPayloadStore::getUrl, "spark-plugin")
+                : new BytebinClient(bytebinUrl, "spark-plugin");
         this.bytesocksClient = BytesocksClient.create(bytesocksHost, "spark-plugin");
         this.trustedKeyStore = new TrustedKeyStore(this.configuration);
 
         this.activityLog = new ActivityLog(plugin.getPluginDirectory().resolve("activity.json"));
         this.activityLog.load();
+        this.bytebinOutbox = new BytebinOutbox(plugin.getPluginDirectory().resolve("outbox"), this.bytebinClient, this.activityLog, this.viewerUrl, plugin::executeAsync);
 
         this.samplerContainer = new SamplerContainer();
         this.backgroundSamplerManager = new BackgroundSamplerManager(this, this.configuration);
@@ -127,12 +150,28 @@ public class SparkPlatform {
             tickStatistics = new SparkTickStatistics();
         }
         this.tickStatistics = tickStatistics;
+        this.levelTickStatistics = this.tickReporter != null ? new LevelTickStatistics() : null;
+        this.tickPhaseStatistics = this.tickReporter != null && this.configuration.getBoolean("tickPhaseTiming", false)
+                ? new TickPhaseStatistics()
+                : null;
+        this.tickAnomalyDetector = this.tickReporter != null ? new TickAnomalyDetector() : null;
+        if (this.tickAnomalyDetector != null) {
+            AnomalySamplerTrigger anomalySamplerTrigger = new AnomalySamplerTrigger(this, this.configuration);
+            if (anomalySamplerTrigger.isEnabled()) {
+                this.tickAnomalyDetector.addListener(anomalySamplerTrigger);
+            }
+        }
+        this.gcTickLagCorrelator = tickStatistics != null && (this.tickHook != null || this.tickReporter != null)
+                ? new GcTickLagCorrelator(this.tickHook, this.tickReporter, tickStatistics.gameMaxIdealDuration())
+                : null;
 
         PlayerPingProvider pingProvider = plugin.createPlayerPingProvider();
         this.pingStatistics = pingProvider != null ? new PingStatistics(pingProvider) : null;
 
         this.statisticsProvider = new PlatformStatisticsProvider(this);
         this.worldMetricsCollector = new WorldMetricsCollector(this);
+        this.heapTrendMonitor = HeapTrendMonitor.createIfEnabled(this, this.configuration);
+        this.openMetricsServer = OpenMetricsServer.createIfEnabled(this, this.configuration);
 
         this.commandManager = new CommandManager(this, this.configuration);
     }
@@ -148,18 +187,38 @@ public class SparkPlatform {
         }
         if (this.tickReporter != null&& this.tickStatistics instanceof SparkTickStatistics) {
             this.tickReporter.addCallback((TickReporter.Callback) this.tickStatistics);
+            this.tickReporter.addCallback(this.levelTickStatistics);
+            if (this.tickPhaseStatistics != null) {
+                this.tickReporter.addCallback(this.tickPhaseStatistics);
+            }
+            this.tickReporter.addCallback(this.tickAnomalyDetector);
             this.tickReporter.start();
         }
+        if (this.gcTickLagCorrelator != null) {
+            this.gcTickLagCorrelator.start();
+        }
         if (this.pingStatistics != null) {
             this.pingStatistics.start();
         }
 
         this.worldMetricsCollector.start();
+        if (this.heapTrendMonitor != null) {
+            this.heapTrendMonitor.start();
+        }
 
         CpuMonitor.ensureMonitoring();
         MemoryMonitor.ensureMonitoring();
         MemoryAllocationInfo.ensureMonitoring();
         NetworkMonitor.ensureMonitoring();
+        VmMonitor.ensureMonitoring();
+
+        if (this.openMetricsServer != null) {
+            this.openMetricsServer.start();
+        }
+        if (this.localPayloadStore != null) {
+            this.localPayloadStore.start();
+        }
+        this.bytebinOutbox.start();
 
         // poll startup GC statistics after plugins & the world have loaded
         this.plugin.executeAsync(() -> {
@@ -183,10 +242,23 @@ public class SparkPlatform {
         if (this.tickReporter != null) {
             this.tickReporter.close();
         }
+        if (this.gcTickLagCorrelator != null) {
+            this.gcTickLagCorrelator.close();
+        }
         if (this.pingStatistics != null) {
             this.pingStatistics.close();
         }
         this.worldMetricsCollector.close();
+        if (this.heapTrendMonitor != null) {
+            this.heapTrendMonitor.close();
+        }
+        if (this.openMetricsServer != null) {
+            this.openMetricsServer.close();
+        }
+        this.bytebinOutbox.close();
+        if (this.localPayloadStore != null) {
+            this.localPayloadStore.close();
+        }
 
         this.samplerContainer.close();
 
@@ -231,6 +303,10 @@ public class SparkPlatform {
         return this.activityLog;
     }
 
+    public BytebinOutbox getBytebinOutbox() {
+        return this.bytebinOutbox;
+    }
+
     public SamplerContainer getSamplerContainer() {
         return this.samplerContainer;
     }
@@ -263,10 +339,30 @@ public class SparkPlatform {
         return this.tickStatistics;
     }
 
+    public LevelTickStatistics getLevelTickStatistics() {
+        return this.levelTickStatistics;
+    }
+
+    public TickPhaseStatistics getTickPhaseStatistics() {
+        return this.tickPhaseStatistics;
+    }
+
+    public TickAnomalyDetector getTickAnomalyDetector() {
+        return this.tickAnomalyDetector;
+    }
+
+    public GcTickLagCorrelator getGcTickLagCorrelator() {
+        return this.gcTickLagCorrelator;
+    }
+
     public PingStatistics getPingStatistics() {
         return this.pingStatistics;
     }
 
+    public HeapTrendMonitor getHeapTrendMonitor() {
+        return this.heapTrendMonitor;
+    }
+
     public Map<String, GarbageCollectorStatistics> getStartupGcStatistics() {
         return this.startupGcStatistics;
     }
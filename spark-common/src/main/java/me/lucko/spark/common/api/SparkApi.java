@@ -28,9 +28,13 @@ import me.lucko.spark.api.placeholder.PlaceholderResolver;
 import me.lucko.spark.api.statistic.misc.DoubleAverageInfo;
 import me.lucko.spark.api.statistic.types.DoubleStatistic;
 import me.lucko.spark.api.statistic.types.GenericStatistic;
+import me.lucko.spark.api.tick.TickAnomaly;
 import me.lucko.spark.common.SparkPlatform;
 import me.lucko.spark.common.monitor.cpu.CpuMonitor;
+import me.lucko.spark.common.monitor.cpu.PoolCpuTracker;
 import me.lucko.spark.common.monitor.memory.GarbageCollectorStatistics;
+import me.lucko.spark.common.monitor.tick.LevelTickStatistics;
+import me.lucko.spark.common.monitor.tick.TickAnomalyDetector;
 import me.lucko.spark.common.monitor.tick.TickStatistics;
 import me.lucko.spark.common.util.SparkPlaceholder;
 import me.lucko.spark.common.util.TimeUtil;
@@ -38,8 +42,10 @@ import org.jspecify.annotations.NonNull;
 import org.jspecify.annotations.Nullable;
 
 import java.lang.reflect.Method;
+import java.util.Collections;
 import java.util.HashMap;
 import java.util.Map;
+import java.util.function.Consumer;
 
 import static me.lucko.spark.api.statistic.StatisticWindow.CpuUsage;
 import static me.lucko.spark.api.statistic.StatisticWindow.MillisPerTick;
@@ -105,6 +111,36 @@ public class SparkApi implements Spark {
         };
     }
 
+    @Override
+    public @NonNull Map<String, DoubleStatistic<CpuUsage>> cpuThreadPools() {
+        PoolCpuTracker tracker = CpuMonitor.getPoolCpuTracker();
+        if (tracker == null) {
+            return Collections.emptyMap();
+        }
+
+        Map<String, DoubleStatistic<CpuUsage>> map = new HashMap<>();
+        for (PoolCpuTracker.PoolCpuUsage pool : tracker.getPools()) {
+            map.put(pool.name(), new AbstractStatistic.Double<CpuUsage>(
+                    "CPU Usage (" + pool.name() + ")", CpuUsage.class
+            ) {
+                @Override
+                public double poll(@NonNull CpuUsage window) {
+                    switch (window) {
+                        case SECONDS_10:
+                            return pool.cores10Sec();
+                        case MINUTES_1:
+                            return pool.cores1Min();
+                        case MINUTES_15:
+                            return pool.cores15Min();
+                        default:
+                            throw new AssertionError(window);
+                    }
+                }
+            });
+        }
+        return ImmutableMap.copyOf(map);
+    }
+
     @Override
     public @Nullable DoubleStatistic<TicksPerSecond> tps() {
         TickStatistics stats = this.platform.getTickStatistics();
@@ -161,6 +197,53 @@ public class SparkApi implements Spark {
         };
     }
 
+    @Override
+    public @NonNull Map<String, GenericStatistic<DoubleAverageInfo, MillisPerTick>> msptPerWorld() {
+        LevelTickStatistics levelStats = this.platform.getLevelTickStatistics();
+        if (levelStats == null) {
+            return Collections.emptyMap();
+        }
+
+        Map<String, GenericStatistic<DoubleAverageInfo, MillisPerTick>> map = new HashMap<>();
+        for (Map.Entry<String, LevelTickStatistics.LevelDurations> entry : levelStats.getLevels().entrySet()) {
+            LevelTickStatistics.LevelDurations stats = entry.getValue();
+            map.put(entry.getKey(), new AbstractStatistic.Generic<DoubleAverageInfo, MillisPerTick>(
+                    "Milliseconds Per Tick (" + entry.getKey() + ")", DoubleAverageInfo.class, MillisPerTick.class
+            ) {
+                @Override
+                public @NonNull DoubleAverageInfo poll(@NonNull MillisPerTick window) {
+                    switch (window) {
+                        case SECONDS_10:
+                            return stats.duration10Sec();
+                        case MINUTES_1:
+                            return stats.duration1Min();
+                        case MINUTES_5:
+                            return stats.duration5Min();
+                        default:
+                            throw new AssertionError(window);
+                    }
+                }
+            });
+        }
+        return ImmutableMap.copyOf(map);
+    }
+
+    @Override
+    public void addTickAnomalyListener(@NonNull Consumer<? super TickAnomaly> listener) {
+        TickAnomalyDetector detector = this.platform.getTickAnomalyDetector();
+        if (detector != null) {
+            detector.addListener(listener);
+        }
+    }
+
+    @Override
+    public void removeTickAnomalyListener(@NonNull Consumer<? super TickAnomaly> listener) {
+        TickAnomalyDetector detector = this.platform.getTickAnomalyDetector();
+        if (detector != null) {
+            detector.removeListener(listener);
+        }
+    }
+
     @Override
     public @NonNull Map<String, GarbageCollector> gc() {
         long serverUptime = TimeUtil.monotonicCurrentTimeMillis() - this.platform.getServerNormalOperationStartTime();
@@ -31,12 +31,17 @@ import me.lucko.spark.common.command.sender.CommandSender;
 import me.lucko.spark.common.command.tabcomplete.CompletionSupplier;
 import me.lucko.spark.common.command.tabcomplete.TabCompleter;
 import me.lucko.spark.common.monitor.cpu.CpuMonitor;
+import me.lucko.spark.common.monitor.cpu.PoolCpuTracker;
 import me.lucko.spark.common.monitor.disk.DiskUsage;
+import me.lucko.spark.common.monitor.memory.MemoryAllocationInfo;
+import me.lucko.spark.common.monitor.memory.NativeMemoryInfo;
+import me.lucko.spark.common.monitor.memory.PoolAllocationTracker;
 import me.lucko.spark.common.monitor.net.Direction;
 import me.lucko.spark.common.monitor.net.NetworkInterfaceAverages;
 import me.lucko.spark.common.monitor.net.NetworkMonitor;
 import me.lucko.spark.common.monitor.ping.PingStatistics;
 import me.lucko.spark.common.monitor.ping.PingSummary;
+import me.lucko.spark.common.monitor.tick.GcTickLagCorrelator;
 import me.lucko.spark.common.monitor.tick.TickStatistics;
 import me.lucko.spark.common.platform.SparkMetadata;
 import me.lucko.spark.common.sampler.Sampler;
@@ -47,6 +52,7 @@ import me.lucko.spark.common.util.StatisticFormatter;
 import me.lucko.spark.common.ws.HealthReportViewerSocket;
 import me.lucko.spark.proto.SparkProtos;
 import net.kyori.adventure.text.Component;
+import net.kyori.adventure.text.TextComponent;
 import net.kyori.adventure.text.event.ClickEvent;
 
 import java.lang.management.ManagementFactory;
@@ -54,9 +60,11 @@ import java.lang.management.MemoryMXBean;
 import java.lang.management.MemoryPoolMXBean;
 import java.lang.management.MemoryType;
 import java.lang.management.MemoryUsage;
+import java.time.Duration;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collections;
+import java.util.Comparator;
 import java.util.LinkedList;
 import java.util.List;
 import java.util.Locale;
@@ -74,6 +82,7 @@ import static net.kyori.adventure.text.format.NamedTextColor.GRAY;
 import static net.kyori.adventure.text.format.NamedTextColor.GREEN;
 import static net.kyori.adventure.text.format.NamedTextColor.RED;
 import static net.kyori.adventure.text.format.NamedTextColor.WHITE;
+import static net.kyori.adventure.text.format.NamedTextColor.YELLOW;
 import static net.kyori.adventure.text.format.TextDecoration.BOLD;
 
 public class HealthModule implements CommandModule {
@@ -233,7 +242,13 @@ public class HealthModule implements CommandModule {
             addTickStats(report, tickStatistics);
         }
 
+        GcTickLagCorrelator gcTickLagCorrelator = platform.getGcTickLagCorrelator();
+        if (gcTickLagCorrelator != null) {
+            addGcTickLagStats(report, gcTickLagCorrelator);
+        }
+
         addCpuStats(report);
+        addPoolCpuStats(report);
 
         MemoryMXBean memoryMXBean = ManagementFactory.getMemoryMXBean();
         addBasicMemoryStats(report, memoryMXBean);
@@ -332,6 +347,54 @@ public class HealthModule implements CommandModule {
         }
     }
 
+    private static void addGcTickLagStats(List<Component> report, GcTickLagCorrelator correlator) {
+        GcTickLagCorrelator.Summary lastHour = correlator.summarise(Duration.ofHours(1));
+        if (lastHour.tickOverrunMillis() == 0) {
+            return;
+        }
+
+        report.add(text()
+                .append(text(">", DARK_GRAY, BOLD))
+                .append(space())
+                .append(text("Tick overrun caused by GC from last 1m, 15m, 1h:", GOLD))
+                .build()
+        );
+        report.add(text()
+                .content("    ")
+                .append(formatGcTickLag(correlator.summarise(Duration.ofMinutes(1)))).append(text(", "))
+                .append(formatGcTickLag(correlator.summarise(Duration.ofMinutes(15)))).append(text(", "))
+                .append(formatGcTickLag(lastHour))
+                .build()
+        );
+        report.add(text()
+                .color(GRAY)
+                .content("    ")
+                .append(text(String.format(Locale.ENGLISH, "%,.0fms", lastHour.totalLagMillis()), WHITE))
+                .append(text(" of "))
+                .append(text(String.format(Locale.ENGLISH, "%,.0fms", lastHour.tickOverrunMillis()), WHITE))
+                .append(text(" overrun: "))
+                .append(text(String.format(Locale.ENGLISH, "%,.0fms", lastHour.lagMillis(GcTickLagCorrelator.GcType.YOUNG)), WHITE))
+                .append(text(" young, "))
+                .append(text(String.format(Locale.ENGLISH, "%,.0fms", lastHour.lagMillis(GcTickLagCorrelator.GcType.OLD)), WHITE))
+                .append(text(" old, "))
+                .append(text(String.format(Locale.ENGLISH, "%,.0fms", lastHour.lagMillis(GcTickLagCorrelator.GcType.CONCURRENT)), WHITE))
+                .append(text(" concurrent"))
+                .append(text("  (last 1h)", DARK_GRAY))
+                .build()
+        );
+        report.add(empty());
+    }
+
+    private static Component formatGcTickLag(GcTickLagCorrelator.Summary summary) {
+        double overrun = summary.tickOverrunMillis();
+        if (overrun == 0) {
+            return text("-", GRAY);
+        }
+
+        double fraction = summary.totalLagMillis() / overrun;
+        return text(FormatUtil.percent(fraction, 1d), fraction > 0.5 ? RED : fraction > 0.2 ? YELLOW : GREEN);
+    }
+
     private static void addCpuStats(List<Component> report) {
         report.add(text()
                 .append(text(">", DARK_GRAY, BOLD))
@@ -358,6 +421,36 @@ public class HealthModule implements CommandModule {
         report.add(empty());
     }
 
+    private static void addPoolCpuStats(List<Component> report) {
+        PoolCpuTracker tracker = CpuMonitor.getPoolCpuTracker();
+        if (tracker == null) {
+            return;
+        }
+
+        List<PoolCpuTracker.PoolCpuUsage> pools = tracker.getPools();
+        if (pools.isEmpty()) {
+            return;
+        }
+
+        report.add(text()
+                .append(text(">", DARK_GRAY, BOLD))
+                .append(space())
+                .append(text("CPU cores used by thread pool from last 10s, 1m, 15m:", GOLD))
+                .build()
+        );
+        for (PoolCpuTracker.PoolCpuUsage pool : pools.subList(0, Math.min(pools.size(), 8))) {
+            report.add(text()
+                    .content("    ")
+                    .append(StatisticFormatter.formatCpuCores(pool.cores10Sec(), pool.threads())).append(text(", "))
+                    .append(StatisticFormatter.formatCpuCores(pool.cores1Min(), pool.threads())).append(text(", "))
+                    .append(StatisticFormatter.formatCpuCores(pool.cores15Min(), pool.threads()))
+                    .append(text("  (" + pool.name() + (pool.threads() > 1 ? " x" + pool.threads() : "") + ")", DARK_GRAY))
+                    .build()
+            );
+        }
+        report.add(empty());
+    }
+
     private static void addBasicMemoryStats(List<Component> report, MemoryMXBean memoryMXBean) {
         MemoryUsage heapUsage = memoryMXBean.getHeapMemoryUsage();
         report.add(text()
@@ -445,6 +538,110 @@ public class HealthModule implements CommandModule {
             }
             report.add(empty());
         }
+
+        addNativeMemoryStats(report);
+        addPoolAllocationStats(report);
+    }
+
+    private static void addPoolAllocationStats(List<Component> report) {
+        PoolAllocationTracker tracker = MemoryAllocationInfo.getPoolAllocationTracker();
+        if (tracker == null) {
+            return;
+        }
+
+        List<PoolAllocationTracker.PoolAllocation> pools = tracker.getPools();
+        if (pools.isEmpty()) {
+            return;
+        }
+
+        report.add(text()
+                .append(text(">", DARK_GRAY, BOLD))
+                .append(space())
+                .append(text("Allocation rate by thread pool (last 1m, 5m):", GOLD))
+                .build()
+        );
+        for (PoolAllocationTracker.PoolAllocation pool : pools.subList(0, Math.min(pools.size(), 8))) {
+            report.add(text()
+                    .content("    ")
+                    .append(text(pool.name() + (pool.threads() > 1 ? " (x" + pool.threads() + ")" : "") + ":", GRAY))
+                    .append(space())
+                    .append(FormatUtil.formatBytes((long) pool.bytesPerSecond1Min(), WHITE, "/s"))
+                    .append(text(", ", GRAY))
+                    .append(FormatUtil.formatBytes((long) pool.bytesPerSecond5Min(), WHITE, "/s"))
+                    .build()
+            );
+        }
+        report.add(empty());
+    }
+
+    private static void addNativeMemoryStats(List<Component> report) {
+        NativeMemoryInfo info = NativeMemoryInfo.poll(true);
+
+        report.add(text()
+                .append(text(">", DARK_GRAY, BOLD))
+                .append(space())
+                .append(text("Native memory usage:", GOLD))
+                .build()
+        );
+
+        if (info.getRss() != -1) {
+            report.add(formatNativeMemoryLine("Resident (RSS)", info.getRss(), text()
+                    .append(text("(", GRAY))
+                    .append(text(FormatUtil.formatBytes(info.getRssAnonymous()), WHITE))
+                    .append(text(" anon, ", GRAY))
+                    .append(text(FormatUtil.formatBytes(info.getRssFile()), WHITE))
+                    .append(text(" file)", GRAY))
+                    .build()
+            ));
+        }
+
+        NativeMemoryInfo.BufferPool directBuffers = info.getDirectBuffers();
+        if (directBuffers != null) {
+            report.add(formatNativeMemoryLine("Direct buffers", directBuffers.getUsed(), text("(" + directBuffers.getCount() + " buffers)", GRAY)));
+        }
+        NativeMemoryInfo.BufferPool mappedBuffers = info.getMappedBuffers();
+        if (mappedBuffers != null) {
+            report.add(formatNativeMemoryLine("Mapped buffers", mappedBuffers.getUsed(), text("(" + mappedBuffers.getCount() + " buffers)", GRAY)));
+        }
+        if (info.getMetaspace() != null) {
+            report.add(formatNativeMemoryLine("Metaspace", info.getMetaspace().getUsed(), null));
+        }
+        if (info.getCompressedClassSpace() != null) {
+            report.add(formatNativeMemoryLine("Class space", info.getCompressedClassSpace().getUsed(), null));
+        }
+        if (info.getCodeCache() != null) {
+            report.add(formatNativeMemoryLine("Code cache", info.getCodeCache().getUsed(), null));
+        }
+        report.add(empty());
+
+        Map<String, NativeMemoryInfo.NmtCategory> nmt = info.getNativeMemoryTracking();
+        if (!nmt.isEmpty()) {
+            report.add(text()
+                    .append(text(">", DARK_GRAY, BOLD))
+                    .append(space())
+                    .append(text("Native memory tracking (committed):", GOLD))
+                    .build()
+            );
+
+            List<Map.Entry<String, NativeMemoryInfo.NmtCategory>> categories = new ArrayList<>(nmt.entrySet());
+            categories.sort(Map.Entry.comparingByValue(Comparator.comparingLong(NativeMemoryInfo.NmtCategory::getCommitted).reversed()));
+            for (Map.Entry<String, NativeMemoryInfo.NmtCategory> category : categories.subList(0, Math.min(10, categories.size()))) {
+                report.add(formatNativeMemoryLine(category.getKey(), category.getValue().getCommitted(), null));
+            }
+            report.add(empty());
+        }
+    }
+
+    private static Component formatNativeMemoryLine(String name, long bytes, Component extra) {
+        TextComponent.Builder line = text()
+                .content("    ")
+                .append(text(name + ":", GRAY))
+                .append(space())
+                .append(text(FormatUtil.formatBytes(bytes), WHITE));
+        if (extra != null) {
+            line.append(text("   ")).append(extra);
+        }
+        return line.build();
     }
 
     private static void addNetworkStats(List<Component> report, boolean detailed) {
@@ -30,6 +30,9 @@ import me.lucko.spark.common.command.sender.CommandSender;
 import me.lucko.spark.common.command.tabcomplete.TabCompleter;
 import me.lucko.spark.common.heapdump.HeapDump;
 import me.lucko.spark.common.heapdump.HeapDumpSummary;
+import me.lucko.spark.common.heapdump.analysis.HeapAnalysis;
+import me.lucko.spark.common.heapdump.analysis.HprofRedactor;
+import me.lucko.spark.common.util.BytebinClient;
 import me.lucko.spark.common.util.Compression;
 import me.lucko.spark.common.util.FormatUtil;
 import me.lucko.spark.common.util.MediaTypes;
@@ -37,13 +40,16 @@ import me.lucko.spark.proto.SparkHeapProtos;
 import net.kyori.adventure.text.event.ClickEvent;
 
 import java.io.IOException;
+import java.io.OutputStream;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.util.Iterator;
+import java.util.Set;
 import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicLong;
 import java.util.function.Consumer;
 import java.util.function.LongConsumer;
+import java.util.function.Predicate;
 import java.util.logging.Level;
 
 import static net.kyori.adventure.text.Component.text;
@@ -51,6 +57,7 @@ import static net.kyori.adventure.text.format.NamedTextColor.GOLD;
 import static net.kyori.adventure.text.format.NamedTextColor.GRAY;
 import static net.kyori.adventure.text.format.NamedTextColor.GREEN;
 import static net.kyori.adventure.text.format.NamedTextColor.RED;
+import static net.kyori.adventure.text.format.NamedTextColor.YELLOW;
 
 public class HeapAnalysisModule implements CommandModule {
 
@@ -67,8 +74,10 @@ public class HeapAnalysisModule implements CommandModule {
         consumer.accept(Command.builder()
                 .aliases("heapdump")
                 .argumentUsage("compress", "type")
+                .argumentUsage("redact", null)
+                .argumentUsage("redact-fields", "class or package")
                 .executor(HeapAnalysisModule::heapDump)
-                .tabCompleter((platform, sender, arguments) -> TabCompleter.completeForOpts(arguments, "--compress", "--run-gc-before", "--include-non-live"))
+                .tabCompleter((platform, sender, arguments) -> TabCompleter.completeForOpts(arguments, "--compress", "--run-gc-before", "--include-non-live", "--analyse", "--redact", "--redact-truncate", "--redact-fields", "--delete-original"))
                 .build()
         );
     }
@@ -93,6 +102,7 @@ public class HeapAnalysisModule implements CommandModule {
         SparkHeapProtos.HeapData output = heapDump.toProto(platform, resp.senderData());
 
         boolean saveToFile = false;
+        boolean retryUpload = false;
         if (arguments.boolFlag("save-to-file")) {
             saveToFile = true;
         } else {
@@ -113,6 +123,7 @@ public class HeapAnalysisModule implements CommandModule {
                 resp.broadcastPrefixed(text("An error occurred whilst uploading the data. Attempting to save to disk instead.", RED));
                 platform.getPlugin().log(Level.SEVERE, "An error occurred whilst uploading the data.", e);
                 saveToFile = true;
+                retryUpload = e instanceof BytebinClient.TransientUploadException;
             }
         }
 
@@ -130,6 +141,10 @@ public class HeapAnalysisModule implements CommandModule {
                 resp.broadcastPrefixed(text("You can read the heap dump summary file using the viewer web-app - " + platform.getViewerUrl(), GRAY));
 
                 platform.getActivityLog().addToLog(Activity.fileActivity(resp.senderData(), System.currentTimeMillis(), "Heap dump summary", file.toString()));
+
+                if (retryUpload && platform.getBytebinOutbox().add(file, MediaTypes.SPARK_HEAP_MEDIA_TYPE, resp.senderData(), "Heap dump summary")) {
+                    resp.broadcastPrefixed(text("The upload will be retried in the background, and the link added to the activity log when it completes.", GRAY));
+                }
             } catch (IOException e) {
                 resp.broadcastPrefixed(text("An error occurred whilst saving the data.", RED));
                 platform.getPlugin().log(Level.SEVERE, "An error occurred whilst saving the data.", e);
@@ -139,9 +154,38 @@ public class HeapAnalysisModule implements CommandModule {
     }
 
     private static void heapDump(SparkPlatform platform, CommandSender sender, CommandResponseHandler resp, Arguments arguments) {
-        Path file = platform.resolveSaveFile("heap", HeapDump.isOpenJ9() ? "phd" : "hprof");
+        Compression compressionMethod = null;
+        Iterator<String> compressArgs = arguments.stringFlag("compress").iterator();
+        if (compressArgs.hasNext()) {
+            try {
+                compressionMethod = Compression.valueOf(compressArgs.next().toUpperCase());
+            } catch (IllegalArgumentException e) {
+                // ignore
+            }
+        }
 
+        boolean analyse = arguments.boolFlag("analyse");
         boolean liveOnly = !arguments.boolFlag("include-non-live");
+        boolean deleteOriginal = arguments.boolFlag("delete-original");
+
+        HprofRedactor.Mode redactMode = null;
+        if (arguments.boolFlag("redact-truncate")) {
+            redactMode = HprofRedactor.Mode.TRUNCATE;
+        } else if (arguments.boolFlag("redact") || arguments.boolFlag("redact-fields")) {
+            redactMode = HprofRedactor.Mode.ZERO;
+        }
+        Set<String> redactFields = arguments.stringFlag("redact-fields");
+
+        if (redactMode != null && HeapDump.isOpenJ9()) {
+            resp.broadcastPrefixed(text("Heap dump redaction is not supported on OpenJ9.", RED));
+            return;
+        }
+
+        // if possible, get the JVM to compress the dump as it is written, so the uncompressed
+        // dump never touches the disk. (the analyser and redactor need the uncompressed dump though)
+        boolean compressDirectly = compressionMethod != null && !analyse && redactMode == null && HeapDump.isCompressedDumpSupported();
+
+        Path file = platform.resolveSaveFile("heap", HeapDump.isOpenJ9() ? "phd" : compressDirectly ? "hprof.gz" : "hprof");
 
         if (arguments.boolFlag("run-gc-before")) {
             resp.broadcastPrefixed(text("Running garbage collector..."));
@@ -151,7 +195,11 @@ public class HeapAnalysisModule implements CommandModule {
         resp.broadcastPrefixed(text("Creating a new heap dump, please wait..."));
 
         try {
-            HeapDump.dumpHeap(file, liveOnly);
+            if (compressDirectly) {
+                HeapDump.dumpHeapCompressed(file, liveOnly, compressionMethod.getGzipLevel());
+            } else {
+                HeapDump.dumpHeap(file, liveOnly);
+            }
         } catch (Exception e) {
             resp.broadcastPrefixed(text("An error occurred whilst creating a heap dump.", RED));
             platform.getPlugin().log(Level.SEVERE, "An error occurred whilst creating a heap dump.", e);
@@ -164,55 +212,156 @@ public class HeapAnalysisModule implements CommandModule {
                 .append(text(file.toString(), GRAY))
                 .build()
         );
-        platform.getActivityLog().addToLog(Activity.fileActivity(resp.senderData(), System.currentTimeMillis(), "Heap dump", file.toString()));
 
-
-        Compression compressionMethod = null;
-        Iterator<String> compressArgs = arguments.stringFlag("compress").iterator();
-        if (compressArgs.hasNext()) {
-            try {
-                compressionMethod = Compression.valueOf(compressArgs.next().toUpperCase());
-            } catch (IllegalArgumentException e) {
-                // ignore
+        if (analyse) {
+            if (HeapDump.isOpenJ9()) {
+                resp.broadcastPrefixed(text("Heap dump analysis is not supported on OpenJ9.", RED));
+            } else {
+                heapDumpAnalyse(platform, resp, file);
             }
         }
 
-        if (compressionMethod != null) {
+        if (redactMode != null) {
+            try {
+                file = heapDumpRedact(platform, resp, file, redactMode, redactFields, compressionMethod, deleteOriginal);
+            } catch (IOException e) {
+                resp.broadcastPrefixed(text("An error occurred whilst redacting the heap dump.", RED));
+                platform.getPlugin().log(Level.SEVERE, "An error occurred whilst redacting the heap dump.", e);
+            }
+        } else if (compressionMethod != null && !compressDirectly) {
             try {
-                heapDumpCompress(platform, resp, file, compressionMethod);
+                file = heapDumpCompress(platform, resp, file, compressionMethod, deleteOriginal);
             } catch (IOException e) {
                 platform.getPlugin().log(Level.SEVERE, "An error occurred whilst compressing the heap dump.", e);
             }
         }
+
+        platform.getActivityLog().addToLog(Activity.fileActivity(resp.senderData(), System.currentTimeMillis(), "Heap dump", file.toString()));
     }
 
-    private static void heapDumpCompress(SparkPlatform platform, CommandResponseHandler resp, Path file, Compression method) throws IOException {
-        resp.broadcastPrefixed(text("Compressing heap dump, please wait..."));
+    private static void heapDumpAnalyse(SparkPlatform platform, CommandResponseHandler resp, Path file) {
+        resp.broadcastPrefixed(text("Analysing heap dump, please wait..."));
 
-        long size = Files.size(file);
-        AtomicLong lastReport = new AtomicLong(System.nanoTime());
+        HeapAnalysis analysis;
+        try {
+            analysis = HeapAnalysis.analyse(file, platform.getTemporaryFiles(), message -> resp.broadcastPrefixed(text(message, GRAY)));
+        } catch (Exception e) {
+            resp.broadcastPrefixed(text("An error occurred whilst analysing the heap dump.", RED));
+            platform.getPlugin().log(Level.SEVERE, "An error occurred whilst analysing the heap dump.", e);
+            return;
+        }
 
-        LongConsumer progressHandler = progress -> {
-            long timeNow = System.nanoTime();
-            long timeSinceLastReport = timeNow - lastReport.get();
-            if (timeSinceLastReport > TimeUnit.SECONDS.toNanos(5)) {
-                lastReport.set(timeNow);
+        resp.broadcastPrefixed(text()
+                .color(GRAY)
+                .append(text("Analysis complete: "))
+                .append(text(analysis.getReachableObjects(), GOLD))
+                .append(text(" reachable objects, retaining "))
+                .append(text(FormatUtil.formatBytes(analysis.getReachableSize()), GOLD))
+                .build()
+        );
 
-                platform.getPlugin().executeAsync(() -> {
-                    resp.broadcastPrefixed(text()
-                            .color(GRAY)
-                            .append(text("Compressed "))
-                            .append(text(FormatUtil.formatBytes(progress), GOLD))
-                            .append(text(" / "))
-                            .append(text(FormatUtil.formatBytes(size), GOLD))
-                            .append(text(" so far... ("))
-                            .append(text(FormatUtil.percent(progress, size), GREEN))
-                            .append(text(")"))
-                            .build()
-                    );
-                });
+        SparkHeapProtos.HeapData output = analysis.toProto(platform, resp.senderData());
+
+        try {
+            String key = platform.getBytebinClient().postContent(output, MediaTypes.SPARK_HEAP_MEDIA_TYPE).key();
+            String url = platform.getViewerUrl() + key;
+
+            resp.broadcastPrefixed(text("Heap dump analysis output:", GOLD));
+            resp.broadcast(text()
+                    .content(url)
+                    .color(GRAY)
+                    .clickEvent(ClickEvent.openUrl(url))
+                    .build()
+            );
+
+            platform.getActivityLog().addToLog(Activity.urlActivity(resp.senderData(), System.currentTimeMillis(), "Heap dump analysis", url));
+        } catch (Exception e) {
+            resp.broadcastPrefixed(text("An error occurred whilst uploading the data. Attempting to save to disk instead.", RED));
+            platform.getPlugin().log(Level.SEVERE, "An error occurred whilst uploading the data.", e);
+
+            Path analysisFile = platform.resolveSaveFile("heapanalysis", "sparkheap");
+            try {
+                Files.write(analysisFile, output.toByteArray());
+
+                resp.broadcastPrefixed(text()
+                        .content("Heap dump analysis written to: ")
+                        .color(GOLD)
+                        .append(text(analysisFile.toString(), GRAY))
+                        .build()
+                );
+                platform.getActivityLog().addToLog(Activity.fileActivity(resp.senderData(), System.currentTimeMillis(), "Heap dump analysis", analysisFile.toString()));
+
+                if (e instanceof BytebinClient.TransientUploadException && platform.getBytebinOutbox().add(analysisFile, MediaTypes.SPARK_HEAP_MEDIA_TYPE, resp.senderData(), "Heap dump analysis")) {
+                    resp.broadcastPrefixed(text("The upload will be retried in the background, and the link added to the activity log when it completes.", GRAY));
+                }
+            } catch (IOException ex) {
+                resp.broadcastPrefixed(text("An error occurred whilst saving the data.", RED));
+                platform.getPlugin().log(Level.SEVERE, "An error occurred whilst saving the data.", ex);
             }
-        };
+        }
+    }
+
+    private static Path heapDumpRedact(SparkPlatform platform, CommandResponseHandler resp, Path file, HprofRedactor.Mode mode, Set<String> fields, Compression compression, boolean deleteOriginal) throws IOException {
+        resp.broadcastPrefixed(text("Redacting heap dump, please wait..."));
+
+        // classes can be matched by name, or by package
+        Predicate<String> fieldFilter = null;
+        if (!fields.isEmpty()) {
+            fieldFilter = name -> fields.stream().anyMatch(f -> name.equals(f) || name.startsWith(f.endsWith(".") ? f : f + "."));
+        }
+
+        String fileName = file.getFileName().toString();
+        fileName = fileName.substring(0, fileName.length() - ".hprof".length()) + "-redacted.hprof";
+        if (compression != null) {
+            fileName += "." + compression.getFileExtension();
+        }
+        Path redactedFile = file.resolveSibling(fileName);
+
+        long size = Files.size(file);
+        LongConsumer progressHandler = progressReporter(platform, resp, "Redacted", size);
+
+        // the redacted dump is piped straight into the compressor, if there is one
+        try (OutputStream out = compression != null ? compression.compress(Files.newOutputStream(redactedFile)) : Files.newOutputStream(redactedFile)) {
+            HprofRedactor.redact(file, out, mode, fieldFilter, progressHandler);
+        } catch (IOException e) {
+            Files.deleteIfExists(redactedFile);
+            throw e;
+        }
+        long redactedSize = Files.size(redactedFile);
+
+        resp.broadcastPrefixed(text()
+                .color(GRAY)
+                .append(text("Redaction complete: "))
+                .append(text(FormatUtil.formatBytes(size), GOLD))
+                .append(text(" --> "))
+                .append(text(FormatUtil.formatBytes(redactedSize), GOLD))
+                .append(text(" ("))
+                .append(text(FormatUtil.percent(redactedSize, size), GREEN))
+                .append(text(")"))
+                .build()
+        );
+
+        resp.broadcastPrefixed(text()
+                .content("Redacted heap dump written to: ")
+                .color(GOLD)
+                .append(text(redactedFile.toString(), GRAY))
+                .build()
+        );
+
+        if (deleteOriginal) {
+            Files.delete(file);
+            resp.broadcastPrefixed(text("Deleted the unredacted heap dump (--delete-original): " + file, GRAY));
+        } else {
+            resp.broadcastPrefixed(text("The unredacted heap dump has been kept and still contains sensitive data, use --delete-original to remove it automatically.", YELLOW));
+        }
+        return redactedFile;
+    }
+
+    private static Path heapDumpCompress(SparkPlatform platform, CommandResponseHandler resp, Path file, Compression method, boolean deleteOriginal) throws IOException {
+        resp.broadcastPrefixed(text("Compressing heap dump, please wait..."));
+
+        long size = Files.size(file);
+        LongConsumer progressHandler = progressReporter(platform, resp, "Compressed", size);
 
         Path compressedFile = method.compress(file, progressHandler);
         long compressedSize = Files.size(compressedFile);
@@ -235,6 +384,40 @@ public class HeapAnalysisModule implements CommandModule {
                 .append(text(compressedFile.toString(), GRAY))
                 .build()
         );
+
+        if (deleteOriginal) {
+            Files.delete(file);
+            resp.broadcastPrefixed(text("Deleted the uncompressed heap dump (--delete-original): " + file, GRAY));
+        } else {
+            resp.broadcastPrefixed(text("The uncompressed heap dump has been kept, use --delete-original to remove it automatically.", GRAY));
+        }
+        return compressedFile;
+    }
+
+    // periodically reports how much of the file has been processed, e.g. "Compressed x / y so far..."
+    private static LongConsumer progressReporter(SparkPlatform platform, CommandResponseHandler resp, String verb, long size) {
+        AtomicLong lastReport = new AtomicLong(System.nanoTime());
+        return progress -> {
+            long timeNow = System.nanoTime();
+            long timeSinceLastReport = timeNow - lastReport.get();
+            if (timeSinceLastReport > TimeUnit.SECONDS.toNanos(5)) {
+                lastReport.set(timeNow);
+
+                platform.getPlugin().executeAsync(() -> {
+                    resp.broadcastPrefixed(text()
+                            .color(GRAY)
+                            .append(text(verb + " "))
+                            .append(text(FormatUtil.formatBytes(progress), GOLD))
+                            .append(text(" / "))
+                            .append(text(FormatUtil.formatBytes(size), GOLD))
+                            .append(text(" so far... ("))
+                            .append(text(FormatUtil.percent(progress, size), GREEN))
+                            .append(text(")"))
+                            .build()
+                    );
+                });
+            }
+        };
     }
 
 }
@@ -31,6 +31,7 @@ import me.lucko.spark.common.command.CommandResponseHandler;
 import me.lucko.spark.common.command.sender.CommandSender;
 import me.lucko.spark.common.command.tabcomplete.CompletionSupplier;
 import me.lucko.spark.common.command.tabcomplete.TabCompleter;
+import me.lucko.spark.common.sampler.ExportProgress;
 import me.lucko.spark.common.sampler.Sampler;
 import me.lucko.spark.common.sampler.SamplerBuilder;
 import me.lucko.spark.common.sampler.SamplerMode;
@@ -40,12 +41,13 @@ import me.lucko.spark.common.sampler.async.AsyncSampler;
 import me.lucko.spark.common.sampler.java.MergeStrategy;
 import me.lucko.spark.common.sampler.source.ClassSourceLookup;
 import me.lucko.spark.common.tick.TickHook;
+import me.lucko.spark.common.util.BytebinClient;
 import me.lucko.spark.common.util.FormatUtil;
 import me.lucko.spark.common.util.MediaTypes;
+import me.lucko.spark.common.util.SparkThreadFactory;
 import me.lucko.spark.common.util.TimeUtil;
 import me.lucko.spark.common.ws.SamplerViewerSocket;
 import me.lucko.spark.common.ws.ViewerSocket;
-import me.lucko.spark.proto.SparkSamplerProtos;
 import net.kyori.adventure.text.Component;
 import net.kyori.adventure.text.event.ClickEvent;
 
@@ -57,7 +59,11 @@ import java.util.Arrays;
 import java.util.Collections;
 import java.util.List;
 import java.util.Set;
+import java.util.concurrent.CancellationException;
 import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
 import java.util.concurrent.TimeUnit;
 import java.util.function.Consumer;
 import java.util.function.Supplier;
@@ -74,6 +80,22 @@ import static net.kyori.adventure.text.format.NamedTextColor.WHITE;
 
 public class SamplerModule implements CommandModule {
 
+    /** The prune threshold used when an export is retried with reduced detail, see {@link Sampler.ExportProps#pruneThreshold(double)} */
+    private static final double REDUCED_DETAIL_PRUNE_THRESHOLD = 0.001;
+
+    /** The executor used to export profiler results, so that they aren't exported whilst holding the command lock */
+    private final ExecutorService exportExecutor = Executors.newSingleThreadExecutor(new SparkThreadFactory("spark-profiler-export", true));
+    /** The exports which are queued or in progress */
+    private final Set<ExportProgress> exports = ConcurrentHashMap.newKeySet();
+
+    @Override
+    public void close() {
+        for (ExportProgress progress : this.exports) {
+            progress.cancel();
+        }
+        this.exportExecutor.shutdownNow();
+    }
+
     @Override
     public void registerCommands(Consumer<Command> consumer) {
         consumer.accept(Command.builder()
@@ -89,6 +111,7 @@ public class SamplerModule implements CommandModule {
                 .argumentUsage("start", "alloc", null)
                 .argumentUsage("stop", "", null)
                 .argumentUsage("cancel", "", null)
+                .argumentUsage("cancel", "export", null)
                 .executor(this::profiler)
                 .tabCompleter((platform, sender, arguments) -> {
                     List<String> opts = Collections.emptyList();
@@ -105,6 +128,10 @@ public class SamplerModule implements CommandModule {
                             opts.removeAll(arguments);
                             opts.add("--thread"); // allowed multiple times
                         }
+                        if (subCommand.equals("cancel")) {
+                            opts = new ArrayList<>(Collections.singletonList("--export"));
+                            opts.removeAll(arguments);
+                        }
                     }
 
                     return TabCompleter.create()
@@ -135,7 +162,7 @@ public class SamplerModule implements CommandModule {
         }
 
         if (subCommand.equals("cancel") || arguments.boolFlag("cancel")) {
-            profilerCancel(platform, resp);
+            profilerCancel(platform, resp, arguments);
             return;
         }
 
@@ -378,7 +405,20 @@ public class SamplerModule implements CommandModule {
         }
     }
 
-    private void profilerCancel(SparkPlatform platform, CommandResponseHandler resp) {
+    private void profilerCancel(SparkPlatform platform, CommandResponseHandler resp, Arguments arguments) {
+        // exports are cancelled separately, as the background profiler is restarted as soon as an export is queued
+        if (arguments.boolFlag("export")) {
+            if (this.exports.isEmpty()) {
+                resp.replyPrefixed(text("There isn't a profiler export in progress."));
+            } else {
+                for (ExportProgress progress : this.exports) {
+                    progress.cancel();
+                }
+                resp.broadcastPrefixed(text("Profiler export has been cancelled.", GOLD));
+            }
+            return;
+        }
+
         Sampler sampler = platform.getSamplerContainer().getActiveSampler();
         if (sampler == null) {
             resp.replyPrefixed(text("There isn't an active profiler running."));
@@ -403,6 +443,7 @@ public class SamplerModule implements CommandModule {
             } else {
                 resp.broadcastPrefixed(text("Stopping the profiler & uploading results, please wait..."));
             }
+            resp.broadcastPrefixed(text("(To cancel the export, run: /" + platform.getPlugin().getCommandName() + " profiler cancel --export)", DARK_GRAY));
 
             Sampler.ExportProps exportProps = getExportProps(platform, resp, arguments);
             handleUpload(platform, resp, sampler, exportProps, saveToFile);
@@ -419,14 +460,43 @@ public class SamplerModule implements CommandModule {
     }
 
     private void handleUpload(SparkPlatform platform, CommandResponseHandler resp, Sampler sampler, Sampler.ExportProps exportProps, boolean saveToFileFlag) {
-        SparkSamplerProtos.SamplerData output = sampler.toProto(platform, exportProps);
+        ExportProgress progress = new ExportProgress();
+        this.exports.add(progress);
+
+        this.exportExecutor.execute(() -> {
+            try {
+                export(platform, resp, sampler, exportProps, saveToFileFlag, progress);
+            } catch (CancellationException e) {
+                if (progress.isCancelled()) {
+                    resp.broadcastPrefixed(text("The profiler export was cancelled.", RED));
+                } else {
+                    resp.broadcastPrefixed(text("The profiler export took too long and was abandoned, even with reduced detail.", RED));
+                }
+            } catch (Exception e) {
+                resp.broadcastPrefixed(text("Profiler operation failed unexpectedly. Error: " + e, RED));
+                platform.getPlugin().log(Level.SEVERE, "Profiler operation failed unexpectedly", e);
+            } finally {
+                this.exports.remove(progress);
+            }
+        });
+    }
+
+    private void export(SparkPlatform platform, CommandResponseHandler resp, Sampler sampler, Sampler.ExportProps exportProps, boolean saveToFileFlag, ExportProgress progress) {
+        byte[] output = serialise(platform, resp, sampler, exportProps, progress);
 
         boolean saveToFile = false;
+        boolean retryUpload = false;
         if (saveToFileFlag) {
             saveToFile = true;
         } else {
             try {
-                String key = platform.getBytebinClient().postContent(output, MediaTypes.SPARK_SAMPLER_MEDIA_TYPE).key();
+                String key;
+                progress.enter(ExportProgress.Stage.UPLOAD);
+                try {
+                    key = platform.getBytebinClient().postContent(output, MediaTypes.SPARK_SAMPLER_MEDIA_TYPE).key();
+                } finally {
+                    progress.finish();
+                }
                 String url = platform.getViewerUrl() + key;
 
                 resp.broadcastPrefixed(text("Profiler stopped & upload complete!", GOLD));
@@ -439,27 +509,73 @@ public class SamplerModule implements CommandModule {
 
                 platform.getActivityLog().addToLog(Activity.urlActivity(resp.senderData(), System.currentTimeMillis(), "Profiler", url));
             } catch (Exception e) {
+                if (progress.isCancelled()) {
+                    throw new CancellationException("Export cancelled");
+                }
                 resp.broadcastPrefixed(text("An error occurred whilst uploading the results. Attempting to save to disk instead.", RED));
                 platform.getPlugin().log(Level.WARNING, "Error whilst uploading profiler results", e);
                 saveToFile = true;
+                retryUpload = e instanceof BytebinClient.TransientUploadException;
             }
         }
 
         if (saveToFile) {
             Path file = platform.resolveSaveFile("profile", "sparkprofile");
             try {
-                Files.write(file, output.toByteArray());
+                progress.enter(ExportProgress.Stage.UPLOAD);
+                try {
+                    Files.write(file, output);
+                } finally {
+                    progress.finish();
+                }
 
                 resp.broadcastPrefixed(text("Profiler stopped & save complete!", GOLD));
                 resp.broadcastPrefixed(text("Data has been written to: " + file));
                 resp.broadcastPrefixed(text("You can view the profile file using the web app @ " + platform.getViewerUrl(), GRAY));
 
                 platform.getActivityLog().addToLog(Activity.fileActivity(resp.senderData(), System.currentTimeMillis(), "Profiler", file.toString()));
+
+                if (retryUpload && platform.getBytebinOutbox().add(file, MediaTypes.SPARK_SAMPLER_MEDIA_TYPE, resp.senderData(), "Profiler")) {
+                    resp.broadcastPrefixed(text("The upload will be retried in the background, and the link added to the activity log when it completes.", GRAY));
+                }
             } catch (IOException e) {
                 resp.broadcastPrefixed(text("An error occurred whilst saving the data.", RED));
                 platform.getPlugin().log(Level.WARNING, "Error whilst saving profiler results", e);
             }
         }
+
+        platform.getPlugin().log(Level.INFO, "Exported profiler results (" + progress.formatTimings() + ")");
+    }
+
+    /**
+     * Serialises the sampler data, retrying with reduced detail if it takes longer than the configured deadline.
+     */
+    private byte[] serialise(SparkPlatform platform, CommandResponseHandler resp, Sampler sampler, Sampler.ExportProps exportProps, ExportProgress progress) {
+        int deadlineSeconds = platform.getConfiguration().getInteger("profilerExportDeadlineSeconds", 30);
+        if (deadlineSeconds > 0) {
+            progress.setDeadline(TimeUnit.SECONDS.toMillis(deadlineSeconds));
+        }
+
+        try {
+            return sampler.toProtoBytes(platform, exportProps.copy().progress(progress));
+        } catch (CancellationException e) {
+            if (progress.isCancelled() || !progress.isDeadlineExceeded()) {
+                throw e;
+            }
+        } finally {
+            progress.finish();
+            progress.clearDeadline();
+        }
+
+        // the retry is bounded by the same deadline, and gives up if it is exceeded again
+        resp.broadcastPrefixed(text("The export took longer than " + deadlineSeconds + " seconds, retrying with reduced detail...", GOLD));
+        progress.setDeadline(TimeUnit.SECONDS.toMillis(deadlineSeconds));
+        try {
+            return sampler.toProtoBytes(platform, exportProps.copy().progress(progress).pruneThreshold(REDUCED_DETAIL_PRUNE_THRESHOLD));
+        } finally {
+            progress.finish();
+            progress.clearDeadline();
+        }
     }
 
     private void handleOpen(SparkPlatform platform, BytesocksClient bytesocksClient, CommandResponseHandler resp, Sampler sampler, Sampler.ExportProps exportProps) {
@@ -468,7 +584,7 @@ public class SamplerModule implements CommandModule {
             sampler.attachSocket(socket);
             exportProps.channelInfo(socket.getPayload());
 
-            SparkSamplerProtos.SamplerData data = sampler.toProto(platform, exportProps);
+            byte[] data = sampler.toProtoBytes(platform, exportProps);
 
             String key = platform.getBytebinClient().postContent(data, MediaTypes.SPARK_SAMPLER_MEDIA_TYPE, "live").key();
             String url = platform.getViewerUrl() + key;
@@ -508,7 +624,9 @@ public class SamplerModule implements CommandModule {
                 .creator(resp.senderData())
                 .comment(Iterables.getFirst(arguments.stringFlag("comment"), null))
                 .mergeStrategy(arguments.boolFlag("separate-parent-calls") ? MergeStrategy.SEPARATE_PARENT_CALLS : MergeStrategy.SAME_METHOD)
-                .classSourceLookup(() -> ClassSourceLookup.create(platform));
+                .classSourceLookup(() -> ClassSourceLookup.create(platform))
+                .stringTable(platform.getConfiguration().getBoolean("exportStringTable", false))
+                .sparseTimes(platform.getConfiguration().getBoolean("exportSparseTimes", false));
     }
 
     private static Component cmdPrompt(String cmd) {
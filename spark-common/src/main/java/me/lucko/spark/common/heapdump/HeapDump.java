@@ -20,13 +20,23 @@
 
 package me.lucko.spark.common.heapdump;
 
+import me.lucko.spark.common.util.JavaVersion;
+
 import javax.management.JMX;
 import javax.management.MBeanServer;
 import javax.management.ObjectName;
+import java.io.BufferedReader;
 import java.io.IOException;
+import java.io.InputStreamReader;
 import java.lang.management.ManagementFactory;
 import java.lang.reflect.Method;
+import java.nio.file.FileAlreadyExistsException;
+import java.nio.file.Files;
 import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
 
 /**
  * Utility for creating .hprof memory heap snapshots.
@@ -68,6 +78,72 @@ public enum HeapDump {
         proxy.dumpHeap(outputPathString, live);
     }
 
+    /**
+     * Gets if the JVM can write gzip compressed heap dumps directly.
+     *
+     * <p>This requires HotSpot on Java 15+, and the {@code jcmd} tool (i.e. a JDK rather than
+     * a JRE), as the {@code GC.heap_dump} command is not exposed through the
+     * DiagnosticCommandMBean.</p>
+     *
+     * @return if compressed heap dumps are supported
+     */
+    public static boolean isCompressedDumpSupported() {
+        return !isOpenJ9() && JavaVersion.getJavaVersion() >= 15 && Files.isExecutable(getJcmdPath());
+    }
+
+    private static Path getJcmdPath() {
+        boolean windows = System.getProperty("os.name").toLowerCase(Locale.ROOT).startsWith("windows");
+        return Paths.get(System.getProperty("java.home"), "bin", windows ? "jcmd.exe" : "jcmd");
+    }
+
+    /**
+     * Creates a gzip compressed heap dump at the given output path, without writing an
+     * uncompressed copy to disk first.
+     *
+     * <p>Only supported if {@link #isCompressedDumpSupported()} returns true.</p>
+     *
+     * @param outputPath the path to write the snapshot to
+     * @param live if true dump only live objects i.e. objects that are reachable from others
+     * @param level the gzip compression level, from 1 (fastest) to 9 (smallest)
+     * @throws Exception catch all
+     */
+    public static void dumpHeapCompressed(Path outputPath, boolean live, int level) throws Exception {
+        if (Files.exists(outputPath)) {
+            throw new FileAlreadyExistsException(outputPath.toString());
+        }
+
+        String pid = ManagementFactory.getRuntimeMXBean().getName().split("@")[0];
+
+        List<String> command = new ArrayList<>();
+        command.add(getJcmdPath().toString());
+        command.add(pid);
+        command.add("GC.heap_dump");
+        if (!live) {
+            command.add("-all");
+        }
+        command.add("-gz=" + level);
+        if (JavaVersion.getJavaVersion() >= 22) {
+            // use multiple threads to write (and compress) the dump
+            command.add("-parallel=" + Runtime.getRuntime().availableProcessors());
+        }
+        command.add(outputPath.toAbsolutePath().normalize().toString());
+
+        Process process = new ProcessBuilder(command).redirectErrorStream(true).start();
+        StringBuilder output = new StringBuilder();
+        try (BufferedReader reader = new BufferedReader(new InputStreamReader(process.getInputStream()))) {
+            String line;
+            while ((line = reader.readLine()) != null) {
+                output.append(line).append('\n');
+            }
+        }
+        int exitCode = process.waitFor();
+
+        // jcmd reports most failures in its output rather than with the exit code
+        if (exitCode != 0 || !Files.exists(outputPath)) {
+            throw new IOException("Heap dump failed (exit code " + exitCode + "): " + output.toString().trim());
+        }
+    }
+
     public static boolean isOpenJ9() {
         try {
             Class.forName("com.ibm.jvm.Dump");
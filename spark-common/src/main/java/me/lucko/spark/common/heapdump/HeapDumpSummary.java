@@ -59,12 +59,12 @@ public final class HeapDumpSummary {
      * @return the raw output
      * @throws Exception lots could go wrong!
      */
-    private static String getRawHeapData() throws Exception {
+    private static String getRawHeapData(String... args) throws Exception {
         MBeanServer beanServer = ManagementFactory.getPlatformMBeanServer();
         ObjectName diagnosticBeanName = ObjectName.getInstance(DIAGNOSTIC_BEAN);
 
         DiagnosticCommandMXBean proxy = JMX.newMXBeanProxy(beanServer, diagnosticBeanName, DiagnosticCommandMXBean.class);
-        return proxy.gcClassHistogram(new String[0]);
+        return proxy.gcClassHistogram(args);
     }
 
     /**
@@ -88,14 +88,34 @@ public final class HeapDumpSummary {
      * @throws RuntimeException if an error occurred whilst requesting a heap dump from the VM
      */
     public static HeapDumpSummary createNew() {
+        return createNew(false);
+    }
+
+    /**
+     * Creates a new heap dump based on the current VM.
+     *
+     * <p>By default, a full GC is performed first so that only live objects are counted. If
+     * {@code includeUnreachable} is true, the GC is skipped and all objects are counted instead,
+     * which is much less disruptive, but includes garbage that has not yet been collected.</p>
+     *
+     * @param includeUnreachable if unreachable objects should be included
+     * @return the created heap dump
+     * @throws RuntimeException if an error occurred whilst requesting a heap dump from the VM
+     */
+    public static HeapDumpSummary createNew(boolean includeUnreachable) {
         String rawOutput;
         try {
-            rawOutput = getRawHeapData();
+            rawOutput = includeUnreachable ? getRawHeapData("-all") : getRawHeapData();
         } catch (Exception e) {
             throw new RuntimeException("Unable to get heap dump", e);
         }
 
-        return new HeapDumpSummary(Arrays.stream(rawOutput.split("\n"))
+        return new HeapDumpSummary(parse(rawOutput));
+    }
+
+    @VisibleForTesting
+    static List<Entry> parse(String rawOutput) {
+        return Arrays.stream(rawOutput.split("\n"))
                 .map(line -> {
                     Matcher matcher = OUTPUT_FORMAT.matcher(line);
                     if (!matcher.matches()) {
@@ -115,7 +135,7 @@ public final class HeapDumpSummary {
                     }
                 })
                 .filter(Objects::nonNull)
-                .collect(Collectors.toList()));
+                .collect(Collectors.toList());
     }
 
     /** The entries in this heap dump */
@@ -137,8 +157,20 @@ public final class HeapDumpSummary {
         HeapData.Builder proto = HeapData.newBuilder();
         proto.setMetadata(metadata);
 
+        HeapSources sources = HeapSources.create(platform);
         for (Entry entry : this.entries) {
             proto.addEntries(entry.toProto());
+            if (sources != null) {
+                sources.add(entry.getType(), entry.getInstances(), entry.getBytes());
+            }
+        }
+        if (sources != null) {
+            sources.writeTo(proto);
+        }
+
+        HeapTrendMonitor trendMonitor = platform.getHeapTrendMonitor();
+        if (trendMonitor != null) {
+            proto.setTrend(trendMonitor.toProto());
         }
 
         return proto.build();
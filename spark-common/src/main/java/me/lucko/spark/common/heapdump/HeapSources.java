@@ -0,0 +1,166 @@
+/*
+ * This file is part of spark.
+ *
+ *  Copyright (c) lucko (Luck) <luck@lucko.me>
+ *  Copyright (c) contributors
+ *
+ *  This program is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package me.lucko.spark.common.heapdump;
+
+import me.lucko.spark.common.SparkPlatform;
+import me.lucko.spark.common.sampler.source.ClassSourceLookup;
+import me.lucko.spark.common.util.classfinder.ClassFinder;
+import me.lucko.spark.proto.SparkHeapProtos.HeapData;
+import me.lucko.spark.proto.SparkHeapProtos.HeapSource;
+import org.jspecify.annotations.Nullable;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Attributes the memory used by the classes in a heap summary to the plugin/mod that each
+ * class belongs to, using the platform's {@link ClassSourceLookup}.
+ */
+public final class HeapSources {
+
+    /** Class name prefixes which can never belong to a plugin/mod */
+    private static final String[] EXCLUDED_PREFIXES = {"java.", "javax.", "jdk.", "sun.", "com.sun."};
+
+    /**
+     * Creates a new instance for the given platform, or returns null if the platform is
+     * unable to identify the source of classes.
+     *
+     * @param platform the platform
+     * @return the heap sources, or null
+     */
+    public static @Nullable HeapSources create(SparkPlatform platform) {
+        ClassSourceLookup lookup = ClassSourceLookup.create(platform);
+        if (lookup == ClassSourceLookup.NO_OP) {
+            return null;
+        }
+        return new HeapSources(lookup, platform.createClassFinder());
+    }
+
+    private final ClassSourceLookup lookup;
+    private final ClassFinder classFinder;
+
+    /** A cache of (element) class name --> source, including negative results */
+    private final Map<String, String> classSources = new HashMap<>();
+    private final Map<String, Totals> totals = new HashMap<>();
+
+    HeapSources(ClassSourceLookup lookup, ClassFinder classFinder) {
+        this.lookup = lookup;
+        this.classFinder = classFinder;
+    }
+
+    /**
+     * Records the memory used by a class.
+     *
+     * @param type the class name, as displayed in the heap summary (e.g. {@code com.example.Foo[]})
+     * @param instances the number of instances
+     * @param bytes the total size of the instances
+     */
+    public void add(String type, long instances, long bytes) {
+        String source = identify(type);
+        if (source == null) {
+            return;
+        }
+
+        Totals totals = this.totals.computeIfAbsent(source, x -> new Totals());
+        totals.classes++;
+        totals.instances += instances;
+        totals.bytes += bytes;
+    }
+
+    /**
+     * Identifies the source of the given class. Arrays are attributed to the source
+     * of their element type.
+     *
+     * @param type the class name
+     * @return the source, or null if unknown
+     */
+    @Nullable String identify(String type) {
+        int arrayStart = type.indexOf('[');
+        String className = arrayStart == -1 ? type : type.substring(0, arrayStart);
+
+        // skip classes which can't belong to a plugin/mod (or be found by name) without
+        // querying the class finder, since misses can be expensive
+        if (className.indexOf('.') == -1 || className.indexOf('/') != -1 || isExcluded(className)) {
+            return null;
+        }
+
+        if (this.classSources.containsKey(className)) {
+            return this.classSources.get(className);
+        }
+
+        String source = null;
+        try {
+            Class<?> clazz = this.classFinder.findClass(className);
+            if (clazz != null) {
+                source = this.lookup.identify(clazz);
+            }
+        } catch (Throwable e) {
+            // ignore
+        }
+        this.classSources.put(className, source);
+        return source;
+    }
+
+    private static boolean isExcluded(String className) {
+        for (String prefix : EXCLUDED_PREFIXES) {
+            if (className.startsWith(prefix)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Writes the class sources, and the totals for each source, to the proto.
+     *
+     * @param proto the proto
+     */
+    public void writeTo(HeapData.Builder proto) {
+        for (Map.Entry<String, String> entry : this.classSources.entrySet()) {
+            if (entry.getValue() != null) {
+                proto.putClassSources(entry.getKey(), entry.getValue());
+            }
+        }
+
+        List<Map.Entry<String, Totals>> sorted = new ArrayList<>(this.totals.entrySet());
+        sorted.sort(Comparator.comparingLong((Map.Entry<String, Totals> e) -> e.getValue().bytes).reversed());
+        for (Map.Entry<String, Totals> entry : sorted) {
+            Totals totals = entry.getValue();
+            proto.addSources(HeapSource.newBuilder()
+                    .setName(entry.getKey())
+                    .setClasses(totals.classes)
+                    .setInstances(totals.instances)
+                    .setSize(totals.bytes)
+                    .build()
+            );
+        }
+    }
+
+    private static final class Totals {
+        private int classes;
+        private long instances;
+        private long bytes;
+    }
+
+}
@@ -0,0 +1,370 @@
+/*
+ * This file is part of spark.
+ *
+ *  Copyright (c) lucko (Luck) <luck@lucko.me>
+ *  Copyright (c) contributors
+ *
+ *  This program is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package me.lucko.spark.common.heapdump;
+
+import me.lucko.spark.common.SparkPlatform;
+import me.lucko.spark.common.monitor.MonitoringExecutor;
+import me.lucko.spark.common.util.FormatUtil;
+import me.lucko.spark.common.util.config.Configuration;
+import me.lucko.spark.proto.SparkHeapProtos.HeapClassTrend;
+import me.lucko.spark.proto.SparkHeapProtos.HeapTrend;
+import org.jetbrains.annotations.VisibleForTesting;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Level;
+
+/**
+ * Periodically samples the class histogram in the background, and looks for classes whose
+ * total size is growing steadily over time - the typical signature of a memory leak.
+ *
+ * <p>Histograms are taken with the {@code -all} option, so no full GC is triggered. This means
+ * the samples include garbage that hasn't been collected yet, but the noise that causes is
+ * smoothed out by fitting a line to the samples over a long window.</p>
+ */
+public class HeapTrendMonitor implements Runnable, AutoCloseable {
+    private static final String OPTION_ENABLED = "heapTrendMonitoring";
+    private static final String OPTION_INTERVAL = "heapTrendIntervalMinutes";
+
+    /** The number of classes (the largest ones) to record in each sample */
+    private static final int CLASSES_PER_SAMPLE = 500;
+    /** The maximum number of samples to keep */
+    private static final int MAX_SAMPLES = 288;
+    /** The minimum number of samples needed before a class can be considered to be trending */
+    private static final int MIN_SAMPLES = 12;
+    /** The minimum r^2 value for the growth of a class to be considered linear */
+    private static final double MIN_R_SQUARED = 0.8;
+    /** The minimum growth (over the whole window) for a class to be considered to be trending */
+    private static final long MIN_GROWTH_BYTES = 16L * 1024 * 1024;
+    /** The minimum growth, relative to the initial size of the class */
+    private static final double MIN_RELATIVE_GROWTH = 0.1;
+    /** The number of classes to include in the proto, in addition to any that are trending */
+    private static final int PROTO_CLASSES = 100;
+
+    /**
+     * Creates a new monitor if background heap trend monitoring has been enabled in the configuration.
+     *
+     * @param platform the platform
+     * @param configuration the configuration
+     * @return the monitor, or null if disabled
+     */
+    public static HeapTrendMonitor createIfEnabled(SparkPlatform platform, Configuration configuration) {
+        if (!configuration.getBoolean(OPTION_ENABLED, false) || HeapDump.isOpenJ9()) {
+            return null;
+        }
+        int intervalMinutes = Math.max(1, configuration.getInteger(OPTION_INTERVAL, 5));
+        return new HeapTrendMonitor(platform, TimeUnit.MINUTES.toMillis(intervalMinutes));
+    }
+
+    private final SparkPlatform platform;
+    private final long intervalMillis;
+
+    /** Class names, interned so that samples only need to store an int id per class */
+    private final Map<String, Integer> classIds = new HashMap<>();
+    private final List<String> classNames = new ArrayList<>();
+    private final ArrayDeque<Sample> samples = new ArrayDeque<>();
+    /** The classes that have already been reported as trending */
+    private final Set<Integer> alerted = new HashSet<>();
+
+    private ScheduledFuture<?> task;
+
+    @VisibleForTesting
+    HeapTrendMonitor(SparkPlatform platform, long intervalMillis) {
+        this.platform = platform;
+        this.intervalMillis = intervalMillis;
+    }
+
+    public void start() {
+        if (this.task != null) {
+            throw new IllegalStateException();
+        }
+        this.task = MonitoringExecutor.scheduleAtFixedRateMillis(this, this.intervalMillis);
+    }
+
+    @Override
+    public void close() {
+        if (this.task != null) {
+            this.task.cancel(false);
+            this.task = null;
+        }
+    }
+
+    @Override
+    public void run() {
+        HeapDumpSummary summary;
+        try {
+            summary = HeapDumpSummary.createNew(true);
+        } catch (Exception e) {
+            this.platform.getPlugin().log(Level.WARNING, "Unable to sample the class histogram, disabling heap trend monitoring", e);
+            close();
+            return;
+        }
+
+        record(System.currentTimeMillis(), summary.getEntries());
+
+        for (Trend trend : computeTrends()) {
+            if (!trend.isTrending()) {
+                this.alerted.remove(trend.classId);
+            } else if (this.alerted.add(trend.classId)) {
+                this.platform.getPlugin().log(Level.WARNING, "Possible memory leak: the total size of " + trend.getType() +
+                        " instances has grown steadily from " + FormatUtil.formatBytes(trend.firstSize) +
+                        " to " + FormatUtil.formatBytes(trend.lastSize) +
+                        " (" + FormatUtil.formatBytes((long) trend.getGrowthRate()) + " per hour)");
+            }
+        }
+    }
+
+    /**
+     * Records a histogram sample.
+     *
+     * @param time the time the sample was taken
+     * @param entries the histogram entries, in descending order of size
+     */
+    @VisibleForTesting
+    synchronized void record(long time, List<HeapDumpSummary.Entry> entries) {
+        int count = Math.min(entries.size(), CLASSES_PER_SAMPLE);
+        Sample sample = new Sample(time, count);
+        for (int i = 0; i < count; i++) {
+            HeapDumpSummary.Entry entry = entries.get(i);
+            sample.classIds[i] = this.classIds.computeIfAbsent(entry.getType(), name -> {
+                this.classNames.add(name);
+                return this.classNames.size() - 1;
+            });
+            sample.sizes[i] = entry.getBytes();
+            sample.instances[i] = entry.getInstances();
+        }
+
+        this.samples.addLast(sample);
+        if (this.samples.size() > MAX_SAMPLES) {
+            this.samples.removeFirst();
+        }
+    }
+
+    /**
+     * Fits a line to the recorded sizes of each class, to find those that are growing steadily.
+     *
+     * @return the trend of each class, in descending order of growth rate
+     */
+    @VisibleForTesting
+    synchronized List<Trend> computeTrends() {
+        Map<Integer, Trend> trends = new HashMap<>();
+        if (this.samples.isEmpty()) {
+            return new ArrayList<>();
+        }
+
+        long startTime = this.samples.peekFirst().time;
+        int index = 0;
+        for (Sample sample : this.samples) {
+            double hours = (sample.time - startTime) / (double) TimeUnit.HOURS.toMillis(1);
+            for (int i = 0; i < sample.classIds.length; i++) {
+                int classId = sample.classIds[i];
+                Trend trend = trends.computeIfAbsent(classId, id -> new Trend(id, this.classNames.get(id)));
+                trend.add(index, hours, sample.sizes[i]);
+            }
+            index++;
+        }
+
+        List<Trend> result = new ArrayList<>(trends.values());
+        for (Trend trend : result) {
+            trend.compute(index);
+        }
+        result.sort(Comparator.comparingDouble(Trend::getGrowthRate).reversed());
+        return result;
+    }
+
+    /**
+     * Writes the recorded samples, and the largest and trending classes, to a proto.
+     *
+     * @return the proto
+     */
+    public synchronized HeapTrend toProto() {
+        HeapTrend.Builder proto = HeapTrend.newBuilder();
+
+        long lastTime = 0;
+        for (Sample sample : this.samples) {
+            proto.addTimes(sample.time - lastTime);
+            lastTime = sample.time;
+        }
+
+        // include the largest classes (as of the latest sample), plus any that are trending
+        Set<Integer> included = new HashSet<>();
+        Sample latest = this.samples.peekLast();
+        if (latest != null) {
+            for (int i = 0; i < Math.min(latest.classIds.length, PROTO_CLASSES); i++) {
+                included.add(latest.classIds[i]);
+            }
+        }
+
+        List<Trend> trends = computeTrends();
+        for (Trend trend : trends) {
+            if (!included.contains(trend.classId) && !trend.isTrending()) {
+                continue;
+            }
+
+            HeapClassTrend.Builder classProto = HeapClassTrend.newBuilder()
+                    .setType(trend.getType())
+                    .setGrowthRate(trend.getGrowthRate())
+                    .setRSquared(trend.getRSquared())
+                    .setTrending(trend.isTrending());
+
+            long lastSize = 0;
+            long lastInstances = 0;
+            for (Sample sample : this.samples) {
+                int i = sample.indexOf(trend.classId);
+                long size = i == -1 ? 0 : sample.sizes[i];
+                long instances = i == -1 ? 0 : sample.instances[i];
+                classProto.addSizes(size - lastSize);
+                classProto.addInstances(instances - lastInstances);
+                lastSize = size;
+                lastInstances = instances;
+            }
+            proto.addClasses(classProto);
+        }
+
+        return proto.build();
+    }
+
+    /**
+     * A single class histogram sample, holding the largest classes at the time.
+     */
+    private static final class Sample {
+        private final long time;
+        private final int[] classIds;
+        private final long[] sizes;
+        private final int[] instances;
+
+        Sample(long time, int count) {
+            this.time = time;
+            this.classIds = new int[count];
+            this.sizes = new long[count];
+            this.instances = new int[count];
+        }
+
+        int indexOf(int classId) {
+            for (int i = 0; i < this.classIds.length; i++) {
+                if (this.classIds[i] == classId) {
+                    return i;
+                }
+            }
+            return -1;
+        }
+    }
+
+    /**
+     * The result of fitting a line (by least squares) to the size of a class over time.
+     */
+    @VisibleForTesting
+    static final class Trend {
+        private final int classId;
+        private final String type;
+
+        private int firstIndex = -1;
+        private int n = 0;
+        private double sumX, sumY, sumXX, sumXY, sumYY;
+        private double firstX;
+        private double lastX;
+        private long firstSize;
+        private long lastSize;
+
+        private double growthRate;
+        private double rSquared;
+        private boolean trending;
+
+        Trend(int classId, String type) {
+            this.classId = classId;
+            this.type = type;
+        }
+
+        void add(int index, double x, long size) {
+            if (this.firstIndex == -1) {
+                this.firstIndex = index;
+                this.firstX = x;
+                this.firstSize = size;
+            }
+            this.lastX = x;
+            this.lastSize = size;
+
+            double y = size;
+            this.n++;
+            this.sumX += x;
+            this.sumY += y;
+            this.sumXX += x * x;
+            this.sumXY += x * y;
+            this.sumYY += y * y;
+        }
+
+        void compute(int sampleCount) {
+            double varX = this.n * this.sumXX - this.sumX * this.sumX;
+            double varY = this.n * this.sumYY - this.sumY * this.sumY;
+            if (this.n < 2 || varX <= 0) {
+                return;
+            }
+
+            double covXY = this.n * this.sumXY - this.sumX * this.sumY;
+            this.growthRate = covXY / varX;
+            this.rSquared = varY <= 0 ? 0 : (covXY * covXY) / (varX * varY);
+
+            // the class must have been among the largest in (almost) every sample since it first appeared
+            int span = sampleCount - this.firstIndex;
+            if (this.n < MIN_SAMPLES || this.n < span * 0.9) {
+                return;
+            }
+
+            double intercept = (this.sumY - this.growthRate * this.sumX) / this.n;
+            double fittedStart = intercept + this.growthRate * this.firstX;
+            double growth = this.growthRate * (this.lastX - this.firstX);
+            this.trending = this.growthRate > 0 &&
+                    this.rSquared >= MIN_R_SQUARED &&
+                    growth >= MIN_GROWTH_BYTES &&
+                    growth >= fittedStart * MIN_RELATIVE_GROWTH;
+        }
+
+        public String getType() {
+            return this.type;
+        }
+
+        /**
+         * Gets the growth rate of the class.
+         *
+         * @return the growth rate, in bytes per hour
+         */
+        public double getGrowthRate() {
+            return this.growthRate;
+        }
+
+        public double getRSquared() {
+            return this.rSquared;
+        }
+
+        public boolean isTrending() {
+            return this.trending;
+        }
+    }
+
+}
@@ -0,0 +1,313 @@
+/*
+ * This file is part of spark.
+ *
+ *  Copyright (c) lucko (Luck) <luck@lucko.me>
+ *  Copyright (c) contributors
+ *
+ *  This program is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package me.lucko.spark.common.heapdump.analysis;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Computes the dominator tree (and retained sizes) of a {@link HprofGraph}.
+ *
+ * <p>Uses the Lengauer-Tarjan algorithm, with all recursion replaced by explicit stacks so that
+ * it works for arbitrarily deep object graphs (e.g. long linked lists). The graph is rooted at a
+ * virtual "super root" which references every GC root.</p>
+ *
+ * <p>Vertices are identified by their depth-first order, starting from 1 for the super root.</p>
+ */
+final class DominatorTree implements AutoCloseable {
+    static final int SUPER_ROOT = 1;
+
+    private final HprofGraph graph;
+    private final List<MappedArray> arrays = new ArrayList<>();
+
+    /** The depth-first number of each object, or 0 if it is unreachable */
+    private final MappedArray.Ints dfnum;
+    /** The object at each depth-first number */
+    private final MappedArray.Ints vertex;
+    /** The depth-first parent of each vertex */
+    private final MappedArray.Ints parent;
+    /** The immediate dominator of each vertex */
+    private final MappedArray.Ints idom;
+    /** The previous vertex on the shortest path from a GC root to each vertex */
+    private final MappedArray.Ints pathParent;
+    /** The retained size of each vertex */
+    private final MappedArray.Longs retained;
+
+    private int vertexCount = 0;
+
+    DominatorTree(HprofGraph graph) throws IOException {
+        this.graph = graph;
+        long n = graph.objectCount() + 2L;
+        this.dfnum = ints("dfnum", n);
+        this.vertex = ints("vertex", n);
+        this.parent = ints("parent", n);
+        this.idom = ints("idom", n);
+        this.pathParent = ints("path-parent", n);
+        this.retained = longs("retained", n);
+    }
+
+    private MappedArray.Longs longs(String name, long expectedLength) throws IOException {
+        MappedArray.Longs array = new MappedArray.Longs(this.graph.temporaryFiles().create("spark-heap-" + name + "-", ".tmp"), expectedLength);
+        this.arrays.add(array);
+        return array;
+    }
+
+    private MappedArray.Ints ints(String name, long expectedLength) throws IOException {
+        MappedArray.Ints array = new MappedArray.Ints(this.graph.temporaryFiles().create("spark-heap-" + name + "-", ".tmp"), expectedLength);
+        this.arrays.add(array);
+        return array;
+    }
+
+    private void release(MappedArray array) {
+        array.close();
+        this.arrays.remove(array);
+    }
+
+    void compute() throws IOException {
+        depthFirstSearch();
+        computeDominators();
+        computeRetainedSizes();
+        computeShortestPaths();
+    }
+
+    private void depthFirstSearch() throws IOException {
+        HprofGraph graph = this.graph;
+        MappedArray.Ints stack = ints("dfs-stack", graph.objectCount());
+        MappedArray.Longs cursors = longs("dfs-cursors", graph.objectCount());
+
+        this.vertexCount = SUPER_ROOT;
+        this.vertex.set(SUPER_ROOT, -1);
+
+        for (int root : graph.roots()) {
+            if (this.dfnum.get(root) != 0) {
+                continue;
+            }
+
+            visit(root, SUPER_ROOT);
+            int sp = 0;
+            stack.set(sp, root);
+            cursors.set(sp, graph.edgeStart(root));
+            sp++;
+
+            while (sp > 0) {
+                int v = stack.get(sp - 1);
+                long cursor = cursors.get(sp - 1);
+                if (cursor < graph.edgeEnd(v)) {
+                    cursors.set(sp - 1, cursor + 1);
+                    int w = graph.edge(cursor);
+                    if (this.dfnum.get(w) == 0) {
+                        visit(w, this.dfnum.get(v));
+                        stack.set(sp, w);
+                        cursors.set(sp, graph.edgeStart(w));
+                        sp++;
+                    }
+                } else {
+                    sp--;
+                }
+            }
+        }
+
+        release(stack);
+        release(cursors);
+    }
+
+    private void visit(int object, int parent) {
+        int v = ++this.vertexCount;
+        this.dfnum.set(object, v);
+        this.vertex.set(v, object);
+        this.parent.set(v, parent);
+    }
+
+    private void computeDominators() throws IOException {
+        int n = this.vertexCount;
+        HprofGraph graph = this.graph;
+
+        MappedArray.Ints semi = ints("semi", n + 1L);
+        MappedArray.Ints label = ints("label", n + 1L);
+        MappedArray.Ints ancestor = ints("ancestor", n + 1L);
+        MappedArray.Ints bucketHead = ints("bucket-head", n + 1L);
+        MappedArray.Ints bucketNext = ints("bucket-next", n + 1L);
+        MappedArray.Ints stack = ints("compress-stack", n + 1L);
+
+        for (int v = 1; v <= n; v++) {
+            semi.set(v, v);
+            label.set(v, v);
+        }
+
+        for (int w = n; w >= 2; w--) {
+            int object = this.vertex.get(w);
+
+            // compute the semidominator of w
+            int semiW = semi.get(w);
+            if (graph.isRoot(object)) {
+                semiW = SUPER_ROOT; // the super root is always the lowest numbered vertex
+            }
+            long end = graph.predEnd(object);
+            for (long p = graph.predStart(object); p < end; p++) {
+                int v = this.dfnum.get(graph.pred(p));
+                if (v == 0) {
+                    continue; // unreachable
+                }
+                int u = eval(v, semi, label, ancestor, stack);
+                int semiU = semi.get(u);
+                if (semiU < semiW) {
+                    semiW = semiU;
+                }
+            }
+            semi.set(w, semiW);
+
+            // add w to the bucket of its semidominator, and link it into the forest
+            bucketNext.set(w, bucketHead.get(semiW));
+            bucketHead.set(semiW, w);
+            int parentW = this.parent.get(w);
+            ancestor.set(w, parentW);
+
+            // implicitly compute the immediate dominators of the vertices in the parent's bucket
+            for (int v = bucketHead.get(parentW); v != 0; v = bucketNext.get(v)) {
+                int u = eval(v, semi, label, ancestor, stack);
+                this.idom.set(v, semi.get(u) < semi.get(v) ? u : parentW);
+            }
+            bucketHead.set(parentW, 0);
+        }
+
+        // explicitly compute the immediate dominators, in depth-first order
+        for (int w = 2; w <= n; w++) {
+            int idomW = this.idom.get(w);
+            if (idomW != semi.get(w)) {
+                this.idom.set(w, this.idom.get(idomW));
+            }
+        }
+        this.idom.set(SUPER_ROOT, 0);
+
+        release(semi);
+        release(label);
+        release(ancestor);
+        release(bucketHead);
+        release(bucketNext);
+        release(stack);
+    }
+
+    private static int eval(int v, MappedArray.Ints semi, MappedArray.Ints label, MappedArray.Ints ancestor, MappedArray.Ints stack) {
+        if (ancestor.get(v) == 0) {
+            return v;
+        }
+
+        // path compression, iteratively: find the chain of vertices that need updating...
+        int sp = 0;
+        int x = v;
+        while (ancestor.get(ancestor.get(x)) != 0) {
+            stack.set(sp++, x);
+            x = ancestor.get(x);
+        }
+
+        // ...and then update them, starting from the one closest to the root of the tree
+        while (sp > 0) {
+            x = stack.get(--sp);
+            int a = ancestor.get(x);
+            int labelA = label.get(a);
+            if (semi.get(labelA) < semi.get(label.get(x))) {
+                label.set(x, labelA);
+            }
+            ancestor.set(x, ancestor.get(a));
+        }
+
+        return label.get(v);
+    }
+
+    private void computeRetainedSizes() {
+        int n = this.vertexCount;
+        for (int v = 2; v <= n; v++) {
+            this.retained.set(v, this.graph.shallowSize(this.vertex.get(v)));
+        }
+
+        // a dominator always has a lower depth-first number than the vertices it dominates
+        for (int v = n; v >= 2; v--) {
+            this.retained.add(this.idom.get(v), this.retained.get(v));
+        }
+    }
+
+    /**
+     * Performs a breadth-first search from the GC roots, so that paths to the largest retainers
+     * can be shown using the fewest references (the depth-first tree is usually much deeper).
+     *
+     * @throws IOException if an I/O error occurs
+     */
+    private void computeShortestPaths() throws IOException {
+        HprofGraph graph = this.graph;
+        MappedArray.Ints queue = ints("bfs-queue", this.vertexCount);
+
+        int head = 0;
+        int tail = 0;
+        for (int root : graph.roots()) {
+            int v = this.dfnum.get(root);
+            if (this.pathParent.get(v) == 0) {
+                this.pathParent.set(v, SUPER_ROOT);
+                queue.set(tail++, root);
+            }
+        }
+
+        while (head < tail) {
+            int object = queue.get(head++);
+            int v = this.dfnum.get(object);
+            long end = graph.edgeEnd(object);
+            for (long e = graph.edgeStart(object); e < end; e++) {
+                int w = graph.edge(e);
+                int vw = this.dfnum.get(w);
+                if (this.pathParent.get(vw) == 0) {
+                    this.pathParent.set(vw, v);
+                    queue.set(tail++, w);
+                }
+            }
+        }
+
+        release(queue);
+    }
+
+    int vertexCount() {
+        return this.vertexCount;
+    }
+
+    int object(int v) {
+        return this.vertex.get(v);
+    }
+
+    int pathParent(int v) {
+        return this.pathParent.get(v);
+    }
+
+    int idom(int v) {
+        return this.idom.get(v);
+    }
+
+    long retainedSize(int v) {
+        return this.retained.get(v);
+    }
+
+    @Override
+    public void close() {
+        for (MappedArray array : this.arrays) {
+            array.close();
+        }
+        this.arrays.clear();
+    }
+
+}
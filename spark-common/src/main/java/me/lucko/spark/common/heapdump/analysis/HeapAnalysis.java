@@ -0,0 +1,372 @@
+/*
+ * This file is part of spark.
+ *
+ *  Copyright (c) lucko (Luck) <luck@lucko.me>
+ *  Copyright (c) contributors
+ *
+ *  This program is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package me.lucko.spark.common.heapdump.analysis;
+
+import me.lucko.spark.common.SparkPlatform;
+import me.lucko.spark.common.command.sender.CommandSender;
+import me.lucko.spark.common.heapdump.HeapSources;
+import me.lucko.spark.common.platform.SparkMetadata;
+import me.lucko.spark.common.util.TemporaryFiles;
+import me.lucko.spark.proto.SparkHeapProtos;
+import me.lucko.spark.proto.SparkHeapProtos.HeapClassSize;
+import me.lucko.spark.proto.SparkHeapProtos.HeapData;
+import me.lucko.spark.proto.SparkHeapProtos.HeapEntry;
+import me.lucko.spark.proto.SparkHeapProtos.HeapMetadata;
+import me.lucko.spark.proto.SparkHeapProtos.HeapPathElement;
+import me.lucko.spark.proto.SparkHeapProtos.HeapRetainer;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.PriorityQueue;
+import java.util.function.Consumer;
+
+/**
+ * The result of analysing a HPROF heap dump in-process.
+ *
+ * <p>Contains the objects which retain the most memory (along with the path from a GC root to each
+ * of them), and the shallow and retained sizes of each class. This is a few megabytes at most,
+ * so can be uploaded to the viewer instead of the (potentially huge) heap dump file itself.</p>
+ */
+public final class HeapAnalysis {
+
+    /** The number of top retainers to include */
+    private static final int TOP_RETAINERS = 50;
+    /** The maximum length of a path to a GC root */
+    private static final int MAX_PATH_LENGTH = 32;
+
+    /**
+     * Analyses a HPROF heap dump.
+     *
+     * <p>Memory usage on the Java heap is bounded by the number of classes and GC roots, not the
+     * number of objects. Per-object data is stored in memory-mapped temporary files instead.</p>
+     *
+     * @param file the heap dump file
+     * @param temporaryFiles the temporary files handler
+     * @param progress a callback to report progress
+     * @return the analysis
+     * @throws IOException if an I/O error occurs, or the dump is malformed
+     */
+    public static HeapAnalysis analyse(Path file, TemporaryFiles temporaryFiles, Consumer<String> progress) throws IOException {
+        try (HprofGraph graph = new HprofGraph(file, temporaryFiles)) {
+            progress.accept("Indexing heap dump...");
+            graph.build();
+
+            progress.accept("Indexed " + graph.objectCount() + " objects, computing dominator tree...");
+            try (DominatorTree tree = new DominatorTree(graph)) {
+                tree.compute();
+
+                progress.accept("Computing retained sizes...");
+                return new HeapAnalysis(
+                        tree.vertexCount() - 1,
+                        tree.retainedSize(DominatorTree.SUPER_ROOT),
+                        findTopRetainers(graph, tree),
+                        computeClassSizes(graph, tree)
+                );
+            }
+        }
+    }
+
+    private static List<Retainer> findTopRetainers(HprofGraph graph, DominatorTree tree) throws IOException {
+        PriorityQueue<long[]> top = new PriorityQueue<>(TOP_RETAINERS + 1, Comparator.comparingLong(e -> e[0]));
+        int n = tree.vertexCount();
+        for (int v = 2; v <= n; v++) {
+            long retained = tree.retainedSize(v);
+            if (top.size() < TOP_RETAINERS || retained > top.peek()[0]) {
+                top.add(new long[]{retained, v});
+                if (top.size() > TOP_RETAINERS) {
+                    top.poll();
+                }
+            }
+        }
+
+        List<Retainer> retainers = new ArrayList<>(top.size());
+        for (long[] entry : top) {
+            int v = (int) entry[1];
+            int object = tree.object(v);
+
+            // walk back along the shortest path to a gc root
+            List<Integer> path = new ArrayList<>();
+            for (int u = v; u != DominatorTree.SUPER_ROOT; u = tree.pathParent(u)) {
+                path.add(tree.object(u));
+            }
+            Collections.reverse(path);
+
+            int rootObject = path.get(0);
+            boolean truncated = path.size() > MAX_PATH_LENGTH;
+            int start = truncated ? path.size() - MAX_PATH_LENGTH : 0;
+
+            List<PathElement> elements = new ArrayList<>(path.size() - start);
+            for (int i = start; i < path.size(); i++) {
+                int element = path.get(i);
+                String reference = i == 0 ? null : graph.describeReference(path.get(i - 1), element);
+                elements.add(new PathElement(typeName(graph, element), reference));
+            }
+
+            retainers.add(new Retainer(
+                    typeName(graph, object),
+                    graph.shallowSize(object),
+                    entry[0],
+                    elements,
+                    graph.rootType(rootObject),
+                    truncated
+            ));
+        }
+
+        retainers.sort(Comparator.comparingLong(Retainer::getRetainedSize).reversed());
+        return retainers;
+    }
+
+    private static List<ClassSize> computeClassSizes(HprofGraph graph, DominatorTree tree) {
+        int classCount = graph.classList().size();
+        long[] instances = new long[classCount];
+        long[] shallow = new long[classCount];
+        long[] retained = new long[classCount];
+
+        int n = tree.vertexCount();
+        for (int v = 2; v <= n; v++) {
+            int object = tree.object(v);
+            int cls = graph.classIndexOf(object);
+            instances[cls]++;
+            shallow[cls] += graph.shallowSize(object);
+
+            // only count objects which aren't retained by another instance of the same class,
+            // otherwise e.g. the nodes in a linked list would be counted many times over
+            int idom = tree.idom(v);
+            if (idom == DominatorTree.SUPER_ROOT || graph.classIndexOf(tree.object(idom)) != cls) {
+                retained[cls] += tree.retainedSize(v);
+            }
+        }
+
+        List<ClassSize> sizes = new ArrayList<>();
+        for (int i = 0; i < classCount; i++) {
+            if (instances[i] != 0) {
+                sizes.add(new ClassSize(graph.classList().get(i).name, instances[i], shallow[i], retained[i]));
+            }
+        }
+        sizes.sort(Comparator.comparingLong(ClassSize::getRetainedSize).reversed());
+        return sizes;
+    }
+
+    private static String typeName(HprofGraph graph, int object) {
+        HprofGraph.ClassInfo represented = graph.classRepresentedBy(object);
+        if (represented != null) {
+            return "class " + represented.name;
+        }
+        return graph.classOf(object).name;
+    }
+
+    private final long reachableObjects;
+    private final long reachableSize;
+    private final List<Retainer> topRetainers;
+    private final List<ClassSize> classes;
+
+    private HeapAnalysis(long reachableObjects, long reachableSize, List<Retainer> topRetainers, List<ClassSize> classes) {
+        this.reachableObjects = reachableObjects;
+        this.reachableSize = reachableSize;
+        this.topRetainers = topRetainers;
+        this.classes = classes;
+    }
+
+    public long getReachableObjects() {
+        return this.reachableObjects;
+    }
+
+    public long getReachableSize() {
+        return this.reachableSize;
+    }
+
+    public List<Retainer> getTopRetainers() {
+        return this.topRetainers;
+    }
+
+    public List<ClassSize> getClasses() {
+        return this.classes;
+    }
+
+    public HeapData toProto(SparkPlatform platform, CommandSender.Data creator) {
+        HeapMetadata.Builder metadata = HeapMetadata.newBuilder();
+        SparkMetadata.gather(platform, creator, platform.getStartupGcStatistics()).writeTo(metadata);
+
+        HeapData.Builder proto = HeapData.newBuilder();
+        proto.setMetadata(metadata);
+
+        // also populate the basic (histogram) entries, ordered by shallow size, for older viewers
+        List<ClassSize> byShallowSize = new ArrayList<>(this.classes);
+        byShallowSize.sort(Comparator.comparingLong(ClassSize::getShallowSize).reversed());
+        HeapSources sources = HeapSources.create(platform);
+        int order = 1;
+        for (ClassSize size : byShallowSize) {
+            proto.addEntries(HeapEntry.newBuilder()
+                    .setOrder(order++)
+                    .setInstances((int) Math.min(Integer.MAX_VALUE, size.getInstances()))
+                    .setSize(size.getShallowSize())
+                    .setType(size.getType())
+                    .build()
+            );
+            if (sources != null) {
+                sources.add(size.getType(), size.getInstances(), size.getShallowSize());
+            }
+        }
+        if (sources != null) {
+            sources.writeTo(proto);
+        }
+
+        SparkHeapProtos.HeapAnalysis.Builder analysis = SparkHeapProtos.HeapAnalysis.newBuilder()
+                .setReachableObjects(this.reachableObjects)
+                .setReachableSize(this.reachableSize);
+        for (Retainer retainer : this.topRetainers) {
+            analysis.addTopRetainers(retainer.toProto());
+        }
+        for (ClassSize size : this.classes) {
+            analysis.addClasses(size.toProto());
+        }
+        proto.setAnalysis(analysis);
+
+        return proto.build();
+    }
+
+    public static final class Retainer {
+        private final String type;
+        private final long shallowSize;
+        private final long retainedSize;
+        private final List<PathElement> path;
+        private final String rootType;
+        private final boolean pathTruncated;
+
+        Retainer(String type, long shallowSize, long retainedSize, List<PathElement> path, String rootType, boolean pathTruncated) {
+            this.type = type;
+            this.shallowSize = shallowSize;
+            this.retainedSize = retainedSize;
+            this.path = path;
+            this.rootType = rootType;
+            this.pathTruncated = pathTruncated;
+        }
+
+        public String getType() {
+            return this.type;
+        }
+
+        public long getShallowSize() {
+            return this.shallowSize;
+        }
+
+        public long getRetainedSize() {
+            return this.retainedSize;
+        }
+
+        public List<PathElement> getPath() {
+            return this.path;
+        }
+
+        public String getRootType() {
+            return this.rootType;
+        }
+
+        public boolean isPathTruncated() {
+            return this.pathTruncated;
+        }
+
+        HeapRetainer toProto() {
+            HeapRetainer.Builder proto = HeapRetainer.newBuilder()
+                    .setType(this.type)
+                    .setShallowSize(this.shallowSize)
+                    .setRetainedSize(this.retainedSize)
+                    .setPathTruncated(this.pathTruncated);
+            if (this.rootType != null) {
+                proto.setRootType(this.rootType);
+            }
+            for (PathElement element : this.path) {
+                proto.addPath(element.toProto());
+            }
+            return proto.build();
+        }
+    }
+
+    public static final class PathElement {
+        private final String type;
+        private final String reference;
+
+        PathElement(String type, String reference) {
+            this.type = type;
+            this.reference = reference;
+        }
+
+        public String getType() {
+            return this.type;
+        }
+
+        public String getReference() {
+            return this.reference;
+        }
+
+        HeapPathElement toProto() {
+            HeapPathElement.Builder proto = HeapPathElement.newBuilder().setType(this.type);
+            if (this.reference != null) {
+                proto.setReference(this.reference);
+            }
+            return proto.build();
+        }
+    }
+
+    public static final class ClassSize {
+        private final String type;
+        private final long instances;
+        private final long shallowSize;
+        private final long retainedSize;
+
+        ClassSize(String type, long instances, long shallowSize, long retainedSize) {
+            this.type = type;
+            this.instances = instances;
+            this.shallowSize = shallowSize;
+            this.retainedSize = retainedSize;
+        }
+
+        public String getType() {
+            return this.type;
+        }
+
+        public long getInstances() {
+            return this.instances;
+        }
+
+        public long getShallowSize() {
+            return this.shallowSize;
+        }
+
+        public long getRetainedSize() {
+            return this.retainedSize;
+        }
+
+        HeapClassSize toProto() {
+            return HeapClassSize.newBuilder()
+                    .setType(this.type)
+                    .setInstances(this.instances)
+                    .setShallowSize(this.shallowSize)
+                    .setRetainedSize(this.retainedSize)
+                    .build();
+        }
+    }
+
+}
@@ -0,0 +1,877 @@
+/*
+ * This file is part of spark.
+ *
+ *  Copyright (c) lucko (Luck) <luck@lucko.me>
+ *  Copyright (c) contributors
+ *
+ *  This program is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package me.lucko.spark.common.heapdump.analysis;
+
+import me.lucko.spark.common.util.TemporaryFiles;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * An index of the object graph contained in a HPROF heap dump.
+ *
+ * <p>The dump is read in a few sequential passes. Per-object data (ids, file offsets, sizes and
+ * references) is stored in {@link MappedArray memory-mapped temporary files}, and only per-class
+ * data and the list of GC roots are held on the Java heap.</p>
+ */
+final class HprofGraph implements AutoCloseable {
+
+    static final int KIND_INSTANCE = 0;
+    static final int KIND_CLASS = 1;
+    static final int KIND_OBJECT_ARRAY = 2;
+    static final int KIND_PRIMITIVE_ARRAY = 3;
+
+    /** Offsets are stored with the object kind in the top two bits */
+    private static final int KIND_SHIFT = 62;
+    private static final long OFFSET_MASK = (1L << KIND_SHIFT) - 1;
+
+    /** A rough lower bound on the size of an object record, used to estimate the number of objects */
+    private static final int MIN_RECORD_SIZE = 24;
+
+    private final HprofInput input;
+    private final TemporaryFiles temporaryFiles;
+    private final List<MappedArray> arrays = new ArrayList<>();
+
+    // per-object data, indexed by the order objects appear in the dump
+    private int objectCount = 0;
+    private final MappedArray.Longs ids;
+    private final MappedArray.Longs offsets;
+    private final MappedArray.Longs shallowSizes;
+    private MappedArray.Ints classes;
+    private MappedArray.Longs edgeStart;
+    private MappedArray.Ints edges;
+    private MappedArray.Longs predStart;
+    private MappedArray.Ints preds;
+
+    // only set if the object ids did not appear in ascending order
+    private MappedArray.Longs sortedIds;
+    private MappedArray.Ints sortedIndexes;
+    private boolean idsSorted = true;
+    private long lastId = Long.MIN_VALUE;
+
+    // per-class data
+    private final Map<Long, ClassInfo> classesById = new HashMap<>();
+    private final List<ClassInfo> classList = new ArrayList<>();
+    private final Map<Long, Long> classNameIds = new HashMap<>();
+    private final ClassInfo[] primitiveArrayClasses = new ClassInfo[HprofTypes.LONG + 1];
+    private ClassInfo javaLangClass;
+    private ClassInfo unknownClass;
+
+    // gc roots
+    private long[] rootIds = new long[1024];
+    private byte[] rootTypes = new byte[1024];
+    private int rootCount = 0;
+    private int[] roots;
+    private BitSet rootSet;
+    private Map<Integer, Integer> rootTypesByObject;
+
+    HprofGraph(Path file, TemporaryFiles temporaryFiles) throws IOException {
+        this.input = new HprofInput(file);
+        this.temporaryFiles = temporaryFiles;
+
+        long expectedObjects = this.input.size() / MIN_RECORD_SIZE;
+        this.ids = longs("ids", expectedObjects);
+        this.offsets = longs("offsets", expectedObjects);
+        this.shallowSizes = longs("sizes", expectedObjects);
+    }
+
+    private MappedArray.Longs longs(String name, long expectedLength) throws IOException {
+        MappedArray.Longs array = new MappedArray.Longs(this.temporaryFiles.create("spark-heap-" + name + "-", ".tmp"), expectedLength);
+        this.arrays.add(array);
+        return array;
+    }
+
+    private MappedArray.Ints ints(String name, long expectedLength) throws IOException {
+        MappedArray.Ints array = new MappedArray.Ints(this.temporaryFiles.create("spark-heap-" + name + "-", ".tmp"), expectedLength);
+        this.arrays.add(array);
+        return array;
+    }
+
+    /**
+     * Reads the heap dump and builds the index.
+     *
+     * @throws IOException if an I/O error occurs, or the dump is malformed
+     */
+    void build() throws IOException {
+        readHeader();
+        long recordsStart = this.input.position();
+
+        readObjects(recordsStart);
+        readStrings(recordsStart);
+        if (!this.idsSorted) {
+            sortIds();
+        }
+        resolveRoots();
+        readReferences();
+        buildPredecessors();
+    }
+
+    private void readHeader() throws IOException {
+        String format = this.input.cstring();
+        if (!format.startsWith("JAVA PROFILE")) {
+            throw new IOException("Not a HPROF file: " + format);
+        }
+        this.input.setIdSize(this.input.u4());
+        this.input.u8(); // timestamp
+    }
+
+    // ---------------------------------------------------------------------------------------------
+    // pass 1: find all objects, classes and roots
+    // ---------------------------------------------------------------------------------------------
+
+    private void readObjects(long recordsStart) throws IOException {
+        HprofInput in = this.input;
+        in.seek(recordsStart);
+
+        while (in.hasRemaining()) {
+            int tag = in.u1();
+            in.u4(); // time
+            long length = in.u4() & 0xFFFFFFFFL;
+            long start = in.position();
+
+            if (tag == HprofTypes.TAG_LOAD_CLASS) {
+                in.u4(); // serial
+                long classId = in.id();
+                in.u4(); // stack trace serial
+                long nameId = in.id();
+                this.classNameIds.put(classId, nameId);
+            } else if (tag == HprofTypes.TAG_HEAP_DUMP || tag == HprofTypes.TAG_HEAP_DUMP_SEGMENT) {
+                readHeapDump(start + length);
+            }
+
+            in.seek(start + length);
+        }
+    }
+
+    private void readHeapDump(long end) throws IOException {
+        HprofInput in = this.input;
+        int idSize = in.idSize();
+
+        while (in.position() < end) {
+            int tag = in.u1();
+            switch (tag) {
+                case HprofTypes.ROOT_UNKNOWN:
+                case HprofTypes.ROOT_STICKY_CLASS:
+                case HprofTypes.ROOT_MONITOR_USED:
+                    addRoot(in.id(), tag);
+                    break;
+                case HprofTypes.ROOT_JNI_GLOBAL:
+                    addRoot(in.id(), tag);
+                    in.id();
+                    break;
+                case HprofTypes.ROOT_JNI_LOCAL:
+                case HprofTypes.ROOT_JAVA_FRAME:
+                case HprofTypes.ROOT_THREAD_OBJECT:
+                    addRoot(in.id(), tag);
+                    in.skip(8);
+                    break;
+                case HprofTypes.ROOT_NATIVE_STACK:
+                case HprofTypes.ROOT_THREAD_BLOCK:
+                    addRoot(in.id(), tag);
+                    in.skip(4);
+                    break;
+                case HprofTypes.CLASS_DUMP:
+                    readClassDump();
+                    break;
+                case HprofTypes.INSTANCE_DUMP: {
+                    long offset = in.position();
+                    long id = in.id();
+                    in.skip(4 + idSize);
+                    long bytes = in.u4() & 0xFFFFFFFFL;
+                    in.skip(bytes);
+                    addObject(id, offset, KIND_INSTANCE, HprofTypes.align(HprofTypes.OBJECT_HEADER_SIZE + bytes));
+                    break;
+                }
+                case HprofTypes.OBJECT_ARRAY_DUMP: {
+                    long offset = in.position();
+                    long id = in.id();
+                    in.skip(4);
+                    long length = in.u4() & 0xFFFFFFFFL;
+                    in.skip(idSize + length * idSize);
+                    addObject(id, offset, KIND_OBJECT_ARRAY, HprofTypes.align(HprofTypes.ARRAY_HEADER_SIZE + length * idSize));
+                    break;
+                }
+                case HprofTypes.PRIMITIVE_ARRAY_DUMP: {
+                    long offset = in.position();
+                    long id = in.id();
+                    in.skip(4);
+                    long length = in.u4() & 0xFFFFFFFFL;
+                    int type = in.u1();
+                    long bytes = length * HprofTypes.size(type, idSize);
+                    in.skip(bytes);
+                    addObject(id, offset, KIND_PRIMITIVE_ARRAY, HprofTypes.align(HprofTypes.ARRAY_HEADER_SIZE + bytes));
+                    break;
+                }
+                default:
+                    throw new IOException("Unknown heap dump record 0x" + Integer.toHexString(tag) + " at " + (in.position() - 1));
+            }
+        }
+    }
+
+    private void readClassDump() throws IOException {
+        HprofInput in = this.input;
+        long offset = in.position();
+
+        ClassInfo info = new ClassInfo(in.id());
+        in.u4(); // stack trace serial
+        info.superId = in.id();
+        in.skip(5L * in.idSize()); // loader, signers, protection domain, reserved x2
+        info.instanceSize = in.u4();
+
+        long staticSize = 0;
+        int constantPoolSize = in.u2();
+        for (int i = 0; i < constantPoolSize; i++) {
+            in.u2();
+            in.skipValue(in.u1());
+        }
+
+        int staticCount = in.u2();
+        info.staticNameIds = new long[staticCount];
+        for (int i = 0; i < staticCount; i++) {
+            info.staticNameIds[i] = in.id();
+            int type = in.u1();
+            staticSize += HprofTypes.size(type, in.idSize());
+            in.skipValue(type);
+        }
+
+        int fieldCount = in.u2();
+        info.fieldNameIds = new long[fieldCount];
+        info.fieldTypes = new byte[fieldCount];
+        for (int i = 0; i < fieldCount; i++) {
+            info.fieldNameIds[i] = in.id();
+            info.fieldTypes[i] = (byte) in.u1();
+        }
+
+        addClass(info);
+        addObject(info.id, offset, KIND_CLASS, HprofTypes.align(HprofTypes.OBJECT_HEADER_SIZE + staticSize));
+    }
+
+    private void addClass(ClassInfo info) {
+        info.index = this.classList.size();
+        this.classList.add(info);
+        if (info.id != 0) {
+            this.classesById.put(info.id, info);
+        }
+    }
+
+    private void addObject(long id, long offset, int kind, long shallowSize) {
+        int index = this.objectCount++;
+        if (index < 0) {
+            throw new IllegalStateException("Too many objects in heap dump");
+        }
+        this.ids.set(index, id);
+        this.offsets.set(index, offset | ((long) kind << KIND_SHIFT));
+        this.shallowSizes.set(index, shallowSize);
+
+        if (id <= this.lastId) {
+            this.idsSorted = false;
+        }
+        this.lastId = id;
+    }
+
+    private void addRoot(long id, int type) {
+        if (this.rootCount == this.rootIds.length) {
+            this.rootIds = Arrays.copyOf(this.rootIds, this.rootCount * 2);
+            this.rootTypes = Arrays.copyOf(this.rootTypes, this.rootCount * 2);
+        }
+        this.rootIds[this.rootCount] = id;
+        this.rootTypes[this.rootCount] = (byte) type;
+        this.rootCount++;
+    }
+
+    // ---------------------------------------------------------------------------------------------
+    // pass 2: read the names of classes and fields
+    // ---------------------------------------------------------------------------------------------
+
+    private void readStrings(long recordsStart) throws IOException {
+        Set<Long> needed = new HashSet<>(this.classNameIds.values());
+        for (ClassInfo info : this.classList) {
+            for (long id : info.fieldNameIds) {
+                needed.add(id);
+            }
+            for (long id : info.staticNameIds) {
+                needed.add(id);
+            }
+        }
+
+        Map<Long, String> strings = new HashMap<>(needed.size());
+
+        HprofInput in = this.input;
+        in.seek(recordsStart);
+        while (in.hasRemaining()) {
+            int tag = in.u1();
+            in.u4(); // time
+            long length = in.u4() & 0xFFFFFFFFL;
+            long start = in.position();
+
+            if (tag == HprofTypes.TAG_STRING) {
+                long id = in.id();
+                if (needed.contains(id)) {
+                    strings.put(id, in.utf8((int) (length - in.idSize())));
+                }
+            }
+
+            in.seek(start + length);
+        }
+
+        for (ClassInfo info : this.classList) {
+            Long nameId = this.classNameIds.get(info.id);
+            String name = nameId == null ? null : strings.get(nameId);
+            info.name = name == null ? "unknown@" + Long.toHexString(info.id) : formatClassName(name);
+
+            info.fieldNames = new String[info.fieldNameIds.length];
+            for (int i = 0; i < info.fieldNameIds.length; i++) {
+                info.fieldNames[i] = strings.getOrDefault(info.fieldNameIds[i], "?");
+            }
+            info.staticNames = new String[info.staticNameIds.length];
+            for (int i = 0; i < info.staticNameIds.length; i++) {
+                info.staticNames[i] = strings.getOrDefault(info.staticNameIds[i], "?");
+            }
+        }
+        this.classNameIds.clear();
+
+        for (ClassInfo info : new ArrayList<>(this.classList)) {
+            info.superClass = this.classesById.get(info.superId);
+            if (info.name.equals("java.lang.Class")) {
+                this.javaLangClass = info;
+            }
+        }
+        if (this.javaLangClass == null) {
+            this.javaLangClass = syntheticClass("java.lang.Class");
+        }
+        this.unknownClass = syntheticClass("unknown");
+    }
+
+    private ClassInfo syntheticClass(String name) {
+        ClassInfo info = new ClassInfo(0);
+        info.name = name;
+        info.fieldTypes = new byte[0];
+        info.fieldNames = new String[0];
+        info.staticNames = new String[0];
+        addClass(info);
+        return info;
+    }
+
+    private ClassInfo primitiveArrayClass(int type) {
+        ClassInfo info = this.primitiveArrayClasses[type];
+        if (info == null) {
+            info = syntheticClass(HprofTypes.primitiveArrayName(type));
+            this.primitiveArrayClasses[type] = info;
+        }
+        return info;
+    }
+
+    /**
+     * Converts a class name in the JVM internal format to the format used in Java source.
+     *
+     * @param name the internal name, e.g. {@code java/lang/String} or {@code [Ljava/lang/String;}
+     * @return the formatted name
+     */
+    static String formatClassName(String name) {
+        int dimensions = 0;
+        while (dimensions < name.length() && name.charAt(dimensions) == '[') {
+            dimensions++;
+        }
+        if (dimensions == 0) {
+            return name.replace('/', '.');
+        }
+
+        String element = name.substring(dimensions);
+        String type;
+        switch (element) {
+            case "Z": type = "boolean"; break;
+            case "C": type = "char"; break;
+            case "F": type = "float"; break;
+            case "D": type = "double"; break;
+            case "B": type = "byte"; break;
+            case "S": type = "short"; break;
+            case "I": type = "int"; break;
+            case "J": type = "long"; break;
+            default:
+                if (element.startsWith("L") && element.endsWith(";")) {
+                    element = element.substring(1, element.length() - 1);
+                }
+                type = element.replace('/', '.');
+                break;
+        }
+
+        StringBuilder sb = new StringBuilder(type);
+        for (int i = 0; i < dimensions; i++) {
+            sb.append("[]");
+        }
+        return sb.toString();
+    }
+
+    // ---------------------------------------------------------------------------------------------
+    // object id lookups
+    // ---------------------------------------------------------------------------------------------
+
+    private void sortIds() throws IOException {
+        this.sortedIds = longs("sorted-ids", this.objectCount);
+        this.sortedIndexes = ints("sorted-indexes", this.objectCount);
+        for (int i = 0; i < this.objectCount; i++) {
+            this.sortedIds.set(i, this.ids.get(i));
+            this.sortedIndexes.set(i, i);
+        }
+        sort(0, this.objectCount - 1);
+    }
+
+    private void sort(int from, int to) {
+        MappedArray.Longs keys = this.sortedIds;
+        MappedArray.Ints values = this.sortedIndexes;
+
+        // quicksort, recursing into the smaller partition to bound the stack depth
+        while (to - from > 16) {
+            int mid = (from + to) >>> 1;
+            long pivot = median(keys.get(from), keys.get(mid), keys.get(to));
+
+            int i = from;
+            int j = to;
+            while (i <= j) {
+                while (keys.get(i) < pivot) i++;
+                while (keys.get(j) > pivot) j--;
+                if (i <= j) {
+                    swap(keys, values, i, j);
+                    i++;
+                    j--;
+                }
+            }
+
+            if (j - from < to - i) {
+                sort(from, j);
+                from = i;
+            } else {
+                sort(i, to);
+                to = j;
+            }
+        }
+
+        // insertion sort for small ranges
+        for (int i = from + 1; i <= to; i++) {
+            for (int j = i; j > from && keys.get(j - 1) > keys.get(j); j--) {
+                swap(keys, values, j, j - 1);
+            }
+        }
+    }
+
+    private static long median(long a, long b, long c) {
+        return Math.max(Math.min(a, b), Math.min(Math.max(a, b), c));
+    }
+
+    private static void swap(MappedArray.Longs keys, MappedArray.Ints values, int i, int j) {
+        long key = keys.get(i);
+        keys.set(i, keys.get(j));
+        keys.set(j, key);
+        int value = values.get(i);
+        values.set(i, values.get(j));
+        values.set(j, value);
+    }
+
+    /**
+     * Finds the index of the object with the given id.
+     *
+     * @param id the object id
+     * @return the index, or -1 if there is no such object
+     */
+    int indexOf(long id) {
+        if (id == 0) {
+            return -1;
+        }
+
+        MappedArray.Longs keys = this.idsSorted ? this.ids : this.sortedIds;
+        int low = 0;
+        int high = this.objectCount - 1;
+        while (low <= high) {
+            int mid = (low + high) >>> 1;
+            long midId = keys.get(mid);
+            if (midId < id) {
+                low = mid + 1;
+            } else if (midId > id) {
+                high = mid - 1;
+            } else {
+                return this.idsSorted ? mid : this.sortedIndexes.get(mid);
+            }
+        }
+        return -1;
+    }
+
+    private void resolveRoots() {
+        this.rootSet = new BitSet(this.objectCount);
+        this.rootTypesByObject = new HashMap<>();
+
+        int[] roots = new int[this.rootCount];
+        int count = 0;
+        for (int i = 0; i < this.rootCount; i++) {
+            int index = indexOf(this.rootIds[i]);
+            if (index != -1 && !this.rootSet.get(index)) {
+                this.rootSet.set(index);
+                this.rootTypesByObject.put(index, this.rootTypes[i] & 0xFF);
+                roots[count++] = index;
+            }
+        }
+        this.roots = Arrays.copyOf(roots, count);
+        this.rootIds = null;
+        this.rootTypes = null;
+    }
+
+    // ---------------------------------------------------------------------------------------------
+    // pass 3: read the references between objects
+    // ---------------------------------------------------------------------------------------------
+
+    private void readReferences() throws IOException {
+        int n = this.objectCount;
+        this.classes = ints("classes", n);
+        this.edgeStart = longs("edge-start", n + 1L);
+        this.edges = ints("edges", n * 4L);
+
+        HprofInput in = this.input;
+        long edgeCount = 0;
+
+        for (int i = 0; i < n; i++) {
+            this.edgeStart.set(i, edgeCount);
+
+            long offset = this.offsets.get(i);
+            in.seek(offset & OFFSET_MASK);
+            in.id(); // object id
+            in.u4(); // stack trace serial
+
+            switch ((int) (offset >>> KIND_SHIFT)) {
+                case KIND_INSTANCE: {
+                    long classId = in.id();
+                    long bytes = in.u4() & 0xFFFFFFFFL;
+                    long end = in.position() + bytes;
+
+                    ClassInfo info = this.classesById.get(classId);
+                    this.classes.set(i, (info != null ? info : this.unknownClass).index);
+                    edgeCount = addEdge(i, indexOf(classId), edgeCount);
+
+                    for (ClassInfo c = info; c != null && in.position() < end; c = c.superClass) {
+                        for (byte type : c.fieldTypes) {
+                            if (type == HprofTypes.OBJECT) {
+                                edgeCount = addEdge(i, indexOf(in.id()), edgeCount);
+                            } else {
+                                in.skipValue(type);
+                            }
+                        }
+                    }
+                    break;
+                }
+                case KIND_CLASS: {
+                    this.classes.set(i, this.javaLangClass.index);
+                    for (int j = 0; j < 6; j++) { // super, loader, signers, protection domain, reserved x2
+                        edgeCount = addEdge(i, indexOf(in.id()), edgeCount);
+                    }
+                    in.u4(); // instance size
+
+                    int constantPoolSize = in.u2();
+                    for (int j = 0; j < constantPoolSize; j++) {
+                        in.u2();
+                        edgeCount = readValueEdge(i, in.u1(), edgeCount);
+                    }
+                    int staticCount = in.u2();
+                    for (int j = 0; j < staticCount; j++) {
+                        in.id();
+                        edgeCount = readValueEdge(i, in.u1(), edgeCount);
+                    }
+                    break;
+                }
+                case KIND_OBJECT_ARRAY: {
+                    long length = in.u4() & 0xFFFFFFFFL;
+                    long classId = in.id();
+
+                    ClassInfo info = this.classesById.get(classId);
+                    this.classes.set(i, (info != null ? info : this.unknownClass).index);
+                    edgeCount = addEdge(i, indexOf(classId), edgeCount);
+
+                    for (long j = 0; j < length; j++) {
+                        edgeCount = addEdge(i, indexOf(in.id()), edgeCount);
+                    }
+                    break;
+                }
+                case KIND_PRIMITIVE_ARRAY: {
+                    in.u4(); // length
+                    this.classes.set(i, primitiveArrayClass(in.u1()).index);
+                    break;
+                }
+                default:
+                    throw new AssertionError();
+            }
+        }
+        this.edgeStart.set(n, edgeCount);
+    }
+
+    private long readValueEdge(int from, int type, long edgeCount) throws IOException {
+        if (type == HprofTypes.OBJECT) {
+            return addEdge(from, indexOf(this.input.id()), edgeCount);
+        }
+        this.input.skipValue(type);
+        return edgeCount;
+    }
+
+    private long addEdge(int from, int to, long edgeCount) {
+        if (to == -1 || to == from) {
+            return edgeCount;
+        }
+        this.edges.set(edgeCount, to);
+        return edgeCount + 1;
+    }
+
+    private void buildPredecessors() throws IOException {
+        int n = this.objectCount;
+        long edgeCount = this.edgeStart.get(n);
+
+        MappedArray.Ints counts = ints("pred-counts", n);
+        for (long e = 0; e < edgeCount; e++) {
+            int to = this.edges.get(e);
+            counts.set(to, counts.get(to) + 1);
+        }
+
+        this.predStart = longs("pred-start", n + 1L);
+        long total = 0;
+        for (int i = 0; i < n; i++) {
+            this.predStart.set(i, total);
+            total += counts.get(i);
+            counts.set(i, 0);
+        }
+        this.predStart.set(n, total);
+
+        this.preds = ints("preds", edgeCount);
+        for (int from = 0; from < n; from++) {
+            long end = this.edgeStart.get(from + 1);
+            for (long e = this.edgeStart.get(from); e < end; e++) {
+                int to = this.edges.get(e);
+                int offset = counts.get(to);
+                this.preds.set(this.predStart.get(to) + offset, from);
+                counts.set(to, offset + 1);
+            }
+        }
+
+        counts.close();
+        this.arrays.remove(counts);
+    }
+
+    // ---------------------------------------------------------------------------------------------
+    // accessors
+    // ---------------------------------------------------------------------------------------------
+
+    TemporaryFiles temporaryFiles() {
+        return this.temporaryFiles;
+    }
+
+    int objectCount() {
+        return this.objectCount;
+    }
+
+    long shallowSize(int object) {
+        return this.shallowSizes.get(object);
+    }
+
+    ClassInfo classOf(int object) {
+        return this.classList.get(this.classes.get(object));
+    }
+
+    int classIndexOf(int object) {
+        return this.classes.get(object);
+    }
+
+    List<ClassInfo> classList() {
+        return this.classList;
+    }
+
+    int[] roots() {
+        return this.roots;
+    }
+
+    boolean isRoot(int object) {
+        return this.rootSet.get(object);
+    }
+
+    String rootType(int object) {
+        Integer type = this.rootTypesByObject.get(object);
+        return type == null ? null : HprofTypes.rootTypeName(type);
+    }
+
+    long edgeStart(int object) {
+        return this.edgeStart.get(object);
+    }
+
+    long edgeEnd(int object) {
+        return this.edgeStart.get(object + 1);
+    }
+
+    int edge(long index) {
+        return this.edges.get(index);
+    }
+
+    long predStart(int object) {
+        return this.predStart.get(object);
+    }
+
+    long predEnd(int object) {
+        return this.predStart.get(object + 1);
+    }
+
+    int pred(long index) {
+        return this.preds.get(index);
+    }
+
+    /**
+     * Describes the reference from one object to another, e.g. the name of the field.
+     *
+     * @param from the referring object
+     * @param to the referenced object
+     * @return a description of the reference
+     * @throws IOException if an I/O error occurs
+     */
+    String describeReference(int from, int to) throws IOException {
+        long targetId = this.ids.get(to);
+        HprofInput in = this.input;
+
+        long offset = this.offsets.get(from);
+        in.seek(offset & OFFSET_MASK);
+        in.id(); // object id
+        in.u4(); // stack trace serial
+
+        switch ((int) (offset >>> KIND_SHIFT)) {
+            case KIND_INSTANCE: {
+                long classId = in.id();
+                if (classId == targetId) {
+                    return "<class>";
+                }
+                in.u4(); // length
+                for (ClassInfo c = this.classesById.get(classId); c != null; c = c.superClass) {
+                    for (int i = 0; i < c.fieldTypes.length; i++) {
+                        int type = c.fieldTypes[i];
+                        if (type == HprofTypes.OBJECT) {
+                            if (in.id() == targetId) {
+                                return c.fieldNames[i];
+                            }
+                        } else {
+                            in.skipValue(type);
+                        }
+                    }
+                }
+                break;
+            }
+            case KIND_CLASS: {
+                String[] names = {"<super>", "<classloader>", "<signers>", "<protection domain>", "<reserved>", "<reserved>"};
+                for (String name : names) {
+                    if (in.id() == targetId) {
+                        return name;
+                    }
+                }
+                in.u4(); // instance size
+
+                int constantPoolSize = in.u2();
+                for (int i = 0; i < constantPoolSize; i++) {
+                    in.u2();
+                    int type = in.u1();
+                    if (type == HprofTypes.OBJECT) {
+                        if (in.id() == targetId) {
+                            return "<constant pool>";
+                        }
+                    } else {
+                        in.skipValue(type);
+                    }
+                }
+
+                ClassInfo info = this.classesById.get(this.ids.get(from));
+                int staticCount = in.u2();
+                for (int i = 0; i < staticCount; i++) {
+                    in.id();
+                    int type = in.u1();
+                    if (type == HprofTypes.OBJECT) {
+                        if (in.id() == targetId) {
+                            return "static " + (info != null && i < info.staticNames.length ? info.staticNames[i] : "?");
+                        }
+                    } else {
+                        in.skipValue(type);
+                    }
+                }
+                break;
+            }
+            case KIND_OBJECT_ARRAY: {
+                long length = in.u4() & 0xFFFFFFFFL;
+                if (in.id() == targetId) {
+                    return "<class>";
+                }
+                for (long i = 0; i < length; i++) {
+                    if (in.id() == targetId) {
+                        return "[" + i + "]";
+                    }
+                }
+                break;
+            }
+            default:
+                break;
+        }
+        return "?";
+    }
+
+    /**
+     * Gets the class represented by a class object.
+     *
+     * @param object the class object
+     * @return the class, or null if the object is not a class
+     */
+    ClassInfo classRepresentedBy(int object) {
+        if ((this.offsets.get(object) >>> KIND_SHIFT) != KIND_CLASS) {
+            return null;
+        }
+        return this.classesById.get(this.ids.get(object));
+    }
+
+    @Override
+    public void close() throws IOException {
+        for (MappedArray array : this.arrays) {
+            array.close();
+        }
+        this.arrays.clear();
+        this.input.close();
+    }
+
+    static final class ClassInfo {
+        final long id;
+        long superId;
+        ClassInfo superClass;
+        int index;
+        String name;
+        int instanceSize;
+        byte[] fieldTypes;
+        long[] fieldNameIds = new long[0];
+        String[] fieldNames;
+        long[] staticNameIds = new long[0];
+        String[] staticNames;
+
+        ClassInfo(long id) {
+            this.id = id;
+        }
+    }
+
+}
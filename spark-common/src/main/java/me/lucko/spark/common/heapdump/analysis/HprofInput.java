@@ -0,0 +1,174 @@
+/*
+ * This file is part of spark.
+ *
+ *  Copyright (c) lucko (Luck) <luck@lucko.me>
+ *  Copyright (c) contributors
+ *
+ *  This program is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package me.lucko.spark.common.heapdump.analysis;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * A buffered reader for HPROF files, which supports both sequential reads and seeking.
+ */
+final class HprofInput implements AutoCloseable {
+    private static final int BUFFER_SIZE = 1 << 20;
+
+    private final FileChannel channel;
+    private final long size;
+    private final ByteBuffer buffer = ByteBuffer.allocate(BUFFER_SIZE);
+
+    /** The file position of the start of the buffer */
+    private long bufferStart = 0;
+
+    private int idSize = 8;
+
+    HprofInput(Path file) throws IOException {
+        this.channel = FileChannel.open(file, StandardOpenOption.READ);
+        this.size = this.channel.size();
+        this.buffer.limit(0);
+    }
+
+    long size() {
+        return this.size;
+    }
+
+    int idSize() {
+        return this.idSize;
+    }
+
+    void setIdSize(int idSize) {
+        if (idSize != 4 && idSize != 8) {
+            throw new IllegalArgumentException("Unsupported identifier size: " + idSize);
+        }
+        this.idSize = idSize;
+    }
+
+    long position() {
+        return this.bufferStart + this.buffer.position();
+    }
+
+    boolean hasRemaining() {
+        return position() < this.size;
+    }
+
+    void seek(long position) throws IOException {
+        if (position >= this.bufferStart && position <= this.bufferStart + this.buffer.limit()) {
+            this.buffer.position((int) (position - this.bufferStart));
+            return;
+        }
+        this.bufferStart = position;
+        this.buffer.clear().limit(0);
+    }
+
+    void skip(long bytes) throws IOException {
+        seek(position() + bytes);
+    }
+
+    private void require(int bytes) throws IOException {
+        if (this.buffer.remaining() >= bytes) {
+            return;
+        }
+
+        this.bufferStart += this.buffer.position();
+        this.buffer.compact();
+        while (this.buffer.position() < bytes) {
+            int read = this.channel.read(this.buffer, this.bufferStart + this.buffer.position());
+            if (read == -1) {
+                throw new EOFException();
+            }
+        }
+        // fill the rest of the buffer if possible
+        if (this.buffer.hasRemaining()) {
+            this.channel.read(this.buffer, this.bufferStart + this.buffer.position());
+        }
+        this.buffer.flip();
+    }
+
+    int u1() throws IOException {
+        require(1);
+        return this.buffer.get() & 0xFF;
+    }
+
+    int u2() throws IOException {
+        require(2);
+        return this.buffer.getShort() & 0xFFFF;
+    }
+
+    int u4() throws IOException {
+        require(4);
+        return this.buffer.getInt();
+    }
+
+    long u8() throws IOException {
+        require(8);
+        return this.buffer.getLong();
+    }
+
+    long id() throws IOException {
+        return this.idSize == 4 ? (this.u4() & 0xFFFFFFFFL) : this.u8();
+    }
+
+    String utf8(int length) throws IOException {
+        byte[] bytes = new byte[length];
+        int read = 0;
+        while (read < length) {
+            require(1);
+            int n = Math.min(this.buffer.remaining(), length - read);
+            this.buffer.get(bytes, read, n);
+            read += n;
+        }
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    /**
+     * Reads a null-terminated string.
+     *
+     * @return the string
+     * @throws IOException if an I/O error occurs
+     */
+    String cstring() throws IOException {
+        StringBuilder sb = new StringBuilder();
+        int c;
+        while ((c = u1()) != 0) {
+            sb.append((char) c);
+        }
+        return sb.toString();
+    }
+
+    /**
+     * Reads (and discards) a value of the given basic type.
+     *
+     * @param type the type
+     * @throws IOException if an I/O error occurs
+     */
+    void skipValue(int type) throws IOException {
+        skip(HprofTypes.size(type, this.idSize));
+    }
+
+    @Override
+    public void close() throws IOException {
+        this.channel.close();
+    }
+
+}
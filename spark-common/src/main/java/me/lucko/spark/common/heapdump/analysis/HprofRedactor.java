@@ -0,0 +1,685 @@
+/*
+ * This file is part of spark.
+ *
+ *  Copyright (c) lucko (Luck) <luck@lucko.me>
+ *  Copyright (c) contributors
+ *
+ *  This program is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package me.lucko.spark.common.heapdump.analysis;
+
+import com.google.common.collect.ImmutableSet;
+import com.google.common.io.CountingInputStream;
+import org.jspecify.annotations.Nullable;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.function.LongConsumer;
+import java.util.function.Predicate;
+
+/**
+ * Rewrites a HPROF heap dump so that it is safe to share, by removing the contents of every
+ * primitive array (which includes the value of every string), and the values of the primitive
+ * fields of selected classes.
+ *
+ * <p>Primitive fields are always removed from a few JDK classes which are known to hold player
+ * data outside of an array (IP addresses, UUIDs and string hashes), and optionally from other
+ * classes. Fields are removed from instances of the selected classes and their subclasses.</p>
+ *
+ * <p>The object graph is left intact - every object, reference and GC root is copied as-is -
+ * so the result can still be used to work out what is retaining memory.</p>
+ *
+ * <p>The JVM also writes its whole symbol table to the dump, which includes the contents of
+ * string literals, so a first pass over the dump finds the symbols that are actually used as
+ * names (of classes, fields, methods etc), and any others are dropped.</p>
+ *
+ * <p>The output is then written in a single sequential pass, so it can be streamed straight
+ * into a compressor. Aside from the class metadata, memory usage does not depend on the size of
+ * the dump.</p>
+ */
+public final class HprofRedactor {
+
+    /** The maximum size of a heap dump segment written by the redactor */
+    private static final int SEGMENT_SIZE = 1 << 20;
+
+    /** How often to report progress, in bytes */
+    private static final long PROGRESS_INTERVAL = 16L * 1024 * 1024;
+
+    /** Classes whose primitive fields are always redacted, as they hold player data which isn't in an array */
+    private static final Set<String> SENSITIVE_CLASSES = ImmutableSet.of(
+            "java.lang.String", // hash
+            "java.util.UUID", // mostSigBits, leastSigBits
+            "java.net.InetAddress$InetAddressHolder", // address (IPv4)
+            "java.net.Inet6Address$Inet6AddressHolder", // scope_id (the address itself is an array)
+            "java.net.InetSocketAddress$InetSocketAddressHolder" // port
+    );
+
+    public enum Mode {
+        /** Array contents are replaced with zeros, so the size of each array is unchanged */
+        ZERO,
+        /** Arrays are truncated to zero length, so the dump is smaller before compression, but array sizes are lost */
+        TRUNCATE
+    }
+
+    /**
+     * Redacts a heap dump.
+     *
+     * @param input the heap dump to read
+     * @param output the stream to write the redacted heap dump to
+     * @param mode how primitive arrays should be redacted
+     * @param fieldFilter selects additional classes (by name) whose primitive field values should be zeroed, or null for none
+     * @param progressHandler receives the number of bytes of the input processed so far
+     * @throws IOException if an I/O error occurs
+     */
+    public static void redact(Path input, OutputStream output, Mode mode, @Nullable Predicate<String> fieldFilter, LongConsumer progressHandler) throws IOException {
+        Predicate<String> filter = SENSITIVE_CLASSES::contains;
+        if (fieldFilter != null) {
+            filter = filter.or(fieldFilter);
+        }
+
+        Set<Long> names = new HashSet<>();
+        Map<Long, Long> classNameIds = new HashMap<>();
+        findNames(input, names, classNameIds);
+
+        try (CountingInputStream in = new CountingInputStream(new BufferedInputStream(Files.newInputStream(input), 1024 * 64))) {
+            DataOutputStream out = new DataOutputStream(new BufferedOutputStream(output, 1024 * 64));
+            new HprofRedactor(new DataInputStream(in), in, out, mode, filter, progressHandler, names, classNameIds).run();
+            out.flush();
+        }
+    }
+
+    /**
+     * Finds the ids of the strings that are used as names in the heap dump.
+     *
+     * @param file the heap dump
+     * @param names the set to add the ids of the names to
+     * @param classNameIds the map to add the name id of each class to
+     * @throws IOException if an I/O error occurs
+     */
+    private static void findNames(Path file, Set<Long> names, Map<Long, Long> classNameIds) throws IOException {
+        try (HprofInput in = new HprofInput(file)) {
+            String format = in.cstring();
+            if (!format.startsWith("JAVA PROFILE")) {
+                throw new IOException("Not a HPROF file: " + format);
+            }
+            in.setIdSize(in.u4());
+            in.u8(); // timestamp
+
+            while (in.hasRemaining()) {
+                int tag = in.u1();
+                in.u4(); // time
+                long length = in.u4() & 0xFFFFFFFFL;
+                long end = in.position() + length;
+
+                switch (tag) {
+                    case HprofTypes.TAG_LOAD_CLASS: {
+                        in.u4(); // serial number
+                        long classId = in.id();
+                        in.u4(); // stack trace serial number
+                        long nameId = in.id();
+                        classNameIds.put(classId, nameId);
+                        names.add(nameId);
+                        break;
+                    }
+                    case HprofTypes.TAG_FRAME:
+                        in.id(); // frame id
+                        names.add(in.id()); // method name
+                        names.add(in.id()); // method signature
+                        names.add(in.id()); // source file
+                        break;
+                    case HprofTypes.TAG_START_THREAD:
+                        in.u4(); // serial number
+                        in.id(); // thread object
+                        in.u4(); // stack trace serial number
+                        names.add(in.id()); // thread name
+                        names.add(in.id()); // thread group name
+                        names.add(in.id()); // parent thread group name
+                        break;
+                    case HprofTypes.TAG_HEAP_DUMP:
+                    case HprofTypes.TAG_HEAP_DUMP_SEGMENT:
+                        while (in.position() < end) {
+                            findFieldNames(in, names);
+                        }
+                        break;
+                    default:
+                        break;
+                }
+                in.seek(end);
+            }
+        }
+    }
+
+    private static void findFieldNames(HprofInput in, Set<Long> names) throws IOException {
+        int tag = in.u1();
+        int id = in.idSize();
+        switch (tag) {
+            case HprofTypes.ROOT_UNKNOWN:
+            case HprofTypes.ROOT_STICKY_CLASS:
+            case HprofTypes.ROOT_MONITOR_USED:
+                in.skip(id);
+                break;
+            case HprofTypes.ROOT_JNI_GLOBAL:
+                in.skip(id * 2);
+                break;
+            case HprofTypes.ROOT_JNI_LOCAL:
+            case HprofTypes.ROOT_JAVA_FRAME:
+            case HprofTypes.ROOT_THREAD_OBJECT:
+                in.skip(id + 8);
+                break;
+            case HprofTypes.ROOT_NATIVE_STACK:
+            case HprofTypes.ROOT_THREAD_BLOCK:
+                in.skip(id + 4);
+                break;
+            case HprofTypes.CLASS_DUMP: {
+                in.skip(id * 7L + 8);
+                int constantPoolSize = in.u2();
+                for (int i = 0; i < constantPoolSize; i++) {
+                    in.u2();
+                    in.skipValue(in.u1());
+                }
+                int staticFields = in.u2();
+                for (int i = 0; i < staticFields; i++) {
+                    names.add(in.id());
+                    in.skipValue(in.u1());
+                }
+                int instanceFields = in.u2();
+                for (int i = 0; i < instanceFields; i++) {
+                    names.add(in.id());
+                    in.u1();
+                }
+                break;
+            }
+            case HprofTypes.INSTANCE_DUMP: {
+                in.skip(id * 2L + 4);
+                in.skip(in.u4() & 0xFFFFFFFFL);
+                break;
+            }
+            case HprofTypes.OBJECT_ARRAY_DUMP: {
+                in.skip(id + 4);
+                long count = in.u4() & 0xFFFFFFFFL;
+                in.skip(id + count * id);
+                break;
+            }
+            case HprofTypes.PRIMITIVE_ARRAY_DUMP: {
+                in.skip(id + 4);
+                long count = in.u4() & 0xFFFFFFFFL;
+                in.skip(count * HprofTypes.size(in.u1(), id));
+                break;
+            }
+            default:
+                throw new IOException("Unknown heap dump sub-record tag: 0x" + Integer.toHexString(tag));
+        }
+    }
+
+    private final DataInputStream in;
+    private final CountingInputStream inCounter;
+    private final DataOutputStream out;
+    private final Mode mode;
+    private final Predicate<String> fieldFilter;
+    private final LongConsumer progressHandler;
+    /** The ids of the strings used as names, any others are dropped */
+    private final Set<Long> names;
+    private final Map<Long, Long> classNameIds;
+
+    /** The heap dump segment currently being written */
+    private final byte[] segment = new byte[SEGMENT_SIZE];
+    private int segmentLength = 0;
+    /** The number of bytes remaining of a sub-record that is too large to buffer, and is being written directly */
+    private long directRemaining = 0;
+    private final DataOutputStream segmentOut = new DataOutputStream(new SegmentOutputStream());
+
+    private final byte[] copyBuffer = new byte[1024 * 64];
+    private final byte[] zeros = new byte[1024 * 64];
+    private byte[] instanceBuffer = new byte[256];
+
+    private int idSize = 8;
+    private long nextProgressReport = PROGRESS_INTERVAL;
+
+    private final Set<Long> classNameIdSet = new HashSet<>();
+    private final Map<Long, String> classNames = new HashMap<>();
+    private final Map<Long, ClassLayout> classLayouts = new HashMap<>();
+
+    private HprofRedactor(DataInputStream in, CountingInputStream inCounter, DataOutputStream out, Mode mode, Predicate<String> fieldFilter, LongConsumer progressHandler, Set<Long> names, Map<Long, Long> classNameIds) {
+        this.in = in;
+        this.inCounter = inCounter;
+        this.out = out;
+        this.mode = mode;
+        this.fieldFilter = fieldFilter;
+        this.progressHandler = progressHandler;
+        this.names = names;
+        this.classNameIds = classNameIds;
+        this.classNameIdSet.addAll(classNameIds.values());
+    }
+
+    private void run() throws IOException {
+        // header
+        int c;
+        while ((c = this.in.readUnsignedByte()) != 0) {
+            this.out.writeByte(c);
+        }
+        this.out.writeByte(0);
+        this.idSize = this.in.readInt();
+        if (this.idSize != 4 && this.idSize != 8) {
+            throw new IOException("Unsupported identifier size: " + this.idSize);
+        }
+        this.out.writeInt(this.idSize);
+        this.out.writeLong(this.in.readLong());
+
+        while (true) {
+            int tag = this.in.read();
+            if (tag == -1) {
+                break;
+            }
+            int time = this.in.readInt();
+            long length = this.in.readInt() & 0xFFFFFFFFL;
+
+            if (tag == HprofTypes.TAG_HEAP_DUMP || tag == HprofTypes.TAG_HEAP_DUMP_SEGMENT) {
+                // sub-records are buffered into new segments, which are flushed when the next top-level record is reached
+                long end = this.inCounter.getCount() + length;
+                while (this.inCounter.getCount() < end) {
+                    rewriteSubRecord();
+                    reportProgress();
+                }
+                if (tag == HprofTypes.TAG_HEAP_DUMP) {
+                    flushSegment();
+                    writeRecordHeader(HprofTypes.TAG_HEAP_DUMP_END, 0, 0);
+                }
+                continue;
+            }
+
+            if (tag == HprofTypes.TAG_STRING) {
+                long id = readId(this.in, null);
+                if (!this.names.contains(id)) {
+                    discard(length - this.idSize);
+                    continue;
+                }
+
+                flushSegment();
+                writeRecordHeader(tag, time, length);
+                writeId(this.out, id);
+                if (this.classNameIdSet.contains(id)) {
+                    byte[] bytes = new byte[(int) (length - this.idSize)];
+                    this.in.readFully(bytes);
+                    this.out.write(bytes);
+                    this.classNames.put(id, new String(bytes, StandardCharsets.UTF_8));
+                } else {
+                    copy(this.out, length - this.idSize);
+                }
+            } else {
+                flushSegment();
+                writeRecordHeader(tag, time, length);
+                copy(this.out, length);
+            }
+            reportProgress();
+        }
+
+        flushSegment();
+        this.progressHandler.accept(this.inCounter.getCount());
+    }
+
+    private void rewriteSubRecord() throws IOException {
+        int tag = this.in.readUnsignedByte();
+        int id = this.idSize;
+        switch (tag) {
+            case HprofTypes.ROOT_UNKNOWN:
+            case HprofTypes.ROOT_STICKY_CLASS:
+            case HprofTypes.ROOT_MONITOR_USED:
+                copySubRecord(tag, id);
+                break;
+            case HprofTypes.ROOT_JNI_GLOBAL:
+                copySubRecord(tag, id * 2);
+                break;
+            case HprofTypes.ROOT_JNI_LOCAL:
+            case HprofTypes.ROOT_JAVA_FRAME:
+            case HprofTypes.ROOT_THREAD_OBJECT:
+                copySubRecord(tag, id + 8);
+                break;
+            case HprofTypes.ROOT_NATIVE_STACK:
+            case HprofTypes.ROOT_THREAD_BLOCK:
+                copySubRecord(tag, id + 4);
+                break;
+            case HprofTypes.CLASS_DUMP:
+                rewriteClassDump();
+                break;
+            case HprofTypes.INSTANCE_DUMP:
+                rewriteInstanceDump();
+                break;
+            case HprofTypes.OBJECT_ARRAY_DUMP:
+                copyObjectArrayDump();
+                break;
+            case HprofTypes.PRIMITIVE_ARRAY_DUMP:
+                rewritePrimitiveArrayDump();
+                break;
+            default:
+                throw new IOException("Unknown heap dump sub-record tag: 0x" + Integer.toHexString(tag));
+        }
+    }
+
+    private void copySubRecord(int tag, long length) throws IOException {
+        beginSubRecord(1 + length);
+        this.segmentOut.writeByte(tag);
+        copy(this.segmentOut, length);
+    }
+
+    private void copyObjectArrayDump() throws IOException {
+        long arrayId = readId(this.in, null);
+        int stackSerial = this.in.readInt();
+        int count = this.in.readInt();
+        long classId = readId(this.in, null);
+
+        beginSubRecord(1 + this.idSize * 2L + 8 + (long) count * this.idSize);
+        this.segmentOut.writeByte(HprofTypes.OBJECT_ARRAY_DUMP);
+        writeId(this.segmentOut, arrayId);
+        this.segmentOut.writeInt(stackSerial);
+        this.segmentOut.writeInt(count);
+        writeId(this.segmentOut, classId);
+        copy(this.segmentOut, (long) count * this.idSize);
+    }
+
+    private void rewriteClassDump() throws IOException {
+        // the size of a class dump isn't known until it has been read, so it is buffered first
+        ByteArrayOutputStream buffer = new ByteArrayOutputStream();
+        DataOutputStream out = new DataOutputStream(buffer);
+
+        long classId = readId(this.in, out);
+        copy(out, 4); // stack trace serial number
+        long superId = readId(this.in, out);
+        copy(out, this.idSize * 5L); // class loader, signers, protection domain, reserved x2
+        copy(out, 4); // instance size
+
+        boolean redact = shouldRedactFields(classId);
+
+        int constantPoolSize = this.in.readUnsignedShort();
+        out.writeShort(constantPoolSize);
+        for (int i = 0; i < constantPoolSize; i++) {
+            copy(out, 2); // index
+            int type = this.in.readUnsignedByte();
+            out.writeByte(type);
+            copy(out, HprofTypes.size(type, this.idSize));
+        }
+
+        int staticFields = this.in.readUnsignedShort();
+        out.writeShort(staticFields);
+        for (int i = 0; i < staticFields; i++) {
+            readId(this.in, out); // name
+            int type = this.in.readUnsignedByte();
+            out.writeByte(type);
+            int size = HprofTypes.size(type, this.idSize);
+            if (redact && type != HprofTypes.OBJECT) {
+                discard(size);
+                writeZeros(out, size);
+            } else {
+                copy(out, size);
+            }
+        }
+
+        int instanceFields = this.in.readUnsignedShort();
+        out.writeShort(instanceFields);
+        byte[] fieldTypes = new byte[instanceFields];
+        for (int i = 0; i < instanceFields; i++) {
+            readId(this.in, out); // name
+            int type = this.in.readUnsignedByte();
+            out.writeByte(type);
+            fieldTypes[i] = (byte) type;
+        }
+
+        this.classLayouts.put(classId, new ClassLayout(superId, fieldTypes, redact));
+
+        beginSubRecord(1 + buffer.size());
+        this.segmentOut.writeByte(HprofTypes.CLASS_DUMP);
+        buffer.writeTo(this.segmentOut);
+    }
+
+    private void rewriteInstanceDump() throws IOException {
+        long objectId = readId(this.in, null);
+        int stackSerial = this.in.readInt();
+        long classId = readId(this.in, null);
+        int length = this.in.readInt();
+
+        beginSubRecord(1 + this.idSize * 2L + 8 + length);
+        this.segmentOut.writeByte(HprofTypes.INSTANCE_DUMP);
+        writeId(this.segmentOut, objectId);
+        this.segmentOut.writeInt(stackSerial);
+        writeId(this.segmentOut, classId);
+        this.segmentOut.writeInt(length);
+
+        ClassLayout layout = this.classLayouts.get(classId);
+        if (layout != null && !shouldRedactInstances(layout)) {
+            copy(this.segmentOut, length);
+            return;
+        }
+
+        if (this.instanceBuffer.length < length) {
+            this.instanceBuffer = new byte[Math.max(length, this.instanceBuffer.length * 2)];
+        }
+        byte[] values = this.instanceBuffer;
+        this.in.readFully(values, 0, length);
+
+        // field values are ordered by class, starting with the class of the instance and
+        // then moving up through its superclasses
+        int offset = 0;
+        ClassLayout c = layout;
+        for (; c != null; c = this.classLayouts.get(c.superId)) {
+            for (byte type : c.fieldTypes) {
+                int size = HprofTypes.size(type, this.idSize);
+                if (offset + size > length) {
+                    throw new IOException("Instance field values do not match class layout");
+                }
+                if (type != HprofTypes.OBJECT) {
+                    for (int i = offset; i < offset + size; i++) {
+                        values[i] = 0;
+                    }
+                }
+                offset += size;
+            }
+            if (c.superId == 0) {
+                break;
+            }
+        }
+        if (c == null) {
+            // the layout of the class (or one of its superclasses) is unknown, so the remaining
+            // values can't be told apart from references - zero them all rather than copy them
+            Arrays.fill(values, offset, length, (byte) 0);
+        }
+        this.segmentOut.write(values, 0, length);
+    }
+
+    private void rewritePrimitiveArrayDump() throws IOException {
+        long arrayId = readId(this.in, null);
+        int stackSerial = this.in.readInt();
+        int count = this.in.readInt();
+        int type = this.in.readUnsignedByte();
+        long dataLength = (long) count * HprofTypes.size(type, this.idSize);
+
+        boolean truncate = this.mode == Mode.TRUNCATE;
+        beginSubRecord(1 + this.idSize + 9 + (truncate ? 0 : dataLength));
+        this.segmentOut.writeByte(HprofTypes.PRIMITIVE_ARRAY_DUMP);
+        writeId(this.segmentOut, arrayId);
+        this.segmentOut.writeInt(stackSerial);
+        this.segmentOut.writeInt(truncate ? 0 : count);
+        this.segmentOut.writeByte(type);
+
+        discard(dataLength);
+        if (!truncate) {
+            writeZeros(this.segmentOut, dataLength);
+        }
+    }
+
+    private boolean shouldRedactFields(long classId) {
+        Long nameId = this.classNameIds.get(classId);
+        String name = nameId == null ? null : this.classNames.get(nameId);
+        return name != null && this.fieldFilter.test(name.replace('/', '.'));
+    }
+
+    /**
+     * Gets if the fields of instances of a class should be redacted, because it or one of
+     * its superclasses was selected, or because one of its superclasses is unknown.
+     */
+    private boolean shouldRedactInstances(ClassLayout layout) {
+        if (layout.redactInstances == null) {
+            boolean redact = false;
+            ClassLayout c = layout;
+            while (!redact) {
+                redact = c.redact;
+                if (c.superId == 0) {
+                    break;
+                }
+                c = this.classLayouts.get(c.superId);
+                if (c == null) {
+                    redact = true;
+                }
+            }
+            layout.redactInstances = redact;
+        }
+        return layout.redactInstances;
+    }
+
+    /**
+     * Prepares to write a heap dump sub-record of the given length.
+     *
+     * @param length the length of the sub-record, including its tag
+     * @throws IOException if an I/O error occurs
+     */
+    private void beginSubRecord(long length) throws IOException {
+        if (this.segmentLength + length > SEGMENT_SIZE) {
+            flushSegment();
+        }
+        if (length > SEGMENT_SIZE) {
+            // too large to buffer, so write it as a segment of its own
+            writeRecordHeader(HprofTypes.TAG_HEAP_DUMP_SEGMENT, 0, length);
+            this.directRemaining = length;
+        }
+    }
+
+    private void flushSegment() throws IOException {
+        if (this.segmentLength == 0) {
+            return;
+        }
+        writeRecordHeader(HprofTypes.TAG_HEAP_DUMP_SEGMENT, 0, this.segmentLength);
+        this.out.write(this.segment, 0, this.segmentLength);
+        this.segmentLength = 0;
+    }
+
+    private void writeRecordHeader(int tag, int time, long length) throws IOException {
+        this.out.writeByte(tag);
+        this.out.writeInt(time);
+        this.out.writeInt((int) length);
+    }
+
+    private long readId(DataInputStream in, @Nullable DataOutputStream out) throws IOException {
+        long id = this.idSize == 4 ? (in.readInt() & 0xFFFFFFFFL) : in.readLong();
+        if (out != null) {
+            writeId(out, id);
+        }
+        return id;
+    }
+
+    private void writeId(DataOutputStream out, long id) throws IOException {
+        if (this.idSize == 4) {
+            out.writeInt((int) id);
+        } else {
+            out.writeLong(id);
+        }
+    }
+
+    private void copy(OutputStream out, long length) throws IOException {
+        while (length > 0) {
+            int n = (int) Math.min(length, this.copyBuffer.length);
+            this.in.readFully(this.copyBuffer, 0, n);
+            out.write(this.copyBuffer, 0, n);
+            length -= n;
+        }
+    }
+
+    private void discard(long length) throws IOException {
+        while (length > 0) {
+            int n = (int) Math.min(length, this.copyBuffer.length);
+            this.in.readFully(this.copyBuffer, 0, n);
+            length -= n;
+        }
+    }
+
+    private void writeZeros(OutputStream out, long length) throws IOException {
+        while (length > 0) {
+            int n = (int) Math.min(length, this.zeros.length);
+            out.write(this.zeros, 0, n);
+            length -= n;
+        }
+    }
+
+    private void reportProgress() {
+        long count = this.inCounter.getCount();
+        if (count >= this.nextProgressReport) {
+            this.nextProgressReport = count + PROGRESS_INTERVAL;
+            this.progressHandler.accept(count);
+        }
+    }
+
+    /**
+     * Receives the data for the current heap dump segment.
+     */
+    private final class SegmentOutputStream extends OutputStream {
+        @Override
+        public void write(int b) throws IOException {
+            HprofRedactor redactor = HprofRedactor.this;
+            if (redactor.directRemaining > 0) {
+                redactor.out.write(b);
+                redactor.directRemaining--;
+            } else {
+                redactor.segment[redactor.segmentLength++] = (byte) b;
+            }
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) throws IOException {
+            HprofRedactor redactor = HprofRedactor.this;
+            if (redactor.directRemaining > 0) {
+                redactor.out.write(b, off, len);
+                redactor.directRemaining -= len;
+            } else {
+                System.arraycopy(b, off, redactor.segment, redactor.segmentLength, len);
+                redactor.segmentLength += len;
+            }
+        }
+    }
+
+    private static final class ClassLayout {
+        private final long superId;
+        private final byte[] fieldTypes;
+        private final boolean redact;
+        /** If instances should be redacted, including because of a superclass, or null if not known yet */
+        private Boolean redactInstances;
+
+        ClassLayout(long superId, byte[] fieldTypes, boolean redact) {
+            this.superId = superId;
+            this.fieldTypes = fieldTypes;
+            this.redact = redact;
+        }
+    }
+
+}
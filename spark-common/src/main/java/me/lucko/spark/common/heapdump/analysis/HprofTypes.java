@@ -0,0 +1,146 @@
+/*
+ * This file is part of spark.
+ *
+ *  Copyright (c) lucko (Luck) <luck@lucko.me>
+ *  Copyright (c) contributors
+ *
+ *  This program is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package me.lucko.spark.common.heapdump.analysis;
+
+/**
+ * Constants from the HPROF binary format.
+ */
+final class HprofTypes {
+    private HprofTypes() {}
+
+    // top-level record tags
+    static final int TAG_STRING = 0x01;
+    static final int TAG_LOAD_CLASS = 0x02;
+    static final int TAG_FRAME = 0x04;
+    static final int TAG_START_THREAD = 0x0A;
+    static final int TAG_HEAP_DUMP = 0x0C;
+    static final int TAG_HEAP_DUMP_SEGMENT = 0x1C;
+    static final int TAG_HEAP_DUMP_END = 0x2C;
+
+    // heap dump sub-record tags
+    static final int ROOT_UNKNOWN = 0xFF;
+    static final int ROOT_JNI_GLOBAL = 0x01;
+    static final int ROOT_JNI_LOCAL = 0x02;
+    static final int ROOT_JAVA_FRAME = 0x03;
+    static final int ROOT_NATIVE_STACK = 0x04;
+    static final int ROOT_STICKY_CLASS = 0x05;
+    static final int ROOT_THREAD_BLOCK = 0x06;
+    static final int ROOT_MONITOR_USED = 0x07;
+    static final int ROOT_THREAD_OBJECT = 0x08;
+    static final int CLASS_DUMP = 0x20;
+    static final int INSTANCE_DUMP = 0x21;
+    static final int OBJECT_ARRAY_DUMP = 0x22;
+    static final int PRIMITIVE_ARRAY_DUMP = 0x23;
+
+    // basic types
+    static final int OBJECT = 2;
+    static final int BOOLEAN = 4;
+    static final int CHAR = 5;
+    static final int FLOAT = 6;
+    static final int DOUBLE = 7;
+    static final int BYTE = 8;
+    static final int SHORT = 9;
+    static final int INT = 10;
+    static final int LONG = 11;
+
+    /** The estimated size of an object header */
+    static final int OBJECT_HEADER_SIZE = 12;
+    /** The estimated size of an array header */
+    static final int ARRAY_HEADER_SIZE = 16;
+
+    static int size(int type, int idSize) {
+        switch (type) {
+            case OBJECT:
+                return idSize;
+            case BOOLEAN:
+            case BYTE:
+                return 1;
+            case CHAR:
+            case SHORT:
+                return 2;
+            case FLOAT:
+            case INT:
+                return 4;
+            case DOUBLE:
+            case LONG:
+                return 8;
+            default:
+                throw new IllegalArgumentException("Unknown basic type: " + type);
+        }
+    }
+
+    static String primitiveArrayName(int type) {
+        switch (type) {
+            case BOOLEAN:
+                return "boolean[]";
+            case CHAR:
+                return "char[]";
+            case FLOAT:
+                return "float[]";
+            case DOUBLE:
+                return "double[]";
+            case BYTE:
+                return "byte[]";
+            case SHORT:
+                return "short[]";
+            case INT:
+                return "int[]";
+            case LONG:
+                return "long[]";
+            default:
+                throw new IllegalArgumentException("Unknown primitive type: " + type);
+        }
+    }
+
+    static String rootTypeName(int tag) {
+        switch (tag) {
+            case ROOT_JNI_GLOBAL:
+                return "JNI global";
+            case ROOT_JNI_LOCAL:
+                return "JNI local";
+            case ROOT_JAVA_FRAME:
+                return "Java frame";
+            case ROOT_NATIVE_STACK:
+                return "Native stack";
+            case ROOT_STICKY_CLASS:
+                return "System class";
+            case ROOT_THREAD_BLOCK:
+                return "Thread block";
+            case ROOT_MONITOR_USED:
+                return "Busy monitor";
+            case ROOT_THREAD_OBJECT:
+                return "Thread";
+            default:
+                return "Unknown";
+        }
+    }
+
+    /**
+     * Estimates the size of an object in the heap, aligned to 8 bytes.
+     *
+     * @param size the unaligned size
+     * @return the aligned size
+     */
+    static long align(long size) {
+        return (size + 7) & ~7L;
+    }
+
+}
@@ -0,0 +1,132 @@
+/*
+ * This file is part of spark.
+ *
+ *  Copyright (c) lucko (Luck) <luck@lucko.me>
+ *  Copyright (c) contributors
+ *
+ *  This program is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package me.lucko.spark.common.heapdump.analysis;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+
+/**
+ * A large array of primitive values, backed by a memory-mapped temporary file.
+ *
+ * <p>Used to hold per-object data during heap dump analysis, so that the memory needed
+ * to analyse a heap dump does not grow with the size of the heap on the Java heap.
+ * The array grows automatically as values are written, and unwritten values are zero.</p>
+ */
+abstract class MappedArray implements AutoCloseable {
+
+    /** The minimum size of each mapped region (1MB) */
+    private static final int MIN_CHUNK_SHIFT = 20;
+    /** The maximum size of each mapped region (128MB) */
+    private static final int MAX_CHUNK_SHIFT = 27;
+
+    private final Path file;
+    private final FileChannel channel;
+    private final int chunkBytes;
+    /** The shift to apply to an index to get the chunk it is stored in */
+    final int indexShift;
+    /** The mask to apply to an index to get its position within the chunk */
+    final int indexMask;
+
+    private MappedByteBuffer[] chunks = new MappedByteBuffer[0];
+
+    MappedArray(Path file, long expectedLength, int elementShift) throws IOException {
+        this.file = file;
+        this.channel = FileChannel.open(file, StandardOpenOption.READ, StandardOpenOption.WRITE);
+
+        // size the chunks based on the expected length, so small arrays don't map large regions
+        long expectedBytes = Math.max(1, expectedLength) << elementShift;
+        int chunkShift = 64 - Long.numberOfLeadingZeros(expectedBytes - 1);
+        chunkShift = Math.max(MIN_CHUNK_SHIFT, Math.min(MAX_CHUNK_SHIFT, chunkShift));
+
+        this.chunkBytes = 1 << chunkShift;
+        this.indexShift = chunkShift - elementShift;
+        this.indexMask = (1 << this.indexShift) - 1;
+    }
+
+    final ByteBuffer chunk(int index) {
+        if (index < this.chunks.length) {
+            MappedByteBuffer chunk = this.chunks[index];
+            if (chunk != null) {
+                return chunk;
+            }
+        } else {
+            this.chunks = Arrays.copyOf(this.chunks, Math.max(index + 1, this.chunks.length * 2));
+        }
+
+        try {
+            MappedByteBuffer chunk = this.channel.map(FileChannel.MapMode.READ_WRITE, (long) index * this.chunkBytes, this.chunkBytes);
+            this.chunks[index] = chunk;
+            return chunk;
+        } catch (IOException e) {
+            throw new RuntimeException("Unable to map " + this.file, e);
+        }
+    }
+
+    @Override
+    public void close() {
+        this.chunks = new MappedByteBuffer[0];
+        try {
+            this.channel.close();
+            Files.deleteIfExists(this.file);
+        } catch (IOException e) {
+            // ignore - the file will be removed with the other temporary files
+        }
+    }
+
+    static final class Ints extends MappedArray {
+        Ints(Path file, long expectedLength) throws IOException {
+            super(file, expectedLength, 2);
+        }
+
+        int get(long index) {
+            return chunk((int) (index >>> this.indexShift)).getInt((int) (index & this.indexMask) << 2);
+        }
+
+        void set(long index, int value) {
+            chunk((int) (index >>> this.indexShift)).putInt((int) (index & this.indexMask) << 2, value);
+        }
+    }
+
+    static final class Longs extends MappedArray {
+        Longs(Path file, long expectedLength) throws IOException {
+            super(file, expectedLength, 3);
+        }
+
+        long get(long index) {
+            return chunk((int) (index >>> this.indexShift)).getLong((int) (index & this.indexMask) << 3);
+        }
+
+        void set(long index, long value) {
+            chunk((int) (index >>> this.indexShift)).putLong((int) (index & this.indexMask) << 3, value);
+        }
+
+        void add(long index, long value) {
+            set(index, get(index) + value);
+        }
+    }
+
+}
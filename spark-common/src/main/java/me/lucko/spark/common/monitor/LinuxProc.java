@@ -51,6 +51,11 @@ public enum LinuxProc {
      */
     NET_DEV("/proc/net/dev"),
 
+    /**
+     * Information about the memory mapped by the current process, summed over all mappings.
+     */
+    SMAPS_ROLLUP("/proc/self/smaps_rollup"),
+
     /**
      * Information about the operating system distro.
      */
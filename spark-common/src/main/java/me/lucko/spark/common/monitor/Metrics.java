@@ -26,6 +26,11 @@ import me.lucko.spark.common.util.TimeUtil;
 import me.lucko.spark.proto.SparkProtos;
 
 import java.time.Duration;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Consumer;
+import java.util.function.Function;
 
 /**
  * A collection of metrics series used for monitoring the server.
@@ -40,7 +45,7 @@ public enum Metrics {
     ;
 
     /** The retention period of the metrics series. */
-    private static final Duration RETENTION = Duration.ofHours(1);
+    public static final Duration RETENTION = Duration.ofHours(1);
 
     /** The interval between metric recordings. */
     public static final int INTERVAL_MILLIS = (int) Duration.ofSeconds(10).toMillis();
@@ -64,6 +69,20 @@ public enum Metrics {
     public static final MetricSeries.Doubles MEMORY_ALLOCATION = new MetricSeries.Doubles(RETENTION, INITIAL_CAPACITY);
     public static final MetricSeries.WorldInfo WORLD_INFO = new MetricSeries.WorldInfo(RETENTION, INITIAL_CAPACITY);
     public static final MetricSeries.Averages PLAYER_PING = new MetricSeries.Averages(RETENTION, INITIAL_CAPACITY);
+    public static final MetricSeries.Doubles GC_TICK_LAG_YOUNG = new MetricSeries.Doubles(RETENTION, INITIAL_CAPACITY);
+    public static final MetricSeries.Doubles GC_TICK_LAG_OLD = new MetricSeries.Doubles(RETENTION, INITIAL_CAPACITY);
+    public static final MetricSeries.Doubles GC_TICK_LAG_CONCURRENT = new MetricSeries.Doubles(RETENTION, INITIAL_CAPACITY);
+    public static final MetricSeries.Doubles TICK_OVERRUN = new MetricSeries.Doubles(RETENTION, INITIAL_CAPACITY);
+    public static final MetricSeries.Doubles MEMORY_DIRECT_BUFFERS = new MetricSeries.Doubles(RETENTION, INITIAL_CAPACITY);
+    public static final MetricSeries.Doubles MEMORY_RSS = new MetricSeries.Doubles(RETENTION, INITIAL_CAPACITY);
+    public static final MetricSeries.Doubles SAFEPOINT_TIME = new MetricSeries.Doubles(RETENTION, INITIAL_CAPACITY);
+    public static final MetricSeries.Doubles SAFEPOINT_SYNC_TIME = new MetricSeries.Doubles(RETENTION, INITIAL_CAPACITY);
+    public static final MetricSeries.Doubles COMPILATION_TIME = new MetricSeries.Doubles(RETENTION, INITIAL_CAPACITY);
+    public static final Map<String, MetricSeries.Doubles> MEMORY_ALLOCATION_BY_POOL = new ConcurrentHashMap<>();
+
+    public static MetricSeries.Doubles newDoublesSeries() {
+        return new MetricSeries.Doubles(RETENTION, INITIAL_CAPACITY);
+    }
 
     public static boolean shouldRecordTps() {
         return shouldRecord(TPS, TimeUtil.monotonicCurrentTimeMillis());
@@ -91,17 +110,95 @@ public enum Metrics {
     }
 
     public static SparkProtos.Metrics exportProto() {
+        return exportProto(new Cursor(), new Cursor());
+    }
+
+    /**
+     * Exports the samples recorded since the given cursor.
+     *
+     * <p>Series which have no new samples are omitted.</p>
+     *
+     * @param since the cursor describing the samples which have already been exported
+     * @param next a new (empty) cursor, which is populated to describe the samples exported by this call
+     * @return the exported samples
+     */
+    public static SparkProtos.Metrics exportProto(Cursor since, Cursor next) {
         SparkProtos.Metrics.Builder builder = SparkProtos.Metrics.newBuilder();
-        if (!TPS.isEmpty()) builder.setTps(TPS.toProto());
-        if (!TICK_DURATION.isEmpty()) builder.setTickDuration(TICK_DURATION.toProto());
-        if (!CPU_USAGE_PROCESS.isEmpty()) builder.setCpuUsageProcess(CPU_USAGE_PROCESS.toProto());
-        if (!CPU_USAGE_SYSTEM.isEmpty()) builder.setCpuUsageSystem(CPU_USAGE_SYSTEM.toProto());
-        if (!MEMORY_USAGE_HEAP.isEmpty()) builder.setMemoryUsageHeap(MEMORY_USAGE_HEAP.toProto());
-        if (!MEMORY_USAGE_NON_HEAP.isEmpty()) builder.setMemoryUsageNonHeap(MEMORY_USAGE_NON_HEAP.toProto());
-        if (!MEMORY_ALLOCATION.isEmpty()) builder.setMemoryAllocation(MEMORY_ALLOCATION.toProto());
-        if (!WORLD_INFO.isEmpty()) builder.setWorldInfo(WORLD_INFO.toProto());
-        if (!PLAYER_PING.isEmpty()) builder.setPlayerPing(PLAYER_PING.toProto());
+        export(TPS, since, next, TPS::toProto, builder::setTps);
+        export(TICK_DURATION, since, next, TICK_DURATION::toProto, builder::setTickDuration);
+        export(CPU_USAGE_PROCESS, since, next, CPU_USAGE_PROCESS::toProto, builder::setCpuUsageProcess);
+        export(CPU_USAGE_SYSTEM, since, next, CPU_USAGE_SYSTEM::toProto, builder::setCpuUsageSystem);
+        export(MEMORY_USAGE_HEAP, since, next, MEMORY_USAGE_HEAP::toProto, builder::setMemoryUsageHeap);
+        export(MEMORY_USAGE_NON_HEAP, since, next, MEMORY_USAGE_NON_HEAP::toProto, builder::setMemoryUsageNonHeap);
+        export(MEMORY_ALLOCATION, since, next, MEMORY_ALLOCATION::toProto, builder::setMemoryAllocation);
+        export(WORLD_INFO, since, next, WORLD_INFO::toProto, builder::setWorldInfo);
+        export(PLAYER_PING, since, next, PLAYER_PING::toProto, builder::setPlayerPing);
+        export(GC_TICK_LAG_YOUNG, since, next, GC_TICK_LAG_YOUNG::toProto, builder::setGcTickLagYoung);
+        export(GC_TICK_LAG_OLD, since, next, GC_TICK_LAG_OLD::toProto, builder::setGcTickLagOld);
+        export(GC_TICK_LAG_CONCURRENT, since, next, GC_TICK_LAG_CONCURRENT::toProto, builder::setGcTickLagConcurrent);
+        export(TICK_OVERRUN, since, next, TICK_OVERRUN::toProto, builder::setTickOverrun);
+        export(MEMORY_DIRECT_BUFFERS, since, next, MEMORY_DIRECT_BUFFERS::toProto, builder::setMemoryDirectBuffers);
+        export(MEMORY_RSS, since, next, MEMORY_RSS::toProto, builder::setMemoryRss);
+        export(SAFEPOINT_TIME, since, next, SAFEPOINT_TIME::toProto, builder::setSafepointTime);
+        export(SAFEPOINT_SYNC_TIME, since, next, SAFEPOINT_SYNC_TIME::toProto, builder::setSafepointSyncTime);
+        export(COMPILATION_TIME, since, next, COMPILATION_TIME::toProto, builder::setCompilationTime);
+        MEMORY_ALLOCATION_BY_POOL.forEach((pool, series) -> {
+            export(series, since, next, series::toProto, proto -> builder.putMemoryAllocationByPool(pool, proto));
+        });
         return builder.build();
     }
 
+    private static <P> void export(MetricSeries<?> series, Cursor since, Cursor next, Function<MetricSeries.Export, P> toProto, Consumer<P> consumer) {
+        long highWaterMark = since.highWaterMark(series);
+        MetricSeries.Export export = series.export(highWaterMark);
+        if (export.isEmpty()) {
+            next.update(series, highWaterMark);
+            return;
+        }
+
+        next.update(series, export.newestTimestampMs());
+        consumer.accept(toProto.apply(export));
+    }
+
+    /**
+     * Tracks the newest sample that has been exported from each series.
+     *
+     * <p>Used to export only the samples which have been recorded since a previous export.</p>
+     */
+    public static final class Cursor {
+        /** series (compared by identity) -> the timestamp of the newest exported sample */
+        private final Map<MetricSeries<?>, Long> highWaterMarks = new HashMap<>();
+
+        long highWaterMark(MetricSeries<?> series) {
+            return this.highWaterMarks.getOrDefault(series, 0L);
+        }
+
+        void update(MetricSeries<?> series, long highWaterMark) {
+            if (highWaterMark != 0) {
+                this.highWaterMarks.put(series, highWaterMark);
+            }
+        }
+
+        /**
+         * Gets if nothing has been exported yet, in which case an export will contain all samples.
+         *
+         * @return true if empty
+         */
+        public boolean isEmpty() {
+            return this.highWaterMarks.isEmpty();
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) return true;
+            if (o == null || getClass() != o.getClass()) return false;
+            return this.highWaterMarks.equals(((Cursor) o).highWaterMarks);
+        }
+
+        @Override
+        public int hashCode() {
+            return this.highWaterMarks.hashCode();
+        }
+    }
+
 }
@@ -0,0 +1,247 @@
+/*
+ * This file is part of spark.
+ *
+ *  Copyright (c) lucko (Luck) <luck@lucko.me>
+ *  Copyright (c) contributors
+ *
+ *  This program is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package me.lucko.spark.common.monitor;
+
+import me.lucko.spark.common.sampler.ThreadGrouper;
+import org.jetbrains.annotations.VisibleForTesting;
+
+import java.lang.management.ThreadInfo;
+import java.lang.management.ThreadMXBean;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Tracks a cumulative per-thread counter (e.g. CPU time or allocated bytes), and the rate at
+ * which it increases for each thread pool.
+ *
+ * <p>Threads are grouped into pools using the same logic as {@link ThreadGrouper.ByPool}.
+ * Thread names are only looked up for threads that haven't been seen before, so as long as
+ * {@link #readCounters(long[])} is a single batched call, each poll is cheap.</p>
+ *
+ * @param <P> the pool type
+ */
+public abstract class ThreadPoolTracker<P extends ThreadPoolTracker.Pool> {
+
+    private final ThreadMXBean bean;
+    /** How long a pool is kept after it was last seen with any live threads */
+    private final long idlePoolRetentionMillis;
+
+    /** thread id -> the state of the thread when it was last polled */
+    private final Map<Long, ThreadState> threads = new HashMap<>();
+    /** pool name -> pool */
+    private final Map<String, P> pools = new ConcurrentHashMap<>();
+
+    /**
+     * Creates a new tracker.
+     *
+     * <p>Pools which no longer have any live threads (e.g. an idle cached executor) are kept,
+     * and recorded as idle, until they have been empty for longer than the given retention period.</p>
+     *
+     * @param bean the thread bean
+     * @param idlePoolRetentionMillis how long to keep pools which no longer have any live threads
+     */
+    protected ThreadPoolTracker(ThreadMXBean bean, long idlePoolRetentionMillis) {
+        this.bean = bean;
+        this.idlePoolRetentionMillis = idlePoolRetentionMillis;
+    }
+
+    /**
+     * Reads the current value of the counter for each of the given threads.
+     *
+     * @param threadIds the thread ids
+     * @return the counter values, or -1 for threads where the value is not available
+     */
+    protected abstract long[] readCounters(long[] threadIds);
+
+    /**
+     * Creates a new pool.
+     *
+     * @param name the name of the pool
+     * @return the pool
+     */
+    protected abstract P createPool(String name);
+
+    /**
+     * Records the increase in the counter for a pool since the previous poll.
+     *
+     * <p>This is also called for pools which currently have no live threads, with a delta of zero,
+     * until they are removed.</p>
+     *
+     * @param pool the pool
+     * @param delta the increase in the counter, summed over all threads in the pool
+     * @param timeMillis the current time
+     * @param elapsedMillis the time elapsed since the previous poll
+     */
+    protected abstract void record(P pool, long delta, long timeMillis, long elapsedMillis);
+
+    /**
+     * Called when a pool is forgotten, because it has had no live threads for longer than the retention period.
+     *
+     * @param pool the pool
+     */
+    protected void onPoolRemoved(P pool) {
+
+    }
+
+    /**
+     * Polls the counter for each thread, and updates each pool.
+     *
+     * @param timeMillis the current time
+     * @param elapsedMillis the time elapsed since the previous poll, or -1 if this is the first poll
+     */
+    public synchronized void poll(long timeMillis, long elapsedMillis) {
+        long[] threadIds = this.bean.getAllThreadIds();
+        long[] counters = readCounters(threadIds);
+
+        // look up the names of any new threads
+        List<Long> newThreadIds = new ArrayList<>();
+        for (long threadId : threadIds) {
+            if (!this.threads.containsKey(threadId)) {
+                newThreadIds.add(threadId);
+            }
+        }
+        if (!newThreadIds.isEmpty()) {
+            long[] ids = newThreadIds.stream().mapToLong(Long::longValue).toArray();
+            for (ThreadInfo info : this.bean.getThreadInfo(ids, 0)) {
+                if (info != null) {
+                    String pool = ThreadGrouper.ByPool.getPoolName(info.getThreadName());
+                    this.threads.put(info.getThreadId(), new ThreadState(pool));
+                }
+            }
+        }
+
+        Map<String, long[]> polled = new HashMap<>(); // pool -> [increase since last poll, thread count]
+        for (int i = 0; i < threadIds.length; i++) {
+            ThreadState thread = this.threads.get(threadIds[i]);
+            if (thread == null || counters[i] < 0) {
+                continue;
+            }
+
+            // threads that have started since the last poll have only been counting within the interval
+            long previous = thread.lastCounter == -1 ? 0 : thread.lastCounter;
+            long delta = Math.max(0, counters[i] - previous);
+            thread.lastCounter = counters[i];
+            thread.lastSeen = timeMillis;
+
+            long[] totals = polled.computeIfAbsent(thread.pool, p -> new long[2]);
+            totals[0] += delta;
+            totals[1]++;
+        }
+
+        // forget threads that have died
+        this.threads.values().removeIf(thread -> thread.lastSeen != timeMillis);
+
+        if (elapsedMillis <= 0) {
+            return; // the first poll only establishes a baseline
+        }
+
+        for (Map.Entry<String, long[]> entry : polled.entrySet()) {
+            P pool = this.pools.computeIfAbsent(entry.getKey(), this::createPool);
+            pool.threads = (int) entry.getValue()[1];
+            pool.lastActiveMillis = timeMillis;
+            record(pool, entry.getValue()[0], timeMillis, elapsedMillis);
+        }
+
+        // pools which no longer have any threads are recorded as idle, and forgotten once they
+        // have been idle for longer than the retention period
+        for (Iterator<P> it = this.pools.values().iterator(); it.hasNext(); ) {
+            P pool = it.next();
+            if (polled.containsKey(pool.name())) {
+                continue;
+            }
+
+            pool.threads = 0;
+            if (timeMillis - pool.lastActiveMillis > this.idlePoolRetentionMillis) {
+                it.remove();
+                onPoolRemoved(pool);
+            } else {
+                record(pool, 0, timeMillis, elapsedMillis);
+            }
+        }
+    }
+
+    /**
+     * Gets the tracked pools, in descending order of their recent rate.
+     *
+     * @return the pools
+     */
+    public List<P> getPools() {
+        List<P> pools = new ArrayList<>(this.pools.values());
+        pools.sort(Collections.reverseOrder(Comparator.comparingDouble(Pool::recentRate)));
+        return pools;
+    }
+
+    @VisibleForTesting
+    synchronized int trackedThreadCount() {
+        return this.threads.size();
+    }
+
+    private static final class ThreadState {
+        private final String pool;
+        private long lastCounter = -1;
+        private long lastSeen;
+
+        ThreadState(String pool) {
+            this.pool = pool;
+        }
+    }
+
+    /**
+     * A thread pool.
+     */
+    public abstract static class Pool {
+        private final String name;
+        volatile int threads;
+        /** The time of the last poll where the pool had any live threads */
+        long lastActiveMillis;
+
+        protected Pool(String name) {
+            this.name = name;
+        }
+
+        public String name() {
+            return this.name;
+        }
+
+        /**
+         * Gets the number of live threads in the pool, as of the last poll.
+         *
+         * @return the thread count
+         */
+        public int threads() {
+            return this.threads;
+        }
+
+        /**
+         * Gets the recent rate of the pool, used to order the pools.
+         *
+         * @return the recent rate
+         */
+        protected abstract double recentRate();
+    }
+
+}
@@ -29,6 +29,7 @@ import javax.management.JMX;
 import javax.management.MBeanServer;
 import javax.management.ObjectName;
 import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
 import java.math.BigDecimal;
 
 /**
@@ -41,6 +42,8 @@ public enum CpuMonitor {
     private static final String OPERATING_SYSTEM_BEAN = "java.lang:type=OperatingSystem";
     /** The OperatingSystemMXBean instance */
     private static final OperatingSystemMXBean BEAN;
+    /** The tracker for the CPU usage of each thread pool */
+    private static final PoolCpuTracker POOL_CPU_TRACKER;
 
     // Rolling averages for system/process data
     private static final RollingAverage SYSTEM_AVERAGE_10_SEC = new RollingAverage(10);
@@ -60,6 +63,16 @@ public enum CpuMonitor {
         }
 
         MonitoringExecutor.scheduleAtFixedRateMillis(new PollingTask(), 1000 /* 1 second */);
+
+        // thread cpu time measurement is a JVM-wide setting, so if it has been disabled
+        // (e.g. by the server or another plugin) leave it that way
+        ThreadMXBean threadBean = ManagementFactory.getThreadMXBean();
+        if (threadBean.isThreadCpuTimeSupported() && threadBean.isThreadCpuTimeEnabled()) {
+            POOL_CPU_TRACKER = new PoolCpuTracker(threadBean);
+            MonitoringExecutor.scheduleAtFixedRateMillis(new PoolPollingTask(), PoolCpuTracker.INTERVAL_MILLIS);
+        } else {
+            POOL_CPU_TRACKER = null;
+        }
     }
 
     /**
@@ -130,6 +143,15 @@ public enum CpuMonitor {
         return PROCESS_AVERAGE_15_MIN.mean();
     }
 
+    /**
+     * Gets the tracker for the CPU usage of each thread pool.
+     *
+     * @return the tracker, or null if thread CPU time is not supported or has been disabled
+     */
+    public static PoolCpuTracker getPoolCpuTracker() {
+        return POOL_CPU_TRACKER;
+    }
+
     /**
      * Task to poll CPU loads and add to the rolling averages in the enclosing class.
      */
@@ -175,6 +197,20 @@ public enum CpuMonitor {
         }
     }
 
+    /**
+     * Task to poll the CPU time used by each thread pool.
+     */
+    private static final class PoolPollingTask implements Runnable {
+        private long previousTimeMillis = -1;
+
+        @Override
+        public void run() {
+            long timeMillis = TimeUtil.monotonicCurrentTimeMillis();
+            POOL_CPU_TRACKER.poll(timeMillis, this.previousTimeMillis == -1 ? -1 : timeMillis - this.previousTimeMillis);
+            this.previousTimeMillis = timeMillis;
+        }
+    }
+
     public interface OperatingSystemMXBean {
         double getSystemCpuLoad();
         double getProcessCpuLoad();
@@ -0,0 +1,121 @@
+/*
+ * This file is part of spark.
+ *
+ *  Copyright (c) lucko (Luck) <luck@lucko.me>
+ *  Copyright (c) contributors
+ *
+ *  This program is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+
+package me.lucko.spark.common.monitor.cpu;
+
+import me.lucko.spark.common.monitor.ThreadPoolTracker;
+import me.lucko.spark.common.util.RollingAverage;
+
+import java.lang.management.ThreadMXBean;
+import java.math.BigDecimal;
+
+/**
+ * Tracks the CPU time used by the threads in each thread pool.
+ */
+public final class PoolCpuTracker extends ThreadPoolTracker<PoolCpuTracker.PoolCpuUsage> {
+
+    /** The interval between polls */
+    static final long INTERVAL_MILLIS = 2000;
+    /** The number of polls in 10 seconds */
+    private static final int POLLS_PER_10_SECONDS = (int) (10_000L / INTERVAL_MILLIS);
+
+    private final ThreadMXBean bean;
+
+    PoolCpuTracker(ThreadMXBean bean) {
+        super(bean, 0);
+        this.bean = bean;
+    }
+
+    @Override
+    protected long[] readCounters(long[] threadIds) {
+        if (this.bean instanceof com.sun.management.ThreadMXBean) {
+            // batched - a single call for all threads
+            return ((com.sun.management.ThreadMXBean) this.bean).getThreadCpuTime(threadIds);
+        }
+
+        long[] cpuTimes = new long[threadIds.length];
+        for (int i = 0; i < threadIds.length; i++) {
+            cpuTimes[i] = this.bean.getThreadCpuTime(threadIds[i]);
+        }
+        return cpuTimes;
+    }
+
+    @Override
+    protected PoolCpuUsage createPool(String name) {
+        return new PoolCpuUsage(name);
+    }
+
+    @Override
+    protected void record(PoolCpuUsage pool, long delta, long timeMillis, long elapsedMillis) {
+        double cores = delta / (elapsedMillis * 1_000_000.0); // ns / ns
+
+        BigDecimal value = new BigDecimal(cores);
+        pool.cores10Sec.add(value);
+        pool.cores1Min.add(value);
+        pool.cores15Min.add(value);
+    }
+
+    /**
+     * The CPU usage of a thread pool.
+     */
+    public static final class PoolCpuUsage extends ThreadPoolTracker.Pool {
+        private final RollingAverage cores10Sec = new RollingAverage(POLLS_PER_10_SECONDS);
+        private final RollingAverage cores1Min = new RollingAverage(POLLS_PER_10_SECONDS * 6);
+        private final RollingAverage cores15Min = new RollingAverage(POLLS_PER_10_SECONDS * 6 * 15);
+
+        PoolCpuUsage(String name) {
+            super(name);
+        }
+
+        /**
+         * Gets the average number of CPU cores used by the pool over the last 10 seconds.
+         *
+         * @return the number of cores, e.g. 1.5 if the pool used one and a half cores
+         */
+        public double cores10Sec() {
+            return this.cores10Sec.mean();
+        }
+
+        /**
+         * Gets the average number of CPU cores used by the pool over the last minute.
+         *
+         * @return the number of cores
+         */
+        public double cores1Min() {
+            return this.cores1Min.mean();
+        }
+
+        /**
+         * Gets the average number of CPU cores used by the pool over the last 15 minutes.
+         *
+         * @return the number of cores
+         */
+        public double cores15Min() {
+            return this.cores15Min.mean();
+        }
+
+        @Override
+        protected double recentRate() {
+            return cores1Min();
+        }
+    }
+
+}
@@ -41,6 +41,7 @@ public enum MemoryAllocationInfo {
 
     private static final ThreadMXBean BEAN;
     private static final Method GET_TOTAL_THREAD_ALLOCATED_BYTES_METHOD;
+    private static final PoolAllocationTracker POOL_ALLOCATION_TRACKER;
 
     /* Bytes per second - rolling averages */
     public static final RollingAverage BPS_AVERAGE_1_MIN = new RollingAverage(60);
@@ -66,6 +67,7 @@ public enum MemoryAllocationInfo {
             }
         }
         GET_TOTAL_THREAD_ALLOCATED_BYTES_METHOD = getTotalThreadAllocatedBytesMethod;
+        POOL_ALLOCATION_TRACKER = SUPPORTED ? new PoolAllocationTracker(BEAN) : null;
 
         if (SUPPORTED) {
             MonitoringExecutor.scheduleAtFixedRateMillis(new PollingTask(), Metrics.INTERVAL_MILLIS);
@@ -116,6 +118,15 @@ public enum MemoryAllocationInfo {
         return total;
     }
 
+    /**
+     * Gets the tracker for the allocation rate of each thread pool.
+     *
+     * @return the tracker, or null if allocation info is not supported
+     */
+    public static PoolAllocationTracker getPoolAllocationTracker() {
+        return POOL_ALLOCATION_TRACKER;
+    }
+
     /**
      * Task to poll memory allocations.
      */
@@ -143,6 +154,8 @@ public enum MemoryAllocationInfo {
                 }
             }
 
+            POOL_ALLOCATION_TRACKER.poll(timeMillis, this.previousTimeMillis == -1 ? -1 : timeMillis - this.previousTimeMillis);
+
             this.previousAllocatedBytes = totalAllocatedBytes;
             this.previousTimeMillis = timeMillis;
         }
@@ -58,6 +58,14 @@ public enum MemoryMonitor {
             long timeMillis = TimeUtil.monotonicCurrentTimeMillis();
             Metrics.MEMORY_USAGE_HEAP.record(timeMillis, BEAN.getHeapMemoryUsage());
             Metrics.MEMORY_USAGE_NON_HEAP.record(timeMillis, BEAN.getNonHeapMemoryUsage());
+
+            NativeMemoryInfo nativeMemory = NativeMemoryInfo.poll(false);
+            if (nativeMemory.getDirectBuffers() != null) {
+                Metrics.MEMORY_DIRECT_BUFFERS.record(timeMillis, (double) nativeMemory.getDirectBuffers().getUsed());
+            }
+            if (nativeMemory.getRss() != -1) {
+                Metrics.MEMORY_RSS.record(timeMillis, (double) nativeMemory.getRss());
+            }
         }
     }
 
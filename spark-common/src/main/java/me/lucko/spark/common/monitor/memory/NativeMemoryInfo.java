@@ -0,0 +1,308 @@
+/*
+ * This file is part of spark.
+ *
+ *  Copyright (c) lucko (Luck) <luck@lucko.me>
+ *  Copyright (c) contributors
+ *
+ *  This program is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package me.lucko.spark.common.monitor.memory;
+
+import me.lucko.spark.common.monitor.LinuxProc;
+import me.lucko.spark.common.platform.PlatformStatisticsProvider;
+import me.lucko.spark.proto.SparkProtos.PlatformStatistics;
+import org.jetbrains.annotations.VisibleForTesting;
+
+import javax.management.JMX;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+import java.lang.management.BufferPoolMXBean;
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryPoolMXBean;
+import java.lang.management.MemoryUsage;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * A snapshot of the memory used by the process outside of the Java heap.
+ *
+ * <p>Combines the JVM's buffer pools and non-heap memory pools with (if enabled) the JVM's
+ * Native Memory Tracking summary, and (on Linux) the resident set size of the process, so
+ * that differences between the size of the heap and the memory used by the process can be
+ * accounted for.</p>
+ */
+public final class NativeMemoryInfo {
+
+    /** The object name of the com.sun.management.DiagnosticCommandMBean */
+    private static final String DIAGNOSTIC_BEAN = "com.sun.management:type=DiagnosticCommand";
+
+    /** The format used by entries in /proc/self/smaps_rollup */
+    private static final Pattern PROC_SMAPS_VALUE = Pattern.compile("^(\\w+):\\s*(\\d+) kB$");
+    /** The format used by categories in the NMT summary */
+    private static final Pattern NMT_CATEGORY = Pattern.compile("^-\\s*(.+?) \\(reserved=(\\d+)KB, committed=(\\d+)KB\\)\\s*$");
+
+    /**
+     * Polls the current native memory usage.
+     *
+     * @param includeNativeMemoryTracking if the NMT summary should be included (if enabled),
+     *                                    which is more expensive to obtain than the other values
+     * @return the native memory usage
+     */
+    public static NativeMemoryInfo poll(boolean includeNativeMemoryTracking) {
+        NativeMemoryInfo info = new NativeMemoryInfo();
+
+        for (BufferPoolMXBean pool : ManagementFactory.getPlatformMXBeans(BufferPoolMXBean.class)) {
+            BufferPool bufferPool = new BufferPool(pool.getCount(), pool.getMemoryUsed(), pool.getTotalCapacity());
+            if (pool.getName().equals("direct")) {
+                info.directBuffers = bufferPool;
+            } else if (pool.getName().equals("mapped")) {
+                info.mappedBuffers = bufferPool;
+            }
+        }
+
+        for (MemoryPoolMXBean pool : ManagementFactory.getMemoryPoolMXBeans()) {
+            String name = pool.getName();
+            MemoryUsage usage = pool.getUsage();
+            if (name.equals("Metaspace")) {
+                info.metaspace = usage;
+            } else if (name.equals("Compressed Class Space")) {
+                info.compressedClassSpace = usage;
+            } else if (name.equals("Code Cache") || name.startsWith("CodeHeap")) {
+                // java 9+ splits the code cache into multiple segments
+                info.codeCache = info.codeCache == null ? usage : sum(info.codeCache, usage);
+            }
+        }
+
+        Map<String, Long> smaps = readSmapsRollup();
+        info.rss = smaps.getOrDefault("Rss", -1L);
+        info.rssAnonymous = smaps.getOrDefault("Anonymous", -1L);
+        info.swap = smaps.getOrDefault("Swap", -1L);
+        if (info.rss != -1 && info.rssAnonymous != -1) {
+            info.rssFile = info.rss - info.rssAnonymous;
+        }
+
+        if (includeNativeMemoryTracking) {
+            info.nativeMemoryTracking = readNativeMemoryTracking();
+        }
+
+        return info;
+    }
+
+    private static MemoryUsage sum(MemoryUsage a, MemoryUsage b) {
+        return new MemoryUsage(
+                a.getInit() + b.getInit(),
+                a.getUsed() + b.getUsed(),
+                a.getCommitted() + b.getCommitted(),
+                a.getMax() == -1 || b.getMax() == -1 ? -1 : a.getMax() + b.getMax()
+        );
+    }
+
+    private static Map<String, Long> readSmapsRollup() {
+        Map<String, Long> values = new LinkedHashMap<>();
+        for (String line : LinuxProc.SMAPS_ROLLUP.read()) {
+            Matcher matcher = PROC_SMAPS_VALUE.matcher(line);
+            if (matcher.matches()) {
+                values.put(matcher.group(1), Long.parseLong(matcher.group(2)) * 1024); // kB -> B
+            }
+        }
+        return values;
+    }
+
+    private static Map<String, NmtCategory> readNativeMemoryTracking() {
+        String output;
+        try {
+            MBeanServer beanServer = ManagementFactory.getPlatformMBeanServer();
+            ObjectName diagnosticBeanName = ObjectName.getInstance(DIAGNOSTIC_BEAN);
+
+            DiagnosticCommandMXBean proxy = JMX.newMXBeanProxy(beanServer, diagnosticBeanName, DiagnosticCommandMXBean.class);
+            output = proxy.vmNativeMemory(new String[]{"summary", "scale=KB"});
+        } catch (Exception e) {
+            return Collections.emptyMap();
+        }
+        return parseNativeMemoryTracking(output);
+    }
+
+    @VisibleForTesting
+    static Map<String, NmtCategory> parseNativeMemoryTracking(String output) {
+        Map<String, NmtCategory> categories = new LinkedHashMap<>();
+        for (String line : output.split("\n")) {
+            Matcher matcher = NMT_CATEGORY.matcher(line.trim());
+            if (matcher.matches()) {
+                categories.put(matcher.group(1), new NmtCategory(
+                        Long.parseLong(matcher.group(2)) * 1024, // KB -> B
+                        Long.parseLong(matcher.group(3)) * 1024
+                ));
+            }
+        }
+        return categories;
+    }
+
+    private BufferPool directBuffers;
+    private BufferPool mappedBuffers;
+    private MemoryUsage metaspace;
+    private MemoryUsage compressedClassSpace;
+    private MemoryUsage codeCache;
+    private long rss = -1;
+    private long rssAnonymous = -1;
+    private long rssFile = -1;
+    private long swap = -1;
+    private Map<String, NmtCategory> nativeMemoryTracking = Collections.emptyMap();
+
+    private NativeMemoryInfo() {
+
+    }
+
+    public BufferPool getDirectBuffers() {
+        return this.directBuffers;
+    }
+
+    public BufferPool getMappedBuffers() {
+        return this.mappedBuffers;
+    }
+
+    public MemoryUsage getMetaspace() {
+        return this.metaspace;
+    }
+
+    public MemoryUsage getCompressedClassSpace() {
+        return this.compressedClassSpace;
+    }
+
+    public MemoryUsage getCodeCache() {
+        return this.codeCache;
+    }
+
+    /**
+     * Gets the resident set size of the process.
+     *
+     * @return the rss in bytes, or -1 if unknown
+     */
+    public long getRss() {
+        return this.rss;
+    }
+
+    public long getRssAnonymous() {
+        return this.rssAnonymous;
+    }
+
+    public long getRssFile() {
+        return this.rssFile;
+    }
+
+    public long getSwap() {
+        return this.swap;
+    }
+
+    /**
+     * Gets the categories from the Native Memory Tracking summary.
+     *
+     * @return the categories, or an empty map if NMT is not enabled
+     */
+    public Map<String, NmtCategory> getNativeMemoryTracking() {
+        return this.nativeMemoryTracking;
+    }
+
+    public PlatformStatistics.Memory.NativeMemory toProto() {
+        PlatformStatistics.Memory.NativeMemory.Builder proto = PlatformStatistics.Memory.NativeMemory.newBuilder();
+        if (this.directBuffers != null) {
+            proto.setDirectBuffers(this.directBuffers.toProto());
+        }
+        if (this.mappedBuffers != null) {
+            proto.setMappedBuffers(this.mappedBuffers.toProto());
+        }
+        if (this.metaspace != null) {
+            proto.setMetaspace(PlatformStatisticsProvider.memoryUsageProto(this.metaspace));
+        }
+        if (this.compressedClassSpace != null) {
+            proto.setCompressedClassSpace(PlatformStatisticsProvider.memoryUsageProto(this.compressedClassSpace));
+        }
+        if (this.codeCache != null) {
+            proto.setCodeCache(PlatformStatisticsProvider.memoryUsageProto(this.codeCache));
+        }
+        if (this.rss != -1) {
+            proto.setRss(this.rss);
+            proto.setRssAnonymous(this.rssAnonymous);
+            proto.setRssFile(this.rssFile);
+            proto.setSwap(this.swap);
+        }
+        this.nativeMemoryTracking.forEach((name, category) -> proto.putNmt(name, category.toProto()));
+        return proto.build();
+    }
+
+    public static final class BufferPool {
+        private final long count;
+        private final long used;
+        private final long capacity;
+
+        BufferPool(long count, long used, long capacity) {
+            this.count = count;
+            this.used = used;
+            this.capacity = capacity;
+        }
+
+        public long getCount() {
+            return this.count;
+        }
+
+        public long getUsed() {
+            return this.used;
+        }
+
+        public long getCapacity() {
+            return this.capacity;
+        }
+
+        PlatformStatistics.Memory.NativeMemory.BufferPool toProto() {
+            return PlatformStatistics.Memory.NativeMemory.BufferPool.newBuilder()
+                    .setCount(this.count)
+                    .setUsed(this.used)
+                    .setCapacity(this.capacity)
+                    .build();
+        }
+    }
+
+    public static final class NmtCategory {
+        private final long reserved;
+        private final long committed;
+
+        NmtCategory(long reserved, long committed) {
+            this.reserved = reserved;
+            this.committed = committed;
+        }
+
+        public long getReserved() {
+            return this.reserved;
+        }
+
+        public long getCommitted() {
+            return this.committed;
+        }
+
+        PlatformStatistics.Memory.NativeMemory.NmtCategory toProto() {
+            return PlatformStatistics.Memory.NativeMemory.NmtCategory.newBuilder()
+                    .setReserved(this.reserved)
+                    .setCommitted(this.committed)
+                    .build();
+        }
+    }
+
+    public interface DiagnosticCommandMXBean {
+        String vmNativeMemory(String[] args);
+    }
+
+}
@@ -0,0 +1,115 @@
+/*
+ * This file is part of spark.
+ *
+ *  Copyright (c) lucko (Luck) <luck@lucko.me>
+ *  Copyright (c) contributors
+ *
+ *  This program is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package me.lucko.spark.common.monitor.memory;
+
+import com.sun.management.ThreadMXBean;
+import me.lucko.spark.common.monitor.Metrics;
+import me.lucko.spark.common.monitor.ThreadPoolTracker;
+import me.lucko.spark.common.util.RollingAverage;
+
+import java.math.BigDecimal;
+
+/**
+ * Tracks the rate at which the threads in each thread pool allocate memory.
+ */
+public final class PoolAllocationTracker extends ThreadPoolTracker<PoolAllocationTracker.PoolAllocation> {
+
+    /** The number of polls in a minute */
+    private static final int POLLS_PER_MINUTE = (int) (60_000L / Metrics.INTERVAL_MILLIS);
+
+    private final ThreadMXBean bean;
+
+    PoolAllocationTracker(ThreadMXBean bean) {
+        // keep idle pools for as long as their metrics series would retain samples
+        super(bean, Metrics.RETENTION.toMillis());
+        this.bean = bean;
+    }
+
+    @Override
+    protected long[] readCounters(long[] threadIds) {
+        return this.bean.getThreadAllocatedBytes(threadIds);
+    }
+
+    @Override
+    protected PoolAllocation createPool(String name) {
+        return new PoolAllocation(name);
+    }
+
+    @Override
+    protected void record(PoolAllocation pool, long delta, long timeMillis, long elapsedMillis) {
+        double bytesPerSecond = delta / (elapsedMillis / 1000.0);
+
+        BigDecimal value = new BigDecimal(bytesPerSecond);
+        pool.bps1Min.add(value);
+        pool.bps5Min.add(value);
+
+        // idle pools aren't added to the series, so by the time the pool is removed,
+        // the newest sample in its series is older than the retention period
+        if (pool.threads() == 0) {
+            return;
+        }
+
+        Metrics.MEMORY_ALLOCATION_BY_POOL
+                .computeIfAbsent(pool.name(), p -> Metrics.newDoublesSeries())
+                .record(timeMillis, bytesPerSecond);
+    }
+
+    @Override
+    protected void onPoolRemoved(PoolAllocation pool) {
+        Metrics.MEMORY_ALLOCATION_BY_POOL.remove(pool.name());
+    }
+
+    /**
+     * The allocation rate of a thread pool.
+     */
+    public static final class PoolAllocation extends ThreadPoolTracker.Pool {
+        private final RollingAverage bps1Min = new RollingAverage(POLLS_PER_MINUTE);
+        private final RollingAverage bps5Min = new RollingAverage(POLLS_PER_MINUTE * 5);
+
+        PoolAllocation(String name) {
+            super(name);
+        }
+
+        /**
+         * Gets the average allocation rate over the last minute.
+         *
+         * @return the allocation rate, in bytes per second
+         */
+        public double bytesPerSecond1Min() {
+            return this.bps1Min.mean();
+        }
+
+        /**
+         * Gets the average allocation rate over the last 5 minutes.
+         *
+         * @return the allocation rate, in bytes per second
+         */
+        public double bytesPerSecond5Min() {
+            return this.bps5Min.mean();
+        }
+
+        @Override
+        protected double recentRate() {
+            return bytesPerSecond1Min();
+        }
+    }
+
+}
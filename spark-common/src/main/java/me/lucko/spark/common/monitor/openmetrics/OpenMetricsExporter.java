@@ -0,0 +1,212 @@
+/*
+ * This file is part of spark.
+ *
+ *  Copyright (c) lucko (Luck) <luck@lucko.me>
+ *  Copyright (c) contributors
+ *
+ *  This program is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package me.lucko.spark.common.monitor.openmetrics;
+
+import me.lucko.spark.api.statistic.misc.DoubleAverageInfo;
+import me.lucko.spark.common.SparkPlatform;
+import me.lucko.spark.common.monitor.Metrics;
+import me.lucko.spark.common.monitor.cpu.CpuMonitor;
+import me.lucko.spark.common.monitor.memory.GarbageCollectorStatistics;
+import me.lucko.spark.common.monitor.memory.MemoryAllocationInfo;
+import me.lucko.spark.common.monitor.net.Direction;
+import me.lucko.spark.common.monitor.net.NetworkInterfaceAverages;
+import me.lucko.spark.common.monitor.net.NetworkMonitor;
+import me.lucko.spark.common.monitor.ping.PingStatistics;
+import me.lucko.spark.common.monitor.tick.TickPhaseStatistics;
+import me.lucko.spark.common.monitor.tick.TickStatistics;
+import me.lucko.spark.common.platform.world.WorldInfoProvider;
+
+import java.lang.management.MemoryUsage;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Exports the statistics gathered by spark in the OpenMetrics text format.
+ *
+ * <p>All values are read from the existing monitors, rolling averages and metric series,
+ * so an export never needs to wait for (or run on) the server thread.</p>
+ */
+public class OpenMetricsExporter {
+    private final SparkPlatform platform;
+
+    public OpenMetricsExporter(SparkPlatform platform) {
+        this.platform = platform;
+    }
+
+    public String export() {
+        OpenMetricsWriter writer = new OpenMetricsWriter();
+        writeTickStatistics(writer, this.platform.getTickStatistics());
+        writeTickPhases(writer, this.platform.getTickPhaseStatistics());
+        writeCpuUsage(writer);
+        writeMemoryUsage(writer);
+        writeGarbageCollection(writer, GarbageCollectorStatistics.pollStats());
+        writeNetworkUsage(writer, NetworkMonitor.systemAverages());
+        writePing(writer, this.platform.getPingStatistics());
+        writeWorldCounts(writer, Metrics.WORLD_INFO.newest());
+        return writer.finish();
+    }
+
+    static void writeTickStatistics(OpenMetricsWriter writer, TickStatistics tickStatistics) {
+        if (tickStatistics == null) {
+            return;
+        }
+
+        writer.gauge("spark_tps", null, "Ticks per second, averaged over the window.")
+                .sample(tickStatistics.tps5Sec(), "window", "5s")
+                .sample(tickStatistics.tps10Sec(), "window", "10s")
+                .sample(tickStatistics.tps1Min(), "window", "1m")
+                .sample(tickStatistics.tps5Min(), "window", "5m")
+                .sample(tickStatistics.tps15Min(), "window", "15m");
+
+        if (tickStatistics.isDurationSupported()) {
+            writer.gauge("spark_tick_duration_milliseconds", "milliseconds", "Tick duration statistics over the window.");
+            writeAverageInfo(writer, tickStatistics.duration10Sec(), "window", "10s");
+            writeAverageInfo(writer, tickStatistics.duration1Min(), "window", "1m");
+            writeAverageInfo(writer, tickStatistics.duration5Min(), "window", "5m");
+        }
+    }
+
+    static void writeTickPhases(OpenMetricsWriter writer, TickPhaseStatistics tickPhaseStatistics) {
+        if (tickPhaseStatistics == null) {
+            return;
+        }
+
+        Set<TickPhaseStatistics.Phase> phases = tickPhaseStatistics.getRecordedPhases();
+        if (phases.isEmpty()) {
+            return;
+        }
+
+        writer.gauge("spark_tick_phase_duration_milliseconds", "milliseconds", "Time spent in each phase of the tick, over 1 minute.");
+        for (TickPhaseStatistics.Phase phase : phases) {
+            writeAverageInfo(writer, tickPhaseStatistics.duration1Min(phase), "phase", phase.id());
+        }
+    }
+
+    static void writeCpuUsage(OpenMetricsWriter writer) {
+        writer.gauge("spark_cpu_usage_ratio", "ratio", "CPU usage, averaged over the window.")
+                .sample(CpuMonitor.processLoad10SecAvg(), "source", "process", "window", "10s")
+                .sample(CpuMonitor.processLoad1MinAvg(), "source", "process", "window", "1m")
+                .sample(CpuMonitor.processLoad15MinAvg(), "source", "process", "window", "15m")
+                .sample(CpuMonitor.systemLoad10SecAvg(), "source", "system", "window", "10s")
+                .sample(CpuMonitor.systemLoad1MinAvg(), "source", "system", "window", "1m")
+                .sample(CpuMonitor.systemLoad15MinAvg(), "source", "system", "window", "15m");
+    }
+
+    static void writeMemoryUsage(OpenMetricsWriter writer) {
+        MemoryUsage heap = Metrics.MEMORY_USAGE_HEAP.newest();
+        MemoryUsage nonHeap = Metrics.MEMORY_USAGE_NON_HEAP.newest();
+
+        if (heap != null || nonHeap != null) {
+            writer.gauge("spark_memory_used_bytes", "bytes", "Memory used by the JVM.");
+            if (heap != null) writer.sample(heap.getUsed(), "area", "heap");
+            if (nonHeap != null) writer.sample(nonHeap.getUsed(), "area", "nonheap");
+
+            writer.gauge("spark_memory_committed_bytes", "bytes", "Memory committed by the JVM.");
+            if (heap != null) writer.sample(heap.getCommitted(), "area", "heap");
+            if (nonHeap != null) writer.sample(nonHeap.getCommitted(), "area", "nonheap");
+
+            if (heap != null && heap.getMax() >= 0) {
+                writer.gauge("spark_memory_max_bytes", "bytes", "Maximum memory available to the JVM.")
+                        .sample(heap.getMax(), "area", "heap");
+            }
+        }
+
+        if (MemoryAllocationInfo.SUPPORTED) {
+            writeAllocationRate(writer,
+                    MemoryAllocationInfo.BPS_AVERAGE_1_MIN.mean(),
+                    MemoryAllocationInfo.BPS_AVERAGE_5_MIN.mean(),
+                    MemoryAllocationInfo.BPS_AVERAGE_15_MIN.mean()
+            );
+        }
+    }
+
+    static void writeAllocationRate(OpenMetricsWriter writer, double avg1Min, double avg5Min, double avg15Min) {
+        writer.gauge("spark_memory_allocation_rate_bytes_per_second", "bytes_per_second", "Heap allocation rate, averaged over the window.")
+                .sample(avg1Min, "window", "1m")
+                .sample(avg5Min, "window", "5m")
+                .sample(avg15Min, "window", "15m");
+    }
+
+    static void writeGarbageCollection(OpenMetricsWriter writer, Map<String, GarbageCollectorStatistics> gcStats) {
+        if (gcStats.isEmpty()) {
+            return;
+        }
+
+        writer.counter("spark_gc_collections", null, "Number of garbage collections since the JVM started.");
+        for (Map.Entry<String, GarbageCollectorStatistics> entry : gcStats.entrySet()) {
+            writer.sample(entry.getValue().getCollectionCount(), "collector", entry.getKey());
+        }
+
+        writer.counter("spark_gc_time_seconds", "seconds", "Time spent in garbage collection since the JVM started.");
+        for (Map.Entry<String, GarbageCollectorStatistics> entry : gcStats.entrySet()) {
+            writer.sample(entry.getValue().getCollectionTime() / 1000d, "collector", entry.getKey());
+        }
+    }
+
+    static void writeNetworkUsage(OpenMetricsWriter writer, Map<String, NetworkInterfaceAverages> networkAverages) {
+        if (networkAverages.isEmpty()) {
+            return;
+        }
+
+        writer.gauge("spark_network_rate_bytes", "bytes", "Network usage in bytes per second, averaged over 15 minutes.");
+        for (Map.Entry<String, NetworkInterfaceAverages> entry : networkAverages.entrySet()) {
+            for (Direction direction : Direction.values()) {
+                writer.sample(entry.getValue().bytesPerSecond(direction).mean(), "interface", entry.getKey(), "direction", direction.abbrev());
+            }
+        }
+
+        writer.gauge("spark_network_rate_packets", "packets", "Network usage in packets per second, averaged over 15 minutes.");
+        for (Map.Entry<String, NetworkInterfaceAverages> entry : networkAverages.entrySet()) {
+            for (Direction direction : Direction.values()) {
+                writer.sample(entry.getValue().packetsPerSecond(direction).mean(), "interface", entry.getKey(), "direction", direction.abbrev());
+            }
+        }
+    }
+
+    static void writePing(OpenMetricsWriter writer, PingStatistics pingStatistics) {
+        if (pingStatistics == null || pingStatistics.getPingAverage().getSamples() == 0) {
+            return;
+        }
+
+        writer.gauge("spark_player_ping_milliseconds", "milliseconds", "Median player ping statistics over 15 minutes.");
+        writeAverageInfo(writer, pingStatistics.getPingAverage(), "window", "15m");
+    }
+
+    static void writeWorldCounts(OpenMetricsWriter writer, WorldInfoProvider.CountsResult counts) {
+        if (counts == null) {
+            return;
+        }
+
+        writer.gauge("spark_players", null, "Number of online players.").sample(counts.players());
+        writer.gauge("spark_entities", null, "Number of loaded entities.").sample(counts.entities());
+        writer.gauge("spark_tile_entities", null, "Number of loaded tile entities.").sample(counts.tileEntities());
+        writer.gauge("spark_chunks", null, "Number of loaded chunks.").sample(counts.chunks());
+    }
+
+    private static void writeAverageInfo(OpenMetricsWriter writer, DoubleAverageInfo info, String labelName, String labelValue) {
+        writer.sample(info.min(), labelName, labelValue, "statistic", "min")
+                .sample(info.median(), labelName, labelValue, "statistic", "median")
+                .sample(info.mean(), labelName, labelValue, "statistic", "mean")
+                .sample(info.percentile95th(), labelName, labelValue, "statistic", "p95")
+                .sample(info.max(), labelName, labelValue, "statistic", "max");
+    }
+
+}
@@ -0,0 +1,164 @@
+/*
+ * This file is part of spark.
+ *
+ *  Copyright (c) lucko (Luck) <luck@lucko.me>
+ *  Copyright (c) contributors
+ *
+ *  This program is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package me.lucko.spark.common.monitor.openmetrics;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+import me.lucko.spark.common.SparkPlatform;
+import me.lucko.spark.common.monitor.MonitoringExecutor;
+import me.lucko.spark.common.util.SparkThreadFactory;
+import me.lucko.spark.common.util.config.Configuration;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledFuture;
+import java.util.logging.Level;
+
+/**
+ * A lightweight HTTP server which exposes spark's statistics to OpenMetrics (Prometheus) scrapers.
+ *
+ * <p>The response body is rebuilt periodically on the {@link MonitoringExecutor},
+ * so a scrape only ever writes out the most recent cached snapshot.</p>
+ */
+public class OpenMetricsServer implements AutoCloseable {
+    private static final String OPTION_ENABLED = "openMetrics.enabled";
+    private static final String OPTION_HOST = "openMetrics.host";
+    private static final String OPTION_PORT = "openMetrics.port";
+
+    /** The path that the metrics are served from */
+    private static final String PATH = "/metrics";
+    /** How often the cached snapshot should be rebuilt */
+    private static final long REFRESH_INTERVAL_MILLIS = 5000L;
+
+    private final SparkPlatform platform;
+    private final OpenMetricsExporter exporter;
+    private final String host;
+    private final int port;
+
+    /** The latest snapshot, encoded and ready to be sent */
+    private volatile byte[] snapshot = "# EOF\n".getBytes(StandardCharsets.UTF_8);
+
+    private HttpServer server;
+    private ExecutorService serverExecutor;
+    private ScheduledFuture<?> refreshTask;
+
+    private OpenMetricsServer(SparkPlatform platform, String host, int port) {
+        this.platform = platform;
+        this.exporter = new OpenMetricsExporter(platform);
+        this.host = host;
+        this.port = port;
+    }
+
+    /**
+     * Creates a new server if the endpoint has been enabled in the configuration.
+     *
+     * @param platform the platform
+     * @param configuration the configuration
+     * @return the server, or null if disabled
+     */
+    public static OpenMetricsServer createIfEnabled(SparkPlatform platform, Configuration configuration) {
+        if (!configuration.getBoolean(OPTION_ENABLED, false)) {
+            return null;
+        }
+
+        String host = configuration.getString(OPTION_HOST, "127.0.0.1");
+        int port = configuration.getInteger(OPTION_PORT, 9425);
+        return new OpenMetricsServer(platform, host, port);
+    }
+
+    public void start() {
+        if (this.server != null) {
+            throw new IllegalStateException();
+        }
+
+        try {
+            this.server = HttpServer.create(new InetSocketAddress(this.host, this.port), 0);
+        } catch (IOException e) {
+            this.platform.getPlugin().log(Level.WARNING, "Unable to start OpenMetrics endpoint on " + this.host + ":" + this.port, e);
+            return;
+        }
+
+        refresh();
+        this.refreshTask = MonitoringExecutor.scheduleAtFixedRateMillis(this::refresh, REFRESH_INTERVAL_MILLIS);
+
+        this.serverExecutor = Executors.newSingleThreadExecutor(new SparkThreadFactory("spark-openmetrics", true));
+        this.server.setExecutor(this.serverExecutor);
+        this.server.createContext(PATH, this::handle);
+        this.server.start();
+
+        this.platform.getPlugin().log(Level.INFO, "Serving OpenMetrics endpoint at http://" + this.host + ":" + this.port + PATH);
+    }
+
+    private void refresh() {
+        try {
+            this.snapshot = this.exporter.export().getBytes(StandardCharsets.UTF_8);
+        } catch (Exception e) {
+            this.platform.getPlugin().log(Level.WARNING, "Failed to export OpenMetrics snapshot", e);
+        }
+    }
+
+    private void handle(HttpExchange exchange) throws IOException {
+        try {
+            String method = exchange.getRequestMethod();
+            if (!method.equals("GET") && !method.equals("HEAD")) {
+                exchange.getResponseHeaders().set("Allow", "GET, HEAD");
+                exchange.sendResponseHeaders(405, -1);
+                return;
+            }
+
+            byte[] body = this.snapshot;
+            exchange.getResponseHeaders().set("Content-Type", OpenMetricsWriter.CONTENT_TYPE);
+
+            if (method.equals("HEAD")) {
+                exchange.sendResponseHeaders(200, -1);
+                return;
+            }
+
+            exchange.sendResponseHeaders(200, body.length);
+            try (OutputStream out = exchange.getResponseBody()) {
+                out.write(body);
+            }
+        } finally {
+            exchange.close();
+        }
+    }
+
+    @Override
+    public void close() {
+        if (this.refreshTask != null) {
+            this.refreshTask.cancel(false);
+            this.refreshTask = null;
+        }
+        if (this.server != null) {
+            this.server.stop(0);
+            this.server = null;
+        }
+        if (this.serverExecutor != null) {
+            this.serverExecutor.shutdown();
+            this.serverExecutor = null;
+        }
+    }
+
+}
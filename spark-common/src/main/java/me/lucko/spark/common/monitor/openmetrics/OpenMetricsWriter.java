@@ -0,0 +1,164 @@
+/*
+ * This file is part of spark.
+ *
+ *  Copyright (c) lucko (Luck) <luck@lucko.me>
+ *  Copyright (c) contributors
+ *
+ *  This program is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package me.lucko.spark.common.monitor.openmetrics;
+
+/**
+ * Writes metric families in the OpenMetrics text exposition format.
+ *
+ * <p>Each family must be declared (using {@link #gauge} or {@link #counter})
+ * before any of its samples are written.</p>
+ */
+public final class OpenMetricsWriter {
+
+    /** The content type of the OpenMetrics text format */
+    public static final String CONTENT_TYPE = "application/openmetrics-text; version=1.0.0; charset=utf-8";
+
+    private final StringBuilder sb = new StringBuilder(4096);
+
+    /** The name of the current metric family */
+    private String family;
+    /** The suffix to append to sample names in the current metric family */
+    private String sampleSuffix;
+
+    /**
+     * Declares a new gauge metric family.
+     *
+     * @param name the name of the family
+     * @param unit the unit of the family (must be a suffix of the name), or null
+     * @param help the help text
+     * @return this writer
+     */
+    public OpenMetricsWriter gauge(String name, String unit, String help) {
+        return family(name, "gauge", unit, help, "");
+    }
+
+    /**
+     * Declares a new counter metric family.
+     *
+     * <p>Samples written for the family will have the {@code _total} suffix.</p>
+     *
+     * @param name the name of the family
+     * @param unit the unit of the family (must be a suffix of the name), or null
+     * @param help the help text
+     * @return this writer
+     */
+    public OpenMetricsWriter counter(String name, String unit, String help) {
+        return family(name, "counter", unit, help, "_total");
+    }
+
+    private OpenMetricsWriter family(String name, String type, String unit, String help, String sampleSuffix) {
+        if (unit != null && !name.endsWith("_" + unit)) {
+            throw new IllegalArgumentException("Metric name '" + name + "' must end with its unit '" + unit + "'");
+        }
+
+        this.family = name;
+        this.sampleSuffix = sampleSuffix;
+
+        this.sb.append("# TYPE ").append(name).append(' ').append(type).append('\n');
+        if (unit != null) {
+            this.sb.append("# UNIT ").append(name).append(' ').append(unit).append('\n');
+        }
+        this.sb.append("# HELP ").append(name).append(' ');
+        escape(help);
+        this.sb.append('\n');
+        return this;
+    }
+
+    /**
+     * Writes a sample for the current metric family.
+     *
+     * @param value the value
+     * @param labels the labels, as alternating names and values
+     * @return this writer
+     */
+    public OpenMetricsWriter sample(double value, String... labels) {
+        if (this.family == null) {
+            throw new IllegalStateException("No metric family has been declared");
+        }
+        if (labels.length % 2 != 0) {
+            throw new IllegalArgumentException("Labels must be given as name/value pairs");
+        }
+
+        this.sb.append(this.family).append(this.sampleSuffix);
+        if (labels.length != 0) {
+            this.sb.append('{');
+            for (int i = 0; i < labels.length; i += 2) {
+                if (i != 0) {
+                    this.sb.append(',');
+                }
+                this.sb.append(labels[i]).append("=\"");
+                escape(labels[i + 1]);
+                this.sb.append('"');
+            }
+            this.sb.append('}');
+        }
+        this.sb.append(' ');
+        appendValue(value);
+        this.sb.append('\n');
+        return this;
+    }
+
+    /**
+     * Terminates the exposition and returns the result.
+     *
+     * @return the exposition text
+     */
+    public String finish() {
+        this.sb.append("# EOF\n");
+        return this.sb.toString();
+    }
+
+    private void appendValue(double value) {
+        if (Double.isNaN(value)) {
+            this.sb.append("NaN");
+        } else if (value == Double.POSITIVE_INFINITY) {
+            this.sb.append("+Inf");
+        } else if (value == Double.NEGATIVE_INFINITY) {
+            this.sb.append("-Inf");
+        } else if (value == Math.rint(value) && Math.abs(value) < 1e15) {
+            // avoid the trailing ".0" for integral values, most values are counts or byte sizes
+            this.sb.append((long) value);
+        } else {
+            this.sb.append(value);
+        }
+    }
+
+    private void escape(String s) {
+        for (int i = 0; i < s.length(); i++) {
+            char c = s.charAt(i);
+            switch (c) {
+                case '\\':
+                    this.sb.append("\\\\");
+                    break;
+                case '\n':
+                    this.sb.append("\\n");
+                    break;
+                case '"':
+                    this.sb.append("\\\"");
+                    break;
+                default:
+                    this.sb.append(c);
+                    break;
+            }
+        }
+    }
+
+}
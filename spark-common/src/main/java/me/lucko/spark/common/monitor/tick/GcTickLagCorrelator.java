@@ -0,0 +1,491 @@
+/*
+ * This file is part of spark.
+ *
+ *  Copyright (c) lucko (Luck) <luck@lucko.me>
+ *  Copyright (c) contributors
+ *
+ *  This program is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package me.lucko.spark.common.monitor.tick;
+
+import com.sun.management.GarbageCollectionNotificationInfo;
+import com.sun.management.GcInfo;
+import me.lucko.spark.common.monitor.Metrics;
+import me.lucko.spark.common.monitor.MonitoringExecutor;
+import me.lucko.spark.common.monitor.memory.GarbageCollectionMonitor;
+import me.lucko.spark.common.tick.TickHook;
+import me.lucko.spark.common.tick.TickReporter;
+import me.lucko.spark.common.util.TimeUtil;
+import me.lucko.spark.proto.SparkProtos;
+import org.jetbrains.annotations.VisibleForTesting;
+
+import java.lang.management.ManagementFactory;
+import java.time.Duration;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Correlates garbage collections with tick overruns, to determine how much of the
+ * server lag can be attributed to the garbage collector.
+ *
+ * <p>The game thread only records the start and end time of each tick into a
+ * preallocated ring buffer. The correlation itself runs periodically on the
+ * {@link MonitoringExecutor}, a few seconds behind real time so that the
+ * notifications for any collections overlapping a tick have been received.</p>
+ *
+ * <p>The lag attributed to a collection for a given tick is the overlap between the
+ * two, capped at the amount by which the tick exceeded its target duration.
+ * Stop-the-world collections are considered before concurrent ones.</p>
+ */
+public class GcTickLagCorrelator implements TickHook.Callback, TickReporter.Callback, GarbageCollectionMonitor.Listener, Runnable, AutoCloseable {
+
+    /** The size of the tick ring buffer, must be a power of two */
+    private static final int TICK_BUFFER_SIZE = 8192;
+    /** How far behind real time ticks are correlated */
+    private static final long PROCESS_DELAY_NANOS = TimeUnit.SECONDS.toNanos(5);
+    /** How often the correlation task runs */
+    private static final long PROCESS_INTERVAL_MILLIS = TimeUnit.SECONDS.toMillis(5);
+    /** How long collections are remembered for after they have ended */
+    private static final long COLLECTION_RETENTION_NANOS = TimeUnit.MINUTES.toNanos(1);
+    /** The maximum number of remembered collections */
+    private static final int MAX_COLLECTIONS = 1024;
+
+    /** The size of each aggregation bucket, matches the interval of the metric series */
+    private static final long BUCKET_MILLIS = Metrics.INTERVAL_MILLIS;
+    /** The number of aggregation buckets, enough to cover the last hour */
+    private static final int BUCKET_COUNT = (int) (TimeUnit.HOURS.toMillis(1) / BUCKET_MILLIS);
+
+    private final TickHook tickHook;
+    private final TickReporter tickReporter;
+    private final long targetTickNanos;
+
+    /** The value of {@link System#nanoTime()} when the JVM started, used to convert {@link GcInfo} times */
+    private final long jvmStartNanos;
+
+    // tick ring buffer - only written to by the game thread
+    private final long[] tickStarts = new long[TICK_BUFFER_SIZE];
+    private final long[] tickEnds = new long[TICK_BUFFER_SIZE];
+    private volatile long tickCount = 0;
+    private long lastHookTickNanos = 0;
+
+    /** Recent collections, in the order the notifications were received */
+    private final ArrayDeque<GcEvent> collections = new ArrayDeque<>();
+
+    // correlation state - guarded by the buckets lock
+    private long processedTicks = 0;
+    private long lastRecordedBucket = -1;
+
+    /** Aggregated totals, guarded by synchronizing on the array */
+    private final Bucket[] buckets = new Bucket[BUCKET_COUNT];
+
+    // correlated ticks which overran, used to summarise exact periods - guarded by the buckets lock
+    private final long[] overrunTickEnds = new long[TICK_BUFFER_SIZE];
+    private final long[] overrunTickOverruns = new long[TICK_BUFFER_SIZE];
+    private final long[][] overrunTickLags = new long[GcType.values().length][TICK_BUFFER_SIZE];
+    private long overrunTickCount = 0;
+
+    private GarbageCollectionMonitor garbageCollectionMonitor;
+    private ScheduledFuture<?> future;
+
+    public GcTickLagCorrelator(TickHook tickHook, TickReporter tickReporter, int targetTickMillis) {
+        if (tickHook == null && tickReporter == null) {
+            throw new IllegalArgumentException("tickHook and tickReporter cannot both be null");
+        }
+        this.tickHook = tickHook;
+        this.tickReporter = tickReporter;
+        this.targetTickNanos = TimeUnit.MILLISECONDS.toNanos(targetTickMillis);
+        this.jvmStartNanos = System.nanoTime() - TimeUnit.MILLISECONDS.toNanos(ManagementFactory.getRuntimeMXBean().getUptime());
+        for (int i = 0; i < this.buckets.length; i++) {
+            this.buckets[i] = new Bucket();
+        }
+    }
+
+    /**
+     * Starts the correlator
+     */
+    public void start() {
+        if (this.future != null) {
+            throw new IllegalStateException();
+        }
+
+        // prefer the reporter as it measures the actual tick duration,
+        // otherwise fall back to the interval between ticks
+        if (this.tickReporter != null) {
+            this.tickReporter.addCallback(this);
+        } else {
+            this.tickHook.addCallback(this);
+        }
+
+        this.garbageCollectionMonitor = new GarbageCollectionMonitor();
+        this.garbageCollectionMonitor.addListener(this);
+
+        this.future = MonitoringExecutor.scheduleAtFixedRateMillis(this, PROCESS_INTERVAL_MILLIS);
+    }
+
+    @Override
+    public void close() {
+        if (this.tickReporter != null) {
+            this.tickReporter.removeCallback(this);
+        }
+        if (this.tickHook != null) {
+            this.tickHook.removeCallback(this);
+        }
+        if (this.garbageCollectionMonitor != null) {
+            this.garbageCollectionMonitor.close();
+            this.garbageCollectionMonitor = null;
+        }
+        if (this.future != null) {
+            this.future.cancel(false);
+            this.future = null;
+        }
+    }
+
+    @Override
+    public void onTick(double duration) {
+        long end = System.nanoTime();
+        recordTick(end - (long) (duration * 1_000_000d), end);
+    }
+
+    @Override
+    public void onTick(int currentTick) {
+        long now = System.nanoTime();
+        long last = this.lastHookTickNanos;
+        this.lastHookTickNanos = now;
+        if (last != 0) {
+            recordTick(last, now);
+        }
+    }
+
+    @VisibleForTesting
+    void recordTick(long startNanos, long endNanos) {
+        long count = this.tickCount;
+        int index = (int) (count & (TICK_BUFFER_SIZE - 1));
+        this.tickStarts[index] = startNanos;
+        this.tickEnds[index] = endNanos;
+        this.tickCount = count + 1; // volatile write publishes the slot to the correlation task
+    }
+
+    @Override
+    public void onGc(GarbageCollectionNotificationInfo data) {
+        GcInfo gcInfo = data.getGcInfo();
+        long startNanos = this.jvmStartNanos + TimeUnit.MILLISECONDS.toNanos(gcInfo.getStartTime());
+        long endNanos = startNanos + TimeUnit.MILLISECONDS.toNanos(gcInfo.getDuration());
+        recordCollection(startNanos, endNanos, GcType.of(data));
+    }
+
+    @VisibleForTesting
+    void recordCollection(long startNanos, long endNanos, GcType type) {
+        synchronized (this.collections) {
+            if (this.collections.size() >= MAX_COLLECTIONS) {
+                this.collections.removeFirst();
+            }
+            this.collections.addLast(new GcEvent(startNanos, endNanos, type));
+        }
+    }
+
+    @Override
+    public void run() {
+        process(System.nanoTime() - PROCESS_DELAY_NANOS);
+    }
+
+    /**
+     * Correlates all ticks which ended before the given cutoff.
+     *
+     * @param cutoffNanos the cutoff time
+     */
+    @VisibleForTesting
+    void process(long cutoffNanos) {
+        List<GcEvent> collections;
+        synchronized (this.collections) {
+            while (!this.collections.isEmpty() && this.collections.peekFirst().endNanos < cutoffNanos - COLLECTION_RETENTION_NANOS) {
+                this.collections.removeFirst();
+            }
+            collections = new ArrayList<>(this.collections);
+        }
+
+        synchronized (this.buckets) {
+            long count = this.tickCount;
+            if (count - this.processedTicks > TICK_BUFFER_SIZE) {
+                // the game thread has lapped us, skip the ticks that were overwritten
+                this.processedTicks = count - TICK_BUFFER_SIZE;
+            }
+
+            while (this.processedTicks < count) {
+                int index = (int) (this.processedTicks & (TICK_BUFFER_SIZE - 1));
+                long start = this.tickStarts[index];
+                long end = this.tickEnds[index];
+                if (end > cutoffNanos) {
+                    break;
+                }
+
+                correlate(start, end, collections);
+                this.processedTicks++;
+            }
+
+            recordMetrics(TimeUtil.monotonicTimeMillis(cutoffNanos) / BUCKET_MILLIS);
+        }
+    }
+
+    private void correlate(long start, long end, List<GcEvent> collections) {
+        long overrun = (end - start) - this.targetTickNanos;
+        if (overrun <= 0) {
+            return;
+        }
+
+        Bucket bucket = bucket(TimeUtil.monotonicTimeMillis(end) / BUCKET_MILLIS);
+        bucket.overrun += overrun;
+
+        int index = (int) (this.overrunTickCount++ & (TICK_BUFFER_SIZE - 1));
+        this.overrunTickEnds[index] = end;
+        this.overrunTickOverruns[index] = overrun;
+        for (long[] lag : this.overrunTickLags) {
+            lag[index] = 0;
+        }
+
+        long remaining = overrun;
+
+        // attribute to stop-the-world collections first, then concurrent ones
+        for (int pass = 0; pass < 2 && remaining > 0; pass++) {
+            boolean concurrentPass = pass == 1;
+            for (GcEvent collection : collections) {
+                if ((collection.type == GcType.CONCURRENT) != concurrentPass) {
+                    continue;
+                }
+
+                long overlap = Math.min(end, collection.endNanos) - Math.max(start, collection.startNanos);
+                if (overlap <= 0) {
+                    continue;
+                }
+
+                long attributed = Math.min(overlap, remaining);
+                bucket.lag[collection.type.ordinal()] += attributed;
+                this.overrunTickLags[collection.type.ordinal()][index] += attributed;
+                remaining -= attributed;
+
+                if (remaining == 0) {
+                    break;
+                }
+            }
+        }
+    }
+
+    /**
+     * Gets the bucket with the given id, resetting it if it currently holds older data.
+     *
+     * <p>Must be called with the buckets lock held.</p>
+     */
+    private Bucket bucket(long id) {
+        Bucket bucket = this.buckets[(int) (id % BUCKET_COUNT)];
+        if (bucket.id != id) {
+            bucket.reset(id);
+        }
+        return bucket;
+    }
+
+    /**
+     * Records completed buckets to the {@link Metrics} series.
+     *
+     * @param currentBucket the id of the bucket currently being filled
+     */
+    private void recordMetrics(long currentBucket) {
+        long from = this.lastRecordedBucket == -1
+                ? currentBucket - 1
+                : Math.max(this.lastRecordedBucket + 1, currentBucket - BUCKET_COUNT);
+
+        for (long id = from; id < currentBucket; id++) {
+            Summary summary = summariseBuckets(id, id);
+            long timestamp = (id + 1) * BUCKET_MILLIS;
+
+            Metrics.GC_TICK_LAG_YOUNG.record(timestamp, summary.lagMillis(GcType.YOUNG));
+            Metrics.GC_TICK_LAG_OLD.record(timestamp, summary.lagMillis(GcType.OLD));
+            Metrics.GC_TICK_LAG_CONCURRENT.record(timestamp, summary.lagMillis(GcType.CONCURRENT));
+            Metrics.TICK_OVERRUN.record(timestamp, summary.tickOverrunMillis());
+        }
+
+        // an exact summary may have processed ahead of the regular task
+        this.lastRecordedBucket = Math.max(this.lastRecordedBucket, currentBucket - 1);
+    }
+
+    /**
+     * Summarises the lag attributed to GC over the given period.
+     *
+     * <p>Only the last hour is retained, and the most recent few seconds
+     * will not have been correlated yet.</p>
+     *
+     * @param period the period
+     * @return the summary
+     */
+    public Summary summarise(Duration period) {
+        long now = TimeUtil.monotonicCurrentTimeMillis();
+        return summarise(now - period.toMillis(), now);
+    }
+
+    /**
+     * Summarises the lag attributed to GC for the ticks which ended between the
+     * given monotonic timestamps.
+     *
+     * <p>Unlike {@link #summarise(Duration)}, the period is not rounded to the
+     * aggregation buckets. Any ticks which ended before {@code endMillis} and have
+     * not been correlated yet are correlated first, so collections whose notification
+     * has not arrived by then (e.g. a concurrent cycle still running) are not
+     * attributed to them.</p>
+     *
+     * @param startMillis the start of the period
+     * @param endMillis the end of the period
+     * @return the summary
+     * @see TimeUtil#monotonicCurrentTimeMillis()
+     */
+    public Summary summarise(long startMillis, long endMillis) {
+        long nowNanos = System.nanoTime();
+        long nowMillis = TimeUtil.monotonicTimeMillis(nowNanos);
+        return summariseTicks(
+                nowNanos - TimeUnit.MILLISECONDS.toNanos(nowMillis - startMillis),
+                nowNanos - TimeUnit.MILLISECONDS.toNanos(nowMillis - endMillis)
+        );
+    }
+
+    @VisibleForTesting
+    Summary summariseTicks(long startNanos, long endNanos) {
+        Summary summary = new Summary();
+        synchronized (this.buckets) {
+            process(endNanos);
+
+            long oldest = Math.max(0, this.overrunTickCount - TICK_BUFFER_SIZE);
+            for (long i = this.overrunTickCount - 1; i >= oldest; i--) {
+                int index = (int) (i & (TICK_BUFFER_SIZE - 1));
+                long end = this.overrunTickEnds[index];
+                if (end <= startNanos) {
+                    break;
+                }
+                if (end > endNanos) {
+                    continue;
+                }
+
+                for (int type = 0; type < summary.lag.length; type++) {
+                    summary.lag[type] += this.overrunTickLags[type][index];
+                }
+                summary.overrun += this.overrunTickOverruns[index];
+            }
+        }
+        return summary;
+    }
+
+    private Summary summariseBuckets(long fromBucket, long toBucket) {
+        Summary summary = new Summary();
+        synchronized (this.buckets) {
+            for (Bucket bucket : this.buckets) {
+                if (bucket.id >= fromBucket && bucket.id <= toBucket) {
+                    for (int i = 0; i < summary.lag.length; i++) {
+                        summary.lag[i] += bucket.lag[i];
+                    }
+                    summary.overrun += bucket.overrun;
+                }
+            }
+        }
+        return summary;
+    }
+
+    /**
+     * The type of garbage collection.
+     */
+    public enum GcType {
+
+        /** A stop-the-world collection of the young generation, or a pause not known to be for the old generation */
+        YOUNG,
+
+        /** A stop-the-world collection of the old generation */
+        OLD,
+
+        /** A collection cycle that mostly runs alongside the application */
+        CONCURRENT;
+
+        static GcType of(GarbageCollectionNotificationInfo info) {
+            String name = info.getGcName();
+            String action = info.getGcAction();
+
+            // e.g. "ZGC Cycles", "Shenandoah Cycles", "G1 Concurrent GC", "ConcurrentMarkSweep"
+            if (name.contains("Cycles") || name.contains("Concurrent")) {
+                return CONCURRENT;
+            }
+            if (action.equals("end of major GC") || name.contains("Major") || name.contains("Old") || name.contains("MarkSweep")) {
+                return OLD;
+            }
+            return YOUNG;
+        }
+    }
+
+    /**
+     * A summary of the tick overrun attributed to GC over a period.
+     */
+    public static final class Summary {
+        private final long[] lag = new long[GcType.values().length];
+        private long overrun;
+
+        public double lagMillis(GcType type) {
+            return this.lag[type.ordinal()] / 1_000_000d;
+        }
+
+        public double totalLagMillis() {
+            long total = 0;
+            for (long l : this.lag) {
+                total += l;
+            }
+            return total / 1_000_000d;
+        }
+
+        public double tickOverrunMillis() {
+            return this.overrun / 1_000_000d;
+        }
+
+        public SparkProtos.GcTickLag toProto() {
+            return SparkProtos.GcTickLag.newBuilder()
+                    .setYoung(lagMillis(GcType.YOUNG))
+                    .setOld(lagMillis(GcType.OLD))
+                    .setConcurrent(lagMillis(GcType.CONCURRENT))
+                    .setTickOverrun(tickOverrunMillis())
+                    .build();
+        }
+    }
+
+    private static final class GcEvent {
+        private final long startNanos;
+        private final long endNanos;
+        private final GcType type;
+
+        GcEvent(long startNanos, long endNanos, GcType type) {
+            this.startNanos = startNanos;
+            this.endNanos = endNanos;
+            this.type = type;
+        }
+    }
+
+    private static final class Bucket {
+        private long id = -1;
+        private final long[] lag = new long[GcType.values().length];
+        private long overrun;
+
+        void reset(long id) {
+            this.id = id;
+            for (int i = 0; i < this.lag.length; i++) {
+                this.lag[i] = 0;
+            }
+            this.overrun = 0;
+        }
+    }
+
+}
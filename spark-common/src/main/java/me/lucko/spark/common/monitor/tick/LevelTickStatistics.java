@@ -0,0 +1,129 @@
+/*
+ * This file is part of spark.
+ *
+ *  Copyright (c) lucko (Luck) <luck@lucko.me>
+ *  Copyright (c) contributors
+ *
+ *  This program is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package me.lucko.spark.common.monitor.tick;
+
+import me.lucko.spark.api.statistic.misc.DoubleAverageInfo;
+import me.lucko.spark.common.tick.TickReporter;
+import me.lucko.spark.common.util.RollingAverage;
+
+import java.math.BigDecimal;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Calculates tick duration statistics for each level (world/dimension) ticked by the server.
+ *
+ * <p>Only populated on platforms where the {@link TickReporter} is able to report
+ * the duration of each level tick separately.</p>
+ */
+public class LevelTickStatistics implements TickReporter.Callback {
+
+    private static final int TPS = 20;
+
+    /** Levels that have not ticked for this long are no longer reported (e.g. they have been unloaded) */
+    private static final long STALE_AFTER_NANOS = TimeUnit.MINUTES.toNanos(1);
+
+    private final Map<String, LevelDurations> levels = new ConcurrentHashMap<>();
+
+    @Override
+    public void onTick(double duration) {
+        // only interested in level ticks
+    }
+
+    @Override
+    public void onLevelTick(String level, double duration) {
+        LevelDurations durations = this.levels.get(level);
+        if (durations == null) {
+            durations = this.levels.computeIfAbsent(level, l -> new LevelDurations());
+        }
+        durations.add(duration);
+    }
+
+    /**
+     * Gets the tick duration statistics for each level that has recently ticked.
+     *
+     * @return the statistics, keyed by level name
+     */
+    public Map<String, LevelDurations> getLevels() {
+        if (this.levels.isEmpty()) {
+            return Collections.emptyMap();
+        }
+
+        long cutoff = System.nanoTime() - STALE_AFTER_NANOS;
+        Map<String, LevelDurations> levels = new HashMap<>();
+        for (Map.Entry<String, LevelDurations> entry : this.levels.entrySet()) {
+            if (entry.getValue().lastTick - cutoff > 0) {
+                levels.put(entry.getKey(), entry.getValue());
+            }
+        }
+        return Collections.unmodifiableMap(levels);
+    }
+
+    /**
+     * Gets the tick duration statistics for a level, if it has recently ticked.
+     *
+     * @param level the name of the level
+     * @return the statistics, or null
+     */
+    public LevelDurations getLevel(String level) {
+        LevelDurations durations = this.levels.get(level);
+        if (durations == null || durations.lastTick - (System.nanoTime() - STALE_AFTER_NANOS) <= 0) {
+            return null;
+        }
+        return durations;
+    }
+
+    /**
+     * Rolling tick duration statistics for a single level.
+     */
+    public static final class LevelDurations {
+        private final RollingAverage duration10Sec = new RollingAverage(TPS * 10);
+        private final RollingAverage duration1Min = new RollingAverage(TPS * 60);
+        private final RollingAverage duration5Min = new RollingAverage(TPS * 60 * 5);
+        private final RollingAverage[] averages = {this.duration10Sec, this.duration1Min, this.duration5Min};
+
+        private volatile long lastTick;
+
+        void add(double duration) {
+            BigDecimal decimal = new BigDecimal(duration);
+            for (RollingAverage average : this.averages) {
+                average.add(decimal);
+            }
+            this.lastTick = System.nanoTime();
+        }
+
+        public DoubleAverageInfo duration10Sec() {
+            return this.duration10Sec;
+        }
+
+        public DoubleAverageInfo duration1Min() {
+            return this.duration1Min;
+        }
+
+        public DoubleAverageInfo duration5Min() {
+            return this.duration5Min;
+        }
+    }
+
+}
@@ -0,0 +1,188 @@
+/*
+ * This file is part of spark.
+ *
+ *  Copyright (c) lucko (Luck) <luck@lucko.me>
+ *  Copyright (c) contributors
+ *
+ *  This program is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package me.lucko.spark.common.monitor.tick;
+
+import me.lucko.spark.api.tick.TickAnomaly;
+import me.lucko.spark.common.tick.TickReporter;
+import me.lucko.spark.common.util.log.SparkStaticLogger;
+import org.jetbrains.annotations.VisibleForTesting;
+
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.function.Consumer;
+import java.util.logging.Level;
+
+/**
+ * Detects anomalous tick durations as they are reported.
+ *
+ * <p>Unlike {@link ReportPredicate}, which compares against an average calculated once
+ * when monitoring starts, the baseline here is an exponentially weighted moving mean and
+ * variance that is updated on every tick. This means it adapts to gradual changes in load,
+ * and only flags ticks that are a sudden departure from recent behaviour.</p>
+ */
+public class TickAnomalyDetector implements TickReporter.Callback {
+
+    /** The smoothing factor of the moving average, roughly equivalent to a 1 minute window */
+    private static final double ALPHA = 2d / ((20 * 60) + 1);
+    /** The number of ticks to observe before any anomalies are reported */
+    private static final int WARMUP_TICKS = 200;
+    /** The number of standard deviations above the baseline for a tick to be considered anomalous */
+    private static final double THRESHOLD_SIGMA = 4;
+    /** The minimum increase (in milliseconds) above the baseline for a tick to be considered anomalous */
+    private static final double THRESHOLD_MIN_INCREASE = 5;
+
+    private final List<Consumer<? super TickAnomaly>> listeners = new CopyOnWriteArrayList<>();
+
+    private long count = 0;
+    private double mean = 0;
+    private double variance = 0;
+
+    public void addListener(Consumer<? super TickAnomaly> listener) {
+        this.listeners.add(listener);
+    }
+
+    public void removeListener(Consumer<? super TickAnomaly> listener) {
+        this.listeners.remove(listener);
+    }
+
+    @Override
+    public void onTick(double duration) {
+        Anomaly anomaly = process(duration, System.currentTimeMillis());
+        if (anomaly == null) {
+            return;
+        }
+
+        for (Consumer<? super TickAnomaly> listener : this.listeners) {
+            try {
+                listener.accept(anomaly);
+            } catch (Throwable e) {
+                SparkStaticLogger.log(Level.WARNING, "Exception thrown by tick anomaly listener", e);
+            }
+        }
+    }
+
+    /**
+     * Adds a tick duration to the baseline, and tests whether it is anomalous.
+     *
+     * @param duration the tick duration
+     * @param timestamp the time the tick ended
+     * @return the anomaly, or null if the tick was not anomalous
+     */
+    @VisibleForTesting
+    Anomaly process(double duration, long timestamp) {
+        double mean = this.mean;
+        double stdDev = Math.sqrt(this.variance);
+        double threshold = Math.max(mean + THRESHOLD_SIGMA * stdDev, mean + THRESHOLD_MIN_INCREASE);
+
+        Anomaly anomaly = null;
+        double sample = duration;
+        if (this.count >= WARMUP_TICKS && duration > threshold) {
+            anomaly = new Anomaly(duration, mean, stdDev, threshold, timestamp);
+
+            // clamp the sample so that a single spike doesn't drag the baseline up with it
+            sample = threshold;
+        }
+
+        // use a cumulative average until there are enough samples for the moving average to be meaningful
+        this.count++;
+        double alpha = Math.max(ALPHA, 1d / this.count);
+
+        double diff = sample - mean;
+        double increment = alpha * diff;
+        this.mean = mean + increment;
+        this.variance = (1 - alpha) * (this.variance + diff * increment);
+
+        return anomaly;
+    }
+
+    /**
+     * Gets the expected tick duration, according to the current baseline.
+     *
+     * @return the expected tick duration
+     */
+    public double getBaseline() {
+        return this.mean;
+    }
+
+    public static final class Anomaly implements TickAnomaly {
+        private final double duration;
+        private final double expectedDuration;
+        private final double standardDeviation;
+        private final double threshold;
+        private final long timestamp;
+
+        Anomaly(double duration, double expectedDuration, double standardDeviation, double threshold, long timestamp) {
+            this.duration = duration;
+            this.expectedDuration = expectedDuration;
+            this.standardDeviation = standardDeviation;
+            this.threshold = threshold;
+            this.timestamp = timestamp;
+        }
+
+        @Override
+        public double duration() {
+            return this.duration;
+        }
+
+        @Override
+        public double expectedDuration() {
+            return this.expectedDuration;
+        }
+
+        @Override
+        public double standardDeviation() {
+            return this.standardDeviation;
+        }
+
+        @Override
+        public double score() {
+            if (this.standardDeviation == 0) {
+                return Double.POSITIVE_INFINITY;
+            }
+            return (this.duration - this.expectedDuration) / this.standardDeviation;
+        }
+
+        /**
+         * Gets the duration above which the tick was considered anomalous.
+         *
+         * @return the threshold
+         */
+        public double threshold() {
+            return this.threshold;
+        }
+
+        @Override
+        public long timestamp() {
+            return this.timestamp;
+        }
+
+        @Override
+        public String toString() {
+            return "Anomaly{" +
+                    "duration=" + this.duration +
+                    ", expectedDuration=" + this.expectedDuration +
+                    ", standardDeviation=" + this.standardDeviation +
+                    ", threshold=" + this.threshold +
+                    '}';
+        }
+    }
+
+}
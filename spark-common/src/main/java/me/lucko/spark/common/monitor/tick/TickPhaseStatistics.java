@@ -0,0 +1,159 @@
+/*
+ * This file is part of spark.
+ *
+ *  Copyright (c) lucko (Luck) <luck@lucko.me>
+ *  Copyright (c) contributors
+ *
+ *  This program is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package me.lucko.spark.common.monitor.tick;
+
+import me.lucko.spark.api.statistic.misc.DoubleAverageInfo;
+import me.lucko.spark.common.tick.TickReporter;
+import me.lucko.spark.common.util.RollingAverage;
+
+import java.math.BigDecimal;
+import java.util.EnumSet;
+import java.util.Set;
+
+/**
+ * Calculates how much of each tick is spent in the major phases of the game loop.
+ *
+ * <p>Platforms that support it call {@link #begin(Phase)} and {@link #end(Phase)} around each
+ * phase (from instrumentation in the game itself). The time spent in each phase is accumulated
+ * into a preallocated slot, and the slots are flushed into rolling averages at the end of each
+ * tick. All of these methods must be called from the server thread.</p>
+ */
+public class TickPhaseStatistics implements TickReporter.Callback {
+
+    private static final int TPS = 20;
+    private static final Phase[] PHASES = Phase.values();
+
+    /** The time each phase was last started, or 0 if it is not running */
+    private final long[] started = new long[PHASES.length];
+    /** The nanoseconds spent in each phase during the current tick */
+    private final long[] elapsed = new long[PHASES.length];
+    /** Whether each phase has been recorded at least once */
+    private final boolean[] recorded = new boolean[PHASES.length];
+
+    private final RollingAverage[] duration10Sec = new RollingAverage[PHASES.length];
+    private final RollingAverage[] duration1Min = new RollingAverage[PHASES.length];
+    private final RollingAverage[] duration5Min = new RollingAverage[PHASES.length];
+
+    public TickPhaseStatistics() {
+        for (int i = 0; i < PHASES.length; i++) {
+            this.duration10Sec[i] = new RollingAverage(TPS * 10);
+            this.duration1Min[i] = new RollingAverage(TPS * 60);
+            this.duration5Min[i] = new RollingAverage(TPS * 60 * 5);
+        }
+    }
+
+    /**
+     * Marks the start of a phase.
+     *
+     * @param phase the phase
+     */
+    public void begin(Phase phase) {
+        this.started[phase.ordinal()] = System.nanoTime();
+    }
+
+    /**
+     * Marks the end of a phase.
+     *
+     * @param phase the phase
+     */
+    public void end(Phase phase) {
+        int i = phase.ordinal();
+        long start = this.started[i];
+        if (start != 0) {
+            this.elapsed[i] += System.nanoTime() - start;
+            this.started[i] = 0;
+        }
+    }
+
+    @Override
+    public void onTick(double duration) {
+        for (int i = 0; i < PHASES.length; i++) {
+            long elapsed = this.elapsed[i];
+            if (elapsed == 0 && !this.recorded[i]) {
+                continue;
+            }
+
+            this.recorded[i] = true;
+            this.elapsed[i] = 0;
+
+            BigDecimal millis = new BigDecimal(elapsed / 1000000d);
+            this.duration10Sec[i].add(millis);
+            this.duration1Min[i].add(millis);
+            this.duration5Min[i].add(millis);
+        }
+    }
+
+    /**
+     * Gets the phases that have been recorded by the platform.
+     *
+     * @return the recorded phases
+     */
+    public Set<Phase> getRecordedPhases() {
+        Set<Phase> phases = EnumSet.noneOf(Phase.class);
+        for (Phase phase : PHASES) {
+            if (this.recorded[phase.ordinal()]) {
+                phases.add(phase);
+            }
+        }
+        return phases;
+    }
+
+    public DoubleAverageInfo duration10Sec(Phase phase) {
+        return this.duration10Sec[phase.ordinal()];
+    }
+
+    public DoubleAverageInfo duration1Min(Phase phase) {
+        return this.duration1Min[phase.ordinal()];
+    }
+
+    public DoubleAverageInfo duration5Min(Phase phase) {
+        return this.duration5Min[phase.ordinal()];
+    }
+
+    /**
+     * A major phase of the server tick.
+     */
+    public enum Phase {
+
+        /** Ticking loaded chunks, including chunk loading, generation and random ticks */
+        CHUNKS("chunks"),
+
+        /** Ticking entities */
+        ENTITIES("entities"),
+
+        /** Ticking block (tile) entities */
+        BLOCK_ENTITIES("block_entities"),
+
+        /** Running scheduled block and fluid ticks */
+        SCHEDULED_TICKS("scheduled_ticks");
+
+        private final String id;
+
+        Phase(String id) {
+            this.id = id;
+        }
+
+        public String id() {
+            return this.id;
+        }
+    }
+
+}
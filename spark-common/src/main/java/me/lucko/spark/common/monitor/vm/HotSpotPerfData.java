@@ -0,0 +1,192 @@
+/*
+ * This file is part of spark.
+ *
+ *  Copyright (c) lucko (Luck) <luck@lucko.me>
+ *  Copyright (c) contributors
+ *
+ *  This program is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+
+package me.lucko.spark.common.monitor.vm;
+
+import org.jetbrains.annotations.VisibleForTesting;
+import org.jspecify.annotations.Nullable;
+
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Reads the performance counters which HotSpot publishes for tools like jstat.
+ *
+ * <p>The counters are written by the JVM to a memory mapped "hsperfdata" file, so once the
+ * file has been mapped, reading a counter is just a memory read. These are the same counters
+ * that back the (inaccessible since Java 9) {@code sun.management.HotspotRuntimeMBean}.</p>
+ *
+ * <p>The file does not exist if the JVM was started with {@code -XX:-UsePerfData} or
+ * {@code -XX:+PerfDisableSharedMem}.</p>
+ */
+public final class HotSpotPerfData {
+
+    private static final int MAGIC = 0xcafec0c0;
+    private static final int SUPPORTED_MAJOR_VERSION = 2;
+
+    // prologue offsets
+    private static final int BYTE_ORDER_OFFSET = 4;
+    private static final int MAJOR_VERSION_OFFSET = 5;
+    private static final int ACCESSIBLE_OFFSET = 7;
+    private static final int ENTRY_OFFSET_OFFSET = 24;
+    private static final int NUM_ENTRIES_OFFSET = 28;
+
+    // entry offsets
+    private static final int ENTRY_LENGTH_OFFSET = 0;
+    private static final int NAME_OFFSET_OFFSET = 4;
+    private static final int VECTOR_LENGTH_OFFSET = 8;
+    private static final int DATA_TYPE_OFFSET = 12;
+    private static final int DATA_OFFSET_OFFSET = 16;
+
+    private static final byte TYPE_LONG = 'J';
+
+    /**
+     * Attempts to open the perf data file of the current process.
+     *
+     * @return the perf data, or null if it is not available
+     */
+    public static @Nullable HotSpotPerfData open() {
+        String pid = ManagementFactory.getRuntimeMXBean().getName().split("@")[0];
+        String directory = "hsperfdata_" + System.getProperty("user.name");
+
+        // linux always uses /tmp, other platforms use the system temp directory
+        Path[] candidates = new Path[]{
+                Paths.get(System.getProperty("java.io.tmpdir"), directory, pid),
+                Paths.get("/tmp", directory, pid)
+        };
+
+        for (Path path : candidates) {
+            if (!Files.isRegularFile(path)) {
+                continue;
+            }
+
+            try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+                HotSpotPerfData data = read(channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size()));
+                if (data != null) {
+                    return data;
+                }
+            } catch (IOException | RuntimeException e) {
+                // ignore
+            }
+        }
+        return null;
+    }
+
+    @VisibleForTesting
+    static @Nullable HotSpotPerfData read(ByteBuffer buffer) {
+        // the magic number is always big endian
+        if (buffer.capacity() < NUM_ENTRIES_OFFSET + 4 || buffer.order(ByteOrder.BIG_ENDIAN).getInt(0) != MAGIC) {
+            return null;
+        }
+        buffer.order(buffer.get(BYTE_ORDER_OFFSET) == 0 ? ByteOrder.BIG_ENDIAN : ByteOrder.LITTLE_ENDIAN);
+        if (buffer.get(MAJOR_VERSION_OFFSET) != SUPPORTED_MAJOR_VERSION) {
+            return null;
+        }
+
+        HotSpotPerfData data = new HotSpotPerfData(buffer);
+        data.index();
+        return data;
+    }
+
+    private final ByteBuffer buffer;
+
+    /** counter name -> offset of the counter value in the buffer */
+    private final Map<String, Integer> offsets = new HashMap<>();
+    /** the number of entries that have been indexed */
+    private int indexedEntries = 0;
+    /** the offset of the next entry to be indexed */
+    private int nextEntryOffset = -1;
+
+    private HotSpotPerfData(ByteBuffer buffer) {
+        this.buffer = buffer;
+    }
+
+    /**
+     * Indexes any entries that have been added since the last call.
+     */
+    private void index() {
+        if (this.buffer.get(ACCESSIBLE_OFFSET) == 0) {
+            return;
+        }
+
+        int numEntries = this.buffer.getInt(NUM_ENTRIES_OFFSET);
+        if (this.nextEntryOffset == -1) {
+            this.nextEntryOffset = this.buffer.getInt(ENTRY_OFFSET_OFFSET);
+        }
+
+        for (; this.indexedEntries < numEntries; this.indexedEntries++) {
+            int entry = this.nextEntryOffset;
+            int entryLength = this.buffer.getInt(entry + ENTRY_LENGTH_OFFSET);
+            if (entryLength <= 0 || entry + entryLength > this.buffer.capacity()) {
+                return; // not fully written yet
+            }
+
+            if (this.buffer.get(entry + DATA_TYPE_OFFSET) == TYPE_LONG && this.buffer.getInt(entry + VECTOR_LENGTH_OFFSET) == 0) {
+                String name = readName(entry + this.buffer.getInt(entry + NAME_OFFSET_OFFSET), entry + entryLength);
+                this.offsets.put(name, entry + this.buffer.getInt(entry + DATA_OFFSET_OFFSET));
+            }
+            this.nextEntryOffset += entryLength;
+        }
+    }
+
+    private String readName(int start, int limit) {
+        int end = start;
+        while (end < limit && this.buffer.get(end) != 0) {
+            end++;
+        }
+
+        byte[] bytes = new byte[end - start];
+        for (int i = 0; i < bytes.length; i++) {
+            bytes[i] = this.buffer.get(start + i);
+        }
+        return new String(bytes, StandardCharsets.US_ASCII);
+    }
+
+    /**
+     * Gets the current value of a counter.
+     *
+     * @param name the name of the counter, e.g. {@code sun.rt.safepoints}
+     * @return the value, or -1 if the counter does not exist
+     */
+    public synchronized long getLong(String name) {
+        Integer offset = this.offsets.get(name);
+        if (offset == null) {
+            // some counters are only created once they are first used
+            index();
+            offset = this.offsets.get(name);
+            if (offset == null) {
+                return -1;
+            }
+        }
+        return this.buffer.getLong(offset);
+    }
+
+}
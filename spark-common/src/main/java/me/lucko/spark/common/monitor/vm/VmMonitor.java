@@ -0,0 +1,117 @@
+/*
+ * This file is part of spark.
+ *
+ *  Copyright (c) lucko (Luck) <luck@lucko.me>
+ *  Copyright (c) contributors
+ *
+ *  This program is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+
+package me.lucko.spark.common.monitor.vm;
+
+import me.lucko.spark.common.monitor.Metrics;
+import me.lucko.spark.common.monitor.MonitoringExecutor;
+import me.lucko.spark.common.util.TimeUtil;
+
+import java.lang.management.CompilationMXBean;
+import java.lang.management.ManagementFactory;
+
+/**
+ * Monitors the time the JVM spends at safepoints and compiling code.
+ *
+ * <p>Tick lag which isn't caused by garbage collection is often caused by the time taken
+ * for threads to reach a safepoint, or by a burst of deoptimisation and recompilation.</p>
+ */
+public enum VmMonitor {
+    ;
+
+    /** The HotSpot performance counters, if available */
+    private static final HotSpotPerfData PERF_DATA;
+    /** The CompilationMXBean, if compilation time monitoring is supported */
+    private static final CompilationMXBean COMPILATION_BEAN;
+
+    static {
+        PERF_DATA = HotSpotPerfData.open();
+
+        CompilationMXBean compilationBean = ManagementFactory.getCompilationMXBean();
+        COMPILATION_BEAN = compilationBean != null && compilationBean.isCompilationTimeMonitoringSupported() ? compilationBean : null;
+
+        MonitoringExecutor.scheduleAtFixedRateMillis(new PollingTask(), Metrics.INTERVAL_MILLIS);
+    }
+
+    /**
+     * Ensures that the static initializer has been called.
+     */
+    @SuppressWarnings("EmptyMethod")
+    public static void ensureMonitoring() {
+        // intentionally empty
+    }
+
+    /**
+     * Polls the current (cumulative) statistics.
+     *
+     * @return the statistics
+     */
+    public static VmOperationStatistics poll() {
+        long safepoints = 0;
+        double safepointTime = 0;
+        double safepointSyncTime = 0;
+        long compilations = 0;
+        long invalidations = 0;
+
+        if (PERF_DATA != null) {
+            // times are measured in high resolution timer ticks
+            double ticksPerMilli = PERF_DATA.getLong("sun.os.hrt.frequency") / 1000d;
+            if (ticksPerMilli > 0) {
+                safepoints = Math.max(0, PERF_DATA.getLong("sun.rt.safepoints"));
+                safepointTime = Math.max(0, PERF_DATA.getLong("sun.rt.safepointTime")) / ticksPerMilli;
+                safepointSyncTime = Math.max(0, PERF_DATA.getLong("sun.rt.safepointSyncTime")) / ticksPerMilli;
+            }
+            compilations = Math.max(0, PERF_DATA.getLong("sun.ci.totalCompiles"));
+            invalidations = Math.max(0, PERF_DATA.getLong("sun.ci.totalInvalidates"));
+        }
+
+        long compilationTime = COMPILATION_BEAN != null ? COMPILATION_BEAN.getTotalCompilationTime() : 0;
+
+        return new VmOperationStatistics(safepoints, safepointTime, safepointSyncTime, compilations, compilationTime, invalidations);
+    }
+
+    /**
+     * Task to record safepoint and compilation times into {@link Metrics}.
+     */
+    private static final class PollingTask implements Runnable {
+        private VmOperationStatistics previous = null;
+
+        @Override
+        public void run() {
+            long timeMillis = TimeUtil.monotonicCurrentTimeMillis();
+            VmOperationStatistics stats = poll();
+
+            if (this.previous != null) {
+                VmOperationStatistics diff = stats.subtract(this.previous);
+                if (PERF_DATA != null) {
+                    Metrics.SAFEPOINT_TIME.record(timeMillis, diff.getSafepointTime());
+                    Metrics.SAFEPOINT_SYNC_TIME.record(timeMillis, diff.getSafepointSyncTime());
+                }
+                if (COMPILATION_BEAN != null) {
+                    Metrics.COMPILATION_TIME.record(timeMillis, (double) diff.getCompilationTime());
+                }
+            }
+
+            this.previous = stats;
+        }
+    }
+
+}
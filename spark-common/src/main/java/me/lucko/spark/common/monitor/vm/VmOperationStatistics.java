@@ -0,0 +1,115 @@
+/*
+ * This file is part of spark.
+ *
+ *  Copyright (c) lucko (Luck) <luck@lucko.me>
+ *  Copyright (c) contributors
+ *
+ *  This program is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+
+package me.lucko.spark.common.monitor.vm;
+
+import me.lucko.spark.proto.SparkProtos;
+
+/**
+ * Holder for cumulative safepoint and JIT compilation statistics.
+ */
+public final class VmOperationStatistics {
+    public static final VmOperationStatistics ZERO = new VmOperationStatistics(0, 0, 0, 0, 0, 0);
+
+    private final long safepoints;
+    private final double safepointTime;
+    private final double safepointSyncTime;
+    private final long compilations;
+    private final long compilationTime;
+    private final long invalidations;
+
+    VmOperationStatistics(long safepoints, double safepointTime, double safepointSyncTime, long compilations, long compilationTime, long invalidations) {
+        this.safepoints = safepoints;
+        this.safepointTime = safepointTime;
+        this.safepointSyncTime = safepointSyncTime;
+        this.compilations = compilations;
+        this.compilationTime = compilationTime;
+        this.invalidations = invalidations;
+    }
+
+    // all times in milliseconds
+
+    public long getSafepoints() {
+        return this.safepoints;
+    }
+
+    /**
+     * Gets the total time spent at safepoints, including the time taken to reach them.
+     *
+     * @return the safepoint time
+     */
+    public double getSafepointTime() {
+        return this.safepointTime;
+    }
+
+    /**
+     * Gets the time spent waiting for all threads to reach safepoints ("time to safepoint").
+     *
+     * @return the safepoint sync time
+     */
+    public double getSafepointSyncTime() {
+        return this.safepointSyncTime;
+    }
+
+    public long getCompilations() {
+        return this.compilations;
+    }
+
+    public long getCompilationTime() {
+        return this.compilationTime;
+    }
+
+    /**
+     * Gets the number of compiled methods which have been invalidated, usually because
+     * an assumption made when compiling them no longer holds (deoptimisation).
+     *
+     * @return the invalidation count
+     */
+    public long getInvalidations() {
+        return this.invalidations;
+    }
+
+    public VmOperationStatistics subtract(VmOperationStatistics other) {
+        if (other == ZERO) {
+            return this;
+        }
+
+        return new VmOperationStatistics(
+                this.safepoints - other.safepoints,
+                this.safepointTime - other.safepointTime,
+                this.safepointSyncTime - other.safepointSyncTime,
+                this.compilations - other.compilations,
+                this.compilationTime - other.compilationTime,
+                this.invalidations - other.invalidations
+        );
+    }
+
+    public SparkProtos.VmOperations toProto() {
+        return SparkProtos.VmOperations.newBuilder()
+                .setSafepoints(this.safepoints)
+                .setSafepointTime(this.safepointTime)
+                .setSafepointSyncTime(this.safepointSyncTime)
+                .setCompilations(this.compilations)
+                .setCompilationTime(this.compilationTime)
+                .setInvalidations(this.invalidations)
+                .build();
+    }
+}
@@ -0,0 +1,333 @@
+/*
+ * This file is part of spark.
+ *
+ *  Copyright (c) lucko (Luck) <luck@lucko.me>
+ *  Copyright (c) contributors
+ *
+ *  This program is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package me.lucko.spark.common.payloadstore;
+
+import com.sun.net.httpserver.Headers;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+import me.lucko.spark.common.SparkPlatform;
+import me.lucko.spark.common.monitor.MonitoringExecutor;
+import me.lucko.spark.common.util.SparkThreadFactory;
+import me.lucko.spark.common.util.config.Configuration;
+import me.lucko.spark.common.util.log.SparkStaticLogger;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.net.URI;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Level;
+import java.util.zip.GZIPInputStream;
+
+/**
+ * A small embedded HTTP server which can be used in place of bytebin.
+ *
+ * <p>Payloads are written to local disk and served back until they expire. This allows spark
+ * to be used on networks without access to the public payload host, and avoids a round trip
+ * to a remote host for each upload.</p>
+ *
+ * <p>A {@link WebSocketRelay} which can be used in place of bytesocks is served on a separate
+ * port. Spark keeps connecting to the configured bytesocks host, because the bytesocks client
+ * always uses {@code wss://} and the relay only speaks {@code ws://} - to use it for live
+ * viewers ({@code /spark profiler open} and live health reports), put it behind a TLS
+ * terminator and point {@code bytesocksHost} at that.</p>
+ *
+ * <p>The links produced by spark are built from the configured viewer url, so a viewer that
+ * can read from this store has to be hosted as well.</p>
+ */
+public class LocalPayloadStore implements AutoCloseable {
+    private static final String OPTION_ENABLED = "localPayloadStore.enabled";
+    private static final String OPTION_HOST = "localPayloadStore.host";
+    private static final String OPTION_PORT = "localPayloadStore.port";
+    private static final String OPTION_RELAY_PORT = "localPayloadStore.relayPort";
+    private static final String OPTION_TTL_HOURS = "localPayloadStore.ttlHours";
+    private static final String OPTION_MAX_PAYLOAD_MB = "localPayloadStore.maxPayloadMb";
+
+    /** The maximum number of requests handled at once, further requests are queued */
+    private static final int MAX_THREADS = 8;
+    /** The maximum size of a websocket message frame */
+    private static final int MAX_FRAME_BYTES = 16 * 1024 * 1024;
+    /** How often expired payloads and empty channels should be removed */
+    private static final long CLEANUP_INTERVAL_MILLIS = 60_000L;
+    /** The host of the public viewer, which can't load payloads from this store */
+    private static final String PUBLIC_VIEWER_HOST = "spark.lucko.me";
+
+    private final PayloadStorage storage;
+    private final WebSocketRelay relay;
+    private final String host;
+    private final int port;
+    private final String viewerUrl;
+
+    private HttpServer server;
+    private ExecutorService serverExecutor;
+    private ScheduledFuture<?> cleanupTask;
+
+    LocalPayloadStore(Path directory, String host, int port, int relayPort, long ttlMillis, long maxPayloadBytes, String viewerUrl) {
+        this.storage = new PayloadStorage(directory, ttlMillis, maxPayloadBytes);
+        this.relay = new WebSocketRelay(host, relayPort, MAX_FRAME_BYTES);
+        this.host = host;
+        this.port = port;
+        this.viewerUrl = viewerUrl;
+    }
+
+    /**
+     * Creates a new payload store if it has been enabled in the configuration.
+     *
+     * @param platform the platform
+     * @param configuration the configuration
+     * @return the payload store, or null if disabled
+     */
+    public static LocalPayloadStore createIfEnabled(SparkPlatform platform, Configuration configuration) {
+        if (!configuration.getBoolean(OPTION_ENABLED, false)) {
+            return null;
+        }
+
+        String host = configuration.getString(OPTION_HOST, "127.0.0.1");
+        int port = configuration.getInteger(OPTION_PORT, 9426);
+        int relayPort = configuration.getInteger(OPTION_RELAY_PORT, 9427);
+        long ttlMillis = TimeUnit.HOURS.toMillis(Math.max(1, configuration.getInteger(OPTION_TTL_HOURS, 24)));
+        long maxPayloadBytes = Math.max(1, configuration.getInteger(OPTION_MAX_PAYLOAD_MB, 100)) * 1024L * 1024L;
+        Path directory = platform.getPlugin().getPluginDirectory().resolve("payloads");
+        return new LocalPayloadStore(directory, host, port, relayPort, ttlMillis, maxPayloadBytes, platform.getViewerUrl());
+    }
+
+    /**
+     * Gets the host (and port) that the store can be reached at.
+     *
+     * <p>If the store was configured with port 0, this is only accurate once it has been started.</p>
+     *
+     * @return the host
+     */
+    public String getHost() {
+        return connectableHost() + ":" + getPort();
+    }
+
+    /**
+     * Gets the host (and port) that the websocket relay can be reached at.
+     *
+     * <p>If the relay was configured with port 0, this is only accurate once it has been started.</p>
+     *
+     * @return the host
+     */
+    public String getRelayHost() {
+        return connectableHost() + ":" + this.relay.getPort();
+    }
+
+    private String connectableHost() {
+        // a wildcard address can't be connected to, use loopback instead
+        return this.host.equals("0.0.0.0") || this.host.equals("::") ? "127.0.0.1" : this.host;
+    }
+
+    /**
+     * Gets the url that the store can be reached at, for use in place of the bytebin url.
+     *
+     * <p>If the store was configured with port 0, this is only accurate once it has been started.</p>
+     *
+     * @return the url
+     */
+    public String getUrl() {
+        return "http://" + getHost() + "/";
+    }
+
+    public int getPort() {
+        HttpServer server = this.server;
+        return server != null ? server.getAddress().getPort() : this.port;
+    }
+
+    public void start() {
+        if (this.server != null) {
+            throw new IllegalStateException();
+        }
+
+        try {
+            this.server = HttpServer.create(new InetSocketAddress(this.host, this.port), 0);
+        } catch (IOException e) {
+            SparkStaticLogger.log(Level.WARNING, "Unable to start local payload store on " + this.host + ":" + this.port, e);
+            return;
+        }
+
+        ThreadPoolExecutor executor = new ThreadPoolExecutor(MAX_THREADS, MAX_THREADS, 60L, TimeUnit.SECONDS,
+                new LinkedBlockingQueue<>(), new SparkThreadFactory("spark-payload-store", true));
+        executor.allowCoreThreadTimeOut(true);
+        this.serverExecutor = executor;
+
+        this.server.setExecutor(this.serverExecutor);
+        this.server.createContext("/", this::handle);
+        this.server.start();
+        this.cleanupTask = MonitoringExecutor.scheduleAtFixedRateMillis(this::cleanup, CLEANUP_INTERVAL_MILLIS);
+
+        SparkStaticLogger.log(Level.INFO, "Serving local payload store at " + getUrl());
+
+        try {
+            this.relay.start();
+            SparkStaticLogger.log(Level.INFO, "Serving local websocket relay at " + getRelayHost() + " (put a TLS terminator in front and set 'bytesocksHost' to use it for live viewers)");
+        } catch (IOException e) {
+            SparkStaticLogger.log(Level.WARNING, "Unable to start local websocket relay on " + this.host + ":" + this.relay.getPort(), e);
+        }
+
+        if (isPublicViewer(this.viewerUrl)) {
+            SparkStaticLogger.log(Level.WARNING, "The local payload store is enabled, but 'viewerUrl' is still set to the public viewer (" + this.viewerUrl + "). " +
+                    "The public viewer can't load data from the local payload store, so links to uploaded profiles/reports won't work until 'viewerUrl' points to a self-hosted viewer.");
+        }
+    }
+
+    private void cleanup() {
+        this.storage.evictExpired();
+        this.relay.removeEmptyChannels();
+    }
+
+    static boolean isPublicViewer(String viewerUrl) {
+        try {
+            return PUBLIC_VIEWER_HOST.equalsIgnoreCase(URI.create(viewerUrl).getHost());
+        } catch (IllegalArgumentException e) {
+            return false;
+        }
+    }
+
+    private void handle(HttpExchange exchange) throws IOException {
+        try {
+            String method = exchange.getRequestMethod();
+            String path = exchange.getRequestURI().getRawPath().substring(1);
+
+            Headers headers = exchange.getResponseHeaders();
+            headers.set("Access-Control-Allow-Origin", "*");
+            headers.set("Access-Control-Expose-Headers", "Location");
+
+            if (method.equals("OPTIONS")) {
+                headers.set("Access-Control-Allow-Methods", "GET, POST, OPTIONS");
+                headers.set("Access-Control-Allow-Headers", "Content-Type, Content-Encoding");
+                exchange.sendResponseHeaders(204, -1);
+                return;
+            }
+
+            if (path.equals("post")) {
+                if (!method.equals("POST")) {
+                    sendText(exchange, 405, "Method Not Allowed");
+                    return;
+                }
+                handleUpload(exchange);
+                return;
+            }
+
+            if (!method.equals("GET")) {
+                sendText(exchange, 405, "Method Not Allowed");
+                return;
+            }
+
+            handleDownload(exchange, path);
+        } finally {
+            exchange.close();
+        }
+    }
+
+    private void handleUpload(HttpExchange exchange) throws IOException {
+        Headers requestHeaders = exchange.getRequestHeaders();
+
+        String key;
+        try (InputStream in = exchange.getRequestBody()) {
+            key = this.storage.store(in, requestHeaders.getFirst("Content-Type"), requestHeaders.getFirst("Content-Encoding"));
+        } catch (PayloadStorage.PayloadTooLargeException e) {
+            sendText(exchange, 413, "Payload Too Large");
+            return;
+        }
+
+        byte[] body = ("{\"key\":\"" + key + "\"}").getBytes(StandardCharsets.UTF_8);
+        exchange.getResponseHeaders().set("Location", key);
+        exchange.getResponseHeaders().set("Content-Type", "application/json");
+        exchange.sendResponseHeaders(201, body.length);
+        try (OutputStream out = exchange.getResponseBody()) {
+            out.write(body);
+        }
+    }
+
+    private void handleDownload(HttpExchange exchange, String key) throws IOException {
+        PayloadStorage.Payload payload = this.storage.get(key);
+        if (payload == null) {
+            sendText(exchange, 404, "Not Found");
+            return;
+        }
+
+        Headers headers = exchange.getResponseHeaders();
+        headers.set("Content-Type", payload.contentType());
+        headers.set("Cache-Control", "public, max-age=86400");
+
+        String acceptEncoding = exchange.getRequestHeaders().getFirst("Accept-Encoding");
+        if (payload.isGzipped() && (acceptEncoding == null || !acceptEncoding.toLowerCase().contains("gzip"))) {
+            // the client can't handle gzip, decompress on the fly (length unknown, so the response is chunked)
+            exchange.sendResponseHeaders(200, 0);
+            try (InputStream in = new GZIPInputStream(Files.newInputStream(payload.file())); OutputStream out = exchange.getResponseBody()) {
+                copy(in, out);
+            }
+            return;
+        }
+
+        if (payload.contentEncoding() != null) {
+            headers.set("Content-Encoding", payload.contentEncoding());
+        }
+        exchange.sendResponseHeaders(200, Files.size(payload.file()));
+        try (OutputStream out = exchange.getResponseBody()) {
+            Files.copy(payload.file(), out);
+        }
+    }
+
+    private static void sendText(HttpExchange exchange, int status, String text) throws IOException {
+        byte[] body = text.getBytes(StandardCharsets.UTF_8);
+        exchange.getResponseHeaders().set("Content-Type", "text/plain; charset=utf-8");
+        exchange.sendResponseHeaders(status, body.length);
+        try (OutputStream out = exchange.getResponseBody()) {
+            out.write(body);
+        }
+    }
+
+    private static void copy(InputStream in, OutputStream out) throws IOException {
+        byte[] buf = new byte[16 * 1024];
+        int n;
+        while ((n = in.read(buf)) != -1) {
+            out.write(buf, 0, n);
+        }
+    }
+
+    @Override
+    public void close() {
+        if (this.cleanupTask != null) {
+            this.cleanupTask.cancel(false);
+            this.cleanupTask = null;
+        }
+        if (this.server != null) {
+            this.server.stop(0);
+            this.server = null;
+        }
+        this.relay.close();
+        if (this.serverExecutor != null) {
+            this.serverExecutor.shutdownNow();
+            this.serverExecutor = null;
+        }
+    }
+
+}
@@ -0,0 +1,247 @@
+/*
+ * This file is part of spark.
+ *
+ *  Copyright (c) lucko (Luck) <luck@lucko.me>
+ *  Copyright (c) contributors
+ *
+ *  This program is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package me.lucko.spark.common.payloadstore;
+
+import org.jetbrains.annotations.VisibleForTesting;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.security.SecureRandom;
+import java.util.regex.Pattern;
+
+/**
+ * Stores payloads as files on disk, and evicts them once they expire.
+ *
+ * <p>Payloads are stored exactly as they were uploaded (usually gzipped), alongside a
+ * small metadata file containing the content type and encoding.</p>
+ */
+final class PayloadStorage {
+
+    /** The characters used in generated keys */
+    private static final char[] KEY_CHARS = "abcdefghijklmnopqrstuvwxyzABCDEFGHIJKLMNOPQRSTUVWXYZ0123456789".toCharArray();
+    /** The length of generated keys */
+    private static final int KEY_LENGTH = 10;
+    /** The format of a valid key - anything else is rejected before touching the filesystem */
+    private static final Pattern KEY_PATTERN = Pattern.compile("^[a-zA-Z0-9]{1,32}$");
+    /** The file extension used for metadata files */
+    private static final String META_EXTENSION = ".meta";
+
+    private static final SecureRandom RANDOM = new SecureRandom();
+
+    private final Path directory;
+    private final long ttlMillis;
+    private final long maxPayloadBytes;
+
+    PayloadStorage(Path directory, long ttlMillis, long maxPayloadBytes) {
+        this.directory = directory;
+        this.ttlMillis = ttlMillis;
+        this.maxPayloadBytes = maxPayloadBytes;
+    }
+
+    /**
+     * Generates a new random key.
+     *
+     * @return the key
+     */
+    static String generateKey() {
+        char[] key = new char[KEY_LENGTH];
+        for (int i = 0; i < key.length; i++) {
+            key[i] = KEY_CHARS[RANDOM.nextInt(KEY_CHARS.length)];
+        }
+        return new String(key);
+    }
+
+    static boolean isValidKey(String key) {
+        return KEY_PATTERN.matcher(key).matches();
+    }
+
+    /**
+     * Stores a new payload.
+     *
+     * @param body the body of the payload
+     * @param contentType the content type
+     * @param contentEncoding the content encoding, or null
+     * @return the key of the stored payload
+     * @throws PayloadTooLargeException if the payload exceeds the maximum size
+     * @throws IOException if an I/O error occurs
+     */
+    String store(InputStream body, String contentType, String contentEncoding) throws IOException {
+        Files.createDirectories(this.directory);
+
+        Path tmp = Files.createTempFile(this.directory, "upload", ".tmp");
+        try {
+            long size = 0;
+            byte[] buf = new byte[16 * 1024];
+            try (OutputStream out = Files.newOutputStream(tmp)) {
+                int n;
+                while ((n = body.read(buf)) != -1) {
+                    size += n;
+                    if (size > this.maxPayloadBytes) {
+                        throw new PayloadTooLargeException();
+                    }
+                    out.write(buf, 0, n);
+                }
+            }
+
+            String key = generateKey();
+            String meta = (contentType == null ? "application/octet-stream" : contentType) + "\n" +
+                    (contentEncoding == null ? "" : contentEncoding) + "\n";
+            Files.write(metaFile(key), meta.getBytes(StandardCharsets.UTF_8));
+            move(tmp, this.directory.resolve(key));
+            return key;
+        } finally {
+            Files.deleteIfExists(tmp);
+        }
+    }
+
+    private static void move(Path from, Path to) throws IOException {
+        try {
+            Files.move(from, to, StandardCopyOption.ATOMIC_MOVE);
+        } catch (AtomicMoveNotSupportedException e) {
+            Files.move(from, to, StandardCopyOption.REPLACE_EXISTING);
+        }
+    }
+
+    /**
+     * Gets a stored payload.
+     *
+     * @param key the key
+     * @return the payload, or null if it doesn't exist or has expired
+     * @throws IOException if an I/O error occurs
+     */
+    Payload get(String key) throws IOException {
+        if (!isValidKey(key)) {
+            return null;
+        }
+
+        Path file = this.directory.resolve(key);
+        Path metaFile = metaFile(key);
+        if (!Files.isRegularFile(file) || !Files.isRegularFile(metaFile) || isExpired(file, System.currentTimeMillis())) {
+            return null;
+        }
+
+        String contentType;
+        String contentEncoding;
+        try (BufferedReader reader = Files.newBufferedReader(metaFile, StandardCharsets.UTF_8)) {
+            contentType = reader.readLine();
+            contentEncoding = reader.readLine();
+        }
+        return new Payload(file, contentType, contentEncoding == null || contentEncoding.isEmpty() ? null : contentEncoding);
+    }
+
+    /**
+     * Deletes any payloads which have expired.
+     *
+     * @return the number of payloads deleted
+     */
+    int evictExpired() {
+        if (!Files.isDirectory(this.directory)) {
+            return 0;
+        }
+
+        long now = System.currentTimeMillis();
+        int evicted = 0;
+        try (DirectoryStream<Path> stream = Files.newDirectoryStream(this.directory)) {
+            for (Path file : stream) {
+                String name = file.getFileName().toString();
+                if (name.endsWith(META_EXTENSION) || !isExpired(file, now)) {
+                    continue;
+                }
+
+                Files.deleteIfExists(file);
+                if (isValidKey(name)) {
+                    Files.deleteIfExists(metaFile(name));
+                    evicted++;
+                }
+            }
+        } catch (IOException e) {
+            // ignore, try again next time
+        }
+        return evicted;
+    }
+
+    private boolean isExpired(Path file, long now) {
+        try {
+            return now - Files.getLastModifiedTime(file).toMillis() > this.ttlMillis;
+        } catch (IOException e) {
+            return true;
+        }
+    }
+
+    @VisibleForTesting
+    Path metaFile(String key) {
+        return this.directory.resolve(key + META_EXTENSION);
+    }
+
+    @VisibleForTesting
+    Path directory() {
+        return this.directory;
+    }
+
+    /**
+     * A stored payload.
+     */
+    static final class Payload {
+        private final Path file;
+        private final String contentType;
+        private final String contentEncoding;
+
+        Payload(Path file, String contentType, String contentEncoding) {
+            this.file = file;
+            this.contentType = contentType;
+            this.contentEncoding = contentEncoding;
+        }
+
+        Path file() {
+            return this.file;
+        }
+
+        String contentType() {
+            return this.contentType;
+        }
+
+        String contentEncoding() {
+            return this.contentEncoding;
+        }
+
+        boolean isGzipped() {
+            return "gzip".equalsIgnoreCase(this.contentEncoding);
+        }
+    }
+
+    /**
+     * Thrown when a payload exceeds the maximum size.
+     */
+    static final class PayloadTooLargeException extends IOException {
+        PayloadTooLargeException() {
+            super("Payload too large");
+        }
+    }
+
+}
@@ -0,0 +1,598 @@
+/*
+ * This file is part of spark.
+ *
+ *  Copyright (c) lucko (Luck) <luck@lucko.me>
+ *  Copyright (c) contributors
+ *
+ *  This program is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package me.lucko.spark.common.payloadstore;
+
+import me.lucko.spark.common.util.SparkThreadFactory;
+import me.lucko.spark.common.util.log.SparkStaticLogger;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.net.SocketTimeoutException;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Base64;
+import java.util.HashMap;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.SynchronousQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Level;
+
+/**
+ * Relays websocket messages between the peers connected to the same channel, in the same way
+ * as bytesocks.
+ *
+ * <p>Channels are created with {@code /create}, and joined by opening a websocket to
+ * {@code /<channel id>}. Messages sent by one peer are forwarded unchanged to every other
+ * peer in the channel.</p>
+ *
+ * <p>The relay listens on its own port, as the JDK HTTP server used for payloads can't hand
+ * over a connection once it has been upgraded. It only speaks plain {@code http://} and
+ * {@code ws://}, but the bytesocks client always connects using {@code https://} and
+ * {@code wss://}, so to use the relay in place of bytesocks it has to be put behind a TLS
+ * terminator (e.g. a reverse proxy with a certificate trusted by the server, which passes
+ * websocket upgrades through), with {@code bytesocksHost} set to the terminator's host.</p>
+ */
+final class WebSocketRelay implements AutoCloseable {
+
+    /** The GUID used to compute the handshake accept key (RFC 6455) */
+    private static final String HANDSHAKE_GUID = "258EAFA5-E914-47DA-95CA-C5AB0DC85B11";
+
+    private static final int OP_CONTINUATION = 0x0;
+    private static final int OP_TEXT = 0x1;
+    private static final int OP_BINARY = 0x2;
+    private static final int OP_CLOSE = 0x8;
+    private static final int OP_PING = 0x9;
+    private static final int OP_PONG = 0xA;
+
+    private static final int CLOSE_NORMAL = 1000;
+    private static final int CLOSE_PROTOCOL_ERROR = 1002;
+    private static final int CLOSE_TOO_BIG = 1009;
+
+    /** How long a channel can exist without any peers before it is removed */
+    private static final long EMPTY_CHANNEL_TIMEOUT_MILLIS = 60_000L;
+    /** The maximum number of connections handled at once (each peer holds a connection) */
+    private static final int MAX_CONNECTIONS = 32;
+    /** How long to wait for a peer to send data before pinging (or closing) the connection */
+    private static final int READ_TIMEOUT_MILLIS = 30_000;
+    /** The maximum size of the request line and headers */
+    private static final int MAX_HEAD_BYTES = 8 * 1024;
+
+    private final Map<String, Channel> channels = new ConcurrentHashMap<>();
+    private final String host;
+    private final int port;
+    private final int maxFrameBytes;
+
+    private ServerSocket serverSocket;
+    private ExecutorService executor;
+
+    WebSocketRelay(String host, int port, int maxFrameBytes) {
+        this.host = host;
+        this.port = port;
+        this.maxFrameBytes = maxFrameBytes;
+    }
+
+    public int getPort() {
+        ServerSocket serverSocket = this.serverSocket;
+        return serverSocket != null ? serverSocket.getLocalPort() : this.port;
+    }
+
+    /**
+     * Starts listening for connections.
+     *
+     * @throws IOException if the port could not be bound
+     */
+    void start() throws IOException {
+        if (this.serverSocket != null) {
+            throw new IllegalStateException();
+        }
+
+        ServerSocket serverSocket = new ServerSocket();
+        try {
+            serverSocket.setReuseAddress(true);
+            serverSocket.bind(new InetSocketAddress(this.host, this.port));
+        } catch (IOException e) {
+            closeQuietly(serverSocket);
+            throw e;
+        }
+        this.serverSocket = serverSocket;
+
+        this.executor = new ThreadPoolExecutor(1, MAX_CONNECTIONS + 1, 60L, TimeUnit.SECONDS,
+                new SynchronousQueue<>(), new SparkThreadFactory("spark-payload-store-relay", true));
+        this.executor.execute(this::acceptLoop);
+    }
+
+    private void acceptLoop() {
+        ServerSocket serverSocket = this.serverSocket;
+        while (serverSocket != null && !serverSocket.isClosed()) {
+            Socket socket;
+            try {
+                socket = serverSocket.accept();
+            } catch (IOException e) {
+                if (!serverSocket.isClosed()) {
+                    SparkStaticLogger.log(Level.WARNING, "Error accepting connection to local websocket relay", e);
+                }
+                continue;
+            }
+
+            try {
+                this.executor.execute(() -> handleConnection(socket));
+            } catch (RejectedExecutionException e) {
+                closeQuietly(socket);
+            }
+        }
+    }
+
+    private void handleConnection(Socket socket) {
+        try {
+            socket.setSoTimeout(READ_TIMEOUT_MILLIS);
+            InputStream in = new BufferedInputStream(socket.getInputStream());
+            OutputStream out = new BufferedOutputStream(socket.getOutputStream());
+
+            // only the request line and headers are read - neither endpoint accepts a body
+            String requestLine = readLine(in);
+            String[] parts = requestLine.split(" ");
+            if (parts.length != 3 || !parts[1].startsWith("/")) {
+                writeResponse(out, 400, "Bad Request", null);
+                return;
+            }
+            String method = parts[0];
+            String path = parts[1].substring(1);
+            int query = path.indexOf('?');
+            if (query != -1) {
+                path = path.substring(0, query);
+            }
+            Map<String, String> headers = readHeaders(in);
+
+            if (path.equals("create")) {
+                if (!method.equals("GET") && !method.equals("POST")) {
+                    writeResponse(out, 405, "Method Not Allowed", null);
+                    return;
+                }
+                writeResponse(out, 201, "Created", createChannel());
+                return;
+            }
+
+            String upgrade = headers.get("upgrade");
+            if (!method.equals("GET") || upgrade == null || !upgrade.toLowerCase(Locale.ROOT).contains("websocket")) {
+                writeResponse(out, 400, "Bad Request", null);
+                return;
+            }
+            if (!PayloadStorage.isValidKey(path) || !handle(headers, path, socket, in, out)) {
+                writeResponse(out, 404, "Not Found", null);
+            }
+        } catch (IOException e) {
+            // ignore, the client has gone away
+        } finally {
+            closeQuietly(socket);
+        }
+    }
+
+    /**
+     * Creates a new channel.
+     *
+     * @return the channel id
+     */
+    private String createChannel() {
+        String id;
+        do {
+            id = PayloadStorage.generateKey();
+        } while (this.channels.putIfAbsent(id, new Channel()) != null);
+        return id;
+    }
+
+    /**
+     * Removes channels which have been empty for a while.
+     */
+    void removeEmptyChannels() {
+        long now = System.currentTimeMillis();
+        this.channels.values().removeIf(channel -> channel.peers.isEmpty() && now - channel.lastActive > EMPTY_CHANNEL_TIMEOUT_MILLIS);
+    }
+
+    /**
+     * Stops listening for connections, and closes all connected peers.
+     */
+    @Override
+    public void close() {
+        if (this.serverSocket != null) {
+            closeQuietly(this.serverSocket);
+            this.serverSocket = null;
+        }
+        for (Channel channel : this.channels.values()) {
+            for (Peer peer : channel.peers) {
+                peer.close(CLOSE_NORMAL);
+            }
+        }
+        this.channels.clear();
+        if (this.executor != null) {
+            this.executor.shutdownNow();
+            this.executor = null;
+        }
+    }
+
+    /**
+     * Completes the websocket handshake for the given request, then relays messages until the
+     * connection is closed.
+     *
+     * @param headers the headers of the upgrade request
+     * @param channelId the channel id
+     * @param socket the socket
+     * @param in the socket input stream
+     * @param out the socket output stream
+     * @return false if the channel doesn't exist, and the handshake was not completed
+     * @throws IOException if an I/O error occurs
+     */
+    private boolean handle(Map<String, String> headers, String channelId, Socket socket, InputStream in, OutputStream out) throws IOException {
+        Channel channel = this.channels.get(channelId);
+        if (channel == null) {
+            return false;
+        }
+
+        String key = headers.get("sec-websocket-key");
+        if (key == null) {
+            throw new IOException("Missing websocket key");
+        }
+
+        String response = "HTTP/1.1 101 Switching Protocols\r\n" +
+                "Upgrade: websocket\r\n" +
+                "Connection: Upgrade\r\n" +
+                "Sec-WebSocket-Accept: " + acceptKey(key) + "\r\n\r\n";
+        out.write(response.getBytes(StandardCharsets.ISO_8859_1));
+        out.flush();
+
+        Peer peer = new Peer(socket, out);
+        channel.peers.add(peer);
+        try {
+            relay(channel, peer, socket, in);
+        } finally {
+            channel.peers.remove(peer);
+            channel.lastActive = System.currentTimeMillis();
+        }
+        return true;
+    }
+
+    private void relay(Channel channel, Peer peer, Socket socket, InputStream in) throws IOException {
+        boolean awaitingPong = false;
+        int messageOpcode = -1;
+
+        while (!socket.isClosed()) {
+            Frame frame;
+            try {
+                frame = Frame.read(in, this.maxFrameBytes);
+            } catch (SocketTimeoutException e) {
+                if (awaitingPong) {
+                    peer.close(CLOSE_NORMAL);
+                    return;
+                }
+                awaitingPong = true;
+                peer.send(OP_PING, true, new byte[0]);
+                continue;
+            } catch (FrameTooLargeException e) {
+                peer.close(CLOSE_TOO_BIG);
+                return;
+            }
+
+            if (frame == null) {
+                return;
+            }
+            awaitingPong = false;
+
+            switch (frame.opcode) {
+                case OP_PING:
+                    peer.send(OP_PONG, true, frame.payload);
+                    break;
+                case OP_PONG:
+                    break;
+                case OP_CLOSE:
+                    peer.close(CLOSE_NORMAL);
+                    return;
+                case OP_TEXT:
+                case OP_BINARY:
+                case OP_CONTINUATION:
+                    if (frame.opcode != OP_CONTINUATION) {
+                        messageOpcode = frame.opcode;
+                    } else if (messageOpcode == -1) {
+                        peer.close(CLOSE_PROTOCOL_ERROR);
+                        return;
+                    }
+                    channel.lastActive = System.currentTimeMillis();
+                    for (Peer other : channel.peers) {
+                        if (other != peer) {
+                            other.send(frame.opcode, frame.fin, frame.payload);
+                        }
+                    }
+                    if (frame.fin) {
+                        messageOpcode = -1;
+                    }
+                    break;
+                default:
+                    peer.close(CLOSE_PROTOCOL_ERROR);
+                    return;
+            }
+        }
+    }
+
+    private static void writeResponse(OutputStream out, int status, String reason, String key) throws IOException {
+        String body = key != null ? "{\"key\":\"" + key + "\"}" : reason;
+        byte[] bytes = body.getBytes(StandardCharsets.UTF_8);
+
+        StringBuilder sb = new StringBuilder();
+        sb.append("HTTP/1.1 ").append(status).append(' ').append(reason).append("\r\n");
+        sb.append("Access-Control-Allow-Origin: *\r\n");
+        sb.append("Access-Control-Expose-Headers: Location\r\n");
+        sb.append("Connection: close\r\n");
+        if (key != null) {
+            sb.append("Location: ").append(key).append("\r\n");
+            sb.append("Content-Type: application/json\r\n");
+        } else {
+            sb.append("Content-Type: text/plain; charset=utf-8\r\n");
+        }
+        sb.append("Content-Length: ").append(bytes.length).append("\r\n\r\n");
+
+        out.write(sb.toString().getBytes(StandardCharsets.ISO_8859_1));
+        out.write(bytes);
+        out.flush();
+    }
+
+    /**
+     * Reads the headers of a request, up to the empty line which ends them.
+     *
+     * @param in the stream
+     * @return the headers, with lower case names
+     * @throws IOException if an I/O error occurs, or the headers are malformed
+     */
+    private static Map<String, String> readHeaders(InputStream in) throws IOException {
+        Map<String, String> headers = new HashMap<>();
+        int total = 0;
+        String line;
+        while (!(line = readLine(in)).isEmpty()) {
+            total += line.length();
+            if (total > MAX_HEAD_BYTES) {
+                throw new IOException("Headers too large");
+            }
+            int colon = line.indexOf(':');
+            if (colon <= 0) {
+                throw new IOException("Malformed header: " + line);
+            }
+            headers.put(line.substring(0, colon).trim().toLowerCase(Locale.ROOT), line.substring(colon + 1).trim());
+        }
+        return headers;
+    }
+
+    /**
+     * Reads a CRLF (or LF) terminated line.
+     *
+     * @param in the stream
+     * @return the line, without the terminator
+     * @throws IOException if an I/O error occurs, the stream ends or the line is too long
+     */
+    static String readLine(InputStream in) throws IOException {
+        ByteArrayOutputStream line = new ByteArrayOutputStream();
+        int b;
+        while ((b = in.read()) != '\n') {
+            if (b == -1) {
+                throw new IOException("Unexpected end of stream");
+            }
+            if (line.size() >= MAX_HEAD_BYTES) {
+                throw new IOException("Line too long");
+            }
+            line.write(b);
+        }
+        byte[] bytes = line.toByteArray();
+        int length = bytes.length > 0 && bytes[bytes.length - 1] == '\r' ? bytes.length - 1 : bytes.length;
+        return new String(bytes, 0, length, StandardCharsets.ISO_8859_1);
+    }
+
+    private static void closeQuietly(AutoCloseable closeable) {
+        try {
+            closeable.close();
+        } catch (Exception e) {
+            // ignore
+        }
+    }
+
+    static String acceptKey(String key) {
+        try {
+            MessageDigest digest = MessageDigest.getInstance("SHA-1");
+            byte[] hash = digest.digest((key + HANDSHAKE_GUID).getBytes(StandardCharsets.ISO_8859_1));
+            return Base64.getEncoder().encodeToString(hash);
+        } catch (NoSuchAlgorithmException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    /**
+     * A channel that peers can connect to.
+     */
+    private static final class Channel {
+        private final CopyOnWriteArrayList<Peer> peers = new CopyOnWriteArrayList<>();
+        private volatile long lastActive = System.currentTimeMillis();
+    }
+
+    /**
+     * A connected peer.
+     */
+    private static final class Peer {
+        private final Socket socket;
+        private final OutputStream out;
+
+        Peer(Socket socket, OutputStream out) {
+            this.socket = socket;
+            this.out = out;
+        }
+
+        /**
+         * Sends an (unmasked) frame to the peer.
+         *
+         * @param opcode the opcode
+         * @param fin if this is the final frame in the message
+         * @param payload the payload
+         */
+        synchronized void send(int opcode, boolean fin, byte[] payload) {
+            if (this.socket.isClosed()) {
+                return;
+            }
+            try {
+                this.out.write((fin ? 0x80 : 0) | opcode);
+                if (payload.length < 126) {
+                    this.out.write(payload.length);
+                } else if (payload.length <= 0xFFFF) {
+                    this.out.write(126);
+                    this.out.write(payload.length >>> 8);
+                    this.out.write(payload.length);
+                } else {
+                    this.out.write(127);
+                    long length = payload.length;
+                    for (int i = 7; i >= 0; i--) {
+                        this.out.write((int) (length >>> (i * 8)));
+                    }
+                }
+                this.out.write(payload);
+                this.out.flush();
+            } catch (IOException e) {
+                closeQuietly();
+            }
+        }
+
+        void close(int code) {
+            send(OP_CLOSE, true, new byte[]{(byte) (code >>> 8), (byte) code});
+            closeQuietly();
+        }
+
+        private void closeQuietly() {
+            try {
+                this.socket.close();
+            } catch (IOException e) {
+                // ignore
+            }
+        }
+    }
+
+    /**
+     * A frame received from a peer.
+     */
+    static final class Frame {
+        final int opcode;
+        final boolean fin;
+        final byte[] payload;
+
+        Frame(int opcode, boolean fin, byte[] payload) {
+            this.opcode = opcode;
+            this.fin = fin;
+            this.payload = payload;
+        }
+
+        /**
+         * Reads a frame, unmasking the payload if necessary.
+         *
+         * @param in the stream
+         * @param maxPayloadBytes the maximum payload size
+         * @return the frame, or null if the stream ended
+         * @throws IOException if an I/O error occurs
+         */
+        static Frame read(InputStream in, int maxPayloadBytes) throws IOException {
+            int b0 = in.read();
+            if (b0 == -1) {
+                return null;
+            }
+            try {
+                return read(in, b0, maxPayloadBytes);
+            } catch (SocketTimeoutException e) {
+                // only a timeout between frames means the connection is idle
+                throw new IOException("Timed out reading frame", e);
+            }
+        }
+
+        private static Frame read(InputStream in, int b0, int maxPayloadBytes) throws IOException {
+            int b1 = readByte(in);
+
+            boolean fin = (b0 & 0x80) != 0;
+            int opcode = b0 & 0x0F;
+            boolean masked = (b1 & 0x80) != 0;
+
+            long length = b1 & 0x7F;
+            if (length == 126) {
+                length = (readByte(in) << 8) | readByte(in);
+            } else if (length == 127) {
+                length = 0;
+                for (int i = 0; i < 8; i++) {
+                    length = (length << 8) | readByte(in);
+                }
+            }
+            if (length < 0 || length > maxPayloadBytes) {
+                throw new FrameTooLargeException();
+            }
+
+            byte[] mask = new byte[4];
+            if (masked) {
+                readFully(in, mask);
+            }
+
+            byte[] payload = new byte[(int) length];
+            readFully(in, payload);
+            if (masked) {
+                for (int i = 0; i < payload.length; i++) {
+                    payload[i] ^= mask[i & 3];
+                }
+            }
+            return new Frame(opcode, fin, payload);
+        }
+
+        private static int readByte(InputStream in) throws IOException {
+            int b = in.read();
+            if (b == -1) {
+                throw new IOException("Unexpected end of stream");
+            }
+            return b;
+        }
+
+        private static void readFully(InputStream in, byte[] buf) throws IOException {
+            int off = 0;
+            while (off < buf.length) {
+                int n = in.read(buf, off, buf.length - off);
+                if (n == -1) {
+                    throw new IOException("Unexpected end of stream");
+                }
+                off += n;
+            }
+        }
+    }
+
+    /**
+     * Thrown when a frame exceeds the maximum size.
+     */
+    private static final class FrameTooLargeException extends IOException {
+    }
+
+}
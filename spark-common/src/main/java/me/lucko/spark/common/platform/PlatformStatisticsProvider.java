@@ -28,6 +28,7 @@ import me.lucko.spark.common.monitor.cpu.CpuMonitor;
 import me.lucko.spark.common.monitor.disk.DiskUsage;
 import me.lucko.spark.common.monitor.memory.GarbageCollectorStatistics;
 import me.lucko.spark.common.monitor.memory.MemoryAllocationInfo;
+import me.lucko.spark.common.monitor.memory.NativeMemoryInfo;
 import me.lucko.spark.common.monitor.memory.SystemMemoryInfo;
 import me.lucko.spark.common.monitor.net.NetworkInterfaceAverages;
 import me.lucko.spark.common.monitor.net.NetworkMonitor;
@@ -62,27 +63,37 @@ public class PlatformStatisticsProvider {
     }
 
     public SystemStatistics getSystemStatistics() {
-        RuntimeMXBean runtimeBean = ManagementFactory.getRuntimeMXBean();
-        OperatingSystemInfo osInfo = OperatingSystemInfo.poll();
+        return getSystemStatistics(true);
+    }
 
-        String vmArgs = String.join(" ", runtimeBean.getInputArguments());
+    /**
+     * Gets the current system statistics.
+     *
+     * @param includeStaticInfo whether to include information which doesn't change while the
+     *                          server is running (the CPU model, OS, Java and JVM details)
+     * @return the system statistics
+     */
+    public SystemStatistics getSystemStatistics(boolean includeStaticInfo) {
+        RuntimeMXBean runtimeBean = ManagementFactory.getRuntimeMXBean();
 
-        SystemStatistics.Builder builder = SystemStatistics.newBuilder()
-                .setCpu(SystemStatistics.Cpu.newBuilder()
-                        .setThreads(Runtime.getRuntime().availableProcessors())
-                        .setProcessUsage(SystemStatistics.Cpu.Usage.newBuilder()
-                                .setLast1M(CpuMonitor.processLoad1MinAvg())
-                                .setLast15M(CpuMonitor.processLoad15MinAvg())
-                                .build()
-                        )
-                        .setSystemUsage(SystemStatistics.Cpu.Usage.newBuilder()
-                                .setLast1M(CpuMonitor.systemLoad1MinAvg())
-                                .setLast15M(CpuMonitor.systemLoad15MinAvg())
-                                .build()
-                        )
-                        .setModelName(CpuInfo.queryCpuModel())
+        SystemStatistics.Cpu.Builder cpu = SystemStatistics.Cpu.newBuilder()
+                .setThreads(Runtime.getRuntime().availableProcessors())
+                .setProcessUsage(SystemStatistics.Cpu.Usage.newBuilder()
+                        .setLast1M(CpuMonitor.processLoad1MinAvg())
+                        .setLast15M(CpuMonitor.processLoad15MinAvg())
                         .build()
                 )
+                .setSystemUsage(SystemStatistics.Cpu.Usage.newBuilder()
+                        .setLast1M(CpuMonitor.systemLoad1MinAvg())
+                        .setLast15M(CpuMonitor.systemLoad15MinAvg())
+                        .build()
+                );
+        if (includeStaticInfo) {
+            cpu.setModelName(CpuInfo.queryCpuModel());
+        }
+
+        SystemStatistics.Builder builder = SystemStatistics.newBuilder()
+                .setCpu(cpu.build())
                 .setMemory(SystemStatistics.Memory.newBuilder()
                         .setPhysical(SystemStatistics.Memory.MemoryPool.newBuilder()
                                 .setUsed(SystemMemoryInfo.getUsedPhysicalMemory())
@@ -100,27 +111,33 @@ public class PlatformStatisticsProvider {
                         .setTotal(DiskUsage.getTotal())
                         .setUsed(DiskUsage.getUsed())
                         .build()
-                )
-                .setOs(SystemStatistics.Os.newBuilder()
-                        .setArch(osInfo.arch())
-                        .setName(osInfo.name())
-                        .setVersion(osInfo.version())
-                        .build()
-                )
-                .setJava(SystemStatistics.Java.newBuilder()
-                        .setVendor(System.getProperty("java.vendor", "unknown"))
-                        .setVersion(System.getProperty("java.version", "unknown"))
-                        .setVendorVersion(System.getProperty("java.vendor.version", "unknown"))
-                        .setVmArgs(VmArgRedactor.replace(vmArgs))
-                        .build()
-                )
-                .setJvm(SystemStatistics.Jvm.newBuilder()
-                        .setName(System.getProperty("java.vm.name", "unknown"))
-                        .setVendor(System.getProperty("java.vm.vendor", "unknown"))
-                        .setVersion(System.getProperty("java.vm.version", "unknown"))
-                        .build()
                 );
 
+        if (includeStaticInfo) {
+            OperatingSystemInfo osInfo = OperatingSystemInfo.poll();
+            String vmArgs = String.join(" ", runtimeBean.getInputArguments());
+
+            builder.setOs(SystemStatistics.Os.newBuilder()
+                            .setArch(osInfo.arch())
+                            .setName(osInfo.name())
+                            .setVersion(osInfo.version())
+                            .build()
+                    )
+                    .setJava(SystemStatistics.Java.newBuilder()
+                            .setVendor(System.getProperty("java.vendor", "unknown"))
+                            .setVersion(System.getProperty("java.version", "unknown"))
+                            .setVendorVersion(System.getProperty("java.vendor.version", "unknown"))
+                            .setVmArgs(VmArgRedactor.replace(vmArgs))
+                            .build()
+                    )
+                    .setJvm(SystemStatistics.Jvm.newBuilder()
+                            .setName(System.getProperty("java.vm.name", "unknown"))
+                            .setVendor(System.getProperty("java.vm.vendor", "unknown"))
+                            .setVersion(System.getProperty("java.vm.version", "unknown"))
+                            .build()
+                    );
+        }
+
         long uptime = runtimeBean.getUptime();
         builder.setUptime(uptime);
 
@@ -148,7 +165,16 @@ public class PlatformStatisticsProvider {
         return builder.build();
     }
 
-    public PlatformStatistics getPlatformStatistics(Map<String, GarbageCollectorStatistics> startingGcStatistics, boolean includeWorldStatistics) {
+    /**
+     * Gets the platform statistics.
+     *
+     * @param startingGcStatistics the gc statistics to calculate deltas from
+     * @param includeWorldStatistics if world statistics should be included
+     * @param includeNativeMemoryTracking if the native memory tracking summary should be read, which
+     *                                    is relatively expensive, so shouldn't be done for periodic updates
+     * @return the statistics
+     */
+    public PlatformStatistics getPlatformStatistics(Map<String, GarbageCollectorStatistics> startingGcStatistics, boolean includeWorldStatistics, boolean includeNativeMemoryTracking) {
         PlatformStatistics.Builder builder = PlatformStatistics.newBuilder();
 
         PlatformStatistics.Memory.Builder memory = PlatformStatistics.Memory.newBuilder()
@@ -179,6 +205,8 @@ public class PlatformStatisticsProvider {
             );
         }
 
+        memory.setNativeMemory(NativeMemoryInfo.poll(includeNativeMemoryTracking).toProto());
+
         builder.setMemory(memory.build());
 
         long uptime = TimeUtil.monotonicCurrentTimeMillis() - this.platform.getServerNormalOperationStartTime();
@@ -46,7 +46,7 @@ public class SparkMetadata {
 
         PlatformStatistics platformStatistics = null;
         try {
-            platformStatistics = platform.getStatisticsProvider().getPlatformStatistics(initialGcStats, true);
+            platformStatistics = platform.getStatisticsProvider().getPlatformStatistics(initialGcStats, true, true);
         } catch (Exception e) {
             platform.getPlugin().log(Level.WARNING, "Failed to gather platform statistics", e);
         }
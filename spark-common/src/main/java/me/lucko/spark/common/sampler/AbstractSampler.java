@@ -20,32 +20,44 @@
 
 package me.lucko.spark.common.sampler;
 
+import com.google.protobuf.CodedOutputStream;
+import com.google.protobuf.WireFormat;
 import me.lucko.spark.common.SparkPlatform;
 import me.lucko.spark.common.command.sender.CommandSender;
-import me.lucko.spark.common.monitor.Metrics;
 import me.lucko.spark.common.monitor.memory.GarbageCollectorStatistics;
 import me.lucko.spark.common.platform.SparkMetadata;
 import me.lucko.spark.common.sampler.aggregator.DataAggregator;
 import me.lucko.spark.common.sampler.node.ThreadNode;
 import me.lucko.spark.common.sampler.node.exporter.NodeExporter;
+import me.lucko.spark.common.sampler.node.exporter.StringTable;
 import me.lucko.spark.common.sampler.source.ClassSourceLookup;
+import me.lucko.spark.common.sampler.window.ProfilingWindowUtils;
 import me.lucko.spark.common.sampler.window.ProtoTimeEncoder;
+import me.lucko.spark.common.sampler.window.SamplerDeltaEncoder;
 import me.lucko.spark.common.sampler.window.WindowStatisticsCollector;
 import me.lucko.spark.common.util.TimeUtil;
 import me.lucko.spark.common.util.classfinder.ClassFinder;
 import me.lucko.spark.common.ws.SamplerViewerSocket;
+import me.lucko.spark.common.ws.SamplerViewerUpload;
 import me.lucko.spark.common.ws.ViewerSocket;
 import me.lucko.spark.proto.SparkProtos;
 import me.lucko.spark.proto.SparkSamplerProtos.SamplerData;
+import me.lucko.spark.proto.SparkSamplerProtos.SamplerDataDelta;
 import me.lucko.spark.proto.SparkSamplerProtos.SamplerMetadata;
+import me.lucko.spark.proto.SparkSamplerProtos.ThreadNodeDelta;
 
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.util.ArrayList;
 import java.util.Collection;
 import java.util.Comparator;
 import java.util.List;
 import java.util.Map;
 import java.util.concurrent.CompletableFuture;
 import java.util.concurrent.CopyOnWriteArrayList;
-import java.util.function.Function;
+import java.util.function.BiFunction;
+import java.util.function.IntPredicate;
 import java.util.function.Supplier;
 import java.util.logging.Level;
 
@@ -84,6 +96,9 @@ public abstract class AbstractSampler implements Sampler {
     /** A set of viewer sockets linked to the sampler */
     protected List<SamplerViewerSocket> viewerSockets = new CopyOnWriteArrayList<>();
 
+    /** The data uploaded for each group of attached sockets */
+    private final List<SamplerViewerUpload> viewerUploads = new ArrayList<>();
+
     protected AbstractSampler(SparkPlatform platform, SamplerSettings settings) {
         this.platform = platform;
         this.interval = settings.interval();
@@ -153,14 +168,25 @@ public abstract class AbstractSampler implements Sampler {
     }
 
     protected void processWindowRotate() {
-        this.viewerSockets.removeIf(socket -> {
-            if (!socket.isOpen()) {
-                return true;
+        this.viewerSockets.removeIf(socket -> !socket.isOpen());
+
+        List<SamplerViewerSocket> sockets = new ArrayList<>();
+        for (SamplerViewerSocket socket : this.viewerSockets) {
+            if (!socket.checkShouldClose()) {
+                sockets.add(socket);
             }
+        }
 
-            socket.processWindowRotate(this);
-            return false;
-        });
+        // export & upload the data once for each group of sockets with equivalent export props
+        synchronized (this.viewerUploads) {
+            SamplerViewerUpload.assign(this.viewerUploads, sockets).forEach((upload, group) -> {
+                try {
+                    upload.processWindowRotate(this.platform, this, group);
+                } catch (Exception e) {
+                    this.platform.getPlugin().log(Level.WARNING, "Error whilst sending updated sampler data to the socket", e);
+                }
+            });
+        }
     }
 
     protected void sendStatisticsToSocket() {
@@ -170,13 +196,8 @@ public abstract class AbstractSampler implements Sampler {
                 return;
             }
 
-            SparkProtos.PlatformStatistics platform = this.platform.getStatisticsProvider().getPlatformStatistics(getInitialGcStats(), false);
-            SparkProtos.SystemStatistics system = this.platform.getStatisticsProvider().getSystemStatistics();
-            SparkProtos.Metrics metrics = Metrics.exportProto();
-
-            for (ViewerSocket viewerSocket : this.viewerSockets) {
-                viewerSocket.sendUpdatedStatistics(platform, system, metrics);
-            }
+            SparkProtos.PlatformStatistics platform = this.platform.getStatisticsProvider().getPlatformStatistics(getInitialGcStats(), false, false);
+            ViewerSocket.broadcastUpdatedStatistics(this.platform, platform, this.viewerSockets);
         } catch (Exception e) {
             this.platform.getPlugin().log(Level.WARNING, "Exception occurred while sending statistics to viewer", e);
         }
@@ -210,13 +231,94 @@ public abstract class AbstractSampler implements Sampler {
         proto.setMetadata(metadata);
     }
 
-    protected void writeDataToProto(SamplerData.Builder proto, DataAggregator dataAggregator, Function<ProtoTimeEncoder, NodeExporter> nodeExporterFunction, ClassSourceLookup classSourceLookup, Supplier<ClassFinder> classFinderSupplier) {
+    protected void writeDataToProto(SamplerData.Builder proto, DataAggregator dataAggregator, BiFunction<ProtoTimeEncoder, StringTable, NodeExporter> nodeExporterFunction, ExportProps exportProps, Supplier<ClassFinder> classFinderSupplier) {
+        writeData(proto, dataAggregator, nodeExporterFunction, exportProps, classFinderSupplier, (exporter, thread) -> proto.addThreads(exporter.export(thread)));
+    }
+
+    /**
+     * Writes the sampler data, and returns the serialized {@link SamplerData} message.
+     *
+     * <p>The thread nodes make up the vast majority of the output, so instead of building a
+     * message for each node and then serializing the whole tree, they are encoded directly
+     * from the call tree using {@link NodeExporter#write}. The rest of the data (metadata,
+     * window statistics, sources) is still built using the proto builder.</p>
+     *
+     * <p>The result is identical to {@code proto.build().toByteArray()} after calling
+     * {@link #writeDataToProto}. At its peak, roughly twice the output size is held in memory
+     * (the encoded threads and the result), compared to the message tree and the result
+     * for the builder path.</p>
+     *
+     * @param proto the proto builder, containing the metadata and channel info
+     * @return the serialized data
+     */
+    protected byte[] writeDataToBytes(SamplerData.Builder proto, DataAggregator dataAggregator, BiFunction<ProtoTimeEncoder, StringTable, NodeExporter> nodeExporterFunction, ExportProps exportProps, Supplier<ClassFinder> classFinderSupplier) {
+        // each thread is length-delimited, so it has to be buffered to find its size.
+        // the encoded threads are kept as exact-size arrays rather than appended to one growing
+        // buffer, which avoids copying on resize and lets each one be released once written out
+        List<byte[]> threads = new ArrayList<>();
+        int[] threadsSize = new int[1];
+        ByteArrayOutputStream thread = new ByteArrayOutputStream(64 * 1024);
+
+        try {
+            writeData(proto, dataAggregator, nodeExporterFunction, exportProps, classFinderSupplier, (exporter, threadNode) -> {
+                thread.reset();
+                CodedOutputStream threadOut = CodedOutputStream.newInstance(thread);
+                exporter.write(threadNode, threadOut);
+                threadOut.flush();
+
+                byte[] threadBytes = thread.toByteArray();
+                threads.add(threadBytes);
+                threadsSize[0] += CodedOutputStream.computeTagSize(SamplerData.THREADS_FIELD_NUMBER) + CodedOutputStream.computeUInt32SizeNoTag(threadBytes.length) + threadBytes.length;
+            });
+
+            // write the fields in field number order: metadata, threads, then everything else
+            SamplerMetadata metadata = proto.hasMetadata() ? proto.getMetadata() : null;
+            byte[] rest = proto.clearMetadata().build().toByteArray();
+
+            int metadataSize = metadata != null ? CodedOutputStream.computeMessageSize(SamplerData.METADATA_FIELD_NUMBER, metadata) : 0;
+            byte[] bytes = new byte[metadataSize + threadsSize[0] + rest.length];
+
+            CodedOutputStream out = CodedOutputStream.newInstance(bytes);
+            if (metadata != null) {
+                out.writeMessage(SamplerData.METADATA_FIELD_NUMBER, metadata);
+            }
+            for (int i = 0; i < threads.size(); i++) {
+                byte[] threadBytes = threads.set(i, null);
+                out.writeTag(SamplerData.THREADS_FIELD_NUMBER, WireFormat.WIRETYPE_LENGTH_DELIMITED);
+                out.writeUInt32NoTag(threadBytes.length);
+                out.writeRawBytes(threadBytes);
+            }
+            out.writeRawBytes(rest);
+            out.checkNoSpaceLeft();
+            return bytes;
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    private <E extends Exception> void writeData(SamplerData.Builder proto, DataAggregator dataAggregator, BiFunction<ProtoTimeEncoder, StringTable, NodeExporter> nodeExporterFunction, ExportProps exportProps, Supplier<ClassFinder> classFinderSupplier, ThreadWriter<E> threadWriter) throws E {
+        ExportProgress progress = exportProps.progress() != null ? exportProps.progress() : new ExportProgress();
+
+        progress.enter(ExportProgress.Stage.SNAPSHOT);
         List<ThreadNode> data = dataAggregator.exportData();
         data.sort(Comparator.comparing(ThreadNode::getThreadLabel));
 
-        ClassSourceLookup.Visitor classSourceVisitor = ClassSourceLookup.createVisitor(classSourceLookup, classFinderSupplier);
+        double pruneThreshold = exportProps.pruneThreshold();
+        if (pruneThreshold > 0) {
+            progress.enter(ExportProgress.Stage.PRUNE);
+            for (ThreadNode thread : data) {
+                thread.pruneRecursively((long) (thread.getTotalTime() * pruneThreshold));
+            }
+        }
+
+        progress.enter(ExportProgress.Stage.SERIALISE);
+        ClassSourceLookup.Visitor classSourceVisitor = ClassSourceLookup.createVisitor(exportProps.classSourceLookup().get(), classFinderSupplier);
 
         ProtoTimeEncoder timeEncoder = new ProtoTimeEncoder(getMode().valueTransformer(), data);
+        if (exportProps.sparseTimes()) {
+            timeEncoder = timeEncoder.withSparseEncoding();
+            proto.mergeMetadata(SamplerMetadata.newBuilder().setSparseTimes(true).build());
+        }
         int[] timeWindows = timeEncoder.getKeys();
         for (int timeWindow : timeWindows) {
             proto.addTimeWindows(timeWindow);
@@ -225,13 +327,20 @@ public abstract class AbstractSampler implements Sampler {
         this.windowStatisticsCollector.ensureHasStatisticsForAllWindows(timeWindows);
         proto.putAllTimeWindowStatistics(this.windowStatisticsCollector.export());
 
-        NodeExporter exporter = nodeExporterFunction.apply(timeEncoder);
+        StringTable strings = exportProps.stringTable() ? new StringTable() : null;
+        NodeExporter exporter = nodeExporterFunction.apply(timeEncoder, strings);
 
         for (ThreadNode entry : data) {
-            proto.addThreads(exporter.export(entry));
+            progress.checkCancelled();
+            threadWriter.write(exporter, entry);
             classSourceVisitor.visit(entry);
         }
 
+        if (strings != null) {
+            proto.addAllStrings(strings.strings());
+            proto.mergeMetadata(SamplerMetadata.newBuilder().setStringTable(true).build());
+        }
+
         if (classSourceVisitor.hasClassSourceMappings()) {
             proto.putAllClassSources(classSourceVisitor.getClassSourceMapping());
         }
@@ -244,4 +353,64 @@ public abstract class AbstractSampler implements Sampler {
             proto.putAllLineSources(classSourceVisitor.getLineSourceMapping());
         }
     }
+
+    protected SamplerDataDelta writeDeltaToProto(SamplerDeltaEncoder deltaEncoder, DataAggregator dataAggregator, BiFunction<ProtoTimeEncoder, StringTable, NodeExporter> nodeExporterFunction, ClassSourceLookup classSourceLookup, Supplier<ClassFinder> classFinderSupplier) {
+        int currentWindow = ProfilingWindowUtils.windowNow();
+
+        List<ThreadNode> data = dataAggregator.exportData();
+        data.sort(Comparator.comparing(ThreadNode::getThreadLabel));
+
+        ProtoTimeEncoder allWindowsEncoder = new ProtoTimeEncoder(getMode().valueTransformer(), data);
+        IntPredicate windowsToSend = deltaEncoder.windowsToSend(currentWindow);
+        ProtoTimeEncoder timeEncoder = allWindowsEncoder.filter(windowsToSend);
+        int[] timeWindows = timeEncoder.getKeys();
+        if (timeWindows.length == 0) {
+            return null;
+        }
+
+        SamplerDataDelta.Builder proto = SamplerDataDelta.newBuilder()
+                .setOldestTimeWindow(allWindowsEncoder.getKeys()[0]);
+
+        this.windowStatisticsCollector.ensureHasStatisticsForAllWindows(timeWindows);
+        Map<Integer, SparkProtos.WindowStatistics> windowStatistics = this.windowStatisticsCollector.export();
+        for (int timeWindow : timeWindows) {
+            proto.addTimeWindows(timeWindow);
+            proto.putTimeWindowStatistics(timeWindow, windowStatistics.get(timeWindow));
+        }
+
+        int totalTicks = this.windowStatisticsCollector.getTotalTicks();
+        if (totalTicks != -1) {
+            proto.setNumberOfTicks(totalTicks);
+        }
+
+        ClassSourceLookup.Visitor classSourceVisitor = ClassSourceLookup.createVisitor(classSourceLookup, classFinderSupplier);
+        NodeExporter exporter = nodeExporterFunction.apply(timeEncoder, null); // deltas always write names inline
+
+        // only nodes which haven't been seen before need their sources looking up
+        for (ThreadNode entry : data) {
+            ThreadNodeDelta threadDelta = deltaEncoder.encodeThread(entry, exporter, timeEncoder, windowsToSend, classSourceVisitor::visit);
+            if (threadDelta != null) {
+                proto.addThreads(threadDelta);
+            }
+        }
+
+        if (classSourceVisitor.hasClassSourceMappings()) {
+            proto.putAllClassSources(deltaEncoder.newClassSources(classSourceVisitor.getClassSourceMapping()));
+        }
+
+        if (classSourceVisitor.hasMethodSourceMappings()) {
+            proto.putAllMethodSources(deltaEncoder.newMethodSources(classSourceVisitor.getMethodSourceMapping()));
+        }
+
+        if (classSourceVisitor.hasLineSourceMappings()) {
+            proto.putAllLineSources(deltaEncoder.newLineSources(classSourceVisitor.getLineSourceMapping()));
+        }
+
+        deltaEncoder.advance(currentWindow);
+        return proto.build();
+    }
+
+    private interface ThreadWriter<E extends Exception> {
+        void write(NodeExporter exporter, ThreadNode thread) throws E;
+    }
 }
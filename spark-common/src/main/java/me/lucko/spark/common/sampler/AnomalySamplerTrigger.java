@@ -0,0 +1,181 @@
+/*
+ * This file is part of spark.
+ *
+ *  Copyright (c) lucko (Luck) <luck@lucko.me>
+ *  Copyright (c) contributors
+ *
+ *  This program is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package me.lucko.spark.common.sampler;
+
+import me.lucko.spark.api.tick.TickAnomaly;
+import me.lucko.spark.common.SparkPlatform;
+import me.lucko.spark.common.activitylog.Activity;
+import me.lucko.spark.common.command.sender.CommandSender;
+import me.lucko.spark.common.monitor.tick.TickAnomalyDetector;
+import me.lucko.spark.common.sampler.java.MergeStrategy;
+import me.lucko.spark.common.sampler.source.ClassSourceLookup;
+import me.lucko.spark.common.tick.TickHook;
+import me.lucko.spark.common.util.MediaTypes;
+import me.lucko.spark.common.util.config.Configuration;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.function.Consumer;
+import java.util.logging.Level;
+
+/**
+ * Automatically starts a short profiler, focused on slow ticks, when a tick anomaly is detected.
+ *
+ * <p>The results are uploaded once the profiler completes, and the link is written to the console.</p>
+ */
+public class AnomalySamplerTrigger implements Consumer<TickAnomaly> {
+
+    private static final String OPTION_ENABLED = "tickAnomalyProfiler";
+    private static final String OPTION_DURATION = "tickAnomalyProfilerDuration";
+
+    /** The minimum time between automatically started profilers */
+    private static final long COOLDOWN_MILLIS = TimeUnit.MINUTES.toMillis(15);
+
+    private static final CommandSender.Data CREATOR = new CommandSender.Data("Tick anomaly detector", null);
+
+    private final SparkPlatform platform;
+    private final boolean enabled;
+    private final int durationSeconds;
+
+    /** The time the last profiler was started, only set once a profiler has actually started */
+    private volatile long lastTriggered = 0;
+    /** If a profiler is currently being started */
+    private final AtomicBoolean starting = new AtomicBoolean(false);
+
+    public AnomalySamplerTrigger(SparkPlatform platform, Configuration configuration) {
+        this.platform = platform;
+        this.enabled = configuration.getBoolean(OPTION_ENABLED, false);
+        this.durationSeconds = Math.max(30, configuration.getInteger(OPTION_DURATION, 60));
+    }
+
+    public boolean isEnabled() {
+        return this.enabled;
+    }
+
+    @Override
+    public void accept(TickAnomaly anomaly) {
+        TickHook tickHook = this.platform.getTickHook();
+        if (!this.enabled || tickHook == null) {
+            return;
+        }
+
+        if (System.currentTimeMillis() - this.lastTriggered < COOLDOWN_MILLIS) {
+            return;
+        }
+
+        // the cooldown is only applied once a profiler has started, until then, ignore any
+        // further anomalies so that only one attempt is made at a time
+        if (!this.starting.compareAndSet(false, true)) {
+            return;
+        }
+
+        // only capture ticks that are at least as slow as the one which triggered the profiler
+        int ticksOver = (int) (anomaly instanceof TickAnomalyDetector.Anomaly
+                ? ((TickAnomalyDetector.Anomaly) anomaly).threshold()
+                : anomaly.expectedDuration());
+
+        this.platform.getPlugin().executeAsync(() -> {
+            try {
+                startSampler(tickHook, anomaly, Math.max(1, ticksOver));
+            } finally {
+                this.starting.set(false);
+            }
+        });
+    }
+
+    private void startSampler(TickHook tickHook, TickAnomaly anomaly, int ticksOver) {
+        SamplerContainer container = this.platform.getSamplerContainer();
+
+        Sampler previous = container.getActiveSampler();
+        if (previous != null) {
+            if (!previous.isRunningInBackground()) {
+                // don't interrupt a profiler started by a user
+                return;
+            }
+            previous.stop(true);
+            container.unsetActiveSampler(previous);
+        }
+
+        Sampler sampler;
+        try {
+            sampler = new SamplerBuilder()
+                    .threadDumper(this.platform.getPlugin().getDefaultThreadDumper())
+                    .threadGrouper(ThreadGrouper.BY_POOL)
+                    .samplingInterval(SamplerMode.EXECUTION.defaultInterval())
+                    .completeAfter(this.durationSeconds, TimeUnit.SECONDS)
+                    .ticksOver(ticksOver, tickHook)
+                    .start(this.platform);
+        } catch (Exception e) {
+            this.platform.getPlugin().log(Level.WARNING, "Unable to start profiler after tick anomaly", e);
+            this.platform.getBackgroundSamplerManager().restartBackgroundSampler();
+            return;
+        }
+
+        try {
+            container.setActiveSampler(sampler);
+        } catch (IllegalStateException e) {
+            // another profiler (e.g. started by a user) was registered whilst this one was starting
+            sampler.stop(true);
+            return;
+        }
+
+        this.lastTriggered = System.currentTimeMillis();
+
+        this.platform.getPlugin().log(Level.INFO, String.format(
+                "Detected a %.1fms tick (expected %.1fms), profiling ticks over %dms for the next %d seconds...",
+                anomaly.duration(), anomaly.expectedDuration(), ticksOver, this.durationSeconds
+        ));
+
+        sampler.getFuture().whenCompleteAsync((s, throwable) -> {
+            container.unsetActiveSampler(sampler);
+
+            if (throwable != null) {
+                this.platform.getPlugin().log(Level.WARNING, "Tick anomaly profiler failed unexpectedly", throwable);
+            } else {
+                upload(s, anomaly);
+            }
+
+            this.platform.getBackgroundSamplerManager().restartBackgroundSampler();
+        });
+    }
+
+    private void upload(Sampler sampler, TickAnomaly anomaly) {
+        Sampler.ExportProps exportProps = new Sampler.ExportProps()
+                .creator(CREATOR)
+                .comment(String.format("Tick anomaly: %.1fms (expected %.1fms)", anomaly.duration(), anomaly.expectedDuration()))
+                .mergeStrategy(MergeStrategy.SAME_METHOD)
+                .classSourceLookup(() -> ClassSourceLookup.create(this.platform))
+                .stringTable(this.platform.getConfiguration().getBoolean("exportStringTable", false))
+                .sparseTimes(this.platform.getConfiguration().getBoolean("exportSparseTimes", false));
+
+        try {
+            byte[] output = sampler.toProtoBytes(this.platform, exportProps);
+            String key = this.platform.getBytebinClient().postContent(output, MediaTypes.SPARK_SAMPLER_MEDIA_TYPE).key();
+            String url = this.platform.getViewerUrl() + key;
+
+            this.platform.getPlugin().log(Level.INFO, "Tick anomaly profiler complete: " + url);
+            this.platform.getActivityLog().addToLog(Activity.urlActivity(CREATOR, System.currentTimeMillis(), "Profiler", url));
+        } catch (Exception e) {
+            this.platform.getPlugin().log(Level.WARNING, "Error whilst uploading tick anomaly profiler results", e);
+        }
+    }
+
+}
@@ -0,0 +1,204 @@
+/*
+ * This file is part of spark.
+ *
+ *  Copyright (c) lucko (Luck) <luck@lucko.me>
+ *  Copyright (c) contributors
+ *
+ *  This program is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+
+package me.lucko.spark.common.sampler;
+
+import me.lucko.spark.common.monitor.MonitoringExecutor;
+
+import java.util.EnumMap;
+import java.util.Map;
+import java.util.StringJoiner;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Tracks the progress of an export of the sampler data, which is split into {@link Stage stages}.
+ *
+ * <p>The time taken by each stage is recorded, and the export can be cancelled, either
+ * explicitly or because it has passed its deadline. Cancellation is checked between stages and
+ * periodically within them, and the thread running the export is interrupted so that any
+ * blocking I/O is abandoned too.</p>
+ *
+ * <p>The deadline doesn't apply to the {@link Stage#UPLOAD upload} stage, so that an export
+ * which is taking too long can still be retried with less detail.</p>
+ */
+public final class ExportProgress {
+
+    /** The total time spent in each stage, in nanoseconds */
+    private final Map<Stage, Long> timings = new EnumMap<>(Stage.class);
+
+    /** The current stage, or null if the export isn't running */
+    private Stage stage = null;
+    private long stageStartNanos;
+    /** The thread running the current stage */
+    private Thread thread = null;
+
+    private ScheduledFuture<?> deadlineTask = null;
+    private boolean deadlineExceeded = false;
+    private boolean cancelled = false;
+
+    /**
+     * Marks the start of a stage, ending the previous stage.
+     *
+     * @param stage the stage
+     * @throws CancellationException if the export has been cancelled
+     */
+    public synchronized void enter(Stage stage) {
+        checkCancelled();
+        endStage();
+        this.stage = stage;
+        this.stageStartNanos = System.nanoTime();
+        this.thread = Thread.currentThread();
+    }
+
+    /**
+     * Marks the end of the current stage, after the export completes or fails.
+     *
+     * <p>This must be called by the thread running the export, as it also clears any
+     * interrupt caused by a cancellation.</p>
+     */
+    public synchronized void finish() {
+        endStage();
+        this.stage = null;
+        if (this.thread == Thread.currentThread()) {
+            Thread.interrupted();
+        }
+        this.thread = null;
+    }
+
+    private void endStage() {
+        if (this.stage != null) {
+            this.timings.merge(this.stage, System.nanoTime() - this.stageStartNanos, Long::sum);
+        }
+    }
+
+    /**
+     * Sets a deadline for the export, after which the stages before the upload are cancelled.
+     *
+     * @param timeoutMillis the time from now until the deadline
+     */
+    public synchronized void setDeadline(long timeoutMillis) {
+        clearDeadline();
+        this.deadlineTask = MonitoringExecutor.INSTANCE.schedule(this::onDeadline, timeoutMillis, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Removes the deadline, and resets the export if it has already passed.
+     */
+    public synchronized void clearDeadline() {
+        if (this.deadlineTask != null) {
+            this.deadlineTask.cancel(false);
+            this.deadlineTask = null;
+        }
+        this.deadlineExceeded = false;
+    }
+
+    private synchronized void onDeadline() {
+        this.deadlineTask = null;
+        if (this.stage == null || this.stage == Stage.UPLOAD) {
+            return;
+        }
+        this.deadlineExceeded = true;
+        if (this.thread != null) {
+            this.thread.interrupt();
+        }
+    }
+
+    /**
+     * Cancels the export.
+     */
+    public synchronized void cancel() {
+        this.cancelled = true;
+        if (this.thread != null) {
+            this.thread.interrupt();
+        }
+    }
+
+    public synchronized boolean isCancelled() {
+        return this.cancelled;
+    }
+
+    public synchronized boolean isDeadlineExceeded() {
+        return this.deadlineExceeded;
+    }
+
+    /**
+     * Checks if the export has been cancelled, or has passed its deadline.
+     *
+     * @throws CancellationException if the export should stop
+     */
+    public synchronized void checkCancelled() {
+        if (this.cancelled) {
+            throw new CancellationException("Export cancelled");
+        }
+        if (this.deadlineExceeded && this.stage != Stage.UPLOAD) {
+            throw new CancellationException("Export deadline exceeded");
+        }
+    }
+
+    /**
+     * Gets the total time spent in each stage so far.
+     *
+     * @return the time spent in each stage, in milliseconds
+     */
+    public synchronized Map<Stage, Long> getTimings() {
+        Map<Stage, Long> timings = new EnumMap<>(Stage.class);
+        this.timings.forEach((stage, nanos) -> timings.put(stage, TimeUnit.NANOSECONDS.toMillis(nanos)));
+        return timings;
+    }
+
+    /**
+     * Formats the time spent in each stage, e.g. "snapshot 5ms, serialise 1200ms".
+     *
+     * @return the formatted timings
+     */
+    public String formatTimings() {
+        StringJoiner joiner = new StringJoiner(", ");
+        getTimings().forEach((stage, millis) -> joiner.add(stage.getName() + " " + millis + "ms"));
+        return joiner.toString();
+    }
+
+    /**
+     * A stage of the export.
+     */
+    public enum Stage {
+        /** Collecting the data recorded by the sampler */
+        SNAPSHOT("snapshot"),
+        /** Removing nodes to reduce the level of detail, if required */
+        PRUNE("prune"),
+        /** Merging nodes and encoding the data */
+        SERIALISE("serialise"),
+        /** Compressing and uploading (or saving) the data - these happen together as the data is streamed */
+        UPLOAD("upload");
+
+        private final String name;
+
+        Stage(String name) {
+            this.name = name;
+        }
+
+        public String getName() {
+            return this.name;
+        }
+    }
+
+}
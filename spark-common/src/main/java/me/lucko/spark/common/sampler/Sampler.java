@@ -24,13 +24,16 @@ import me.lucko.spark.common.SparkPlatform;
 import me.lucko.spark.common.command.sender.CommandSender;
 import me.lucko.spark.common.sampler.java.MergeStrategy;
 import me.lucko.spark.common.sampler.source.ClassSourceLookup;
+import me.lucko.spark.common.sampler.window.SamplerDeltaEncoder;
 import me.lucko.spark.common.ws.SamplerViewerSocket;
 import me.lucko.spark.proto.SparkProtos;
 import me.lucko.spark.proto.SparkProtos.SocketChannelInfo;
 import me.lucko.spark.proto.SparkSamplerProtos.SamplerData;
+import me.lucko.spark.proto.SparkSamplerProtos.SamplerDataDelta;
 
 import java.util.Collection;
 import java.util.Map;
+import java.util.Objects;
 import java.util.concurrent.CompletableFuture;
 import java.util.function.Supplier;
 
@@ -122,12 +125,39 @@ public interface Sampler {
     // Methods used to export the sampler data to the web viewer.
     SamplerData toProto(SparkPlatform platform, ExportProps exportProps);
 
+    /**
+     * Exports the sampler data, serialized as a {@link SamplerData} message.
+     *
+     * <p>This produces the same bytes as {@code toProto(platform, exportProps).toByteArray()},
+     * but avoids building the (potentially very large) message tree in memory.</p>
+     *
+     * @param platform the platform
+     * @param exportProps the export props
+     * @return the serialized data
+     */
+    byte[] toProtoBytes(SparkPlatform platform, ExportProps exportProps);
+
+    /**
+     * Exports the data recorded in the windows which have completed since the previous export
+     * by the given encoder.
+     *
+     * @param platform the platform
+     * @param exportProps the export props
+     * @param deltaEncoder the delta encoder
+     * @return the delta, or null if no windows have completed since the previous export
+     */
+    SamplerDataDelta toDeltaProto(SparkPlatform platform, ExportProps exportProps, SamplerDeltaEncoder deltaEncoder);
+
     final class ExportProps {
         private CommandSender.Data creator;
         private String comment;
         private MergeStrategy mergeStrategy;
         private Supplier<ClassSourceLookup> classSourceLookup;
         private SocketChannelInfo channelInfo;
+        private boolean stringTable;
+        private boolean sparseTimes;
+        private double pruneThreshold;
+        private ExportProgress progress;
 
         public ExportProps() {
         }
@@ -152,6 +182,22 @@ public interface Sampler {
             return this.channelInfo;
         }
 
+        public boolean stringTable() {
+            return this.stringTable;
+        }
+
+        public boolean sparseTimes() {
+            return this.sparseTimes;
+        }
+
+        public double pruneThreshold() {
+            return this.pruneThreshold;
+        }
+
+        public ExportProgress progress() {
+            return this.progress;
+        }
+
         public ExportProps creator(CommandSender.Data creator) {
             this.creator = creator;
             return this;
@@ -176,6 +222,98 @@ public interface Sampler {
             this.channelInfo = channelInfo;
             return this;
         }
+
+        /**
+         * Sets if the stack trace node names should be written to a string table, instead of
+         * inline in each node. Only viewers which understand the string table layout can read
+         * data exported this way.
+         *
+         * @param stringTable if a string table should be used
+         * @return this
+         */
+        public ExportProps stringTable(boolean stringTable) {
+            this.stringTable = stringTable;
+            return this;
+        }
+
+        /**
+         * Sets if node times should be encoded sparsely, when that is smaller than the dense
+         * encoding. Only viewers which understand the sparse times layout can read data
+         * exported this way.
+         *
+         * @param sparseTimes if sparse times should be used
+         * @return this
+         */
+        public ExportProps sparseTimes(boolean sparseTimes) {
+            this.sparseTimes = sparseTimes;
+            return this;
+        }
+
+        /**
+         * Sets the threshold below which nodes are removed before exporting, as a fraction of
+         * the total time recorded for their thread.
+         *
+         * <p>Nodes are removed from the sampler's data, so this should only be used once the
+         * sampler has stopped.</p>
+         *
+         * @param pruneThreshold the threshold, or 0 to export all nodes
+         * @return this
+         */
+        public ExportProps pruneThreshold(double pruneThreshold) {
+            this.pruneThreshold = pruneThreshold;
+            return this;
+        }
+
+        /**
+         * Sets the progress tracker used to record the stages of the export, and to cancel it.
+         *
+         * @param progress the progress
+         * @return this
+         */
+        public ExportProps progress(ExportProgress progress) {
+            this.progress = progress;
+            return this;
+        }
+
+        public ExportProps copy() {
+            return new ExportProps()
+                    .creator(this.creator)
+                    .comment(this.comment)
+                    .mergeStrategy(this.mergeStrategy)
+                    .classSourceLookup(this.classSourceLookup)
+                    .channelInfo(this.channelInfo)
+                    .stringTable(this.stringTable)
+                    .sparseTimes(this.sparseTimes)
+                    .pruneThreshold(this.pruneThreshold)
+                    .progress(this.progress);
+        }
+
+        /**
+         * Gets if exporting with these props would produce the same data as exporting with
+         * the other props, ignoring the socket channel info and progress.
+         *
+         * <p>Class source lookups are always created from the platform, so any two lookup
+         * suppliers are considered to be equivalent.</p>
+         *
+         * @param other the other props
+         * @return true if the props are equivalent
+         */
+        public boolean isEquivalent(ExportProps other) {
+            return isEquivalent(this.creator, other.creator) &&
+                    Objects.equals(this.comment, other.comment) &&
+                    this.mergeStrategy == other.mergeStrategy &&
+                    this.stringTable == other.stringTable &&
+                    this.sparseTimes == other.sparseTimes &&
+                    this.pruneThreshold == other.pruneThreshold &&
+                    (this.classSourceLookup == null) == (other.classSourceLookup == null);
+        }
+
+        private static boolean isEquivalent(CommandSender.Data a, CommandSender.Data b) {
+            if (a == null || b == null) {
+                return a == b;
+            }
+            return Objects.equals(a.getName(), b.getName()) && Objects.equals(a.getUniqueId(), b.getUniqueId());
+        }
     }
 
 }
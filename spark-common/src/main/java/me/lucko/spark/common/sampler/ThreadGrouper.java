@@ -139,6 +139,17 @@ public interface ThreadGrouper {
             return group;
         }
 
+        /**
+         * Gets the name of the pool a thread belongs to, without caching the result.
+         *
+         * @param threadName the name of the thread
+         * @return the pool name, or the thread name if it doesn't look like part of a pool
+         */
+        public static String getPoolName(String threadName) {
+            Matcher matcher = PATTERN.matcher(threadName);
+            return matcher.matches() ? matcher.group(1).trim() : threadName;
+        }
+
         @Override
         public String getLabel(String group) {
             int count = this.seen.getOrDefault(group, Collections.emptySet()).size();
@@ -22,8 +22,8 @@ package me.lucko.spark.common.sampler.async;
 
 import me.lucko.spark.common.sampler.node.StackTraceNode;
 import me.lucko.spark.common.sampler.node.exporter.AbstractNodeExporter;
+import me.lucko.spark.common.sampler.node.exporter.StringTable;
 import me.lucko.spark.common.sampler.window.ProtoTimeEncoder;
-import me.lucko.spark.proto.SparkSamplerProtos;
 
 import java.util.Collection;
 
@@ -31,29 +31,27 @@ import java.util.Collection;
  * Node exporter for the {@link AsyncSampler}.
  */
 public class AsyncNodeExporter extends AbstractNodeExporter {
+    public AsyncNodeExporter(ProtoTimeEncoder timeEncoder, StringTable stringTable) {
+        super(timeEncoder, stringTable);
+    }
+
     public AsyncNodeExporter(ProtoTimeEncoder timeEncoder) {
-        super(timeEncoder);
+        this(timeEncoder, null);
     }
 
     @Override
-    protected SparkSamplerProtos.StackTraceNode export(StackTraceNode stackTraceNode, Iterable<Integer> childrenRefs) {
-        SparkSamplerProtos.StackTraceNode.Builder proto = SparkSamplerProtos.StackTraceNode.newBuilder()
-                .setClassName(stackTraceNode.getClassName())
-                .setMethodName(stackTraceNode.getMethodName());
-
-        double[] times = stackTraceNode.encodeTimesForProto(this.timeEncoder);
-        for (double time : times) {
-            proto.addTimes(time);
-        }
-
-        String methodDescription = stackTraceNode.getMethodDescription();
-        if (methodDescription != null) {
-            proto.setMethodDesc(methodDescription);
-        }
+    protected int lineNumber(StackTraceNode stackTraceNode) {
+        return StackTraceNode.NULL_LINE_NUMBER;
+    }
 
-        proto.addAllChildrenRefs(childrenRefs);
+    @Override
+    protected int parentLineNumber(StackTraceNode stackTraceNode) {
+        return StackTraceNode.NULL_LINE_NUMBER;
+    }
 
-        return proto.build();
+    @Override
+    protected String methodDescription(StackTraceNode stackTraceNode) {
+        return stackTraceNode.getMethodDescription();
     }
 
     @Override
@@ -27,12 +27,14 @@ import me.lucko.spark.common.sampler.SamplerMode;
 import me.lucko.spark.common.sampler.SamplerSettings;
 import me.lucko.spark.common.sampler.SamplerType;
 import me.lucko.spark.common.sampler.window.ProfilingWindowUtils;
+import me.lucko.spark.common.sampler.window.SamplerDeltaEncoder;
 import me.lucko.spark.common.tick.TickHook;
 import me.lucko.spark.common.util.SparkScheduledThreadPoolExecutor;
 import me.lucko.spark.common.util.SparkThreadFactory;
 import me.lucko.spark.common.util.TimeUtil;
 import me.lucko.spark.common.ws.SamplerViewerSocket;
 import me.lucko.spark.proto.SparkSamplerProtos.SamplerData;
+import me.lucko.spark.proto.SparkSamplerProtos.SamplerDataDelta;
 
 import java.util.Locale;
 import java.util.concurrent.ScheduledExecutorService;
@@ -271,8 +273,23 @@ public class AsyncSampler extends AbstractSampler {
             proto.setChannelInfo(exportProps.channelInfo());
         }
         writeMetadataToProto(proto, platform, exportProps.creator(), exportProps.comment(), this.dataAggregator);
-        writeDataToProto(proto, this.dataAggregator, AsyncNodeExporter::new, exportProps.classSourceLookup().get(), platform::createClassFinder);
+        writeDataToProto(proto, this.dataAggregator, AsyncNodeExporter::new, exportProps, platform::createClassFinder);
         return proto.build();
     }
 
+    @Override
+    public byte[] toProtoBytes(SparkPlatform platform, ExportProps exportProps) {
+        SamplerData.Builder proto = SamplerData.newBuilder();
+        if (exportProps.channelInfo() != null) {
+            proto.setChannelInfo(exportProps.channelInfo());
+        }
+        writeMetadataToProto(proto, platform, exportProps.creator(), exportProps.comment(), this.dataAggregator);
+        return writeDataToBytes(proto, this.dataAggregator, AsyncNodeExporter::new, exportProps, platform::createClassFinder);
+    }
+
+    @Override
+    public SamplerDataDelta toDeltaProto(SparkPlatform platform, ExportProps exportProps, SamplerDeltaEncoder deltaEncoder) {
+        return writeDeltaToProto(deltaEncoder, this.dataAggregator, AsyncNodeExporter::new, exportProps.classSourceLookup().get(), platform::createClassFinder);
+    }
+
 }
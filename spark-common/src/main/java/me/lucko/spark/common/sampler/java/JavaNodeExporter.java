@@ -22,13 +22,17 @@ package me.lucko.spark.common.sampler.java;
 
 import me.lucko.spark.common.sampler.node.StackTraceNode;
 import me.lucko.spark.common.sampler.node.exporter.AbstractNodeExporter;
+import me.lucko.spark.common.sampler.node.exporter.StringTable;
 import me.lucko.spark.common.sampler.window.ProtoTimeEncoder;
 import me.lucko.spark.common.util.MethodDisambiguator;
-import me.lucko.spark.proto.SparkSamplerProtos;
 
 import java.util.ArrayList;
 import java.util.Collection;
+import java.util.Collections;
+import java.util.IdentityHashMap;
 import java.util.List;
+import java.util.ListIterator;
+import java.util.Set;
 
 /**
  * Node exporter for the {@link JavaSampler}.
@@ -37,41 +41,29 @@ public class JavaNodeExporter extends AbstractNodeExporter {
     private final MergeStrategy mergeStrategy;
     private final MethodDisambiguator methodDisambiguator;
 
-    public JavaNodeExporter(ProtoTimeEncoder timeEncoder, MergeStrategy mergeStrategy, MethodDisambiguator methodDisambiguator) {
-        super(timeEncoder);
+    public JavaNodeExporter(ProtoTimeEncoder timeEncoder, StringTable stringTable, MergeStrategy mergeStrategy, MethodDisambiguator methodDisambiguator) {
+        super(timeEncoder, stringTable);
         this.mergeStrategy = mergeStrategy;
         this.methodDisambiguator = methodDisambiguator;
     }
 
-    protected SparkSamplerProtos.StackTraceNode export(StackTraceNode stackTraceNode, Iterable<Integer> childrenRefs) {
-        SparkSamplerProtos.StackTraceNode.Builder proto = SparkSamplerProtos.StackTraceNode.newBuilder()
-                .setClassName(stackTraceNode.getClassName())
-                .setMethodName(stackTraceNode.getMethodName());
-
-        double[] times = stackTraceNode.encodeTimesForProto(this.timeEncoder);
-        for (double time : times) {
-            proto.addTimes(time);
-        }
-
-        int lineNumber = stackTraceNode.getLineNumber();
-        if (lineNumber >= 0) {
-            proto.setLineNumber(lineNumber);
-        }
+    @Override
+    protected int lineNumber(StackTraceNode stackTraceNode) {
+        return stackTraceNode.getLineNumber();
+    }
 
-        if (this.mergeStrategy.separateParentCalls()) {
-            int parentLineNumber = stackTraceNode.getParentLineNumber();
-            if (parentLineNumber >= 0) {
-                proto.setParentLineNumber(parentLineNumber);
-            }
-        }
+    @Override
+    protected int parentLineNumber(StackTraceNode stackTraceNode) {
+        return this.mergeStrategy.separateParentCalls()
+                ? stackTraceNode.getParentLineNumber()
+                : StackTraceNode.NULL_LINE_NUMBER;
+    }
 
-        this.methodDisambiguator.disambiguate(stackTraceNode)
+    @Override
+    protected String methodDescription(StackTraceNode stackTraceNode) {
+        return this.methodDisambiguator.disambiguate(stackTraceNode)
                 .map(MethodDisambiguator.MethodDescription::getDescription)
-                .ifPresent(proto::setMethodDesc);
-
-        proto.addAllChildrenRefs(childrenRefs);
-
-        return proto.build();
+                .orElse(null);
     }
 
     @Override
@@ -82,10 +74,24 @@ public class JavaNodeExporter extends AbstractNodeExporter {
 
         List<StackTraceNode> list = new ArrayList<>(children.size());
 
+        // nodes are merged into copies rather than the nodes in the sampler's tree, otherwise
+        // exporting the same data again (e.g. a retry after the export was cancelled) would
+        // merge the same times in a second time
+        Set<StackTraceNode> copies = null;
+
         outer:
         for (StackTraceNode child : children) {
-            for (StackTraceNode other : list) {
+            for (ListIterator<StackTraceNode> it = list.listIterator(); it.hasNext(); ) {
+                StackTraceNode other = it.next();
                 if (this.mergeStrategy.shouldMerge(this.methodDisambiguator, other, child)) {
+                    if (copies == null) {
+                        copies = Collections.newSetFromMap(new IdentityHashMap<>());
+                    }
+                    if (!copies.contains(other)) {
+                        other = other.copy();
+                        it.set(other);
+                        copies.add(other);
+                    }
                     other.merge(child);
                     continue outer;
                 }
@@ -26,6 +26,7 @@ import me.lucko.spark.common.sampler.SamplerMode;
 import me.lucko.spark.common.sampler.SamplerSettings;
 import me.lucko.spark.common.sampler.SamplerType;
 import me.lucko.spark.common.sampler.window.ProfilingWindowUtils;
+import me.lucko.spark.common.sampler.window.SamplerDeltaEncoder;
 import me.lucko.spark.common.sampler.window.WindowStatisticsCollector;
 import me.lucko.spark.common.tick.TickHook;
 import me.lucko.spark.common.util.MethodDisambiguator;
@@ -34,6 +35,7 @@ import me.lucko.spark.common.util.SparkThreadFactory;
 import me.lucko.spark.common.util.TimeUtil;
 import me.lucko.spark.common.ws.SamplerViewerSocket;
 import me.lucko.spark.proto.SparkSamplerProtos.SamplerData;
+import me.lucko.spark.proto.SparkSamplerProtos.SamplerDataDelta;
 
 import java.lang.management.ManagementFactory;
 import java.lang.management.ThreadInfo;
@@ -192,11 +194,30 @@ public class JavaSampler extends AbstractSampler implements Runnable {
         writeMetadataToProto(proto, platform, exportProps.creator(), exportProps.comment(), this.dataAggregator);
 
         MethodDisambiguator methodDisambiguator = new MethodDisambiguator(platform.createClassFinder());
-        writeDataToProto(proto, this.dataAggregator, timeEncoder -> new JavaNodeExporter(timeEncoder, exportProps.mergeStrategy(), methodDisambiguator), exportProps.classSourceLookup().get(), platform::createClassFinder);
+        writeDataToProto(proto, this.dataAggregator, (timeEncoder, stringTable) -> new JavaNodeExporter(timeEncoder, stringTable, exportProps.mergeStrategy(), methodDisambiguator), exportProps, platform::createClassFinder);
 
         return proto.build();
     }
 
+    @Override
+    public byte[] toProtoBytes(SparkPlatform platform, ExportProps exportProps) {
+        SamplerData.Builder proto = SamplerData.newBuilder();
+        if (exportProps.channelInfo() != null) {
+            proto.setChannelInfo(exportProps.channelInfo());
+        }
+
+        writeMetadataToProto(proto, platform, exportProps.creator(), exportProps.comment(), this.dataAggregator);
+
+        MethodDisambiguator methodDisambiguator = new MethodDisambiguator(platform.createClassFinder());
+        return writeDataToBytes(proto, this.dataAggregator, (timeEncoder, stringTable) -> new JavaNodeExporter(timeEncoder, stringTable, exportProps.mergeStrategy(), methodDisambiguator), exportProps, platform::createClassFinder);
+    }
+
+    @Override
+    public SamplerDataDelta toDeltaProto(SparkPlatform platform, ExportProps exportProps, SamplerDeltaEncoder deltaEncoder) {
+        MethodDisambiguator methodDisambiguator = new MethodDisambiguator(platform.createClassFinder());
+        return writeDeltaToProto(deltaEncoder, this.dataAggregator, (timeEncoder, stringTable) -> new JavaNodeExporter(timeEncoder, stringTable, exportProps.mergeStrategy(), methodDisambiguator), exportProps.classSourceLookup().get(), platform::createClassFinder);
+    }
+
     @Override
     public SamplerType getType() {
         return SamplerType.JAVA;
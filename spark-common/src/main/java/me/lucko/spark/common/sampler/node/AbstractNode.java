@@ -78,13 +78,26 @@ public abstract class AbstractNode {
         return this.times.keySet().removeIf(predicate::test);
     }
 
+    /**
+     * Gets the total sample time logged for this node, across all time windows.
+     *
+     * @return the total time
+     */
+    public long getTotalTime() {
+        long total = 0;
+        for (LongAdder time : this.times.values()) {
+            total += time.longValue();
+        }
+        return total;
+    }
+
     /**
      * Gets the encoded total sample times logged for this node in milliseconds.
      *
      * @return the total times
      */
-    public double[] encodeTimesForProto(ProtoTimeEncoder encoder) {
-        return encoder.encode(this.times);
+    public ProtoTimeEncoder.EncodedTimes encodeTimesForProto(ProtoTimeEncoder encoder) {
+        return encoder.encodeCompact(this.times);
     }
 
     public Collection<StackTraceNode> getChildren() {
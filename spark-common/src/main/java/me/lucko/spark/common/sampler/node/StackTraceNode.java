@@ -67,6 +67,20 @@ public final class StackTraceNode extends AbstractNode {
                 : NULL_LINE_NUMBER;
     }
 
+    /**
+     * Creates a copy of this node, including its times and children.
+     *
+     * <p>The copy is detached from the sampler's tree, so it can be modified
+     * (e.g. by {@link #merge(AbstractNode) merging}) without affecting the original.</p>
+     *
+     * @return the copy
+     */
+    public StackTraceNode copy() {
+        StackTraceNode copy = new StackTraceNode(this.description);
+        copy.merge(this);
+        return copy;
+    }
+
     /**
      * Function to construct a {@link Description} from a stack trace element
      * of type {@code T}.
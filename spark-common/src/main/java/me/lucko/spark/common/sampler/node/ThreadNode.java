@@ -127,4 +127,29 @@ public final class ThreadNode extends AbstractNode {
         return getTimeWindows().isEmpty();
     }
 
+    /**
+     * Removes any nodes (and their children) from the tree whose total time
+     * is less than {@code minTime}.
+     *
+     * @param minTime the minimum total time for a node to be kept
+     */
+    public void pruneRecursively(long minTime) {
+        Queue<AbstractNode> queue = new ArrayDeque<>();
+        queue.add(this);
+
+        while (!queue.isEmpty()) {
+            AbstractNode node = queue.remove();
+            Collection<StackTraceNode> children = node.getChildren();
+
+            for (Iterator<StackTraceNode> it = children.iterator(); it.hasNext(); ) {
+                StackTraceNode child = it.next();
+                if (child.getTotalTime() < minTime) {
+                    it.remove();
+                } else {
+                    queue.add(child);
+                }
+            }
+        }
+    }
+
 }
@@ -20,23 +20,53 @@
 
 package me.lucko.spark.common.sampler.node.exporter;
 
+import com.google.protobuf.CodedOutputStream;
+import com.google.protobuf.WireFormat;
 import me.lucko.spark.common.sampler.node.StackTraceNode;
 import me.lucko.spark.common.sampler.node.ThreadNode;
 import me.lucko.spark.common.sampler.window.ProtoTimeEncoder;
 import me.lucko.spark.common.util.IndexedListBuilder;
 import me.lucko.spark.proto.SparkSamplerProtos;
 
+import java.io.IOException;
 import java.util.ArrayDeque;
 import java.util.Collection;
 import java.util.Deque;
 import java.util.LinkedList;
 import java.util.List;
+import java.util.concurrent.CancellationException;
 
 public abstract class AbstractNodeExporter implements NodeExporter {
+
+    // field numbers from spark_sampler.proto, used by write(ThreadNode, CodedOutputStream)
+    private static final int THREAD_NODE_NAME = 1;
+    private static final int THREAD_NODE_CHILDREN = 3;
+    private static final int THREAD_NODE_TIMES = 4;
+    private static final int THREAD_NODE_CHILDREN_REFS = 5;
+    private static final int THREAD_NODE_SPARSE_TIME_INDEXES = 6;
+    private static final int THREAD_NODE_SPARSE_TIMES = 7;
+
+    private static final int STACK_TRACE_NODE_CLASS_NAME = 3;
+    private static final int STACK_TRACE_NODE_METHOD_NAME = 4;
+    private static final int STACK_TRACE_NODE_PARENT_LINE_NUMBER = 5;
+    private static final int STACK_TRACE_NODE_LINE_NUMBER = 6;
+    private static final int STACK_TRACE_NODE_METHOD_DESC = 7;
+    private static final int STACK_TRACE_NODE_TIMES = 8;
+    private static final int STACK_TRACE_NODE_CHILDREN_REFS = 9;
+    private static final int STACK_TRACE_NODE_SPARSE_TIME_INDEXES = 10;
+    private static final int STACK_TRACE_NODE_SPARSE_TIMES = 11;
+    private static final int STACK_TRACE_NODE_CLASS_NAME_INDEX = 12;
+    private static final int STACK_TRACE_NODE_METHOD_NAME_INDEX = 13;
+    private static final int STACK_TRACE_NODE_METHOD_DESC_INDEX = 14;
+
     protected final ProtoTimeEncoder timeEncoder;
 
-    protected AbstractNodeExporter(ProtoTimeEncoder timeEncoder) {
+    /** The string table to intern names into, or null to write names inline */
+    private final StringTable stringTable;
+
+    protected AbstractNodeExporter(ProtoTimeEncoder timeEncoder, StringTable stringTable) {
         this.timeEncoder = timeEncoder;
+        this.stringTable = stringTable;
     }
 
     @Override
@@ -44,11 +74,47 @@ public abstract class AbstractNodeExporter implements NodeExporter {
         SparkSamplerProtos.ThreadNode.Builder proto = SparkSamplerProtos.ThreadNode.newBuilder()
                 .setName(threadNode.getThreadLabel());
 
-        double[] times = threadNode.encodeTimesForProto(this.timeEncoder);
-        for (double time : times) {
-            proto.addTimes(time);
+        threadNode.encodeTimesForProto(this.timeEncoder).writeTo(proto::addTimes, proto::addSparseTimeIndexes, proto::addSparseTimes);
+
+        // the flattened array of nodes
+        IndexedListBuilder<SparkSamplerProtos.StackTraceNode> nodesArray = new IndexedListBuilder<>();
+        List<Integer> childrenRefs = flatten(threadNode, (node, nodeChildrenRefs) -> nodesArray.add(export(node, nodeChildrenRefs)));
+
+        proto.addAllChildrenRefs(childrenRefs);
+        proto.addAllChildren(nodesArray.build());
+
+        return proto.build();
+    }
+
+    @Override
+    public void write(ThreadNode threadNode, CodedOutputStream out) throws IOException {
+        // fields are written in field number order, so the output matches the generated code exactly
+        String name = threadNode.getThreadLabel();
+        if (!name.isEmpty()) {
+            out.writeString(THREAD_NODE_NAME, name);
         }
 
+        int[] nextIndex = {0};
+        List<Integer> childrenRefs = flatten(threadNode, (node, nodeChildrenRefs) -> {
+            write(node, nodeChildrenRefs, out);
+            return nextIndex[0]++;
+        });
+
+        ProtoTimeEncoder.EncodedTimes times = threadNode.encodeTimesForProto(this.timeEncoder);
+        times.writeDenseTo(out, THREAD_NODE_TIMES);
+        writePackedInt32(out, THREAD_NODE_CHILDREN_REFS, childrenRefs);
+        times.writeSparseTo(out, THREAD_NODE_SPARSE_TIME_INDEXES, THREAD_NODE_SPARSE_TIMES);
+    }
+
+    /**
+     * Flattens the tree of nodes under the thread into an array, calling the visitor for each
+     * node in the order they appear in the array.
+     *
+     * @param threadNode the thread node
+     * @param visitor the visitor, which returns the index of the node in the array
+     * @return the indexes of the direct children of the thread node
+     */
+    private <E extends Exception> List<Integer> flatten(ThreadNode threadNode, FlattenVisitor<E> visitor) throws E {
         // When converting to a proto, we change the data structure from a recursive tree to an array.
         // Effectively, instead of:
         //
@@ -73,9 +139,6 @@ public abstract class AbstractNodeExporter implements NodeExporter {
         //   ]
         //
 
-        // the flattened array of nodes
-        IndexedListBuilder<SparkSamplerProtos.StackTraceNode> nodesArray = new IndexedListBuilder<>();
-
         // Perform a depth-first post order traversal of the tree
         Deque<Node> stack = new ArrayDeque<>();
 
@@ -87,6 +150,11 @@ public abstract class AbstractNodeExporter implements NodeExporter {
 
         Node node;
         while (!stack.isEmpty()) {
+            // the export may be cancelled (see ExportProgress) by interrupting the thread
+            if (Thread.currentThread().isInterrupted()) {
+                throw new CancellationException("Export was interrupted");
+            }
+
             node = stack.peek();
 
             // on the first visit, just push this node's children and leave it on the stack
@@ -98,29 +166,201 @@ public abstract class AbstractNodeExporter implements NodeExporter {
                 continue;
             }
 
-            // convert StackTraceNode to a proto
+            // visit the node
             // - at this stage, we have already visited this node's children
             // - the refs for each child are stored in node.childrenRefs
-            SparkSamplerProtos.StackTraceNode childProto = this.export(node.stackTraceNode, node.childrenRefs);
+            int childIndex = visitor.visit(node.stackTraceNode, node.childrenRefs);
 
-            // add the child proto to the nodes array, and record the ref in the parent
-            int childIndex = nodesArray.add(childProto);
+            // record the ref in the parent
             node.parentChildrenRefs.add(childIndex);
 
             // pop from the stack
             stack.pop();
         }
 
-        proto.addAllChildrenRefs(childrenRefs);
-        proto.addAllChildren(nodesArray.build());
+        return childrenRefs;
+    }
 
+    @Override
+    public SparkSamplerProtos.StackTraceNode exportNode(StackTraceNode stackTraceNode) {
+        return exportNodeDescription(stackTraceNode).build();
+    }
+
+    private SparkSamplerProtos.StackTraceNode export(StackTraceNode stackTraceNode, List<Integer> childrenRefs) {
+        SparkSamplerProtos.StackTraceNode.Builder proto = exportNodeDescription(stackTraceNode);
+        stackTraceNode.encodeTimesForProto(this.timeEncoder).writeTo(proto::addTimes, proto::addSparseTimeIndexes, proto::addSparseTimes);
+        proto.addAllChildrenRefs(childrenRefs);
         return proto.build();
     }
 
-    protected abstract SparkSamplerProtos.StackTraceNode export(StackTraceNode stackTraceNode, Iterable<Integer> childrenRefs);
+    private SparkSamplerProtos.StackTraceNode.Builder exportNodeDescription(StackTraceNode stackTraceNode) {
+        SparkSamplerProtos.StackTraceNode.Builder proto = SparkSamplerProtos.StackTraceNode.newBuilder();
+
+        String methodDescription = methodDescription(stackTraceNode);
+        if (this.stringTable != null) {
+            proto.setClassNameIndex(this.stringTable.index(stackTraceNode.getClassName()));
+            proto.setMethodNameIndex(this.stringTable.index(stackTraceNode.getMethodName()));
+            proto.setMethodDescIndex(this.stringTable.index(methodDescription));
+        } else {
+            proto.setClassName(stackTraceNode.getClassName());
+            proto.setMethodName(stackTraceNode.getMethodName());
+            if (methodDescription != null) {
+                proto.setMethodDesc(methodDescription);
+            }
+        }
+
+        int lineNumber = lineNumber(stackTraceNode);
+        if (lineNumber >= 0) {
+            proto.setLineNumber(lineNumber);
+        }
+
+        int parentLineNumber = parentLineNumber(stackTraceNode);
+        if (parentLineNumber >= 0) {
+            proto.setParentLineNumber(parentLineNumber);
+        }
+
+        return proto;
+    }
+
+    private void write(StackTraceNode stackTraceNode, List<Integer> childrenRefs, CodedOutputStream out) throws IOException {
+        String className = stackTraceNode.getClassName();
+        String methodName = stackTraceNode.getMethodName();
+        int parentLineNumber = Math.max(0, parentLineNumber(stackTraceNode));
+        int lineNumber = Math.max(0, lineNumber(stackTraceNode));
+        String methodDescription = methodDescription(stackTraceNode);
+        ProtoTimeEncoder.EncodedTimes times = stackTraceNode.encodeTimesForProto(this.timeEncoder);
+
+        int classNameIndex = 0;
+        int methodNameIndex = 0;
+        int methodDescriptionIndex = 0;
+        if (this.stringTable != null) {
+            classNameIndex = this.stringTable.index(className);
+            methodNameIndex = this.stringTable.index(methodName);
+            methodDescriptionIndex = this.stringTable.index(methodDescription);
+            className = "";
+            methodName = "";
+            methodDescription = null;
+        }
+
+        // proto3 doesn't write fields with default (empty/zero) values
+        int size = 0;
+        if (!className.isEmpty()) {
+            size += CodedOutputStream.computeStringSize(STACK_TRACE_NODE_CLASS_NAME, className);
+        }
+        if (!methodName.isEmpty()) {
+            size += CodedOutputStream.computeStringSize(STACK_TRACE_NODE_METHOD_NAME, methodName);
+        }
+        if (parentLineNumber != 0) {
+            size += CodedOutputStream.computeInt32Size(STACK_TRACE_NODE_PARENT_LINE_NUMBER, parentLineNumber);
+        }
+        if (lineNumber != 0) {
+            size += CodedOutputStream.computeInt32Size(STACK_TRACE_NODE_LINE_NUMBER, lineNumber);
+        }
+        if (methodDescription != null && !methodDescription.isEmpty()) {
+            size += CodedOutputStream.computeStringSize(STACK_TRACE_NODE_METHOD_DESC, methodDescription);
+        }
+        size += times.computeSize(STACK_TRACE_NODE_TIMES, STACK_TRACE_NODE_SPARSE_TIME_INDEXES, STACK_TRACE_NODE_SPARSE_TIMES);
+        size += computePackedInt32Size(STACK_TRACE_NODE_CHILDREN_REFS, childrenRefs);
+        if (classNameIndex != 0) {
+            size += CodedOutputStream.computeInt32Size(STACK_TRACE_NODE_CLASS_NAME_INDEX, classNameIndex);
+        }
+        if (methodNameIndex != 0) {
+            size += CodedOutputStream.computeInt32Size(STACK_TRACE_NODE_METHOD_NAME_INDEX, methodNameIndex);
+        }
+        if (methodDescriptionIndex != 0) {
+            size += CodedOutputStream.computeInt32Size(STACK_TRACE_NODE_METHOD_DESC_INDEX, methodDescriptionIndex);
+        }
+
+        out.writeTag(THREAD_NODE_CHILDREN, WireFormat.WIRETYPE_LENGTH_DELIMITED);
+        out.writeUInt32NoTag(size);
+
+        if (!className.isEmpty()) {
+            out.writeString(STACK_TRACE_NODE_CLASS_NAME, className);
+        }
+        if (!methodName.isEmpty()) {
+            out.writeString(STACK_TRACE_NODE_METHOD_NAME, methodName);
+        }
+        if (parentLineNumber != 0) {
+            out.writeInt32(STACK_TRACE_NODE_PARENT_LINE_NUMBER, parentLineNumber);
+        }
+        if (lineNumber != 0) {
+            out.writeInt32(STACK_TRACE_NODE_LINE_NUMBER, lineNumber);
+        }
+        if (methodDescription != null && !methodDescription.isEmpty()) {
+            out.writeString(STACK_TRACE_NODE_METHOD_DESC, methodDescription);
+        }
+        times.writeDenseTo(out, STACK_TRACE_NODE_TIMES);
+        writePackedInt32(out, STACK_TRACE_NODE_CHILDREN_REFS, childrenRefs);
+        times.writeSparseTo(out, STACK_TRACE_NODE_SPARSE_TIME_INDEXES, STACK_TRACE_NODE_SPARSE_TIMES);
+        if (classNameIndex != 0) {
+            out.writeInt32(STACK_TRACE_NODE_CLASS_NAME_INDEX, classNameIndex);
+        }
+        if (methodNameIndex != 0) {
+            out.writeInt32(STACK_TRACE_NODE_METHOD_NAME_INDEX, methodNameIndex);
+        }
+        if (methodDescriptionIndex != 0) {
+            out.writeInt32(STACK_TRACE_NODE_METHOD_DESC_INDEX, methodDescriptionIndex);
+        }
+    }
+
+    private static int packedInt32DataSize(List<Integer> values) {
+        int dataSize = 0;
+        for (int value : values) {
+            dataSize += CodedOutputStream.computeInt32SizeNoTag(value);
+        }
+        return dataSize;
+    }
+
+    private static int computePackedInt32Size(int fieldNumber, List<Integer> values) {
+        if (values.isEmpty()) {
+            return 0;
+        }
+        int dataSize = packedInt32DataSize(values);
+        return CodedOutputStream.computeTagSize(fieldNumber) + CodedOutputStream.computeUInt32SizeNoTag(dataSize) + dataSize;
+    }
+
+    private static void writePackedInt32(CodedOutputStream out, int fieldNumber, List<Integer> values) throws IOException {
+        if (values.isEmpty()) {
+            return;
+        }
+        int dataSize = packedInt32DataSize(values);
+        out.writeTag(fieldNumber, WireFormat.WIRETYPE_LENGTH_DELIMITED);
+        out.writeUInt32NoTag(dataSize);
+        for (int value : values) {
+            out.writeInt32NoTag(value);
+        }
+    }
+
+    /**
+     * Gets the line number to export for the node.
+     *
+     * @param stackTraceNode the node
+     * @return the line number, or a negative value if it shouldn't be exported
+     */
+    protected abstract int lineNumber(StackTraceNode stackTraceNode);
+
+    /**
+     * Gets the parent line number to export for the node.
+     *
+     * @param stackTraceNode the node
+     * @return the parent line number, or a negative value if it shouldn't be exported
+     */
+    protected abstract int parentLineNumber(StackTraceNode stackTraceNode);
+
+    /**
+     * Gets the method description to export for the node.
+     *
+     * @param stackTraceNode the node
+     * @return the method description, or null if it shouldn't be exported
+     */
+    protected abstract String methodDescription(StackTraceNode stackTraceNode);
 
     protected abstract Collection<StackTraceNode> exportChildren(Collection<StackTraceNode> children);
 
+    private interface FlattenVisitor<E extends Exception> {
+        int visit(StackTraceNode node, List<Integer> childrenRefs) throws E;
+    }
+
     private static final class Node {
         private final StackTraceNode stackTraceNode;
         private boolean firstVisit = true;
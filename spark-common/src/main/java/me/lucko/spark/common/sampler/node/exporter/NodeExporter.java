@@ -20,9 +20,13 @@
 
 package me.lucko.spark.common.sampler.node.exporter;
 
+import com.google.protobuf.CodedOutputStream;
+import me.lucko.spark.common.sampler.node.StackTraceNode;
 import me.lucko.spark.common.sampler.node.ThreadNode;
 import me.lucko.spark.proto.SparkSamplerProtos;
 
+import java.io.IOException;
+
 /**
  * Exports a {@link ThreadNode} to a protobuf message.
  */
@@ -36,4 +40,25 @@ public interface NodeExporter {
      */
     SparkSamplerProtos.ThreadNode export(ThreadNode threadNode);
 
+    /**
+     * Writes a {@link ThreadNode} directly to the output, in the same format as the
+     * {@link SparkSamplerProtos.ThreadNode} message returned by {@link #export(ThreadNode)}.
+     *
+     * <p>The output is byte-for-byte identical to the serialized form of the exported message,
+     * but is written without building an intermediate message for each node in the tree.</p>
+     *
+     * @param threadNode the thread node
+     * @param out the output to write the (unframed) message fields to
+     * @throws IOException if an I/O error occurs
+     */
+    void write(ThreadNode threadNode, CodedOutputStream out) throws IOException;
+
+    /**
+     * Exports a single {@link StackTraceNode} to a protobuf message, without its times or children.
+     *
+     * @param stackTraceNode the stack trace node
+     * @return the exported protobuf message
+     */
+    SparkSamplerProtos.StackTraceNode exportNode(StackTraceNode stackTraceNode);
+
 }
@@ -0,0 +1,77 @@
+/*
+ * This file is part of spark.
+ *
+ *  Copyright (c) lucko (Luck) <luck@lucko.me>
+ *  Copyright (c) contributors
+ *
+ *  This program is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+
+package me.lucko.spark.common.sampler.node.exporter;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Interns the class names, method names and method descriptions of exported nodes, so that
+ * each is only sent once and nodes can refer to them by index.
+ *
+ * <p>Index 0 is always the empty string, so a node which doesn't set an index refers to it.</p>
+ */
+public final class StringTable {
+
+    /** The strings, in order of index */
+    private final List<String> strings = new ArrayList<>();
+    /** Map of string -> index */
+    private final Map<String, Integer> indexes = new HashMap<>();
+
+    public StringTable() {
+        this.strings.add("");
+        this.indexes.put("", 0);
+    }
+
+    /**
+     * Gets the index of the string in the table, adding it if necessary.
+     *
+     * @param string the string
+     * @return the index
+     */
+    public int index(String string) {
+        if (string == null) {
+            return 0;
+        }
+
+        Integer index = this.indexes.get(string);
+        if (index == null) {
+            index = this.strings.size();
+            this.strings.add(string);
+            this.indexes.put(string, index);
+        }
+        return index;
+    }
+
+    /**
+     * Gets the strings in the table, in order of index.
+     *
+     * @return the strings
+     */
+    public List<String> strings() {
+        return Collections.unmodifiableList(this.strings);
+    }
+
+}
@@ -192,6 +192,8 @@ public interface ClassSourceLookup {
     interface Visitor {
         void visit(ThreadNode node);
 
+        void visit(StackTraceNode node);
+
         boolean hasClassSourceMappings();
 
         Map<String, String> getClassSourceMapping();
@@ -220,6 +222,11 @@ public interface ClassSourceLookup {
 
         }
 
+        @Override
+        public void visit(StackTraceNode node) {
+
+        }
+
         @Override
         public boolean hasClassSourceMappings() {
             return false;
@@ -271,12 +278,13 @@ public interface ClassSourceLookup {
         public void visit(ThreadNode node) {
             Queue<StackTraceNode> queue = new ArrayDeque<>(node.getChildren());
             for (StackTraceNode n = queue.poll(); n != null; n = queue.poll()) {
-                visitStackNode(n);
+                visit(n);
                 queue.addAll(n.getChildren());
             }
         }
 
-        private void visitStackNode(StackTraceNode node) {
+        @Override
+        public void visit(StackTraceNode node) {
             this.classSources.computeIfAbsent(
                     node.getClassName(),
                     className -> {
@@ -20,18 +20,28 @@
 
 package me.lucko.spark.common.sampler.window;
 
+import com.google.protobuf.CodedOutputStream;
+import com.google.protobuf.WireFormat;
 import me.lucko.spark.common.sampler.node.ThreadNode;
 import org.jetbrains.annotations.VisibleForTesting;
 
+import java.io.IOException;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.concurrent.atomic.LongAdder;
+import java.util.function.DoubleConsumer;
+import java.util.function.IntConsumer;
+import java.util.function.IntPredicate;
+import java.util.function.LongConsumer;
 import java.util.function.LongToDoubleFunction;
 import java.util.stream.IntStream;
 
 /**
  * Encodes a map of int->double into a double array.
+ *
+ * <p>If sparse encoding is enabled, times can instead be encoded as a list of (window index,
+ * raw value) pairs for only the non-zero windows, whichever is smaller.</p>
  */
 public class ProtoTimeEncoder {
 
@@ -42,11 +52,21 @@ public class ProtoTimeEncoder {
     private final int[] keys;
     /** A map of key value -> index in the keys array */
     private final Map<Integer, Integer> keysToIndex;
+    /** If keys which can't be encoded should be skipped, instead of throwing an exception */
+    private final boolean skipUnknownKeys;
+    /** If times can be encoded sparsely, when that is smaller */
+    private final boolean allowSparse;
 
     @VisibleForTesting
     ProtoTimeEncoder(LongToDoubleFunction valueTransformer, IntStream keys) {
+        this(valueTransformer, keys, false, false);
+    }
+
+    private ProtoTimeEncoder(LongToDoubleFunction valueTransformer, IntStream keys, boolean skipUnknownKeys, boolean allowSparse) {
         this.valueTransformer = valueTransformer;
         this.keys = keys.distinct().sorted().toArray();
+        this.skipUnknownKeys = skipUnknownKeys;
+        this.allowSparse = allowSparse;
 
         // construct a reverse index lookup
         this.keysToIndex = new HashMap<>(this.keys.length);
@@ -71,6 +91,27 @@ public class ProtoTimeEncoder {
         return this.keys;
     }
 
+    /**
+     * Creates a new encoder which only encodes the keys matching the given predicate.
+     * Times for any other keys are skipped.
+     *
+     * @param predicate the predicate
+     * @return the new encoder
+     */
+    public ProtoTimeEncoder filter(IntPredicate predicate) {
+        return new ProtoTimeEncoder(this.valueTransformer, IntStream.of(this.keys).filter(predicate), true, this.allowSparse);
+    }
+
+    /**
+     * Creates a new encoder which encodes times sparsely in {@link #encodeCompact(Map)},
+     * when that is smaller than the dense encoding.
+     *
+     * @return the new encoder
+     */
+    public ProtoTimeEncoder withSparseEncoding() {
+        return new ProtoTimeEncoder(this.valueTransformer, IntStream.of(this.keys), this.skipUnknownKeys, true);
+    }
+
     /**
      * Encode a map of times/durations into a double array.
      *
@@ -84,9 +125,9 @@ public class ProtoTimeEncoder {
 
         times.forEach((key, value) -> {
             // get the index for the given key
-            Integer idx = this.keysToIndex.get(key);
+            Integer idx = indexFor(key);
             if (idx == null) {
-                throw new RuntimeException("No index for key " + key + " in " + this.keysToIndex.keySet());
+                return;
             }
 
             // store in the array
@@ -95,4 +136,240 @@ public class ProtoTimeEncoder {
 
         return array;
     }
+
+    /**
+     * Encode a map of times/durations, using whichever of the dense and sparse encodings
+     * is smaller.
+     *
+     * @param times a dictionary of times (unix-time millis -> duration in microseconds)
+     * @return the encoded times
+     */
+    public EncodedTimes encodeCompact(Map<Integer, LongAdder> times) {
+        if (!this.allowSparse) {
+            return EncodedTimes.dense(encode(times));
+        }
+
+        // raw (untransformed) value for each index, 0 if absent
+        long[] raw = new long[this.keys.length];
+        int nonZero = 0;
+        for (Map.Entry<Integer, LongAdder> entry : times.entrySet()) {
+            Integer idx = indexFor(entry.getKey());
+            if (idx == null) {
+                continue;
+            }
+            long value = entry.getValue().longValue();
+            if (value != 0 && raw[idx] == 0) {
+                nonZero++;
+            }
+            raw[idx] = value;
+        }
+
+        int[] indexDeltas = new int[nonZero];
+        long[] values = new long[nonZero];
+        int sparseIndexesSize = 0;
+        int sparseValuesSize = 0;
+        int n = 0;
+        int lastIndex = 0;
+        for (int i = 0; i < raw.length; i++) {
+            if (raw[i] == 0) {
+                continue;
+            }
+            indexDeltas[n] = i - lastIndex;
+            values[n] = raw[i];
+            sparseIndexesSize += varintSize(indexDeltas[n]);
+            sparseValuesSize += varintSize(values[n]);
+            lastIndex = i;
+            n++;
+        }
+
+        int denseSize = packedFieldSize(this.keys.length * 8);
+        int sparseSize = packedFieldSize(sparseIndexesSize) + packedFieldSize(sparseValuesSize);
+        if (sparseSize < denseSize) {
+            return EncodedTimes.sparse(indexDeltas, values);
+        }
+
+        double[] array = new double[raw.length];
+        for (int i = 0; i < raw.length; i++) {
+            if (raw[i] != 0) {
+                array[i] = this.valueTransformer.applyAsDouble(raw[i]);
+            }
+        }
+        return EncodedTimes.dense(array);
+    }
+
+    private Integer indexFor(Integer key) {
+        Integer idx = this.keysToIndex.get(key);
+        if (idx == null && !this.skipUnknownKeys) {
+            throw new RuntimeException("No index for key " + key + " in " + this.keysToIndex.keySet());
+        }
+        return idx;
+    }
+
+    /**
+     * Gets the encoded size of a packed repeated field with the given data length (excluding the tag).
+     */
+    private static int packedFieldSize(int dataLength) {
+        return dataLength == 0 ? 0 : 1 + varintSize(dataLength) + dataLength;
+    }
+
+    @VisibleForTesting
+    static int varintSize(long value) {
+        int size = 1;
+        while ((value & ~0x7FL) != 0) {
+            value >>>= 7;
+            size++;
+        }
+        return size;
+    }
+
+    /**
+     * Times encoded by {@link #encodeCompact(Map)}.
+     */
+    public static final class EncodedTimes {
+        /** The dense times (one per key), or null if sparse */
+        private final double[] dense;
+        /** The difference between each non-zero index and the previous one */
+        private final int[] sparseIndexDeltas;
+        /** The raw (untransformed) value for each non-zero index */
+        private final long[] sparseValues;
+
+        private EncodedTimes(double[] dense, int[] sparseIndexDeltas, long[] sparseValues) {
+            this.dense = dense;
+            this.sparseIndexDeltas = sparseIndexDeltas;
+            this.sparseValues = sparseValues;
+        }
+
+        static EncodedTimes dense(double[] times) {
+            return new EncodedTimes(times, null, null);
+        }
+
+        static EncodedTimes sparse(int[] indexDeltas, long[] values) {
+            return new EncodedTimes(null, indexDeltas, values);
+        }
+
+        public boolean isSparse() {
+            return this.dense == null;
+        }
+
+        @VisibleForTesting
+        double[] dense() {
+            return this.dense;
+        }
+
+        @VisibleForTesting
+        int[] sparseIndexDeltas() {
+            return this.sparseIndexDeltas;
+        }
+
+        @VisibleForTesting
+        long[] sparseValues() {
+            return this.sparseValues;
+        }
+
+        /**
+         * Writes the times to a proto builder.
+         *
+         * @param times adds a value to the dense times field
+         * @param sparseIndexes adds a value to the sparse time indexes field
+         * @param sparseTimes adds a value to the sparse times field
+         */
+        public void writeTo(DoubleConsumer times, IntConsumer sparseIndexes, LongConsumer sparseTimes) {
+            if (this.dense != null) {
+                for (double time : this.dense) {
+                    times.accept(time);
+                }
+            } else {
+                for (int index : this.sparseIndexDeltas) {
+                    sparseIndexes.accept(index);
+                }
+                for (long value : this.sparseValues) {
+                    sparseTimes.accept(value);
+                }
+            }
+        }
+
+        /**
+         * Computes the encoded size of the times when written as proto fields.
+         *
+         * @param timesField the field number of the dense times field
+         * @param sparseIndexesField the field number of the sparse time indexes field
+         * @param sparseTimesField the field number of the sparse times field
+         * @return the encoded size in bytes
+         */
+        public int computeSize(int timesField, int sparseIndexesField, int sparseTimesField) {
+            if (this.dense != null) {
+                return computePackedSize(timesField, this.dense.length * 8);
+            }
+            return computePackedSize(sparseIndexesField, sparseIndexesDataSize()) +
+                    computePackedSize(sparseTimesField, sparseTimesDataSize());
+        }
+
+        /**
+         * Writes the dense times field to the output, if the times are dense.
+         *
+         * <p>The dense and sparse fields are written separately so that callers can keep the
+         * fields of the message in field number order.</p>
+         *
+         * @param out the output
+         * @param timesField the field number of the dense times field
+         * @throws IOException if an I/O error occurs
+         */
+        public void writeDenseTo(CodedOutputStream out, int timesField) throws IOException {
+            if (this.dense == null || this.dense.length == 0) {
+                return;
+            }
+            out.writeTag(timesField, WireFormat.WIRETYPE_LENGTH_DELIMITED);
+            out.writeUInt32NoTag(this.dense.length * 8);
+            for (double time : this.dense) {
+                out.writeDoubleNoTag(time);
+            }
+        }
+
+        /**
+         * Writes the sparse time fields to the output, if the times are sparse.
+         *
+         * @param out the output
+         * @param sparseIndexesField the field number of the sparse time indexes field
+         * @param sparseTimesField the field number of the sparse times field
+         * @throws IOException if an I/O error occurs
+         */
+        public void writeSparseTo(CodedOutputStream out, int sparseIndexesField, int sparseTimesField) throws IOException {
+            if (this.dense != null || this.sparseIndexDeltas.length == 0) {
+                return;
+            }
+            out.writeTag(sparseIndexesField, WireFormat.WIRETYPE_LENGTH_DELIMITED);
+            out.writeUInt32NoTag(sparseIndexesDataSize());
+            for (int index : this.sparseIndexDeltas) {
+                out.writeInt32NoTag(index);
+            }
+            out.writeTag(sparseTimesField, WireFormat.WIRETYPE_LENGTH_DELIMITED);
+            out.writeUInt32NoTag(sparseTimesDataSize());
+            for (long value : this.sparseValues) {
+                out.writeUInt64NoTag(value);
+            }
+        }
+
+        private int sparseIndexesDataSize() {
+            int size = 0;
+            for (int index : this.sparseIndexDeltas) {
+                size += CodedOutputStream.computeInt32SizeNoTag(index);
+            }
+            return size;
+        }
+
+        private int sparseTimesDataSize() {
+            int size = 0;
+            for (long value : this.sparseValues) {
+                size += CodedOutputStream.computeUInt64SizeNoTag(value);
+            }
+            return size;
+        }
+
+        private static int computePackedSize(int fieldNumber, int dataSize) {
+            if (dataSize == 0) {
+                return 0;
+            }
+            return CodedOutputStream.computeTagSize(fieldNumber) + CodedOutputStream.computeUInt32SizeNoTag(dataSize) + dataSize;
+        }
+    }
 }
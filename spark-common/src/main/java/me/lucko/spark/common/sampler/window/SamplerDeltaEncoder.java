@@ -0,0 +1,318 @@
+/*
+ * This file is part of spark.
+ *
+ *  Copyright (c) lucko (Luck) <luck@lucko.me>
+ *  Copyright (c) contributors
+ *
+ *  This program is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+
+package me.lucko.spark.common.sampler.window;
+
+import me.lucko.spark.common.sampler.node.AbstractNode;
+import me.lucko.spark.common.sampler.node.StackTraceNode;
+import me.lucko.spark.common.sampler.node.ThreadNode;
+import me.lucko.spark.common.sampler.node.exporter.NodeExporter;
+import me.lucko.spark.proto.SparkSamplerProtos;
+import me.lucko.spark.proto.SparkSamplerProtos.SamplerData;
+import me.lucko.spark.proto.SparkSamplerProtos.ThreadNodeDelta;
+
+import java.util.ArrayDeque;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.IdentityHashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Queue;
+import java.util.Set;
+import java.util.function.Consumer;
+import java.util.function.IntPredicate;
+
+/**
+ * Encodes the sampler data which has been recorded since a previous export as a
+ * {@link SparkSamplerProtos.SamplerDataDelta}.
+ *
+ * <p>Each stack trace node is given a stable id, so that the data for each new window
+ * can be sent without re-sending the whole tree. The ids of the nodes in the base
+ * {@link SamplerData} are their indexes in the thread's children array, and new nodes
+ * are given the next unused id.</p>
+ *
+ * <p>Deltas are encoded directly from the sampler's call tree. Time is recorded against
+ * every node in a sampled stack, so a node without any time in the windows being sent
+ * has no descendants with time in them either, and is skipped along with its subtree.
+ * The id of each call tree node is remembered by identity, so the exported form of a
+ * node is only worked out the first time it is seen.</p>
+ */
+public class SamplerDeltaEncoder {
+
+    /** Map of thread name -> node ids for the thread */
+    private final Map<String, ThreadState> threads = new HashMap<>();
+
+    /** The class/method/line source mappings which have already been sent */
+    private final Set<String> sentClassSources = new HashSet<>();
+    private final Set<String> sentMethodSources = new HashSet<>();
+    private final Set<String> sentLineSources = new HashSet<>();
+
+    /** The earliest window which hasn't yet been sent in full */
+    private int nextWindow;
+
+    /**
+     * Records the base data which subsequent deltas will be applied to.
+     *
+     * @param data the base data
+     * @param currentWindow the window which was in progress when the data was exported
+     */
+    public void recordBase(SamplerData data, int currentWindow) {
+        this.threads.clear();
+        this.sentClassSources.clear();
+        this.sentMethodSources.clear();
+        this.sentLineSources.clear();
+
+        // the base may use a string table, but the nodes encoded in deltas never do
+        List<String> strings = data.getMetadata().getStringTable() ? data.getStringsList() : null;
+
+        for (SparkSamplerProtos.ThreadNode thread : data.getThreadsList()) {
+            ThreadState state = new ThreadState(thread.getChildrenCount());
+            List<SparkSamplerProtos.StackTraceNode> nodes = thread.getChildrenList();
+
+            Queue<int[]> queue = new ArrayDeque<>(); // [index, parent id]
+            for (int ref : thread.getChildrenRefsList()) {
+                queue.add(new int[]{ref, -1});
+            }
+            for (int[] entry = queue.poll(); entry != null; entry = queue.poll()) {
+                SparkSamplerProtos.StackTraceNode node = nodes.get(entry[0]);
+                Integer existing = state.ids.putIfAbsent(new NodeKey(entry[1], node, strings), entry[0]);
+                int id = existing != null ? existing : entry[0];
+                for (int ref : node.getChildrenRefsList()) {
+                    queue.add(new int[]{ref, id});
+                }
+            }
+
+            this.threads.put(thread.getName(), state);
+        }
+
+        this.sentClassSources.addAll(data.getClassSourcesMap().keySet());
+        this.sentMethodSources.addAll(data.getMethodSourcesMap().keySet());
+        this.sentLineSources.addAll(data.getLineSourcesMap().keySet());
+
+        // the current window was incomplete, so will be sent again in the next delta
+        this.nextWindow = currentWindow;
+    }
+
+    /**
+     * Gets a predicate which matches the windows that should be included in the next delta.
+     *
+     * @param currentWindow the window currently in progress
+     * @return the predicate
+     */
+    public IntPredicate windowsToSend(int currentWindow) {
+        int nextWindow = this.nextWindow;
+        return window -> window >= nextWindow && window < currentWindow;
+    }
+
+    /**
+     * Marks the windows before the given window as sent.
+     *
+     * @param currentWindow the window currently in progress
+     */
+    public void advance(int currentWindow) {
+        this.nextWindow = Math.max(this.nextWindow, currentWindow);
+    }
+
+    /**
+     * Encodes the times recorded for a thread in the windows included in the delta.
+     *
+     * @param thread the thread
+     * @param exporter the exporter used to export nodes which haven't been sent before (names are written inline)
+     * @param timeEncoder a (dense) encoder for the windows included in the delta
+     * @param windows the windows included in the delta, matching the keys of the time encoder
+     * @param newNodeVisitor called for each call tree node which is seen for the first time
+     * @return the delta, or null if there is nothing new for the thread
+     */
+    public ThreadNodeDelta encodeThread(ThreadNode thread, NodeExporter exporter, ProtoTimeEncoder timeEncoder, IntPredicate windows, Consumer<StackTraceNode> newNodeVisitor) {
+        ThreadState state = this.threads.computeIfAbsent(thread.getThreadLabel(), name -> new ThreadState(0));
+
+        ThreadNodeDelta.Builder proto = ThreadNodeDelta.newBuilder()
+                .setName(thread.getThreadLabel());
+        for (double time : encodeTimes(thread, timeEncoder)) {
+            proto.addTimes(time);
+        }
+
+        Map<Integer, double[]> nodeTimes = new LinkedHashMap<>();
+
+        Queue<PendingNode> queue = new ArrayDeque<>();
+        for (StackTraceNode child : thread.getChildren()) {
+            if (hasTimeIn(child, windows)) {
+                queue.add(new PendingNode(child, -1));
+            }
+        }
+
+        for (PendingNode entry = queue.poll(); entry != null; entry = queue.poll()) {
+            StackTraceNode node = entry.node;
+
+            Integer id = state.nodeIds.get(node);
+            if (id == null) {
+                SparkSamplerProtos.StackTraceNode exported = exporter.exportNode(node);
+                NodeKey key = new NodeKey(entry.parentId, exported, null);
+                id = state.ids.get(key);
+                if (id == null) {
+                    id = state.nextId++;
+                    state.ids.put(key, id);
+                    proto.addNewChildren(exported);
+                    proto.addNewChildrenParents(entry.parentId);
+                }
+                state.nodeIds.put(node, id);
+                newNodeVisitor.accept(node);
+            }
+
+            // siblings which are merged when exported share an id, so their times are summed
+            double[] times = encodeTimes(node, timeEncoder);
+            double[] total = nodeTimes.get(id);
+            if (total == null) {
+                nodeTimes.put(id, times);
+            } else {
+                for (int i = 0; i < times.length; i++) {
+                    total[i] += times[i];
+                }
+            }
+
+            for (StackTraceNode child : node.getChildren()) {
+                if (hasTimeIn(child, windows)) {
+                    queue.add(new PendingNode(child, id));
+                }
+            }
+        }
+
+        nodeTimes.forEach((id, times) -> {
+            proto.addNodeIds(id);
+            for (double time : times) {
+                proto.addNodeTimes(time);
+            }
+        });
+
+        if (proto.getNewChildrenCount() == 0 && proto.getNodeIdsCount() == 0) {
+            return null;
+        }
+        return proto.build();
+    }
+
+    public Map<String, String> newClassSources(Map<String, String> mappings) {
+        return filterNew(mappings, this.sentClassSources);
+    }
+
+    public Map<String, String> newMethodSources(Map<String, String> mappings) {
+        return filterNew(mappings, this.sentMethodSources);
+    }
+
+    public Map<String, String> newLineSources(Map<String, String> mappings) {
+        return filterNew(mappings, this.sentLineSources);
+    }
+
+    private static Map<String, String> filterNew(Map<String, String> mappings, Set<String> sent) {
+        Map<String, String> result = new HashMap<>();
+        mappings.forEach((key, value) -> {
+            if (sent.add(key)) {
+                result.put(key, value);
+            }
+        });
+        return result;
+    }
+
+    private static boolean hasTimeIn(AbstractNode node, IntPredicate windows) {
+        for (int window : node.getTimeWindows()) {
+            if (windows.test(window)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private static double[] encodeTimes(AbstractNode node, ProtoTimeEncoder timeEncoder) {
+        double[] times = new double[timeEncoder.getKeys().length];
+        int[] index = {0};
+        node.encodeTimesForProto(timeEncoder).writeTo(time -> times[index[0]++] = time, i -> {
+            throw new IllegalArgumentException("sparse time encoding is not supported");
+        }, l -> {});
+        return times;
+    }
+
+    /**
+     * Identifies an exported node amongst its siblings. Nodes with the same key are merged
+     * by the exporter, so the line number is not included (see {@code MergeStrategy}).
+     */
+    private static final class NodeKey {
+        private final int parentId;
+        private final String className;
+        private final String methodName;
+        private final String methodDesc;
+        private final int parentLineNumber;
+        private final int hash;
+
+        NodeKey(int parentId, SparkSamplerProtos.StackTraceNode node, List<String> strings) {
+            this.parentId = parentId;
+            this.className = strings != null ? strings.get(node.getClassNameIndex()) : node.getClassName();
+            this.methodName = strings != null ? strings.get(node.getMethodNameIndex()) : node.getMethodName();
+            this.methodDesc = strings != null ? strings.get(node.getMethodDescIndex()) : node.getMethodDesc();
+            this.parentLineNumber = node.getParentLineNumber();
+            this.hash = Objects.hash(parentId, this.className, this.methodName, this.methodDesc, this.parentLineNumber);
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) return true;
+            if (!(o instanceof NodeKey)) return false;
+            NodeKey other = (NodeKey) o;
+            return this.hash == other.hash &&
+                    this.parentId == other.parentId &&
+                    this.parentLineNumber == other.parentLineNumber &&
+                    this.className.equals(other.className) &&
+                    this.methodName.equals(other.methodName) &&
+                    this.methodDesc.equals(other.methodDesc);
+        }
+
+        @Override
+        public int hashCode() {
+            return this.hash;
+        }
+    }
+
+    private static final class PendingNode {
+        private final StackTraceNode node;
+        private final int parentId;
+
+        PendingNode(StackTraceNode node, int parentId) {
+            this.node = node;
+            this.parentId = parentId;
+        }
+    }
+
+    private static final class ThreadState {
+        /** Map of exported node key -> id */
+        private final Map<NodeKey, Integer> ids = new HashMap<>();
+        /**
+         * Map of call tree node -> id, for the nodes which have been seen since the base was
+         * recorded. Nodes removed from the tree are only released when the next base is recorded.
+         */
+        private final Map<StackTraceNode, Integer> nodeIds = new IdentityHashMap<>();
+        private int nextId;
+
+        ThreadState(int nextId) {
+            this.nextId = nextId;
+        }
+    }
+
+}
@@ -23,7 +23,16 @@ package me.lucko.spark.common.sampler.window;
 import me.lucko.spark.api.statistic.misc.DoubleAverageInfo;
 import me.lucko.spark.common.SparkPlatform;
 import me.lucko.spark.common.monitor.cpu.CpuMonitor;
+import me.lucko.spark.common.monitor.cpu.PoolCpuTracker;
+import me.lucko.spark.common.monitor.memory.MemoryAllocationInfo;
+import me.lucko.spark.common.monitor.memory.PoolAllocationTracker;
+import me.lucko.spark.common.monitor.tick.GcTickLagCorrelator;
+import me.lucko.spark.common.monitor.tick.LevelTickStatistics;
+import me.lucko.spark.common.monitor.tick.TickPhaseStatistics;
 import me.lucko.spark.common.monitor.tick.TickStatistics;
+import me.lucko.spark.common.monitor.vm.VmMonitor;
+import me.lucko.spark.common.monitor.vm.VmOperationStatistics;
+import me.lucko.spark.common.platform.PlatformStatisticsProvider;
 import me.lucko.spark.common.platform.world.AsyncWorldInfoProvider;
 import me.lucko.spark.common.platform.world.WorldInfoProvider;
 import me.lucko.spark.common.sampler.java.TickedJavaDataAggregator;
@@ -32,6 +41,7 @@ import me.lucko.spark.common.util.TimeUtil;
 import me.lucko.spark.proto.SparkProtos;
 
 import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
 import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.atomic.AtomicInteger;
@@ -46,11 +56,18 @@ public class WindowStatisticsCollector {
             .setDuration(ProfilingWindowUtils.WINDOW_SIZE_SECONDS * 1000)
             .build();
 
+    /** The maximum number of thread pools to include allocation rates for */
+    private static final int MAX_ALLOCATION_POOLS = 10;
+    /** The maximum number of thread pools to include cpu usage for */
+    private static final int MAX_CPU_POOLS = 10;
+
     /** The platform */
     private final SparkPlatform platform;
 
     /** Map of profiling window -> start time */
     private final Map<Integer, Long> windowStartTimes = new HashMap<>();
+    /** Map of profiling window -> safepoint/compilation statistics at the start time */
+    private final Map<Integer, VmOperationStatistics> windowStartVmStatistics = new HashMap<>();
     /** Map of profiling window -> statistics */
     private final Map<Integer, SparkProtos.WindowStatistics> stats;
 
@@ -114,6 +131,7 @@ public class WindowStatisticsCollector {
      */
     public void recordWindowStartTime(int window) {
         this.windowStartTimes.put(window, TimeUtil.monotonicCurrentTimeMillis());
+        this.windowStartVmStatistics.put(window, VmMonitor.poll());
     }
 
     /**
@@ -174,6 +192,35 @@ public class WindowStatisticsCollector {
             }
         }
 
+        LevelTickStatistics levelTickStatistics = this.platform.getLevelTickStatistics();
+        if (levelTickStatistics != null) {
+            for (Map.Entry<String, LevelTickStatistics.LevelDurations> entry : levelTickStatistics.getLevels().entrySet()) {
+                DoubleAverageInfo mspt = entry.getValue().duration1Min();
+                builder.putLevels(entry.getKey(), SparkProtos.WindowStatistics.LevelStatistics.newBuilder()
+                        .setMsptMedian(mspt.median())
+                        .setMsptMax(mspt.max())
+                        .build()
+                );
+            }
+        }
+
+        TickPhaseStatistics tickPhaseStatistics = this.platform.getTickPhaseStatistics();
+        if (tickPhaseStatistics != null) {
+            for (TickPhaseStatistics.Phase phase : tickPhaseStatistics.getRecordedPhases()) {
+                builder.putTickPhases(phase.id(), PlatformStatisticsProvider.rollingAvgProto(tickPhaseStatistics.duration1Min(phase)));
+            }
+        }
+
+        GcTickLagCorrelator gcTickLagCorrelator = this.platform.getGcTickLagCorrelator();
+        if (gcTickLagCorrelator != null) {
+            builder.setGcTickLag(gcTickLagCorrelator.summarise(startTime, endTime).toProto());
+        }
+
+        VmOperationStatistics vmStatistics = this.windowStartVmStatistics.remove(window);
+        if (vmStatistics != null) {
+            builder.setVmOperations(VmMonitor.poll().subtract(vmStatistics).toProto());
+        }
+
         if (this.tickCounter != null) {
             int ticks = this.tickCounter.getCountedTicksThisWindowAndReset();
             builder.setTicks(ticks);
@@ -182,6 +229,22 @@ public class WindowStatisticsCollector {
         builder.setCpuProcess(CpuMonitor.processLoad1MinAvg());
         builder.setCpuSystem(CpuMonitor.systemLoad1MinAvg());
 
+        PoolCpuTracker poolCpuTracker = CpuMonitor.getPoolCpuTracker();
+        if (poolCpuTracker != null) {
+            List<PoolCpuTracker.PoolCpuUsage> pools = poolCpuTracker.getPools();
+            for (PoolCpuTracker.PoolCpuUsage pool : pools.subList(0, Math.min(pools.size(), MAX_CPU_POOLS))) {
+                builder.putCpuByPool(pool.name(), pool.cores1Min());
+            }
+        }
+
+        PoolAllocationTracker poolAllocationTracker = MemoryAllocationInfo.getPoolAllocationTracker();
+        if (poolAllocationTracker != null) {
+            List<PoolAllocationTracker.PoolAllocation> pools = poolAllocationTracker.getPools();
+            for (PoolAllocationTracker.PoolAllocation pool : pools.subList(0, Math.min(pools.size(), MAX_ALLOCATION_POOLS))) {
+                builder.putAllocationByPool(pool.name(), pool.bytesPerSecond1Min());
+            }
+        }
+
         try {
             AsyncWorldInfoProvider worldInfoProvider = new AsyncWorldInfoProvider(this.platform, this.platform.getPlugin().createWorldInfoProvider());
             WorldInfoProvider.CountsResult counts = worldInfoProvider.getCounts();
@@ -32,6 +32,12 @@ public abstract class AbstractTickReporter implements TickReporter {
         }
     }
 
+    protected void onLevelTick(String level, double duration) {
+        for (Callback r : this.tasks) {
+            r.onLevelTick(level, duration);
+        }
+    }
+
     @Override
     public void addCallback(Callback runnable) {
         this.tasks.add(runnable);
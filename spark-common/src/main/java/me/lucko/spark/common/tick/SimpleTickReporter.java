@@ -23,6 +23,7 @@ package me.lucko.spark.common.tick;
 public abstract class SimpleTickReporter extends AbstractTickReporter {
     private boolean closed = false;
     private long start = 0;
+    private long levelStart = 0;
 
     protected void onStart() {
         if (this.closed) {
@@ -41,6 +42,24 @@ public abstract class SimpleTickReporter extends AbstractTickReporter {
         onTick(duration);
     }
 
+    protected void onLevelStart() {
+        if (this.closed) {
+            return;
+        }
+
+        this.levelStart = System.nanoTime();
+    }
+
+    protected void onLevelEnd(String level) {
+        if (this.closed || this.levelStart == 0) {
+            return;
+        }
+
+        double duration = (System.nanoTime() - this.levelStart) / 1000000d;
+        this.levelStart = 0;
+        onLevelTick(level, duration);
+    }
+
     @Override
     public void close() {
         this.closed = true;
@@ -52,6 +52,17 @@ public interface TickReporter extends AutoCloseable {
 
     interface Callback {
         void onTick(double duration);
+
+        /**
+         * Called when a level (world/dimension) has finished ticking, for platforms
+         * that are able to report the duration of each level separately.
+         *
+         * @param level the name of the level, or its namespaced id where levels have one
+         * @param duration the duration of the level tick, in milliseconds
+         */
+        default void onLevelTick(String level, double duration) {
+
+        }
     }
 
 }
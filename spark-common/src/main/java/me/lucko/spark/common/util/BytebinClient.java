@@ -21,79 +21,184 @@
 package me.lucko.spark.common.util;
 
 import com.google.protobuf.AbstractMessageLite;
+import org.jetbrains.annotations.VisibleForTesting;
 
 import java.io.IOException;
+import java.io.InterruptedIOException;
 import java.io.OutputStream;
 import java.net.HttpURLConnection;
+import java.net.SocketException;
+import java.net.SocketTimeoutException;
 import java.net.URL;
+import java.net.UnknownHostException;
+import java.nio.file.Files;
+import java.nio.file.Path;
 import java.util.concurrent.TimeUnit;
-import java.util.function.Consumer;
+import java.util.function.Supplier;
 import java.util.zip.GZIPOutputStream;
 
 /**
  * Utility for posting content to bytebin.
  *
+ * <p>Content is compressed and sent as it is written using chunked transfer encoding,
+ * so the whole body never needs to be held in memory. Uploads which fail because of a
+ * timeout, a connection problem or a server error are retried with exponential backoff.</p>
+ *
  * @see <a href="https://github.com/lucko/bytebin">https://github.com/lucko/bytebin</a>
  */
 public class BytebinClient {
 
-    /** The bytebin URL */
-    private final String url;
+    /** The size of each chunk sent to the server */
+    private static final int CHUNK_SIZE = 64 * 1024;
+    /** The size of the buffer used by the gzip stream */
+    private static final int BUFFER_SIZE = 16 * 1024;
+    /** The maximum number of attempts made for each upload */
+    private static final int MAX_ATTEMPTS = 3;
+    /** The delay before the first retry, doubled for each subsequent retry */
+    private static final long RETRY_BACKOFF_MILLIS = TimeUnit.SECONDS.toMillis(1);
+
+    /** Supplies the bytebin URL */
+    private final Supplier<String> url;
     /** The client user agent */
     private final String userAgent;
+    /** The delay before the first retry */
+    private final long retryBackoffMillis;
 
     public BytebinClient(String url, String userAgent) {
-        this.url = url + (url.endsWith("/") ? "" : "/");
+        this(() -> url, userAgent, RETRY_BACKOFF_MILLIS);
+    }
+
+    /**
+     * Creates a client for a bytebin URL which isn't known until later, e.g. because the
+     * server it points to hasn't been bound to a port yet.
+     *
+     * @param url supplies the URL, called for each upload
+     * @param userAgent the client user agent
+     */
+    public BytebinClient(Supplier<String> url, String userAgent) {
+        this(url, userAgent, RETRY_BACKOFF_MILLIS);
+    }
+
+    @VisibleForTesting
+    BytebinClient(String url, String userAgent, long retryBackoffMillis) {
+        this(() -> url, userAgent, retryBackoffMillis);
+    }
+
+    private BytebinClient(Supplier<String> url, String userAgent, long retryBackoffMillis) {
+        this.url = url;
         this.userAgent = userAgent;
+        this.retryBackoffMillis = retryBackoffMillis;
+    }
+
+    private Content postContent(String contentType, ContentWriter writer, String userAgentExtra) throws IOException {
+        for (int attempt = 1; ; attempt++) {
+            try {
+                return tryPostContent(contentType, writer, userAgentExtra);
+            } catch (TransientUploadException e) {
+                if (attempt >= MAX_ATTEMPTS) {
+                    throw e;
+                }
+            }
+
+            try {
+                Thread.sleep(this.retryBackoffMillis << (attempt - 1));
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new InterruptedIOException("Interrupted whilst waiting to retry upload");
+            }
+        }
     }
 
-    private Content postContent(String contentType, Consumer<OutputStream> consumer, String userAgentExtra) throws IOException {
+    private Content tryPostContent(String contentType, ContentWriter writer, String userAgentExtra) throws IOException {
         String userAgent = userAgentExtra != null
                 ? this.userAgent + "/" + userAgentExtra
                 : this.userAgent;
 
-        URL url = new URL(this.url + "post");
+        String baseUrl = this.url.get();
+        URL url = new URL(baseUrl + (baseUrl.endsWith("/") ? "" : "/") + "post");
         HttpURLConnection connection = (HttpURLConnection) url.openConnection();
         try {
             connection.setConnectTimeout((int) TimeUnit.SECONDS.toMillis(10));
             connection.setReadTimeout((int) TimeUnit.SECONDS.toMillis(10));
 
             connection.setDoOutput(true);
+            connection.setChunkedStreamingMode(CHUNK_SIZE);
             connection.setRequestMethod("POST");
             connection.setRequestProperty("Content-Type", contentType);
             connection.setRequestProperty("User-Agent", userAgent);
             connection.setRequestProperty("Content-Encoding", "gzip");
 
             connection.connect();
-            try (OutputStream output = connection.getOutputStream()) {
-                consumer.accept(output);
+            try (OutputStream output = new GZIPOutputStream(connection.getOutputStream(), BUFFER_SIZE)) {
+                writer.writeTo(output);
+            }
+
+            int status = connection.getResponseCode();
+            if (status >= 500) {
+                throw new TransientUploadException("Server returned " + status + " " + connection.getResponseMessage());
+            }
+            if (status / 100 != 2) {
+                throw new IOException("Server returned " + status + " " + connection.getResponseMessage());
             }
 
             String key = connection.getHeaderField("Location");
             if (key == null) {
                 throw new IllegalStateException("Key not returned");
             }
+            connection.getInputStream().close();
             return new Content(key);
+        } catch (SocketTimeoutException | SocketException | UnknownHostException e) {
+            throw new TransientUploadException(e);
         } finally {
-            connection.getInputStream().close();
             connection.disconnect();
         }
     }
 
     public Content postContent(AbstractMessageLite<?, ?> proto, String contentType, String userAgentExtra) throws IOException {
-        return postContent(contentType, outputStream -> {
-            try (OutputStream out = new GZIPOutputStream(outputStream)) {
-                proto.writeTo(out);
-            } catch (IOException e) {
-                throw new RuntimeException(e);
-            }
-        }, userAgentExtra);
+        return postContent(contentType, proto::writeTo, userAgentExtra);
     }
 
     public Content postContent(AbstractMessageLite<?, ?> proto, String contentType) throws IOException {
         return postContent(proto, contentType, null);
     }
 
+    public Content postContent(byte[] content, String contentType, String userAgentExtra) throws IOException {
+        return postContent(contentType, output -> writeInterruptibly(content, output), userAgentExtra);
+    }
+
+    public Content postContent(byte[] content, String contentType) throws IOException {
+        return postContent(content, contentType, null);
+    }
+
+    /**
+     * Posts the contents of a file, which is compressed as it is sent.
+     *
+     * @param file the file
+     * @param contentType the content type
+     * @return the content
+     * @throws IOException if the upload fails
+     */
+    public Content postContent(Path file, String contentType) throws IOException {
+        return postContent(contentType, output -> Files.copy(file, output), null);
+    }
+
+    /**
+     * Writes the content in chunks, checking between each one if the thread has been
+     * interrupted, so that a cancelled upload is abandoned without sending the rest.
+     */
+    private static void writeInterruptibly(byte[] content, OutputStream output) throws IOException {
+        for (int offset = 0; offset < content.length; offset += CHUNK_SIZE) {
+            if (Thread.currentThread().isInterrupted()) {
+                throw new InterruptedIOException("Interrupted whilst uploading");
+            }
+            output.write(content, offset, Math.min(CHUNK_SIZE, content.length - offset));
+        }
+    }
+
+    private interface ContentWriter {
+        void writeTo(OutputStream output) throws IOException;
+    }
+
     public static final class Content {
         private final String key;
 
@@ -106,4 +211,18 @@ public class BytebinClient {
         }
     }
 
+    /**
+     * Thrown when an upload fails for a reason that is likely to be temporary,
+     * e.g. a timeout or server error, even after it has been retried.
+     */
+    public static final class TransientUploadException extends IOException {
+        TransientUploadException(String message) {
+            super(message);
+        }
+
+        TransientUploadException(Throwable cause) {
+            super(cause);
+        }
+    }
+
 }
@@ -0,0 +1,210 @@
+/*
+ * This file is part of spark.
+ *
+ *  Copyright (c) lucko (Luck) <luck@lucko.me>
+ *  Copyright (c) contributors
+ *
+ *  This program is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package me.lucko.spark.common.util;
+
+import com.google.gson.Gson;
+import com.google.gson.JsonObject;
+import com.google.gson.JsonPrimitive;
+import me.lucko.spark.common.activitylog.Activity;
+import me.lucko.spark.common.activitylog.ActivityLog;
+import me.lucko.spark.common.command.sender.CommandSender;
+import me.lucko.spark.common.monitor.MonitoringExecutor;
+import me.lucko.spark.common.util.log.SparkStaticLogger;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.logging.Level;
+
+/**
+ * A persistent queue of uploads which failed because bytebin could not be reached, and
+ * should be attempted again later.
+ *
+ * <p>Entries refer to the file the data was saved to when the upload failed, so nothing
+ * is stored twice. When a queued upload eventually succeeds, the URL is added to the
+ * {@link ActivityLog}.</p>
+ */
+public class BytebinOutbox implements Runnable, AutoCloseable {
+    private static final Gson GSON = new Gson();
+
+    /** How often to re-attempt queued uploads */
+    private static final long RETRY_INTERVAL_MILLIS = TimeUnit.MINUTES.toMillis(5);
+    /** How long to keep re-attempting an upload before giving up */
+    private static final long MAX_AGE_MILLIS = TimeUnit.DAYS.toMillis(1);
+    /** The file extension used for outbox entries */
+    private static final String EXTENSION = ".json";
+
+    private final Path directory;
+    private final BytebinClient bytebinClient;
+    private final ActivityLog activityLog;
+    private final String viewerUrl;
+    private final Executor executor;
+
+    /** If the outbox is currently being flushed */
+    private final AtomicBoolean flushing = new AtomicBoolean(false);
+    private ScheduledFuture<?> task;
+
+    public BytebinOutbox(Path directory, BytebinClient bytebinClient, ActivityLog activityLog, String viewerUrl, Executor executor) {
+        this.directory = directory;
+        this.bytebinClient = bytebinClient;
+        this.activityLog = activityLog;
+        this.viewerUrl = viewerUrl;
+        this.executor = executor;
+    }
+
+    public void start() {
+        if (this.task != null) {
+            throw new IllegalStateException();
+        }
+        // uploads block on the network, so only use the monitoring executor to trigger them
+        this.task = MonitoringExecutor.scheduleAtFixedRateMillis(() -> this.executor.execute(this), RETRY_INTERVAL_MILLIS);
+    }
+
+    @Override
+    public void close() {
+        if (this.task != null) {
+            this.task.cancel(false);
+            this.task = null;
+        }
+    }
+
+    /**
+     * Queues a saved file to be uploaded once bytebin can be reached again.
+     *
+     * @param file the file containing the data
+     * @param contentType the content type of the data
+     * @param user the user who requested the upload
+     * @param type the type of the data, as shown in the activity log
+     * @return true if the upload was queued
+     */
+    public boolean add(Path file, String contentType, CommandSender.Data user, String type) {
+        JsonObject entry = new JsonObject();
+        entry.add("file", new JsonPrimitive(file.toAbsolutePath().toString()));
+        entry.add("contentType", new JsonPrimitive(contentType));
+        entry.add("user", user.serialize());
+        entry.add("type", new JsonPrimitive(type));
+        entry.add("time", new JsonPrimitive(System.currentTimeMillis()));
+
+        try {
+            Files.createDirectories(this.directory);
+            Path entryFile = this.directory.resolve(System.currentTimeMillis() + "-" + Long.toHexString(System.nanoTime()) + EXTENSION);
+            try (BufferedWriter writer = Files.newBufferedWriter(entryFile, StandardCharsets.UTF_8)) {
+                GSON.toJson(entry, writer);
+            }
+            return true;
+        } catch (IOException e) {
+            SparkStaticLogger.log(Level.WARNING, "Unable to add " + file.getFileName() + " to the outbox", e);
+            return false;
+        }
+    }
+
+    /**
+     * Gets the number of uploads waiting in the outbox.
+     *
+     * @return the number of queued uploads
+     */
+    public int size() {
+        return listEntries().size();
+    }
+
+    @Override
+    public void run() {
+        if (!this.flushing.compareAndSet(false, true)) {
+            return;
+        }
+        try {
+            flush();
+        } finally {
+            this.flushing.set(false);
+        }
+    }
+
+    private void flush() {
+        for (Path entryFile : listEntries()) {
+            JsonObject entry;
+            try (BufferedReader reader = Files.newBufferedReader(entryFile, StandardCharsets.UTF_8)) {
+                entry = GSON.fromJson(reader, JsonObject.class);
+            } catch (Exception e) {
+                SparkStaticLogger.log(Level.WARNING, "Unable to read outbox entry " + entryFile.getFileName(), e);
+                delete(entryFile);
+                continue;
+            }
+
+            Path file = this.directory.getFileSystem().getPath(entry.get("file").getAsString());
+            String type = entry.get("type").getAsString();
+            long time = entry.get("time").getAsLong();
+
+            if (!Files.exists(file) || System.currentTimeMillis() - time > MAX_AGE_MILLIS) {
+                delete(entryFile);
+                continue;
+            }
+
+            try {
+                String key = this.bytebinClient.postContent(file, entry.get("contentType").getAsString()).key();
+                String url = this.viewerUrl + key;
+
+                CommandSender.Data user = CommandSender.Data.deserialize(entry.get("user"));
+                this.activityLog.addToLog(Activity.urlActivity(user, System.currentTimeMillis(), type, url));
+                SparkStaticLogger.log(Level.INFO, type + " upload of " + file.getFileName() + " complete: " + url);
+                delete(entryFile);
+            } catch (BytebinClient.TransientUploadException e) {
+                // bytebin still can't be reached, so there's no point trying the remaining entries
+                return;
+            } catch (Exception e) {
+                SparkStaticLogger.log(Level.WARNING, "Unable to upload " + file.getFileName() + ", removing it from the outbox", e);
+                delete(entryFile);
+            }
+        }
+    }
+
+    private List<Path> listEntries() {
+        List<Path> entries = new ArrayList<>();
+        if (!Files.isDirectory(this.directory)) {
+            return entries;
+        }
+        try (DirectoryStream<Path> stream = Files.newDirectoryStream(this.directory, "*" + EXTENSION)) {
+            stream.forEach(entries::add);
+        } catch (IOException e) {
+            SparkStaticLogger.log(Level.WARNING, "Unable to list outbox entries", e);
+        }
+        entries.sort(null);
+        return entries;
+    }
+
+    private static void delete(Path entryFile) {
+        try {
+            Files.deleteIfExists(entryFile);
+        } catch (IOException e) {
+            // ignore
+        }
+    }
+
+}
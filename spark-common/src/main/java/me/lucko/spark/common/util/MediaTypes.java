@@ -24,6 +24,7 @@ public enum MediaTypes {
     ;
 
     public static final String SPARK_SAMPLER_MEDIA_TYPE = "application/x-spark-sampler";
+    public static final String SPARK_SAMPLER_DELTA_MEDIA_TYPE = "application/x-spark-sampler-delta";
     public static final String SPARK_HEAP_MEDIA_TYPE = "application/x-spark-heap";
     public static final String SPARK_HEALTH_MEDIA_TYPE = "application/x-spark-health";
 
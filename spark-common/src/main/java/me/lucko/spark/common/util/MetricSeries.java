@@ -237,6 +237,23 @@ public class MetricSeries<T> {
         return this.newestTimestamp;
     }
 
+    /**
+     * Returns the value of the newest sample in the series, or null if the series is empty.
+     *
+     * @return the newest value, or null if empty
+     */
+    public T newest() {
+        this.lock.lock();
+        try {
+            if (this.size == 0) {
+                return null;
+            }
+            return valueAt(indexFor(this.size - 1));
+        } finally {
+            this.lock.unlock();
+        }
+    }
+
     /**
      * Iterates through samples in chronological order.
      * 
@@ -264,13 +281,30 @@ public class MetricSeries<T> {
      * @return an export of the series
      */
     public Export export() {
+        return export(0);
+    }
+
+    /**
+     * Exports the samples recorded after the given timestamp as a compact representation.
+     *
+     * @param afterTimestampMillis the timestamp of the newest sample already exported, or 0 to export all samples
+     * @return an export of the samples
+     */
+    public Export export(long afterTimestampMillis) {
         this.lock.lock();
         try {
-            Export export = new Export(0, new int[this.size], new Object[this.size]);
+            // samples are in chronological order, so skip over those already exported
+            int first = 0;
+            while (first < this.size && this.timestamps[indexFor(first)] <= afterTimestampMillis) {
+                first++;
+            }
+
+            int count = this.size - first;
+            Export export = new Export(0, new int[count], new Object[count]);
 
             long lastTimestamp = 0;
-            for (int i = 0; i < this.size; i++) {
-                int index = indexFor(i);
+            for (int i = 0; i < count; i++) {
+                int index = indexFor(first + i);
 
                 if (i == 0) {
                     // first value - set the start timestamp and record a delta of 0
@@ -288,6 +322,7 @@ public class MetricSeries<T> {
                 export.values[i] = this.values[index];
             }
 
+            export.newestTimestampMs = lastTimestamp;
             return export;
         } finally {
             this.lock.unlock();
@@ -296,6 +331,7 @@ public class MetricSeries<T> {
 
     public static final class Export {
         private long startTimestampMs;
+        private long newestTimestampMs;
         private final int[] timestampDeltasMs;
         private final Object[] values;
 
@@ -309,6 +345,19 @@ public class MetricSeries<T> {
             return this.startTimestampMs;
         }
 
+        /**
+         * Gets the timestamp of the newest sample in the export, or 0 if the export is empty.
+         *
+         * @return the timestamp of the newest sample
+         */
+        public long newestTimestampMs() {
+            return this.newestTimestampMs;
+        }
+
+        public boolean isEmpty() {
+            return this.values.length == 0;
+        }
+
         public int[] timestampDeltasMs() {
             return this.timestampDeltasMs;
         }
@@ -324,7 +373,10 @@ public class MetricSeries<T> {
         }
 
         public SparkProtos.DoubleMetricSeries toProto() {
-            Export export = export();
+            return toProto(export());
+        }
+
+        public SparkProtos.DoubleMetricSeries toProto(Export export) {
             SparkProtos.DoubleMetricSeries.Builder builder = SparkProtos.DoubleMetricSeries.newBuilder()
                     .setStartTimestampMs(export.startTimestampMs())
                     .addAllTimestampDeltasMs(Ints.asList(export.timestampDeltasMs()));
@@ -341,7 +393,10 @@ public class MetricSeries<T> {
         }
 
         public SparkProtos.AveragesMetricSeries toProto() {
-            Export export = export();
+            return toProto(export());
+        }
+
+        public SparkProtos.AveragesMetricSeries toProto(Export export) {
             SparkProtos.AveragesMetricSeries.Builder builder = SparkProtos.AveragesMetricSeries.newBuilder()
                     .setStartTimestampMs(export.startTimestampMs())
                     .addAllTimestampDeltasMs(Ints.asList(export.timestampDeltasMs()));
@@ -359,7 +414,10 @@ public class MetricSeries<T> {
         }
 
         public SparkProtos.MemoryUsageMetricSeries toProto() {
-            Export export = export();
+            return toProto(export());
+        }
+
+        public SparkProtos.MemoryUsageMetricSeries toProto(Export export) {
             SparkProtos.MemoryUsageMetricSeries.Builder builder = SparkProtos.MemoryUsageMetricSeries.newBuilder()
                     .setStartTimestampMs(export.startTimestampMs())
                     .addAllTimestampDeltasMs(Ints.asList(export.timestampDeltasMs()));
@@ -377,7 +435,10 @@ public class MetricSeries<T> {
         }
 
         public SparkProtos.WorldInfoMetricSeries toProto() {
-            Export export = export();
+            return toProto(export());
+        }
+
+        public SparkProtos.WorldInfoMetricSeries toProto(Export export) {
             SparkProtos.WorldInfoMetricSeries.Builder builder = SparkProtos.WorldInfoMetricSeries.newBuilder()
                     .setStartTimestampMs(export.startTimestampMs())
                     .addAllTimestampDeltasMs(Ints.asList(export.timestampDeltasMs()));
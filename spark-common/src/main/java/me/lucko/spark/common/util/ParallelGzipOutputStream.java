@@ -0,0 +1,213 @@
+/*
+ * This file is part of spark.
+ *
+ *  Copyright (c) lucko (Luck) <luck@lucko.me>
+ *  Copyright (c) contributors
+ *
+ *  This program is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package me.lucko.spark.common.util;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.Deque;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.zip.CRC32;
+import java.util.zip.Deflater;
+
+/**
+ * An {@link OutputStream} which writes gzip compressed data, compressing blocks of the input
+ * in parallel.
+ *
+ * <p>The input is split into fixed size blocks, each of which is deflated independently (using
+ * the end of the previous block as a preset dictionary, so the compression ratio is close to
+ * that of a single stream). The compressed blocks are byte-aligned using a sync flush, so they
+ * can simply be concatenated to form a single valid gzip stream.</p>
+ *
+ * <p>The number of blocks being compressed at once is bounded, so memory usage is constant
+ * regardless of the size of the input.</p>
+ *
+ * <p>How throughput scales with the number of threads has not been measured yet, so
+ * {@link Compression} only uses this stream when explicitly configured to.</p>
+ */
+public class ParallelGzipOutputStream extends OutputStream {
+    private static final int BLOCK_SIZE = 1024 * 1024;
+    private static final int DICTIONARY_SIZE = 32 * 1024;
+
+    private static final byte[] HEADER = {
+            0x1f, (byte) 0x8b, // magic
+            Deflater.DEFLATED, // compression method
+            0, // flags
+            0, 0, 0, 0, // modification time
+            0, // extra flags
+            0 // operating system
+    };
+
+    private final OutputStream out;
+    private final int level;
+    private final ExecutorService executor;
+    private final int maxInFlight;
+    private final Deque<Future<byte[]>> inFlight = new ArrayDeque<>();
+
+    private final CRC32 crc = new CRC32();
+    private long totalLength = 0;
+
+    private byte[] block = new byte[BLOCK_SIZE];
+    private int blockLength = 0;
+    private byte[] dictionary = null;
+    private boolean closed = false;
+
+    /**
+     * Creates a new parallel gzip output stream.
+     *
+     * @param out the stream to write compressed data to
+     * @param level the compression level, see {@link Deflater}
+     * @param threads the number of threads to compress with
+     * @throws IOException if an I/O error occurs writing the header
+     */
+    public ParallelGzipOutputStream(OutputStream out, int level, int threads) throws IOException {
+        this.out = out;
+        this.level = level;
+        this.executor = Executors.newFixedThreadPool(threads, new SparkThreadFactory("spark-compression", true));
+        this.maxInFlight = threads * 2;
+        this.out.write(HEADER);
+    }
+
+    @Override
+    public void write(int b) throws IOException {
+        write(new byte[]{(byte) b}, 0, 1);
+    }
+
+    @Override
+    public void write(byte[] b, int off, int len) throws IOException {
+        if (this.closed) {
+            throw new IOException("Stream closed");
+        }
+
+        while (len > 0) {
+            int n = Math.min(len, BLOCK_SIZE - this.blockLength);
+            System.arraycopy(b, off, this.block, this.blockLength, n);
+            this.blockLength += n;
+            off += n;
+            len -= n;
+
+            if (this.blockLength == BLOCK_SIZE) {
+                submitBlock(false);
+            }
+        }
+    }
+
+    private void submitBlock(boolean last) throws IOException {
+        byte[] input = this.block;
+        int length = this.blockLength;
+        byte[] dictionary = this.dictionary;
+
+        // the checksum has to be computed sequentially, but is much cheaper than deflating
+        this.crc.update(input, 0, length);
+        this.totalLength += length;
+
+        if (!last) {
+            this.dictionary = Arrays.copyOfRange(input, length - DICTIONARY_SIZE, length);
+            this.block = new byte[BLOCK_SIZE];
+            this.blockLength = 0;
+        }
+
+        this.inFlight.add(this.executor.submit(() -> deflate(input, length, dictionary, last)));
+        while (this.inFlight.size() >= this.maxInFlight) {
+            writeNextBlock();
+        }
+    }
+
+    private void writeNextBlock() throws IOException {
+        Future<byte[]> future = this.inFlight.poll();
+        try {
+            this.out.write(future.get());
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrupted whilst compressing", e);
+        } catch (ExecutionException e) {
+            throw new IOException("Error whilst compressing", e.getCause());
+        }
+    }
+
+    private byte[] deflate(byte[] input, int length, byte[] dictionary, boolean last) {
+        Deflater deflater = new Deflater(this.level, true);
+        try {
+            if (dictionary != null) {
+                deflater.setDictionary(dictionary);
+            }
+            deflater.setInput(input, 0, length);
+
+            ByteArrayOutputStream out = new ByteArrayOutputStream(length / 2 + 64);
+            byte[] buf = new byte[64 * 1024];
+            if (last) {
+                deflater.finish();
+                while (!deflater.finished()) {
+                    int n = deflater.deflate(buf);
+                    out.write(buf, 0, n);
+                }
+            } else {
+                // sync flush so the block ends on a byte boundary and can be concatenated
+                int n;
+                do {
+                    n = deflater.deflate(buf, 0, buf.length, Deflater.SYNC_FLUSH);
+                    out.write(buf, 0, n);
+                } while (n == buf.length);
+            }
+            return out.toByteArray();
+        } finally {
+            deflater.end();
+        }
+    }
+
+    @Override
+    public void flush() throws IOException {
+        this.out.flush();
+    }
+
+    @Override
+    public void close() throws IOException {
+        if (this.closed) {
+            return;
+        }
+        this.closed = true;
+
+        try {
+            submitBlock(true);
+            while (!this.inFlight.isEmpty()) {
+                writeNextBlock();
+            }
+            writeInt((int) this.crc.getValue());
+            writeInt((int) this.totalLength);
+        } finally {
+            this.executor.shutdownNow();
+            this.out.close();
+        }
+    }
+
+    private void writeInt(int i) throws IOException {
+        this.out.write(i & 0xFF);
+        this.out.write((i >> 8) & 0xFF);
+        this.out.write((i >> 16) & 0xFF);
+        this.out.write((i >> 24) & 0xFF);
+    }
+
+}
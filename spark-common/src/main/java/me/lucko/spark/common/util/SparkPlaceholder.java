@@ -22,6 +22,7 @@ package me.lucko.spark.common.util;
 
 import me.lucko.spark.common.SparkPlatform;
 import me.lucko.spark.common.monitor.cpu.CpuMonitor;
+import me.lucko.spark.common.monitor.tick.LevelTickStatistics;
 import me.lucko.spark.common.monitor.tick.TickStatistics;
 import net.kyori.adventure.text.Component;
 import net.kyori.adventure.text.TextComponent;
@@ -88,6 +89,36 @@ public enum SparkPlaceholder {
         return null;
     }),
 
+    WORLDTICKDURATION((platform, arg) -> {
+        LevelTickStatistics levelStatistics = platform.getLevelTickStatistics();
+        TickStatistics tickStatistics = platform.getTickStatistics();
+        if (levelStatistics == null || tickStatistics == null || arg == null) {
+            return null;
+        }
+
+        // arg is in the format <window>_<world>, world names may contain underscores
+        String[] parts = arg.split("_", 2);
+        if (parts.length < 2) {
+            return null;
+        }
+
+        LevelTickStatistics.LevelDurations durations = levelStatistics.getLevel(parts[1]);
+        if (durations == null) {
+            return null;
+        }
+
+        switch (parts[0]) {
+            case "10s":
+                return StatisticFormatter.formatTickDurations(durations.duration10Sec(), tickStatistics.gameMaxIdealDuration());
+            case "1m":
+                return StatisticFormatter.formatTickDurations(durations.duration1Min(), tickStatistics.gameMaxIdealDuration());
+            case "5m":
+                return StatisticFormatter.formatTickDurations(durations.duration5Min(), tickStatistics.gameMaxIdealDuration());
+        }
+
+        return null;
+    }),
+
     CPU_SYSTEM((platform, arg) -> {
         if (arg == null) {
             return Component.text()
@@ -165,6 +196,11 @@ public enum SparkPlaceholder {
             return TICKDURATION.resolve(platform, arg);
         }
 
+        if (label.equals("worldtickduration")) {
+            String arg = parts.length < 2 ? null : placeholder.substring(label.length() + 1);
+            return WORLDTICKDURATION.resolve(platform, arg);
+        }
+
         if (label.equals("cpu") && parts.length >= 2) {
             String type = parts[1];
             String arg = parts.length < 3 ? null : parts[2];
@@ -94,6 +94,22 @@ public enum StatisticFormatter {
         return text(FormatUtil.percent(usage, 1d), color);
     }
 
+    public static TextComponent formatCpuCores(double cores, int threads) {
+        // colour based on how close the threads are to using a full core each
+        double usage = threads > 0 ? cores / threads : 0;
+
+        TextColor color;
+        if (usage > 0.9) {
+            color = RED;
+        } else if (usage > 0.65) {
+            color = YELLOW;
+        } else {
+            color = GREEN;
+        }
+
+        return text(String.format(Locale.ENGLISH, "%.2f", cores), color);
+    }
+
     public static TextComponent formatPingRtts(double min, double median, double percentile95th, double max) {
         return text()
                 .append(formatPingRtt(min))
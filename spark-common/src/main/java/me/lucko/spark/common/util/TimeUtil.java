@@ -49,4 +49,15 @@ public enum TimeUtil {
     public static long monotonicCurrentTimeMillis() {
         return REFERENCE_MILLIS + ((System.nanoTime() - REFERENCE_NANOS) / 1_000_000L);
     }
+
+    /**
+     * Converts a {@link System#nanoTime()} reading to the same timebase as
+     * {@link #monotonicCurrentTimeMillis()}.
+     *
+     * @param nanoTime the nano time reading
+     * @return the equivalent monotonic timestamp in milliseconds
+     */
+    public static long monotonicTimeMillis(long nanoTime) {
+        return REFERENCE_MILLIS + ((nanoTime - REFERENCE_NANOS) / 1_000_000L);
+    }
 }
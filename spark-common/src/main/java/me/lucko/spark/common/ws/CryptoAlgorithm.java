@@ -22,12 +22,17 @@ package me.lucko.spark.common.ws;
 
 import com.google.protobuf.ByteString;
 
+import javax.crypto.Cipher;
+import javax.crypto.spec.OAEPParameterSpec;
+import javax.crypto.spec.PSource;
+import java.security.GeneralSecurityException;
 import java.security.KeyFactory;
 import java.security.KeyPair;
 import java.security.KeyPairGenerator;
 import java.security.NoSuchAlgorithmException;
 import java.security.PublicKey;
 import java.security.Signature;
+import java.security.spec.MGF1ParameterSpec;
 import java.security.spec.X509EncodedKeySpec;
 
 /**
@@ -35,17 +40,22 @@ import java.security.spec.X509EncodedKeySpec;
  */
 public enum CryptoAlgorithm {
 
-    Ed25519("Ed25519", 255, "Ed25519"),
-    RSA2048("RSA", 2048, "SHA256withRSA");
+    Ed25519("Ed25519", 255, "Ed25519", null),
+    RSA2048("RSA", 2048, "SHA256withRSA", "RSA/ECB/OAEPPadding");
+
+    /** The OAEP parameters, matching those used by the WebCrypto RSA-OAEP algorithm with SHA-256 */
+    private static final OAEPParameterSpec OAEP_SHA256 = new OAEPParameterSpec("SHA-256", "MGF1", MGF1ParameterSpec.SHA256, PSource.PSpecified.DEFAULT);
 
     private final String keyAlgorithm;
     private final int keySize;
     private final String signatureAlgorithm;
+    private final String cipherAlgorithm;
 
-    CryptoAlgorithm(String keyAlgorithm, int keySize, String signatureAlgorithm) {
+    CryptoAlgorithm(String keyAlgorithm, int keySize, String signatureAlgorithm, String cipherAlgorithm) {
         this.keyAlgorithm = keyAlgorithm;
         this.keySize = keySize;
         this.signatureAlgorithm = signatureAlgorithm;
+        this.cipherAlgorithm = cipherAlgorithm;
     }
 
     public KeyPairGenerator createKeyPairGenerator() throws NoSuchAlgorithmException {
@@ -60,6 +70,24 @@ public enum CryptoAlgorithm {
         return Signature.getInstance(this.signatureAlgorithm);
     }
 
+    /**
+     * Encrypts a (small) piece of data so that it can only be read by the holder of the
+     * private key corresponding to the given public key.
+     *
+     * @param publicKey the public key
+     * @param data the data to encrypt
+     * @return the encrypted data
+     * @throws GeneralSecurityException if the data could not be encrypted
+     */
+    public byte[] encrypt(PublicKey publicKey, byte[] data) throws GeneralSecurityException {
+        if (this.cipherAlgorithm == null) {
+            throw new NoSuchAlgorithmException(name() + " does not support encryption");
+        }
+        Cipher cipher = Cipher.getInstance(this.cipherAlgorithm);
+        cipher.init(Cipher.ENCRYPT_MODE, publicKey, OAEP_SHA256);
+        return cipher.doFinal(data);
+    }
+
     public KeyPair generateKeyPair() {
         try {
             KeyPairGenerator generator = createKeyPairGenerator();
@@ -22,11 +22,11 @@ package me.lucko.spark.common.ws;
 
 import me.lucko.bytesocks.client.BytesocksClient;
 import me.lucko.spark.common.SparkPlatform;
-import me.lucko.spark.common.monitor.Metrics;
 import me.lucko.spark.common.util.SparkScheduledThreadPoolExecutor;
 import me.lucko.spark.common.util.SparkThreadFactory;
 import me.lucko.spark.proto.SparkProtos;
 
+import java.util.Collections;
 import java.util.concurrent.ScheduledExecutorService;
 import java.util.concurrent.TimeUnit;
 import java.util.logging.Level;
@@ -56,11 +56,8 @@ public class HealthReportViewerSocket extends ViewerSocket {
             return;
         }
 
-        SparkProtos.PlatformStatistics platform = this.platform.getStatisticsProvider().getPlatformStatistics(this.platform.getStartupGcStatistics(), false);
-        SparkProtos.SystemStatistics system = this.platform.getStatisticsProvider().getSystemStatistics();
-        SparkProtos.Metrics metrics = Metrics.exportProto();
-
-        sendUpdatedStatistics(platform, system, metrics);
+        SparkProtos.PlatformStatistics platform = this.platform.getStatisticsProvider().getPlatformStatistics(this.platform.getStartupGcStatistics(), false, false);
+        broadcastUpdatedStatistics(this.platform, platform, Collections.singletonList(this));
     }
 
     @Override
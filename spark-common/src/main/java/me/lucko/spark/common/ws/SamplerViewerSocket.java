@@ -24,12 +24,8 @@ import me.lucko.bytesocks.client.BytesocksClient;
 import me.lucko.spark.common.SparkPlatform;
 import me.lucko.spark.common.sampler.AbstractSampler;
 import me.lucko.spark.common.sampler.Sampler;
-import me.lucko.spark.common.util.MediaTypes;
-import me.lucko.spark.proto.SparkSamplerProtos;
 import me.lucko.spark.proto.SparkWebSocketProtos;
 
-import java.util.logging.Level;
-
 /**
  * Represents a 'sampler' connection with the spark viewer.
  */
@@ -44,22 +40,12 @@ public class SamplerViewerSocket extends ViewerSocket {
     }
 
     /**
-     * Called each time the sampler rotates to a new window.
+     * Gets the export props to use when exporting the sampler data for this socket.
      *
-     * @param sampler the sampler
+     * @return the export props
      */
-    public void processWindowRotate(AbstractSampler sampler) {
-        if (checkShouldClose()) {
-            return;
-        }
-
-        try {
-            SparkSamplerProtos.SamplerData samplerData = sampler.toProto(this.platform, this.exportProps);
-            String key = this.platform.getBytebinClient().postContent(samplerData, MediaTypes.SPARK_SAMPLER_MEDIA_TYPE, "live").key();
-            sendUpdatedSamplerData(key);
-        } catch (Exception e) {
-            this.platform.getPlugin().log(Level.WARNING, "Error whilst sending updated sampler data to the socket", e);
-        }
+    public Sampler.ExportProps getExportProps() {
+        return this.exportProps;
     }
 
     /**
@@ -78,13 +64,15 @@ public class SamplerViewerSocket extends ViewerSocket {
     /**
      * Sends a message to the socket to indicate that updated sampler data is available
      *
-     * @param payloadId the payload id of the updated data
+     * @param update the update
+     * @param packet the update, prepared using {@link ViewerSocketConnection#prepare}
      */
-    public void sendUpdatedSamplerData(String payloadId) {
-        this.socket.sendPacket(builder -> builder.setServerUpdateSampler(SparkWebSocketProtos.ServerUpdateSamplerData.newBuilder()
-                .setPayloadId(payloadId)
-                .build()
-        ));
-        setLastPayloadId(payloadId);
+    public void sendUpdatedSamplerData(SparkWebSocketProtos.ServerUpdateSamplerData update, ViewerSocketConnection.PreparedPacket packet) {
+        this.socket.sendPacket(packet);
+        if (update.getBasePayloadId().isEmpty()) {
+            setLastPayloadId(update.getPayloadId());
+        } else {
+            setLastDeltaPayload(update);
+        }
     }
 }
@@ -0,0 +1,178 @@
+/*
+ * This file is part of spark.
+ *
+ *  Copyright (c) lucko (Luck) <luck@lucko.me>
+ *  Copyright (c) contributors
+ *
+ *  This program is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package me.lucko.spark.common.ws;
+
+import me.lucko.spark.common.SparkPlatform;
+import me.lucko.spark.common.sampler.AbstractSampler;
+import me.lucko.spark.common.sampler.Sampler;
+import me.lucko.spark.common.sampler.window.ProfilingWindowUtils;
+import me.lucko.spark.common.sampler.window.SamplerDeltaEncoder;
+import me.lucko.spark.common.util.MediaTypes;
+import me.lucko.spark.proto.SparkSamplerProtos;
+import me.lucko.spark.proto.SparkWebSocketProtos.ServerUpdateSamplerData;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * The live sampler data uploaded for a group of {@link SamplerViewerSocket}s with
+ * equivalent {@link Sampler.ExportProps export props}.
+ *
+ * <p>The data is exported and uploaded once each time the sampler rotates to a new window,
+ * and the same payload is then sent to every socket in the group.</p>
+ */
+public class SamplerViewerUpload {
+
+    /** The maximum number of deltas to send before uploading the full data again */
+    private static final int MAX_DELTAS = 15;
+
+    /** The export props shared by the sockets in the group */
+    private final Sampler.ExportProps exportProps;
+    /** If the clients connected to the sockets in the group support sampler deltas */
+    private final boolean sendDeltas;
+
+    /** Encodes the changes since the last full upload */
+    private final SamplerDeltaEncoder deltaEncoder = new SamplerDeltaEncoder();
+    /** The payload id of the last full upload, if deltas are being sent */
+    private String basePayloadId = null;
+    /** The payload ids of the deltas sent since the last full upload */
+    private final List<String> deltaPayloadIds = new ArrayList<>();
+
+    private SamplerViewerUpload(Sampler.ExportProps exportProps, boolean sendDeltas) {
+        this.exportProps = exportProps;
+        this.sendDeltas = sendDeltas;
+    }
+
+    private boolean accepts(SamplerViewerSocket socket) {
+        return this.sendDeltas == socket.clientsSupportSamplerDeltas() && this.exportProps.isEquivalent(socket.getExportProps());
+    }
+
+    /**
+     * Assigns each socket to an upload with matching export props, creating new uploads
+     * as necessary and discarding any which no longer have any sockets.
+     *
+     * @param uploads the existing uploads, modified in place
+     * @param sockets the sockets
+     * @return the sockets assigned to each upload
+     */
+    public static Map<SamplerViewerUpload, List<SamplerViewerSocket>> assign(List<SamplerViewerUpload> uploads, Collection<SamplerViewerSocket> sockets) {
+        Map<SamplerViewerUpload, List<SamplerViewerSocket>> groups = new LinkedHashMap<>();
+        for (SamplerViewerSocket socket : sockets) {
+            SamplerViewerUpload upload = null;
+            for (SamplerViewerUpload existing : uploads) {
+                if (existing.accepts(socket)) {
+                    upload = existing;
+                    break;
+                }
+            }
+            if (upload == null) {
+                upload = new SamplerViewerUpload(socket.getExportProps(), socket.clientsSupportSamplerDeltas());
+                uploads.add(upload);
+            }
+            groups.computeIfAbsent(upload, u -> new ArrayList<>()).add(socket);
+        }
+
+        for (Iterator<SamplerViewerUpload> it = uploads.iterator(); it.hasNext(); ) {
+            if (!groups.containsKey(it.next())) {
+                it.remove();
+            }
+        }
+        return groups;
+    }
+
+    /**
+     * Exports and uploads the sampler data, and sends it to each of the given sockets.
+     *
+     * @param platform the platform
+     * @param sampler the sampler
+     * @param sockets the sockets in the group
+     * @throws Exception if an error occurs
+     */
+    public void processWindowRotate(SparkPlatform platform, AbstractSampler sampler, List<SamplerViewerSocket> sockets) throws Exception {
+        // each socket has its own channel, so data which is shared between sockets can't include it
+        Sampler.ExportProps exportProps = sockets.size() == 1
+                ? sockets.get(0).getExportProps()
+                : this.exportProps.copy().channelInfo(null);
+
+        ServerUpdateSamplerData update = upload(platform, sampler, exportProps);
+        if (update == null) {
+            return;
+        }
+
+        ViewerSocketConnection.PreparedPacket packet = ViewerSocketConnection.prepare(builder -> builder.setServerUpdateSampler(update));
+        for (SamplerViewerSocket socket : sockets) {
+            socket.sendUpdatedSamplerData(update, packet);
+        }
+    }
+
+    private ServerUpdateSamplerData upload(SparkPlatform platform, AbstractSampler sampler, Sampler.ExportProps exportProps) throws Exception {
+        if (this.sendDeltas && this.basePayloadId != null && this.deltaPayloadIds.size() < MAX_DELTAS) {
+            return uploadDelta(platform, sampler, exportProps);
+        }
+
+        int currentWindow = ProfilingWindowUtils.windowNow();
+        SparkSamplerProtos.SamplerData samplerData = sampler.toProto(platform, exportProps);
+        String key = platform.getBytebinClient().postContent(samplerData, MediaTypes.SPARK_SAMPLER_MEDIA_TYPE, "live").key();
+
+        this.deltaPayloadIds.clear();
+        if (this.sendDeltas) {
+            this.deltaEncoder.recordBase(samplerData, currentWindow);
+            this.basePayloadId = key;
+        } else {
+            this.basePayloadId = null;
+        }
+
+        return ServerUpdateSamplerData.newBuilder()
+                .setPayloadId(key)
+                .build();
+    }
+
+    /**
+     * Uploads the data for the windows which have completed since the last upload,
+     * as a delta on top of the last full upload.
+     *
+     * @param platform the platform
+     * @param sampler the sampler
+     * @param exportProps the export props
+     * @return the update, or null if there is nothing new to send
+     * @throws Exception if an error occurs
+     */
+    private ServerUpdateSamplerData uploadDelta(SparkPlatform platform, AbstractSampler sampler, Sampler.ExportProps exportProps) throws Exception {
+        SparkSamplerProtos.SamplerDataDelta delta = sampler.toDeltaProto(platform, exportProps, this.deltaEncoder);
+        if (delta == null) {
+            return null;
+        }
+
+        String key = platform.getBytebinClient().postContent(delta, MediaTypes.SPARK_SAMPLER_DELTA_MEDIA_TYPE, "live").key();
+        this.deltaPayloadIds.add(key);
+
+        return ServerUpdateSamplerData.newBuilder()
+                .setPayloadId(key)
+                .setBasePayloadId(this.basePayloadId)
+                .addAllDeltaPayloadIds(this.deltaPayloadIds)
+                .build();
+    }
+
+}
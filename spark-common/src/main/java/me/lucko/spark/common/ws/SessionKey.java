@@ -0,0 +1,102 @@
+/*
+ * This file is part of spark.
+ *
+ *  Copyright (c) lucko (Luck) <luck@lucko.me>
+ *  Copyright (c) contributors
+ *
+ *  This program is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package me.lucko.spark.common.ws;
+
+import javax.crypto.Mac;
+import javax.crypto.spec.SecretKeySpec;
+import java.nio.ByteBuffer;
+import java.security.GeneralSecurityException;
+import java.security.MessageDigest;
+import java.security.PublicKey;
+import java.security.SecureRandom;
+
+/**
+ * A symmetric key shared between the server and the trusted clients connected to a socket.
+ *
+ * <p>Packets are authenticated using HMAC-SHA256 with the session key, which is much cheaper
+ * than signing each packet with the server private key. The key is sent to each trusted client
+ * encrypted with the client's public key, so it can't be read by anyone else on the channel.</p>
+ */
+public final class SessionKey {
+
+    /** The MAC algorithm */
+    private static final String ALGORITHM = "HmacSHA256";
+    /** The length of the key, in bytes */
+    private static final int KEY_LENGTH = 32;
+
+    private static final SecureRandom RANDOM = new SecureRandom();
+
+    /**
+     * Generates a new random session key.
+     *
+     * @return the session key
+     */
+    public static SessionKey generate() {
+        byte[] key = new byte[KEY_LENGTH];
+        RANDOM.nextBytes(key);
+        return new SessionKey(key);
+    }
+
+    private final SecretKeySpec key;
+
+    SessionKey(byte[] key) {
+        this.key = new SecretKeySpec(key, ALGORITHM);
+    }
+
+    /**
+     * Computes the MAC of a message.
+     *
+     * @param message the message
+     * @return the mac
+     * @throws GeneralSecurityException if the mac could not be computed
+     */
+    public byte[] sign(ByteBuffer message) throws GeneralSecurityException {
+        Mac mac = Mac.getInstance(ALGORITHM);
+        mac.init(this.key);
+        mac.update(message);
+        return mac.doFinal();
+    }
+
+    /**
+     * Checks the MAC of a message.
+     *
+     * @param message the message
+     * @param signature the mac sent with the message
+     * @return true if the mac is valid
+     * @throws GeneralSecurityException if the mac could not be computed
+     */
+    public boolean verify(ByteBuffer message, byte[] signature) throws GeneralSecurityException {
+        return MessageDigest.isEqual(sign(message), signature);
+    }
+
+    /**
+     * Encrypts the session key so it can be sent to a client.
+     *
+     * @param algorithm the algorithm of the client's key
+     * @param publicKey the client's public key
+     * @return the encrypted key
+     * @throws GeneralSecurityException if the key could not be encrypted
+     */
+    public byte[] encrypt(CryptoAlgorithm algorithm, PublicKey publicKey) throws GeneralSecurityException {
+        return algorithm.encrypt(publicKey, this.key.getEncoded());
+    }
+
+}
@@ -0,0 +1,102 @@
+/*
+ * This file is part of spark.
+ *
+ *  Copyright (c) lucko (Luck) <luck@lucko.me>
+ *  Copyright (c) contributors
+ *
+ *  This program is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package me.lucko.spark.common.ws;
+
+import java.security.GeneralSecurityException;
+import java.security.PublicKey;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Keeps track of which of the clients connected to a socket have been sent the {@link SessionKey}.
+ *
+ * <p>The socket is a broadcast channel, so the session key can only be used once every client
+ * has it. Clients which connect before their public key is trusted are sent the session key
+ * later, when the key is trusted.</p>
+ */
+final class SessionKeyDistributor {
+
+    /** The session key */
+    private final SessionKey sessionKey;
+    /** The clients which support the session key, but are waiting to be trusted (client id -> public key) */
+    private final Map<String, PublicKey> pendingClients = new HashMap<>();
+    /** If a client which can't be sent the session key has connected */
+    private boolean unsupportedClient = false;
+
+    SessionKeyDistributor(SessionKey sessionKey) {
+        this.sessionKey = sessionKey;
+    }
+
+    /**
+     * Records that a client has connected to the socket.
+     *
+     * @param clientId the client id
+     * @param publicKey the client's public key
+     * @param supportsSessionKey if the client supports the session key
+     * @param trusted if the client's public key is trusted
+     * @return the session key encrypted for the client, or null if it can't be sent the key (yet)
+     * @throws GeneralSecurityException if the key could not be encrypted
+     */
+    synchronized byte[] onClientConnect(String clientId, PublicKey publicKey, boolean supportsSessionKey, boolean trusted) throws GeneralSecurityException {
+        if (!supportsSessionKey) {
+            this.unsupportedClient = true;
+            return null;
+        }
+        if (!trusted) {
+            this.pendingClients.put(clientId, publicKey);
+            return null;
+        }
+        return encrypt(publicKey);
+    }
+
+    /**
+     * Records that the public key of a client has been trusted.
+     *
+     * @param clientId the client id
+     * @return the session key encrypted for the client, or null if the client isn't waiting for it
+     * @throws GeneralSecurityException if the key could not be encrypted
+     */
+    synchronized byte[] onClientTrusted(String clientId) throws GeneralSecurityException {
+        PublicKey publicKey = this.pendingClients.remove(clientId);
+        if (publicKey == null) {
+            return null;
+        }
+        return encrypt(publicKey);
+    }
+
+    /**
+     * Gets if every client which has connected to the socket has been sent the session key.
+     *
+     * @return true if the session key can be used
+     */
+    synchronized boolean canUseSessionKey() {
+        return !this.unsupportedClient && this.pendingClients.isEmpty();
+    }
+
+    private byte[] encrypt(PublicKey publicKey) throws GeneralSecurityException {
+        try {
+            return this.sessionKey.encrypt(ViewerSocketConnection.CRYPTO, publicKey);
+        } catch (GeneralSecurityException e) {
+            this.unsupportedClient = true;
+            throw e;
+        }
+    }
+
+}
@@ -23,6 +23,7 @@ package me.lucko.spark.common.ws;
 import com.google.protobuf.ByteString;
 import me.lucko.bytesocks.client.BytesocksClient;
 import me.lucko.spark.common.SparkPlatform;
+import me.lucko.spark.common.monitor.Metrics;
 import me.lucko.spark.common.sampler.window.ProfilingWindowUtils;
 import me.lucko.spark.common.util.TimeUtil;
 import me.lucko.spark.proto.SparkProtos;
@@ -31,10 +32,16 @@ import me.lucko.spark.proto.SparkWebSocketProtos.ClientPing;
 import me.lucko.spark.proto.SparkWebSocketProtos.PacketWrapper;
 import me.lucko.spark.proto.SparkWebSocketProtos.ServerConnectResponse;
 import me.lucko.spark.proto.SparkWebSocketProtos.ServerPong;
+import me.lucko.spark.proto.SparkWebSocketProtos.ServerUpdateSamplerData;
 import me.lucko.spark.proto.SparkWebSocketProtos.ServerUpdateStatistics;
 
 import java.security.PublicKey;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.Map;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
 import java.util.logging.Level;
 
 /**
@@ -52,15 +59,23 @@ public abstract class ViewerSocket implements ViewerSocketConnection.Listener, A
     protected final SparkPlatform platform;
     /** The underlying connection */
     protected final ViewerSocketConnection socket;
+    /** Tracks which clients have been sent the session key */
+    private final SessionKeyDistributor sessionKeys;
 
     private boolean closed = false;
     private final long socketOpenTime = TimeUtil.monotonicCurrentTimeMillis();
     private long lastPing = 0;
     private String lastPayloadId = null;
+    private ServerUpdateSamplerData lastDeltaPayload = null;
+    private volatile boolean clientsSupportSamplerDeltas = true;
+    private volatile boolean clientsSupportStatisticsDeltas = true;
+    /** Describes the metrics already sent to the socket - reset whenever a new client connects */
+    private final AtomicReference<Metrics.Cursor> statisticsCursor = new AtomicReference<>(new Metrics.Cursor());
 
     protected ViewerSocket(SparkPlatform platform, BytesocksClient client) throws Exception {
         this.platform = platform;
         this.socket = new ViewerSocketConnection(platform, client, this);
+        this.sessionKeys = new SessionKeyDistributor(this.socket.getSessionKey());
     }
 
     protected void log(String message) {
@@ -123,6 +138,21 @@ public abstract class ViewerSocket implements ViewerSocketConnection.Listener, A
 
     public void setLastPayloadId(String lastPayloadId) {
         this.lastPayloadId = lastPayloadId;
+        this.lastDeltaPayload = null;
+    }
+
+    public void setLastDeltaPayload(ServerUpdateSamplerData lastDeltaPayload) {
+        this.lastPayloadId = lastDeltaPayload.getBasePayloadId();
+        this.lastDeltaPayload = lastDeltaPayload;
+    }
+
+    /**
+     * Gets if all of the clients which have connected to the socket support sampler deltas.
+     *
+     * @return true if deltas can be sent
+     */
+    public boolean clientsSupportSamplerDeltas() {
+        return this.clientsSupportSamplerDeltas;
     }
 
     @Override
@@ -133,14 +163,27 @@ public abstract class ViewerSocket implements ViewerSocketConnection.Listener, A
     /**
      * Sends a message to the socket to say that the given client is now trusted.
      *
+     * <p>If the client connected to this socket before it was trusted, the message includes
+     * the session key.</p>
+     *
      * @param clientId the client id
      */
     public void sendClientTrustedMessage(String clientId) {
-        this.socket.sendPacket(builder -> builder.setServerConnectResponse(ServerConnectResponse.newBuilder()
+        ServerConnectResponse.Builder resp = ServerConnectResponse.newBuilder()
                 .setClientId(clientId)
-                .setState(ServerConnectResponse.State.ACCEPTED)
-                .build()
-        ));
+                .setState(ServerConnectResponse.State.ACCEPTED);
+
+        try {
+            byte[] sessionKey = this.sessionKeys.onClientTrusted(clientId);
+            if (sessionKey != null) {
+                resp.setSessionKey(ByteString.copyFrom(sessionKey));
+            }
+        } catch (Exception e) {
+            this.platform.getPlugin().log(Level.WARNING, "Unable to encrypt session key for client " + clientId, e);
+        }
+
+        this.socket.sendSignedPacket(builder -> builder.setServerConnectResponse(resp.build()));
+        this.socket.setUseSessionKey(this.sessionKeys.canUseSessionKey());
     }
 
     /**
@@ -151,14 +194,106 @@ public abstract class ViewerSocket implements ViewerSocketConnection.Listener, A
      * @param metrics the metrics
      */
     public void sendUpdatedStatistics(SparkProtos.PlatformStatistics platform, SparkProtos.SystemStatistics system, SparkProtos.Metrics metrics) {
-        this.socket.sendPacket(builder -> builder.setServerUpdateStatistics(ServerUpdateStatistics.newBuilder()
+        sendUpdatedStatistics(prepareUpdatedStatistics(platform, system, metrics));
+    }
+
+    /**
+     * Sends a message to the socket with updated statistics
+     *
+     * @param packet the message, prepared using {@link #prepareUpdatedStatistics}
+     */
+    public void sendUpdatedStatistics(ViewerSocketConnection.PreparedPacket packet) {
+        this.socket.sendPacket(packet);
+    }
+
+    /**
+     * Prepares a message with updated statistics, so that it can be sent to multiple sockets.
+     *
+     * @param platform the platform statistics
+     * @param system the system statistics
+     * @param metrics the metrics
+     * @return the prepared message
+     */
+    public static ViewerSocketConnection.PreparedPacket prepareUpdatedStatistics(SparkProtos.PlatformStatistics platform, SparkProtos.SystemStatistics system, SparkProtos.Metrics metrics) {
+        return prepareUpdatedStatistics(platform, system, metrics, false);
+    }
+
+    private static ViewerSocketConnection.PreparedPacket prepareUpdatedStatistics(SparkProtos.PlatformStatistics platform, SparkProtos.SystemStatistics system, SparkProtos.Metrics metrics, boolean delta) {
+        return ViewerSocketConnection.prepare(builder -> builder.setServerUpdateStatistics(ServerUpdateStatistics.newBuilder()
                 .setPlatform(platform)
                 .setSystem(system)
                 .setMetrics(metrics)
+                .setDelta(delta)
                 .build()
         ));
     }
 
+    /**
+     * Sends a message with updated statistics to each of the given sockets.
+     *
+     * <p>Sockets whose clients support statistics deltas are sent the full metrics history once,
+     * and then only the points recorded since the previous update. The statistics are exported
+     * once for each group of sockets at the same position in the stream.</p>
+     *
+     * @param platform the spark platform
+     * @param platformStatistics the platform statistics
+     * @param sockets the sockets
+     */
+    public static void broadcastUpdatedStatistics(SparkPlatform platform, SparkProtos.PlatformStatistics platformStatistics, Collection<? extends ViewerSocket> sockets) {
+        // cursor -> (socket -> the cursor instance read from the socket)
+        Map<Metrics.Cursor, Map<ViewerSocket, Metrics.Cursor>> groups = new HashMap<>();
+        for (ViewerSocket socket : sockets) {
+            Metrics.Cursor cursor = socket.getStatisticsCursor();
+            groups.computeIfAbsent(cursor, c -> new IdentityHashMap<>()).put(socket, cursor);
+        }
+
+        SparkProtos.SystemStatistics fullSystem = null;
+        SparkProtos.SystemStatistics deltaSystem = null;
+
+        for (Map.Entry<Metrics.Cursor, Map<ViewerSocket, Metrics.Cursor>> group : groups.entrySet()) {
+            Metrics.Cursor since = group.getKey();
+            Metrics.Cursor next = new Metrics.Cursor();
+            boolean delta = !since.isEmpty();
+
+            SparkProtos.SystemStatistics system;
+            if (delta) {
+                if (deltaSystem == null) {
+                    deltaSystem = platform.getStatisticsProvider().getSystemStatistics(false);
+                }
+                system = deltaSystem;
+            } else {
+                if (fullSystem == null) {
+                    fullSystem = platform.getStatisticsProvider().getSystemStatistics(true);
+                }
+                system = fullSystem;
+            }
+
+            SparkProtos.Metrics metrics = Metrics.exportProto(since, next);
+            ViewerSocketConnection.PreparedPacket packet = prepareUpdatedStatistics(platformStatistics, system, metrics, delta);
+
+            group.getValue().forEach((socket, cursor) -> {
+                socket.sendUpdatedStatistics(packet);
+                socket.advanceStatisticsCursor(cursor, next);
+            });
+        }
+    }
+
+    /**
+     * Gets a cursor describing the metrics which have already been sent to the socket.
+     *
+     * @return the cursor, empty if the next update should contain the full history
+     */
+    private Metrics.Cursor getStatisticsCursor() {
+        return this.clientsSupportStatisticsDeltas ? this.statisticsCursor.get() : new Metrics.Cursor();
+    }
+
+    private void advanceStatisticsCursor(Metrics.Cursor expected, Metrics.Cursor next) {
+        // if a client has connected since the cursor was read, it still needs the full history
+        if (this.clientsSupportStatisticsDeltas) {
+            this.statisticsCursor.compareAndSet(expected, next);
+        }
+    }
+
     @Override
     public void onPacket(PacketWrapper packet, boolean verified, PublicKey publicKey) throws Exception {
         switch (packet.getPacketCase()) {
@@ -200,20 +335,47 @@ public abstract class ViewerSocket implements ViewerSocketConnection.Listener, A
                         .build()
                 );
 
+        if (!packet.getSupportsSamplerDeltas()) {
+            this.clientsSupportSamplerDeltas = false;
+        }
+        if (!packet.getSupportsStatisticsDeltas()) {
+            this.clientsSupportStatisticsDeltas = false;
+        }
+        this.statisticsCursor.set(new Metrics.Cursor());
+
         if (this.lastPayloadId != null) {
             resp.setLastPayloadId(this.lastPayloadId);
         }
+        if (this.lastDeltaPayload != null && packet.getSupportsSamplerDeltas()) {
+            resp.setLastPayload(this.lastDeltaPayload);
+        }
 
         if (this.closed) {
             resp.setState(ServerConnectResponse.State.REJECTED);
-        } else if (verified) {
-            resp.setState(ServerConnectResponse.State.ACCEPTED);
         } else {
-            resp.setState(ServerConnectResponse.State.UNTRUSTED);
-            this.platform.getTrustedKeyStore().addPendingKey(clientId, publicKey);
+            if (verified) {
+                resp.setState(ServerConnectResponse.State.ACCEPTED);
+            } else {
+                resp.setState(ServerConnectResponse.State.UNTRUSTED);
+                this.platform.getTrustedKeyStore().addPendingKey(clientId, publicKey);
+            }
+
+            // untrusted clients are sent the session key once they are trusted
+            try {
+                byte[] sessionKey = this.sessionKeys.onClientConnect(clientId, publicKey, packet.getSupportsSessionKey(), verified);
+                if (sessionKey != null) {
+                    resp.setSessionKey(ByteString.copyFrom(sessionKey));
+                }
+            } catch (Exception e) {
+                this.platform.getPlugin().log(Level.WARNING, "Unable to encrypt session key for client " + clientId, e);
+            }
         }
 
-        this.socket.sendPacket(builder -> builder.setServerConnectResponse(resp.build()));
+        // clients which don't have the session key yet need to be able to read the response
+        this.socket.sendSignedPacket(builder -> builder.setServerConnectResponse(resp.build()));
+
+        // the socket is a broadcast channel, so the session key can only be used once every client has it
+        this.socket.setUseSessionKey(this.sessionKeys.canUseSessionKey());
     }
 
     private static String hashPublicKey(PublicKey publicKey) {
@@ -39,8 +39,10 @@ import java.util.logging.Level;
  */
 public class ViewerSocketConnection implements BytesocksClient.Listener, AutoCloseable {
 
-    /** The protocol version */
+    /** The protocol version where packets are signed using the server private key */
     public static final int VERSION_1 = 1;
+    /** The protocol version where packets are authenticated using a per-connection session key */
+    public static final int VERSION_2 = 2;
     /** The crypto algorithm used to sign/verify messages sent between the server and client */
     public static final CryptoAlgorithm CRYPTO = CryptoAlgorithm.RSA2048;
 
@@ -50,6 +52,10 @@ public class ViewerSocketConnection implements BytesocksClient.Listener, AutoClo
     private final Listener listener;
     /** The private key used to sign messages sent from this connection */
     private final PrivateKey privateKey;
+    /** The session key shared with trusted clients */
+    private final SessionKey sessionKey;
+    /** If outgoing packets should be authenticated using the session key */
+    private volatile boolean useSessionKey = false;
     /** The bytesocks socket */
     private final BytesocksClient.Socket socket;
 
@@ -57,6 +63,7 @@ public class ViewerSocketConnection implements BytesocksClient.Listener, AutoClo
         this.platform = platform;
         this.listener = listener;
         this.privateKey = platform.getTrustedKeyStore().getLocalPrivateKey();
+        this.sessionKey = SessionKey.generate();
         this.socket = client.createAndConnect(this);
     }
 
@@ -118,54 +125,91 @@ public class ViewerSocketConnection implements BytesocksClient.Listener, AutoClo
         //this.platform.getPlugin().log(Level.INFO, "Socket closed with status " + statusCode + " and reason " + reason);
     }
 
+    /**
+     * Gets the session key used to authenticate packets sent using protocol {@link #VERSION_2}.
+     *
+     * @return the session key
+     */
+    public SessionKey getSessionKey() {
+        return this.sessionKey;
+    }
+
+    /**
+     * Sets whether packets sent from this connection should be authenticated using the
+     * session key (protocol {@link #VERSION_2}) instead of being signed with the server
+     * private key (protocol {@link #VERSION_1}).
+     *
+     * <p>The socket is a broadcast channel, so this should only be enabled when every
+     * client connected to it has been sent the session key.</p>
+     *
+     * @param useSessionKey if the session key should be used
+     */
+    public void setUseSessionKey(boolean useSessionKey) {
+        this.useSessionKey = useSessionKey;
+    }
+
     /**
      * Sends a packet to the socket.
      *
      * @param packetBuilder the builder to construct the wrapper packet
      */
     public void sendPacket(Consumer<PacketWrapper.Builder> packetBuilder) {
-        PacketWrapper.Builder builder = PacketWrapper.newBuilder();
-        packetBuilder.accept(builder);
-        PacketWrapper wrapper = builder.build();
+        sendPacket(prepare(packetBuilder));
+    }
+
+    /**
+     * Sends a packet to the socket, forcing protocol {@link #VERSION_1}.
+     *
+     * <p>Used for packets which need to be readable by clients which have not (yet)
+     * been sent the session key.</p>
+     *
+     * @param packetBuilder the builder to construct the wrapper packet
+     */
+    public void sendSignedPacket(Consumer<PacketWrapper.Builder> packetBuilder) {
+        sendPacket(prepare(packetBuilder), false);
+    }
+
+    /**
+     * Sends a prepared packet to the socket.
+     *
+     * @param packet the packet to send
+     */
+    public void sendPacket(PreparedPacket packet) {
+        sendPacket(packet, this.useSessionKey);
+    }
 
+    private void sendPacket(PreparedPacket packet, boolean useSessionKey) {
         try {
-            sendPacket(wrapper);
+            String encoded = useSessionKey
+                    ? packet.encodeWithSessionKey(this.sessionKey)
+                    : packet.encodeSigned(this.privateKey);
+            this.socket.send(encoded);
         } catch (Exception e) {
             this.platform.getPlugin().log(Level.WARNING, "Exception occurred while sending data to the socket", e);
         }
     }
 
     /**
-     * Sends a packet to the socket.
+     * Prepares a packet so that it can be sent to any number of sockets, without
+     * being serialized or signed again for each one.
      *
-     * @param packet the packet to send
+     * @param packetBuilder the builder to construct the wrapper packet
+     * @return the prepared packet
      */
-    private void sendPacket(PacketWrapper packet) throws Exception {
-        ByteString msg = packet.toByteString();
-
-        // sign the message using the server private key
-        Signature sign = CRYPTO.createSignature();
-        sign.initSign(this.privateKey);
-        sign.update(msg.asReadOnlyByteBuffer());
-        byte[] signature = sign.sign();
-
-        sendRawPacket(RawPacket.newBuilder()
-                .setVersion(VERSION_1)
-                .setSignature(ByteString.copyFrom(signature))
-                .setMessage(msg)
-                .build()
-        );
+    public static PreparedPacket prepare(Consumer<PacketWrapper.Builder> packetBuilder) {
+        PacketWrapper.Builder builder = PacketWrapper.newBuilder();
+        packetBuilder.accept(builder);
+        return new PreparedPacket(builder.build().toByteString());
     }
 
     /**
-     * Sends a raw packet to the socket.
+     * Encodes a raw packet to be sent to the socket.
      *
-     * @param packet the packet to send
+     * @param packet the packet
+     * @return the encoded data
      */
-    private void sendRawPacket(RawPacket packet) throws IOException {
-        byte[] buf = packet.toByteArray();
-        String encoded = Base64.getEncoder().encodeToString(buf);
-        this.socket.send(encoded);
+    private static String encodeRawPacket(RawPacket packet) {
+        return Base64.getEncoder().encodeToString(packet.toByteArray());
     }
 
     /**
@@ -186,21 +230,27 @@ public class ViewerSocketConnection implements BytesocksClient.Listener, AutoClo
      */
     private void handleRawPacket(RawPacket packet) throws Exception {
         int version = packet.getVersion();
-        if (version != VERSION_1) {
-            throw new IllegalArgumentException("Unsupported packet version " + version);
-        }
-
         ByteString message = packet.getMessage();
-        PublicKey publicKey = CRYPTO.decodePublicKey(packet.getPublicKey());
-        ByteString signature = packet.getSignature();
 
+        PublicKey publicKey;
         boolean verified = false;
-        if (signature != null && publicKey != null && this.listener.isKeyTrusted(publicKey)) {
-            Signature sign = CRYPTO.createSignature();
-            sign.initVerify(publicKey);
-            sign.update(message.asReadOnlyByteBuffer());
+        if (version == VERSION_1) {
+            publicKey = CRYPTO.decodePublicKey(packet.getPublicKey());
+            ByteString signature = packet.getSignature();
 
-            verified = sign.verify(signature.toByteArray());
+            if (signature != null && publicKey != null && this.listener.isKeyTrusted(publicKey)) {
+                Signature sign = CRYPTO.createSignature();
+                sign.initVerify(publicKey);
+                sign.update(message.asReadOnlyByteBuffer());
+
+                verified = sign.verify(signature.toByteArray());
+            }
+        } else if (version == VERSION_2) {
+            // the session key is only shared with trusted clients
+            publicKey = null;
+            verified = this.sessionKey.verify(message.asReadOnlyByteBuffer(), packet.getSignature().toByteArray());
+        } else {
+            throw new IllegalArgumentException("Unsupported packet version " + version);
         }
 
         PacketWrapper wrapper = PacketWrapper.parseFrom(message);
@@ -211,4 +261,43 @@ public class ViewerSocketConnection implements BytesocksClient.Listener, AutoClo
     public void close() {
         this.socket.close(1001 /* going away */, "spark plugin disconnected");
     }
+
+    /**
+     * A serialized packet, which is signed (at most once) when it is first sent.
+     */
+    public static final class PreparedPacket {
+        private final ByteString message;
+        private String signed;
+
+        private PreparedPacket(ByteString message) {
+            this.message = message;
+        }
+
+        synchronized String encodeSigned(PrivateKey privateKey) throws Exception {
+            // the server private key is shared by all sockets, so the signature can be reused
+            if (this.signed == null) {
+                Signature sign = CRYPTO.createSignature();
+                sign.initSign(privateKey);
+                sign.update(this.message.asReadOnlyByteBuffer());
+                byte[] signature = sign.sign();
+
+                this.signed = encodeRawPacket(RawPacket.newBuilder()
+                        .setVersion(VERSION_1)
+                        .setSignature(ByteString.copyFrom(signature))
+                        .setMessage(this.message)
+                        .build()
+                );
+            }
+            return this.signed;
+        }
+
+        String encodeWithSessionKey(SessionKey sessionKey) throws Exception {
+            return encodeRawPacket(RawPacket.newBuilder()
+                    .setVersion(VERSION_2)
+                    .setSignature(ByteString.copyFrom(sessionKey.sign(this.message.asReadOnlyByteBuffer())))
+                    .setMessage(this.message)
+                    .build()
+            );
+        }
+    }
 }
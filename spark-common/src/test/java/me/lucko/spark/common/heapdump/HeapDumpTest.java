@@ -23,10 +23,15 @@ package me.lucko.spark.common.heapdump;
 import org.junit.jupiter.api.Test;
 import org.junit.jupiter.api.io.TempDir;
 
+import java.io.DataInputStream;
+import java.nio.charset.StandardCharsets;
 import java.nio.file.Files;
 import java.nio.file.Path;
+import java.util.zip.GZIPInputStream;
 
+import static org.junit.jupiter.api.Assertions.assertEquals;
 import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.junit.jupiter.api.Assumptions.assumeTrue;
 
 public class HeapDumpTest {
 
@@ -38,4 +43,19 @@ public class HeapDumpTest {
         Files.delete(file);
     }
 
+    @Test
+    public void testCompressedHeapDump(@TempDir Path tempDir) throws Exception {
+        assumeTrue(HeapDump.isCompressedDumpSupported());
+
+        Path file = tempDir.resolve("heapdump.hprof.gz");
+        HeapDump.dumpHeapCompressed(file, true, 1);
+
+        try (DataInputStream in = new DataInputStream(new GZIPInputStream(Files.newInputStream(file)))) {
+            byte[] header = new byte[12];
+            in.readFully(header);
+            assertEquals("JAVA PROFILE", new String(header, StandardCharsets.US_ASCII));
+        }
+        Files.delete(file);
+    }
+
 }
@@ -0,0 +1,77 @@
+/*
+ * This file is part of spark.
+ *
+ *  Copyright (c) lucko (Luck) <luck@lucko.me>
+ *  Copyright (c) contributors
+ *
+ *  This program is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package me.lucko.spark.common.heapdump;
+
+import me.lucko.spark.common.util.classfinder.FallbackClassFinder;
+import me.lucko.spark.proto.SparkHeapProtos;
+import me.lucko.spark.test.TestClass;
+import org.junit.jupiter.api.Test;
+
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+
+public class HeapSourcesTest {
+
+    @Test
+    public void testSources() {
+        AtomicInteger lookups = new AtomicInteger();
+        HeapSources sources = new HeapSources(clazz -> {
+            lookups.incrementAndGet();
+            return clazz == TestClass.class ? "test-plugin" : null;
+        }, FallbackClassFinder.INSTANCE);
+
+        sources.add(TestClass.class.getName(), 2, 32);
+        sources.add(TestClass.class.getName() + "[]", 1, 24);
+        sources.add(HeapSourcesTest.class.getName(), 1, 16);
+        sources.add("java.lang.String", 100, 2400);
+        sources.add("byte[]", 100, 10000);
+
+        // array types share the cached lookup for their element type, and JDK classes are skipped
+        assertEquals(2, lookups.get());
+
+        SparkHeapProtos.HeapData.Builder proto = SparkHeapProtos.HeapData.newBuilder();
+        sources.writeTo(proto);
+
+        assertEquals(1, proto.getClassSourcesCount());
+        assertEquals("test-plugin", proto.getClassSourcesMap().get(TestClass.class.getName()));
+
+        assertEquals(1, proto.getSourcesCount());
+        SparkHeapProtos.HeapSource source = proto.getSources(0);
+        assertEquals("test-plugin", source.getName());
+        assertEquals(2, source.getClasses());
+        assertEquals(3, source.getInstances());
+        assertEquals(56, source.getSize());
+    }
+
+    @Test
+    public void testIdentifySkipsUnresolvableNames() {
+        HeapSources sources = new HeapSources(clazz -> "test-plugin", className -> {
+            throw new AssertionError("should not be looked up: " + className);
+        });
+
+        assertNull(sources.identify("int[]"));
+        assertNull(sources.identify("java.util.HashMap$Node"));
+        assertNull(sources.identify("com.example.Foo$$Lambda/0x0000000800c0b000"));
+    }
+
+}
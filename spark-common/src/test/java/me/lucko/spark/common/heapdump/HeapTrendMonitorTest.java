@@ -0,0 +1,118 @@
+/*
+ * This file is part of spark.
+ *
+ *  Copyright (c) lucko (Luck) <luck@lucko.me>
+ *  Copyright (c) contributors
+ *
+ *  This program is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package me.lucko.spark.common.heapdump;
+
+import me.lucko.spark.proto.SparkHeapProtos;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+public class HeapTrendMonitorTest {
+
+    private static final long MB = 1024 * 1024;
+
+    private static HeapTrendMonitor createMonitor() {
+        HeapTrendMonitor monitor = new HeapTrendMonitor(null, TimeUnit.MINUTES.toMillis(5));
+        Random random = new Random(0);
+
+        long time = 1_000_000L;
+        for (int i = 0; i < 24; i++) {
+            List<HeapDumpSummary.Entry> entries = new ArrayList<>();
+            // grows by ~5MB per sample, with some noise from uncollected garbage
+            entries.add(new HeapDumpSummary.Entry(0, 1000 + i * 100, 50 * MB + i * 5 * MB + (long) (random.nextDouble() * MB), "com.example.Leak"));
+            // large, but not growing
+            entries.add(new HeapDumpSummary.Entry(0, 5000, 200 * MB + (long) (random.nextDouble() * 20 * MB), "byte[]"));
+            // growing steadily, but too slowly to matter
+            entries.add(new HeapDumpSummary.Entry(0, 10 + i, 1024 + i * 1024L, "com.example.Small"));
+            entries.sort(Comparator.comparingLong(HeapDumpSummary.Entry::getBytes).reversed());
+
+            monitor.record(time, entries);
+            time += TimeUnit.MINUTES.toMillis(5);
+        }
+        return monitor;
+    }
+
+    private static HeapTrendMonitor.Trend find(List<HeapTrendMonitor.Trend> trends, String type) {
+        return trends.stream().filter(trend -> trend.getType().equals(type)).findFirst().orElse(null);
+    }
+
+    @Test
+    public void testTrends() {
+        List<HeapTrendMonitor.Trend> trends = createMonitor().computeTrends();
+
+        HeapTrendMonitor.Trend leak = find(trends, "com.example.Leak");
+        assertNotNull(leak);
+        assertTrue(leak.isTrending());
+        assertEquals(60 * MB, leak.getGrowthRate(), 2 * MB); // 5MB every 5 minutes
+        assertTrue(leak.getRSquared() > 0.99);
+
+        HeapTrendMonitor.Trend stable = find(trends, "byte[]");
+        assertNotNull(stable);
+        assertFalse(stable.isTrending());
+
+        HeapTrendMonitor.Trend small = find(trends, "com.example.Small");
+        assertNotNull(small);
+        assertFalse(small.isTrending());
+    }
+
+    @Test
+    public void testNotEnoughSamples() {
+        HeapTrendMonitor monitor = new HeapTrendMonitor(null, TimeUnit.MINUTES.toMillis(5));
+        for (int i = 0; i < 5; i++) {
+            List<HeapDumpSummary.Entry> entries = new ArrayList<>();
+            entries.add(new HeapDumpSummary.Entry(0, 1000, 50 * MB + i * 50 * MB, "com.example.Leak"));
+            monitor.record(i * TimeUnit.MINUTES.toMillis(5), entries);
+        }
+
+        HeapTrendMonitor.Trend leak = find(monitor.computeTrends(), "com.example.Leak");
+        assertNotNull(leak);
+        assertFalse(leak.isTrending());
+    }
+
+    @Test
+    public void testProto() {
+        SparkHeapProtos.HeapTrend proto = createMonitor().toProto();
+        assertEquals(24, proto.getTimesCount());
+        assertEquals(1_000_000L, proto.getTimes(0));
+        assertEquals(TimeUnit.MINUTES.toMillis(5), proto.getTimes(1));
+
+        SparkHeapProtos.HeapClassTrend leak = proto.getClassesList().stream()
+                .filter(trend -> trend.getType().equals("com.example.Leak"))
+                .findFirst().orElse(null);
+        assertNotNull(leak);
+        assertTrue(leak.getTrending());
+        assertEquals(24, leak.getSizesCount());
+
+        // the sizes are delta encoded
+        long size = leak.getSizesList().stream().mapToLong(Long::longValue).sum();
+        assertTrue(size >= 50 * MB + 23 * 5 * MB && size < 50 * MB + 23 * 5 * MB + MB);
+    }
+
+}
@@ -0,0 +1,97 @@
+/*
+ * This file is part of spark.
+ *
+ *  Copyright (c) lucko (Luck) <luck@lucko.me>
+ *  Copyright (c) contributors
+ *
+ *  This program is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package me.lucko.spark.common.heapdump.analysis;
+
+import me.lucko.spark.common.heapdump.HeapDump;
+import me.lucko.spark.common.util.TemporaryFiles;
+import me.lucko.spark.proto.SparkHeapProtos;
+import me.lucko.spark.test.TestClass;
+import me.lucko.spark.test.plugin.TestCommandSender;
+import me.lucko.spark.test.plugin.TestSparkPlugin;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.nio.file.Path;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+public class HeapAnalysisTest {
+
+    private static TestClass[] testObjects;
+    private static byte[] largeArray;
+
+    @AfterEach
+    public void cleanup() {
+        testObjects = null;
+        largeArray = null;
+    }
+
+    @Test
+    public void testHeapAnalysis(@TempDir Path directory) throws Exception {
+        testObjects = new TestClass[]{new TestClass(), new TestClass()};
+        largeArray = new byte[16 * 1024 * 1024];
+
+        Path file = directory.resolve("heapdump.hprof");
+        HeapDump.dumpHeap(file, true);
+
+        HeapAnalysis analysis = HeapAnalysis.analyse(file, new TemporaryFiles(directory.resolve("tmp")), message -> {});
+        assertTrue(analysis.getReachableObjects() > 0);
+        assertTrue(analysis.getReachableSize() >= largeArray.length);
+
+        HeapAnalysis.ClassSize testClass = analysis.getClasses().stream()
+                .filter(size -> size.getType().equals(TestClass.class.getName()))
+                .findAny().orElse(null);
+        assertNotNull(testClass);
+        assertEquals(2, testClass.getInstances());
+        assertEquals(32, testClass.getShallowSize());
+
+        HeapAnalysis.Retainer retainer = analysis.getTopRetainers().stream()
+                .filter(r -> r.getType().equals("byte[]") && r.getRetainedSize() >= largeArray.length)
+                .findFirst().orElse(null);
+        assertNotNull(retainer);
+        assertFalse(retainer.getPath().isEmpty());
+        assertNotNull(retainer.getRootType());
+
+        HeapAnalysis.PathElement last = retainer.getPath().get(retainer.getPath().size() - 1);
+        assertEquals("byte[]", last.getType());
+        assertEquals("static largeArray", last.getReference());
+
+        SparkHeapProtos.HeapData proto;
+        try (TestSparkPlugin plugin = new TestSparkPlugin(directory)) {
+            proto = analysis.toProto(plugin.platform(), TestCommandSender.INSTANCE.toData());
+        }
+        assertTrue(proto.hasAnalysis());
+        assertEquals(analysis.getTopRetainers().size(), proto.getAnalysis().getTopRetainersCount());
+        assertEquals(analysis.getClasses().size(), proto.getEntriesCount());
+    }
+
+    @Test
+    public void testFormatClassName() {
+        assertEquals("java.lang.String", HprofGraph.formatClassName("java/lang/String"));
+        assertEquals("int[]", HprofGraph.formatClassName("[I"));
+        assertEquals("java.lang.String[][]", HprofGraph.formatClassName("[[Ljava/lang/String;"));
+    }
+
+}
@@ -0,0 +1,215 @@
+/*
+ * This file is part of spark.
+ *
+ *  Copyright (c) lucko (Luck) <luck@lucko.me>
+ *  Copyright (c) contributors
+ *
+ *  This program is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package me.lucko.spark.common.heapdump.analysis;
+
+import me.lucko.spark.common.heapdump.HeapDump;
+import me.lucko.spark.common.util.TemporaryFiles;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.DataOutputStream;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.UUID;
+import java.util.concurrent.ThreadLocalRandom;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+public class HprofRedactorTest {
+
+    private static String secretString;
+    private static byte[] largeArray;
+    private static SecretHolder secretHolder;
+    private static SecretSubclass secretSubclass;
+    private static UUID secretUuid;
+    private static InetAddress secretAddress;
+
+    @AfterEach
+    public void cleanup() {
+        secretString = null;
+        largeArray = null;
+        secretHolder = null;
+        secretSubclass = null;
+        secretUuid = null;
+        secretAddress = null;
+    }
+
+    @Test
+    public void testRedact(@TempDir Path directory) throws Exception {
+        secretString = new String("a very secret player name".toCharArray());
+        largeArray = new byte[4 * 1024 * 1024];
+        Arrays.fill(largeArray, (byte) 1);
+        secretHolder = new SecretHolder();
+
+        Path file = directory.resolve("heapdump.hprof");
+        HeapDump.dumpHeap(file, true);
+
+        byte[] secretBytes = secretString.getBytes(StandardCharsets.UTF_8);
+        byte[] secretFieldBytes = ByteBuffer.allocate(8).putLong(secretHolder.secret).array();
+        byte[] original = Files.readAllBytes(file);
+        assertTrue(contains(original, secretBytes));
+        assertTrue(contains(original, secretFieldBytes));
+
+        Path zeroed = directory.resolve("zeroed.hprof");
+        try (OutputStream out = Files.newOutputStream(zeroed)) {
+            HprofRedactor.redact(file, out, HprofRedactor.Mode.ZERO, name -> name.equals(SecretHolder.class.getName()), progress -> {});
+        }
+        byte[] zeroedBytes = Files.readAllBytes(zeroed);
+        assertFalse(contains(zeroedBytes, secretBytes));
+        assertFalse(contains(zeroedBytes, secretFieldBytes));
+
+        Path truncated = directory.resolve("truncated.hprof");
+        try (OutputStream out = Files.newOutputStream(truncated)) {
+            HprofRedactor.redact(file, out, HprofRedactor.Mode.TRUNCATE, null, progress -> {});
+        }
+        assertTrue(Files.size(truncated) < Files.size(file) - largeArray.length);
+
+        // the object graph should be unchanged
+        TemporaryFiles temporaryFiles = new TemporaryFiles(directory.resolve("tmp"));
+        HeapAnalysis originalAnalysis = HeapAnalysis.analyse(file, temporaryFiles, message -> {});
+        HeapAnalysis zeroedAnalysis = HeapAnalysis.analyse(zeroed, temporaryFiles, message -> {});
+        HeapAnalysis truncatedAnalysis = HeapAnalysis.analyse(truncated, temporaryFiles, message -> {});
+
+        assertEquals(originalAnalysis.getReachableObjects(), zeroedAnalysis.getReachableObjects());
+        assertEquals(originalAnalysis.getReachableSize(), zeroedAnalysis.getReachableSize());
+        assertEquals(originalAnalysis.getReachableObjects(), truncatedAnalysis.getReachableObjects());
+    }
+
+    @Test
+    public void testRedactSensitiveTypesAndSubclasses(@TempDir Path directory) throws Exception {
+        secretSubclass = new SecretSubclass();
+        secretUuid = new UUID(ThreadLocalRandom.current().nextLong() | Long.MIN_VALUE, ThreadLocalRandom.current().nextLong() | Long.MIN_VALUE);
+        byte[] address = {(byte) 203, (byte) 0, (byte) 113, (byte) 77};
+        secretAddress = InetAddress.getByAddress(address);
+
+        Path file = directory.resolve("heapdump.hprof");
+        HeapDump.dumpHeap(file, true);
+
+        byte[] inheritedFieldBytes = ByteBuffer.allocate(8).putLong(secretSubclass.secret).array();
+        byte[] ownFieldBytes = ByteBuffer.allocate(8).putLong(secretSubclass.otherSecret).array();
+        byte[] uuidMostBytes = ByteBuffer.allocate(8).putLong(secretUuid.getMostSignificantBits()).array();
+        byte[] uuidLeastBytes = ByteBuffer.allocate(8).putLong(secretUuid.getLeastSignificantBits()).array();
+        byte[] original = Files.readAllBytes(file);
+        assertTrue(contains(original, inheritedFieldBytes));
+        assertTrue(contains(original, ownFieldBytes));
+        assertTrue(contains(original, uuidMostBytes));
+        assertTrue(contains(original, uuidLeastBytes));
+
+        // the filter only selects the superclass, the JDK types are redacted without being selected
+        Path zeroed = directory.resolve("zeroed.hprof");
+        try (OutputStream out = Files.newOutputStream(zeroed)) {
+            HprofRedactor.redact(file, out, HprofRedactor.Mode.ZERO, name -> name.equals(SecretBase.class.getName()), progress -> {});
+        }
+        byte[] zeroedBytes = Files.readAllBytes(zeroed);
+        assertFalse(contains(zeroedBytes, inheritedFieldBytes));
+        assertFalse(contains(zeroedBytes, ownFieldBytes));
+        assertFalse(contains(zeroedBytes, uuidMostBytes));
+        assertFalse(contains(zeroedBytes, uuidLeastBytes));
+
+        // 4 bytes could also appear by chance, so check that at least the address field was removed
+        assertTrue(count(zeroedBytes, address) < count(original, address));
+    }
+
+    @Test
+    public void testRedactInstanceOfUnknownClass(@TempDir Path directory) throws Exception {
+        byte[] secretFieldBytes = ByteBuffer.allocate(8).putLong(0x5EC12E75EC12E7L).array();
+
+        // a dump containing a single instance, whose class dump is missing
+        Path file = directory.resolve("heapdump.hprof");
+        try (DataOutputStream out = new DataOutputStream(Files.newOutputStream(file))) {
+            out.write("JAVA PROFILE 1.0.2\0".getBytes(StandardCharsets.US_ASCII));
+            out.writeInt(8); // id size
+            out.writeLong(0); // timestamp
+
+            out.writeByte(HprofTypes.TAG_HEAP_DUMP_SEGMENT);
+            out.writeInt(0); // time
+            out.writeInt(1 + 8 + 4 + 8 + 4 + secretFieldBytes.length);
+            out.writeByte(HprofTypes.INSTANCE_DUMP);
+            out.writeLong(1); // object id
+            out.writeInt(0); // stack trace serial number
+            out.writeLong(2); // class id
+            out.writeInt(secretFieldBytes.length);
+            out.write(secretFieldBytes);
+        }
+
+        Path zeroed = directory.resolve("zeroed.hprof");
+        try (OutputStream out = Files.newOutputStream(zeroed)) {
+            HprofRedactor.redact(file, out, HprofRedactor.Mode.ZERO, null, progress -> {});
+        }
+        byte[] zeroedBytes = Files.readAllBytes(zeroed);
+        assertFalse(contains(zeroedBytes, secretFieldBytes));
+        assertEquals(Files.size(file), zeroedBytes.length);
+    }
+
+    private static int count(byte[] haystack, byte[] needle) {
+        int count = 0;
+        for (int i = 0; i <= haystack.length - needle.length; i++) {
+            if (matches(haystack, i, needle)) {
+                count++;
+            }
+        }
+        return count;
+    }
+
+    private static boolean matches(byte[] haystack, int offset, byte[] needle) {
+        for (int j = 0; j < needle.length; j++) {
+            if (haystack[offset + j] != needle[j]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static boolean contains(byte[] haystack, byte[] needle) {
+        outer:
+        for (int i = 0; i <= haystack.length - needle.length; i++) {
+            for (int j = 0; j < needle.length; j++) {
+                if (haystack[i + j] != needle[j]) {
+                    continue outer;
+                }
+            }
+            return true;
+        }
+        return false;
+    }
+
+    private static final class SecretHolder {
+        private final long secret = ThreadLocalRandom.current().nextLong() | Long.MIN_VALUE;
+        private final Object reference = new Object();
+    }
+
+    private static class SecretBase {
+        protected final long secret = ThreadLocalRandom.current().nextLong() | Long.MIN_VALUE;
+    }
+
+    private static final class SecretSubclass extends SecretBase {
+        private final long otherSecret = ThreadLocalRandom.current().nextLong() | Long.MIN_VALUE;
+    }
+
+}
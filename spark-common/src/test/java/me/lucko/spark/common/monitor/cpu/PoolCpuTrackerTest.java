@@ -0,0 +1,97 @@
+/*
+ * This file is part of spark.
+ *
+ *  Copyright (c) lucko (Luck) <luck@lucko.me>
+ *  Copyright (c) contributors
+ *
+ *  This program is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+
+package me.lucko.spark.common.monitor.cpu;
+
+import org.junit.jupiter.api.Test;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.junit.jupiter.api.Assumptions.assumeTrue;
+
+public class PoolCpuTrackerTest {
+
+    private static final long SPIN_NANOS = 200_000_000L; // 200ms
+
+    @Test
+    public void testPoolCpuUsage() throws Exception {
+        ThreadMXBean bean = ManagementFactory.getThreadMXBean();
+        assumeTrue(bean.isThreadCpuTimeSupported() && bean.isThreadCpuTimeEnabled());
+        PoolCpuTracker tracker = new PoolCpuTracker(bean);
+
+        CountDownLatch started = new CountDownLatch(2);
+        CountDownLatch spin = new CountDownLatch(1);
+        CountDownLatch spun = new CountDownLatch(2);
+        CountDownLatch finish = new CountDownLatch(1);
+        List<Thread> threads = new ArrayList<>();
+        for (int i = 1; i <= 2; i++) {
+            Thread thread = new Thread(() -> {
+                started.countDown();
+                try {
+                    spin.await();
+                    long start = bean.getCurrentThreadCpuTime();
+                    while (bean.getCurrentThreadCpuTime() - start < SPIN_NANOS) {
+                        // busy
+                    }
+                    spun.countDown();
+                    finish.await();
+                } catch (InterruptedException e) {
+                    // ignore
+                }
+            }, "Cpu Test Pool #" + i);
+            thread.setDaemon(true);
+            thread.start();
+            threads.add(thread);
+        }
+
+        started.await();
+        tracker.poll(0, -1);
+        assertTrue(tracker.getPools().isEmpty());
+
+        spin.countDown();
+        spun.await();
+        tracker.poll(1000, 1000);
+
+        PoolCpuTracker.PoolCpuUsage pool = tracker.getPools().stream()
+                .filter(p -> p.name().equals("Cpu Test Pool"))
+                .findFirst().orElse(null);
+        assertNotNull(pool);
+        assertEquals(2, pool.threads());
+        assertTrue(pool.cores10Sec() >= 0.4); // 2 * 200ms in 1s
+        assertEquals(pool.cores10Sec(), pool.cores1Min(), 1e-9);
+
+        // once the threads have died, the pool is forgotten
+        finish.countDown();
+        for (Thread thread : threads) {
+            thread.join();
+        }
+        tracker.poll(2000, 1000);
+        assertTrue(tracker.getPools().stream().noneMatch(p -> p.name().equals("Cpu Test Pool")));
+    }
+
+}
@@ -0,0 +1,67 @@
+/*
+ * This file is part of spark.
+ *
+ *  Copyright (c) lucko (Luck) <luck@lucko.me>
+ *  Copyright (c) contributors
+ *
+ *  This program is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package me.lucko.spark.common.monitor.memory;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+public class NativeMemoryInfoTest {
+
+    @Test
+    public void testPoll() {
+        NativeMemoryInfo info = NativeMemoryInfo.poll(true);
+        assertNotNull(info.getDirectBuffers());
+        assertNotNull(info.getMetaspace());
+        assertNotNull(info.getCodeCache());
+        assertNotNull(info.getNativeMemoryTracking());
+    }
+
+    @Test
+    public void testParseNativeMemoryTracking() {
+        String output = "\n" +
+                "Native Memory Tracking:\n" +
+                "\n" +
+                "Total: reserved=3013543KB, committed=136059KB\n" +
+                "-                 Java Heap (reserved=1540096KB, committed=96256KB)\n" +
+                "                            (mmap: reserved=1540096KB, committed=96256KB) \n" +
+                " \n" +
+                "-                     Class (reserved=1048714KB, committed=522KB)\n" +
+                "                            (classes #758)\n" +
+                "-                    Thread (reserved=13348KB, committed=704KB)\n";
+
+        Map<String, NativeMemoryInfo.NmtCategory> categories = NativeMemoryInfo.parseNativeMemoryTracking(output);
+        assertEquals(3, categories.size());
+        assertEquals(1540096L * 1024, categories.get("Java Heap").getReserved());
+        assertEquals(96256L * 1024, categories.get("Java Heap").getCommitted());
+        assertEquals(704L * 1024, categories.get("Thread").getCommitted());
+    }
+
+    @Test
+    public void testParseNativeMemoryTrackingDisabled() {
+        assertTrue(NativeMemoryInfo.parseNativeMemoryTracking("Native memory tracking is not enabled\n").isEmpty());
+    }
+
+}
@@ -0,0 +1,133 @@
+/*
+ * This file is part of spark.
+ *
+ *  Copyright (c) lucko (Luck) <luck@lucko.me>
+ *  Copyright (c) contributors
+ *
+ *  This program is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package me.lucko.spark.common.monitor.memory;
+
+import com.sun.management.ThreadMXBean;
+import me.lucko.spark.common.monitor.Metrics;
+import org.junit.jupiter.api.Test;
+
+import java.lang.management.ManagementFactory;
+import java.util.concurrent.CountDownLatch;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.junit.jupiter.api.Assumptions.assumeTrue;
+
+public class PoolAllocationTrackerTest {
+
+    @Test
+    public void testPoolAllocation() throws Exception {
+        assumeTrue(MemoryAllocationInfo.SUPPORTED);
+        PoolAllocationTracker tracker = new PoolAllocationTracker((ThreadMXBean) ManagementFactory.getThreadMXBean());
+
+        CountDownLatch started = new CountDownLatch(2);
+        CountDownLatch allocate = new CountDownLatch(1);
+        CountDownLatch allocated = new CountDownLatch(2);
+        for (int i = 1; i <= 2; i++) {
+            Thread thread = new Thread(() -> {
+                started.countDown();
+                try {
+                    allocate.await();
+                    for (int j = 0; j < 64; j++) {
+                        byte[] garbage = new byte[1024 * 1024];
+                        garbage[j] = 1;
+                    }
+                    allocated.countDown();
+                    Thread.sleep(10_000);
+                } catch (InterruptedException e) {
+                    // ignore
+                }
+            }, "Allocation Test Pool #" + i);
+            thread.setDaemon(true);
+            thread.start();
+        }
+
+        started.await();
+        tracker.poll(0, -1);
+        assertTrue(tracker.getPools().isEmpty());
+
+        allocate.countDown();
+        allocated.await();
+        tracker.poll(1000, 1000);
+
+        PoolAllocationTracker.PoolAllocation pool = tracker.getPools().stream()
+                .filter(p -> p.name().equals("Allocation Test Pool"))
+                .findFirst().orElse(null);
+        assertNotNull(pool);
+        assertEquals(2, pool.threads());
+        assertTrue(pool.bytesPerSecond1Min() >= 2 * 64 * 1024 * 1024);
+    }
+
+    @Test
+    public void testIdlePoolIsKept() throws Exception {
+        assumeTrue(MemoryAllocationInfo.SUPPORTED);
+        PoolAllocationTracker tracker = new PoolAllocationTracker((ThreadMXBean) ManagementFactory.getThreadMXBean());
+
+        CountDownLatch started = new CountDownLatch(1);
+        CountDownLatch allocate = new CountDownLatch(1);
+        CountDownLatch allocated = new CountDownLatch(1);
+        CountDownLatch finish = new CountDownLatch(1);
+        Thread thread = new Thread(() -> {
+            started.countDown();
+            try {
+                allocate.await();
+                for (int j = 0; j < 16; j++) {
+                    byte[] garbage = new byte[1024 * 1024];
+                    garbage[j] = 1;
+                }
+                allocated.countDown();
+                finish.await();
+            } catch (InterruptedException e) {
+                // ignore
+            }
+        }, "Idle Test Pool #1");
+        thread.setDaemon(true);
+        thread.start();
+
+        started.await();
+        tracker.poll(1000, -1);
+
+        allocate.countDown();
+        allocated.await();
+        tracker.poll(2000, 1000);
+        assertNotNull(Metrics.MEMORY_ALLOCATION_BY_POOL.get("Idle Test Pool"));
+
+        finish.countDown();
+        thread.join();
+
+        // the thread has died, but the pool (and its history) is kept while it is idle
+        tracker.poll(3000, 1000);
+        PoolAllocationTracker.PoolAllocation pool = tracker.getPools().stream()
+                .filter(p -> p.name().equals("Idle Test Pool"))
+                .findFirst().orElse(null);
+        assertNotNull(pool);
+        assertEquals(0, pool.threads());
+        assertNotNull(Metrics.MEMORY_ALLOCATION_BY_POOL.get("Idle Test Pool"));
+
+        // once it has been idle for longer than the retention period, it is forgotten
+        tracker.poll(3000 + Metrics.RETENTION.toMillis(), 1000);
+        assertTrue(tracker.getPools().stream().noneMatch(p -> p.name().equals("Idle Test Pool")));
+        assertNull(Metrics.MEMORY_ALLOCATION_BY_POOL.get("Idle Test Pool"));
+    }
+
+}
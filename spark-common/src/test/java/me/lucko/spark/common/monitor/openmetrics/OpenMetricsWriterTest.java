@@ -0,0 +1,124 @@
+/*
+ * This file is part of spark.
+ *
+ *  Copyright (c) lucko (Luck) <luck@lucko.me>
+ *  Copyright (c) contributors
+ *
+ *  This program is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package me.lucko.spark.common.monitor.openmetrics;
+
+import com.google.common.collect.ImmutableMap;
+import me.lucko.spark.common.monitor.memory.GarbageCollectorStatistics;
+import me.lucko.spark.common.platform.world.WorldInfoProvider;
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+public class OpenMetricsWriterTest {
+
+    @Test
+    public void testGauge() {
+        String output = new OpenMetricsWriter()
+                .gauge("spark_tps", null, "Ticks per second.")
+                .sample(19.5, "window", "1m")
+                .sample(20, "window", "5m")
+                .finish();
+
+        assertEquals(
+                "# TYPE spark_tps gauge\n" +
+                "# HELP spark_tps Ticks per second.\n" +
+                "spark_tps{window=\"1m\"} 19.5\n" +
+                "spark_tps{window=\"5m\"} 20\n" +
+                "# EOF\n",
+                output
+        );
+    }
+
+    @Test
+    public void testCounter() {
+        OpenMetricsWriter writer = new OpenMetricsWriter();
+        OpenMetricsExporter.writeGarbageCollection(writer, ImmutableMap.of("G1 Young Generation", new GarbageCollectorStatistics(12, 1500)));
+
+        assertEquals(
+                "# TYPE spark_gc_collections counter\n" +
+                "# HELP spark_gc_collections Number of garbage collections since the JVM started.\n" +
+                "spark_gc_collections_total{collector=\"G1 Young Generation\"} 12\n" +
+                "# TYPE spark_gc_time_seconds counter\n" +
+                "# UNIT spark_gc_time_seconds seconds\n" +
+                "# HELP spark_gc_time_seconds Time spent in garbage collection since the JVM started.\n" +
+                "spark_gc_time_seconds_total{collector=\"G1 Young Generation\"} 1.5\n" +
+                "# EOF\n",
+                writer.finish()
+        );
+    }
+
+    @Test
+    public void testAllocationRate() {
+        OpenMetricsWriter writer = new OpenMetricsWriter();
+        OpenMetricsExporter.writeAllocationRate(writer, 1024, 2048, 512);
+
+        assertEquals(
+                "# TYPE spark_memory_allocation_rate_bytes_per_second gauge\n" +
+                "# UNIT spark_memory_allocation_rate_bytes_per_second bytes_per_second\n" +
+                "# HELP spark_memory_allocation_rate_bytes_per_second Heap allocation rate, averaged over the window.\n" +
+                "spark_memory_allocation_rate_bytes_per_second{window=\"1m\"} 1024\n" +
+                "spark_memory_allocation_rate_bytes_per_second{window=\"5m\"} 2048\n" +
+                "spark_memory_allocation_rate_bytes_per_second{window=\"15m\"} 512\n" +
+                "# EOF\n",
+                writer.finish()
+        );
+    }
+
+    @Test
+    public void testWorldCounts() {
+        OpenMetricsWriter writer = new OpenMetricsWriter();
+        OpenMetricsExporter.writeWorldCounts(writer, new WorldInfoProvider.CountsResult(5, 100, 20, 400));
+
+        String output = writer.finish();
+        assertTrue(output.contains("spark_players 5\n"));
+        assertTrue(output.contains("spark_entities 100\n"));
+        assertTrue(output.contains("spark_tile_entities 20\n"));
+        assertTrue(output.contains("spark_chunks 400\n"));
+    }
+
+    @Test
+    public void testEscaping() {
+        String output = new OpenMetricsWriter()
+                .gauge("test", null, "Help with a \\ backslash")
+                .sample(Double.NaN, "label", "a \"quoted\"\nvalue")
+                .sample(Double.POSITIVE_INFINITY)
+                .finish();
+
+        assertEquals(
+                "# TYPE test gauge\n" +
+                "# HELP test Help with a \\\\ backslash\n" +
+                "test{label=\"a \\\"quoted\\\"\\nvalue\"} NaN\n" +
+                "test +Inf\n" +
+                "# EOF\n",
+                output
+        );
+    }
+
+    @Test
+    public void testInvalidUsage() {
+        assertThrows(IllegalStateException.class, () -> new OpenMetricsWriter().sample(1));
+        assertThrows(IllegalArgumentException.class, () -> new OpenMetricsWriter().gauge("test", null, "").sample(1, "label"));
+        assertThrows(IllegalArgumentException.class, () -> new OpenMetricsWriter().gauge("test_bytes", "seconds", ""));
+    }
+
+}
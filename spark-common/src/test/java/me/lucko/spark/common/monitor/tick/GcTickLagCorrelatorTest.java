@@ -0,0 +1,135 @@
+/*
+ * This file is part of spark.
+ *
+ *  Copyright (c) lucko (Luck) <luck@lucko.me>
+ *  Copyright (c) contributors
+ *
+ *  This program is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package me.lucko.spark.common.monitor.tick;
+
+import me.lucko.spark.common.monitor.tick.GcTickLagCorrelator.GcType;
+import me.lucko.spark.common.tick.AbstractTickReporter;
+import org.junit.jupiter.api.Test;
+
+import java.time.Duration;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+public class GcTickLagCorrelatorTest {
+
+    private static long ms(long millis) {
+        return TimeUnit.MILLISECONDS.toNanos(millis);
+    }
+
+    private static GcTickLagCorrelator createCorrelator() {
+        AbstractTickReporter reporter = new AbstractTickReporter() {
+            @Override
+            public void start() {
+
+            }
+
+            @Override
+            public void close() {
+
+            }
+        };
+        return new GcTickLagCorrelator(null, reporter, 50);
+    }
+
+    @Test
+    public void testAttribution() {
+        GcTickLagCorrelator correlator = createCorrelator();
+        long base = System.nanoTime() - TimeUnit.SECONDS.toNanos(30);
+
+        // on time, not considered even though it overlaps a collection
+        correlator.recordTick(base, base + ms(40));
+        // 50ms overrun: 30ms young pause, remaining 20ms to the concurrent cycle
+        correlator.recordTick(base + ms(40), base + ms(140));
+        // 50ms overrun: entirely attributed to the old pause (overlap 90ms)
+        correlator.recordTick(base + ms(140), base + ms(240));
+        // 50ms overrun: no overlapping collections
+        correlator.recordTick(base + ms(1000), base + ms(1100));
+
+        correlator.recordCollection(base + ms(10), base + ms(20), GcType.YOUNG);
+        correlator.recordCollection(base + ms(50), base + ms(80), GcType.YOUNG);
+        correlator.recordCollection(base, base + ms(200), GcType.CONCURRENT);
+        correlator.recordCollection(base + ms(150), base + ms(250), GcType.OLD);
+
+        correlator.process(base + ms(5000));
+
+        GcTickLagCorrelator.Summary summary = correlator.summarise(Duration.ofHours(1));
+        assertEquals(30, summary.lagMillis(GcType.YOUNG));
+        assertEquals(50, summary.lagMillis(GcType.OLD));
+        assertEquals(20, summary.lagMillis(GcType.CONCURRENT));
+        assertEquals(100, summary.totalLagMillis());
+        assertEquals(150, summary.tickOverrunMillis());
+    }
+
+    @Test
+    public void testTicksAfterCutoffAreDeferred() {
+        GcTickLagCorrelator correlator = createCorrelator();
+        long base = System.nanoTime() - TimeUnit.SECONDS.toNanos(30);
+
+        correlator.recordTick(base, base + ms(100));
+        correlator.recordTick(base + ms(100), base + ms(200));
+        correlator.recordCollection(base + ms(150), base + ms(200), GcType.YOUNG);
+
+        correlator.process(base + ms(150));
+        assertEquals(50, correlator.summarise(Duration.ofHours(1)).tickOverrunMillis());
+        assertEquals(0, correlator.summarise(Duration.ofHours(1)).totalLagMillis());
+
+        correlator.process(base + ms(5000));
+        assertEquals(100, correlator.summarise(Duration.ofHours(1)).tickOverrunMillis());
+        assertEquals(50, correlator.summarise(Duration.ofHours(1)).lagMillis(GcType.YOUNG));
+    }
+
+    @Test
+    public void testWindowEdges() {
+        GcTickLagCorrelator correlator = createCorrelator();
+        long base = System.nanoTime() - TimeUnit.SECONDS.toNanos(120);
+        long windowStart = base + ms(1000);
+        long windowEnd = base + ms(61000);
+
+        // previous window, shares a 10s bucket with the start of this one
+        correlator.recordTick(base + ms(800), base + ms(900));
+        correlator.recordCollection(base + ms(850), base + ms(900), GcType.OLD);
+
+        // this window
+        correlator.recordTick(base + ms(2000), base + ms(2100));
+        correlator.recordCollection(base + ms(2050), base + ms(2100), GcType.YOUNG);
+
+        // end of this window, not yet reached by the delayed correlation task
+        correlator.recordTick(base + ms(60880), base + ms(60980));
+        correlator.recordCollection(base + ms(60900), base + ms(60950), GcType.YOUNG);
+
+        // next window
+        correlator.recordTick(base + ms(61000), base + ms(61100));
+
+        correlator.process(windowEnd - ms(5000));
+
+        GcTickLagCorrelator.Summary summary = correlator.summariseTicks(windowStart, windowEnd);
+        assertEquals(100, summary.tickOverrunMillis());
+        assertEquals(100, summary.lagMillis(GcType.YOUNG));
+        assertEquals(0, summary.lagMillis(GcType.OLD));
+
+        // the tick correlated early is not counted again by the regular task
+        correlator.process(base + ms(70000));
+        assertEquals(200, correlator.summarise(Duration.ofHours(1)).tickOverrunMillis());
+        assertEquals(100, correlator.summariseTicks(windowStart, windowEnd).tickOverrunMillis());
+    }
+
+}
@@ -0,0 +1,97 @@
+/*
+ * This file is part of spark.
+ *
+ *  Copyright (c) lucko (Luck) <luck@lucko.me>
+ *  Copyright (c) contributors
+ *
+ *  This program is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package me.lucko.spark.common.monitor.tick;
+
+import me.lucko.spark.api.tick.TickAnomaly;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+public class TickAnomalyDetectorTest {
+
+    @Test
+    public void testNoAnomaliesDuringWarmup() {
+        TickAnomalyDetector detector = new TickAnomalyDetector();
+        for (int i = 0; i < 100; i++) {
+            assertNull(detector.process(i % 2 == 0 ? 10 : 500, 0));
+        }
+    }
+
+    @Test
+    public void testSpikeIsDetected() {
+        TickAnomalyDetector detector = new TickAnomalyDetector();
+        for (int i = 0; i < 1000; i++) {
+            assertNull(detector.process(20 + (i % 3), 0));
+        }
+
+        TickAnomalyDetector.Anomaly anomaly = detector.process(150, 1234);
+        assertNotNull(anomaly);
+        assertEquals(150, anomaly.duration());
+        assertEquals(21, anomaly.expectedDuration(), 0.5);
+        assertEquals(1234, anomaly.timestamp());
+        assertTrue(anomaly.score() > 4);
+
+        // the spike should not have moved the baseline much
+        assertEquals(21, detector.getBaseline(), 0.5);
+    }
+
+    @Test
+    public void testBaselineFollowsGradualChanges() {
+        TickAnomalyDetector detector = new TickAnomalyDetector();
+        for (int i = 0; i < 1000; i++) {
+            detector.process(10 + (i % 2), 0);
+        }
+
+        // slowly increase from ~10ms to ~40ms
+        int anomalies = 0;
+        for (int i = 0; i < 30000; i++) {
+            if (detector.process(10 + i / 1000d + (i % 2), 0) != null) {
+                anomalies++;
+            }
+        }
+
+        assertEquals(0, anomalies);
+        assertEquals(40, detector.getBaseline(), 1);
+    }
+
+    @Test
+    public void testListeners() {
+        TickAnomalyDetector detector = new TickAnomalyDetector();
+        List<TickAnomaly> anomalies = new ArrayList<>();
+        detector.addListener(anomalies::add);
+
+        for (int i = 0; i < 1000; i++) {
+            detector.onTick(5 + (i % 2));
+        }
+        assertEquals(0, anomalies.size());
+
+        detector.onTick(100);
+        assertEquals(1, anomalies.size());
+        assertEquals(100, anomalies.get(0).duration());
+    }
+
+}
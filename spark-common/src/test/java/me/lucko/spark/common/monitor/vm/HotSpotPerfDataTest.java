@@ -0,0 +1,120 @@
+/*
+ * This file is part of spark.
+ *
+ *  Copyright (c) lucko (Luck) <luck@lucko.me>
+ *  Copyright (c) contributors
+ *
+ *  This program is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+
+package me.lucko.spark.common.monitor.vm;
+
+import org.junit.jupiter.api.Test;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.charset.StandardCharsets;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNull;
+
+public class HotSpotPerfDataTest {
+
+    private static final int PROLOGUE_LENGTH = 32;
+
+    @Test
+    public void testRead() {
+        ByteBuffer buffer = ByteBuffer.allocate(1024).order(ByteOrder.LITTLE_ENDIAN);
+        writePrologue(buffer);
+
+        int offset = PROLOGUE_LENGTH;
+        offset = writeLongEntry(buffer, offset, "sun.rt.safepoints", 12);
+        offset = writeStringEntry(buffer, offset, "java.property.java.vm.name", "OpenJDK");
+        offset = writeLongEntry(buffer, offset, "sun.rt.safepointTime", 3_000_000);
+        buffer.putInt(28, 3);
+
+        HotSpotPerfData data = HotSpotPerfData.read(buffer);
+        assertNotNull(data);
+        assertEquals(12, data.getLong("sun.rt.safepoints"));
+        assertEquals(3_000_000, data.getLong("sun.rt.safepointTime"));
+        assertEquals(-1, data.getLong("java.property.java.vm.name"));
+        assertEquals(-1, data.getLong("sun.ci.totalCompiles"));
+
+        // counters are read live
+        buffer.putLong(PROLOGUE_LENGTH + align(20 + "sun.rt.safepoints".length() + 1), 13);
+        assertEquals(13, data.getLong("sun.rt.safepoints"));
+
+        // entries can be added after the file was first read
+        writeLongEntry(buffer, offset, "sun.ci.totalCompiles", 500);
+        buffer.putInt(28, 4);
+        assertEquals(500, data.getLong("sun.ci.totalCompiles"));
+    }
+
+    @Test
+    public void testInvalid() {
+        assertNull(HotSpotPerfData.read(ByteBuffer.allocate(8)));
+        assertNull(HotSpotPerfData.read(ByteBuffer.allocate(1024)));
+    }
+
+    private static void writePrologue(ByteBuffer buffer) {
+        buffer.order(ByteOrder.BIG_ENDIAN).putInt(0, 0xcafec0c0).order(ByteOrder.LITTLE_ENDIAN);
+        buffer.put(4, (byte) 1); // little endian
+        buffer.put(5, (byte) 2); // major version
+        buffer.put(7, (byte) 1); // accessible
+        buffer.putInt(24, PROLOGUE_LENGTH); // entry offset
+    }
+
+    private static int writeLongEntry(ByteBuffer buffer, int offset, String name, long value) {
+        int nameOffset = 20;
+        int dataOffset = align(nameOffset + name.length() + 1);
+        writeEntryHeader(buffer, offset, dataOffset + 8, nameOffset, 0, 'J', dataOffset);
+        writeName(buffer, offset + nameOffset, name);
+        buffer.putLong(offset + dataOffset, value);
+        return offset + dataOffset + 8;
+    }
+
+    private static int writeStringEntry(ByteBuffer buffer, int offset, String name, String value) {
+        byte[] bytes = value.getBytes(StandardCharsets.US_ASCII);
+        int nameOffset = 20;
+        int dataOffset = nameOffset + name.length() + 1;
+        int length = align(dataOffset + bytes.length + 1);
+        writeEntryHeader(buffer, offset, length, nameOffset, bytes.length + 1, 'B', dataOffset);
+        writeName(buffer, offset + nameOffset, name);
+        writeName(buffer, offset + dataOffset, value);
+        return offset + length;
+    }
+
+    private static void writeEntryHeader(ByteBuffer buffer, int offset, int length, int nameOffset, int vectorLength, char type, int dataOffset) {
+        buffer.putInt(offset, length);
+        buffer.putInt(offset + 4, nameOffset);
+        buffer.putInt(offset + 8, vectorLength);
+        buffer.put(offset + 12, (byte) type);
+        buffer.putInt(offset + 16, dataOffset);
+    }
+
+    private static void writeName(ByteBuffer buffer, int offset, String name) {
+        byte[] bytes = name.getBytes(StandardCharsets.US_ASCII);
+        for (int i = 0; i < bytes.length; i++) {
+            buffer.put(offset + i, bytes[i]);
+        }
+        buffer.put(offset + bytes.length, (byte) 0);
+    }
+
+    private static int align(int offset) {
+        return (offset + 7) & ~7;
+    }
+
+}
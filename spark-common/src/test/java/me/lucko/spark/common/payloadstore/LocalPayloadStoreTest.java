@@ -0,0 +1,247 @@
+/*
+ * This file is part of spark.
+ *
+ *  Copyright (c) lucko (Luck) <luck@lucko.me>
+ *  Copyright (c) contributors
+ *
+ *  This program is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package me.lucko.spark.common.payloadstore;
+
+import me.lucko.spark.common.util.BytebinClient;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.HttpURLConnection;
+import java.net.Socket;
+import java.net.URL;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.FileTime;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Stream;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+public class LocalPayloadStoreTest {
+
+    private static final String CONTENT_TYPE = "application/x-spark-test";
+    private static final long TTL_MILLIS = TimeUnit.HOURS.toMillis(1);
+    private static final String VIEWER_URL = "http://127.0.0.1:8080/";
+
+    private static LocalPayloadStore start(Path dir) {
+        LocalPayloadStore store = new LocalPayloadStore(dir, "127.0.0.1", 0, 0, TTL_MILLIS, 1024 * 1024, VIEWER_URL);
+        store.start();
+        return store;
+    }
+
+    private static byte[] readAll(InputStream in) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        byte[] buf = new byte[4096];
+        int n;
+        while ((n = in.read(buf)) != -1) {
+            out.write(buf, 0, n);
+        }
+        return out.toByteArray();
+    }
+
+    @Test
+    public void testUploadAndDownload(@TempDir Path tempDir) throws IOException {
+        byte[] data = new byte[200 * 1024];
+        new Random(0).nextBytes(data);
+        Path file = Files.write(tempDir.resolve("data.bin"), data);
+
+        try (LocalPayloadStore store = start(tempDir.resolve("payloads"))) {
+            BytebinClient client = new BytebinClient(store.getUrl(), "spark-test");
+            String key = client.postContent(file, CONTENT_TYPE).key();
+            assertTrue(PayloadStorage.isValidKey(key));
+
+            // HttpURLConnection doesn't ask for gzip, so the payload is decompressed by the server
+            HttpURLConnection connection = (HttpURLConnection) new URL(store.getUrl() + key).openConnection();
+            assertEquals(200, connection.getResponseCode());
+            assertEquals(CONTENT_TYPE, connection.getContentType());
+            try (InputStream in = connection.getInputStream()) {
+                assertArrayEquals(data, readAll(in));
+            }
+        }
+    }
+
+    @Test
+    public void testClientCreatedBeforeStart(@TempDir Path tempDir) throws IOException {
+        Path file = Files.write(tempDir.resolve("data.bin"), new byte[]{1, 2, 3});
+
+        // the port isn't known until the store is bound, so the url has to be resolved lazily
+        try (LocalPayloadStore store = new LocalPayloadStore(tempDir.resolve("payloads"), "127.0.0.1", 0, 0, TTL_MILLIS, 1024 * 1024, VIEWER_URL)) {
+            BytebinClient client = new BytebinClient(store::getUrl, "spark-test");
+            store.start();
+
+            String key = client.postContent(file, CONTENT_TYPE).key();
+            assertTrue(PayloadStorage.isValidKey(key));
+        }
+    }
+
+    @Test
+    public void testUnknownKeys(@TempDir Path tempDir) throws IOException {
+        try (LocalPayloadStore store = start(tempDir)) {
+            for (String key : new String[]{"abcdef", "..%2Fconfig.json", "a.meta"}) {
+                HttpURLConnection connection = (HttpURLConnection) new URL(store.getUrl() + key).openConnection();
+                assertEquals(404, connection.getResponseCode());
+            }
+        }
+    }
+
+    @Test
+    public void testRejectedRequests(@TempDir Path tempDir) throws IOException {
+        try (LocalPayloadStore store = new LocalPayloadStore(tempDir, "127.0.0.1", 0, 0, TTL_MILLIS, 10, VIEWER_URL)) {
+            store.start();
+
+            HttpURLConnection upload = (HttpURLConnection) new URL(store.getUrl() + "post").openConnection();
+            upload.setRequestMethod("POST");
+            upload.setDoOutput(true);
+            try (OutputStream out = upload.getOutputStream()) {
+                out.write(new byte[100]);
+            }
+            assertEquals(413, upload.getResponseCode());
+
+            HttpURLConnection get = (HttpURLConnection) new URL(store.getUrl() + "post").openConnection();
+            assertEquals(405, get.getResponseCode());
+        }
+    }
+
+    @Test
+    public void testPayloadTooLarge(@TempDir Path tempDir) throws IOException {
+        PayloadStorage storage = new PayloadStorage(tempDir, TTL_MILLIS, 10);
+        try (InputStream in = new ByteArrayInputStream(new byte[11])) {
+            assertThrows(PayloadStorage.PayloadTooLargeException.class, () -> storage.store(in, CONTENT_TYPE, null));
+        }
+        try (Stream<Path> files = Files.list(tempDir)) {
+            assertEquals(0, files.count());
+        }
+    }
+
+    @Test
+    public void testExpiredPayloadsAreEvicted(@TempDir Path tempDir) throws IOException {
+        PayloadStorage storage = new PayloadStorage(tempDir, TTL_MILLIS, 1024);
+        String fresh = storage.store(new ByteArrayInputStream(new byte[]{1, 2, 3}), CONTENT_TYPE, "gzip");
+        String expired = storage.store(new ByteArrayInputStream(new byte[]{4, 5, 6}), CONTENT_TYPE, null);
+
+        FileTime past = FileTime.fromMillis(System.currentTimeMillis() - TTL_MILLIS - 1000);
+        Files.setLastModifiedTime(tempDir.resolve(expired), past);
+
+        assertNotNull(storage.get(fresh));
+        assertTrue(storage.get(fresh).isGzipped());
+        assertNull(storage.get(expired));
+
+        assertEquals(1, storage.evictExpired());
+        assertFalse(Files.exists(tempDir.resolve(expired)));
+        assertFalse(Files.exists(storage.metaFile(expired)));
+        assertTrue(Files.exists(tempDir.resolve(fresh)));
+    }
+
+    @Test
+    public void testWebSocketRelay(@TempDir Path tempDir) throws IOException {
+        try (LocalPayloadStore store = start(tempDir)) {
+            HttpURLConnection connection = (HttpURLConnection) new URL("http://" + store.getRelayHost() + "/create").openConnection();
+            connection.setRequestMethod("POST");
+            assertEquals(201, connection.getResponseCode());
+            String channelId = connection.getHeaderField("Location");
+            assertTrue(PayloadStorage.isValidKey(channelId));
+
+            try (Socket a = connect(store, channelId); Socket b = connect(store, channelId)) {
+                byte[] message = "hello from a".getBytes(StandardCharsets.UTF_8);
+                writeMaskedFrame(a.getOutputStream(), 0x1, message);
+
+                WebSocketRelay.Frame frame = WebSocketRelay.Frame.read(b.getInputStream(), 1024);
+                assertNotNull(frame);
+                assertEquals(0x1, frame.opcode);
+                assertTrue(frame.fin);
+                assertArrayEquals(message, frame.payload);
+
+                // pings are answered by the relay, not forwarded
+                writeMaskedFrame(b.getOutputStream(), 0x9, new byte[]{42});
+                WebSocketRelay.Frame pong = WebSocketRelay.Frame.read(b.getInputStream(), 1024);
+                assertNotNull(pong);
+                assertEquals(0xA, pong.opcode);
+                assertArrayEquals(new byte[]{42}, pong.payload);
+            }
+
+            // channels which weren't created can't be joined
+            try (Socket unknown = upgrade(store, "abcdef")) {
+                assertEquals("HTTP/1.1 404 Not Found", WebSocketRelay.readLine(unknown.getInputStream()));
+            }
+        }
+    }
+
+    private static Socket upgrade(LocalPayloadStore store, String channelId) throws IOException {
+        String[] host = store.getRelayHost().split(":");
+        Socket socket = new Socket(host[0], Integer.parseInt(host[1]));
+        socket.setSoTimeout(5000);
+        String key = "dGhlIHNhbXBsZSBub25jZQ==";
+        String request = "GET /" + channelId + " HTTP/1.1\r\n" +
+                "Host: 127.0.0.1\r\n" +
+                "Upgrade: websocket\r\n" +
+                "Connection: Upgrade\r\n" +
+                "Sec-WebSocket-Key: " + key + "\r\n" +
+                "Sec-WebSocket-Version: 13\r\n\r\n";
+        socket.getOutputStream().write(request.getBytes(StandardCharsets.ISO_8859_1));
+        return socket;
+    }
+
+    private static Socket connect(LocalPayloadStore store, String channelId) throws IOException {
+        Socket socket = upgrade(store, channelId);
+        InputStream in = socket.getInputStream();
+        assertEquals("HTTP/1.1 101 Switching Protocols", WebSocketRelay.readLine(in));
+        boolean accepted = false;
+        String line;
+        while (!(line = WebSocketRelay.readLine(in)).isEmpty()) {
+            if (line.equals("Sec-WebSocket-Accept: s3pPLMBiTxaQ9kYGzzhZRbK+xOo=")) {
+                accepted = true;
+            }
+        }
+        assertTrue(accepted);
+        return socket;
+    }
+
+    private static void writeMaskedFrame(OutputStream out, int opcode, byte[] payload) throws IOException {
+        byte[] mask = {1, 2, 3, 4};
+        out.write(0x80 | opcode);
+        out.write(0x80 | payload.length);
+        out.write(mask);
+        for (int i = 0; i < payload.length; i++) {
+            out.write(payload[i] ^ mask[i & 3]);
+        }
+        out.flush();
+    }
+
+    @Test
+    public void testPublicViewerUrl() {
+        assertTrue(LocalPayloadStore.isPublicViewer("https://spark.lucko.me/"));
+        assertFalse(LocalPayloadStore.isPublicViewer(VIEWER_URL));
+    }
+
+}
@@ -43,7 +43,7 @@ public class PlatformStatisticsProviderTest {
     @Test
     public void testPlatformStatistics(@TempDir Path directory) {
         try (TestSparkPlugin plugin = new TestSparkPlugin(directory)) {
-            SparkProtos.PlatformStatistics platformStatistics = new PlatformStatisticsProvider(plugin.platform()).getPlatformStatistics(Collections.emptyMap(), true);
+            SparkProtos.PlatformStatistics platformStatistics = new PlatformStatisticsProvider(plugin.platform()).getPlatformStatistics(Collections.emptyMap(), true, true);
             assertNotNull(platformStatistics);
         }
     }
@@ -0,0 +1,65 @@
+/*
+ * This file is part of spark.
+ *
+ *  Copyright (c) lucko (Luck) <luck@lucko.me>
+ *  Copyright (c) contributors
+ *
+ *  This program is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+
+package me.lucko.spark.common.sampler;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.concurrent.CancellationException;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+public class ExportProgressTest {
+
+    @Test
+    public void testTimings() {
+        ExportProgress progress = new ExportProgress();
+        progress.enter(ExportProgress.Stage.SNAPSHOT);
+        progress.enter(ExportProgress.Stage.SERIALISE);
+        progress.finish();
+
+        assertEquals(2, progress.getTimings().size());
+        assertTrue(progress.getTimings().containsKey(ExportProgress.Stage.SNAPSHOT));
+        assertTrue(progress.getTimings().containsKey(ExportProgress.Stage.SERIALISE));
+        assertTrue(progress.formatTimings().startsWith("snapshot "));
+    }
+
+    @Test
+    public void testCancel() {
+        ExportProgress progress = new ExportProgress();
+        progress.enter(ExportProgress.Stage.SNAPSHOT);
+        assertFalse(progress.isCancelled());
+
+        progress.cancel();
+        assertTrue(progress.isCancelled());
+        assertTrue(Thread.currentThread().isInterrupted());
+        assertThrows(CancellationException.class, progress::checkCancelled);
+        assertThrows(CancellationException.class, () -> progress.enter(ExportProgress.Stage.SERIALISE));
+
+        // finishing clears the interrupt
+        progress.finish();
+        assertFalse(Thread.currentThread().isInterrupted());
+    }
+
+}
@@ -20,12 +20,16 @@
 
 package me.lucko.spark.common.sampler;
 
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableSet;
+import com.google.protobuf.InvalidProtocolBufferException;
 import me.lucko.spark.common.sampler.java.MergeStrategy;
 import me.lucko.spark.common.sampler.source.ClassSourceLookup;
 import me.lucko.spark.proto.SparkSamplerProtos;
 import me.lucko.spark.test.TestClass2;
 import me.lucko.spark.test.plugin.TestCommandSender;
 import me.lucko.spark.test.plugin.TestSparkPlugin;
+import org.junit.jupiter.api.Test;
 import org.junit.jupiter.api.io.TempDir;
 import org.junit.jupiter.params.ParameterizedTest;
 import org.junit.jupiter.params.provider.EnumSource;
@@ -33,15 +37,19 @@ import org.junit.jupiter.params.provider.EnumSource;
 import java.nio.file.Path;
 import java.util.List;
 import java.util.Locale;
+import java.util.concurrent.CancellationException;
 import java.util.concurrent.ExecutionException;
 import java.util.concurrent.TimeUnit;
 import java.util.concurrent.TimeoutException;
 
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
 import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
 import static org.junit.jupiter.api.Assertions.assertInstanceOf;
 import static org.junit.jupiter.api.Assertions.assertNotEquals;
 import static org.junit.jupiter.api.Assertions.assertNotNull;
 import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
 import static org.junit.jupiter.api.Assertions.assertTrue;
 import static org.junit.jupiter.api.Assumptions.assumeTrue;
 
@@ -100,6 +108,133 @@ public class SamplerTest {
             assertTrue(protoThread.getChildrenList().stream().anyMatch(n -> n.getClassName().equals("me.lucko.spark.test.TestClass2") && n.getMethodName().equals("test")));
             assertTrue(protoThread.getChildrenList().stream().anyMatch(n -> n.getClassName().equals("me.lucko.spark.test.TestClass2") && n.getMethodName().equals("testA")));
             assertTrue(protoThread.getChildrenList().stream().anyMatch(n -> n.getClassName().equals("me.lucko.spark.test.TestClass2") && n.getMethodName().equals("testB")));
+
+            // the legacy dense times layout is used unless sparse times are enabled
+            assertFalse(proto.getMetadata().getSparseTimes());
+            assertTrue(protoThread.getChildrenList().stream().allMatch(n -> n.getSparseTimeIndexesCount() == 0 && n.getTimesCount() == proto.getTimeWindowsCount()));
+        }
+    }
+
+    @ParameterizedTest
+    @EnumSource
+    public void testToProtoBytes(SamplerType samplerType, @TempDir Path directory) throws ExecutionException, InterruptedException, TimeoutException, InvalidProtocolBufferException {
+        if (samplerType == SamplerType.ASYNC) {
+            String os = System.getProperty("os.name").toLowerCase(Locale.ROOT).replace(" ", "");
+            assumeTrue(os.equals("linux") || os.equals("macosx"), "async profiler is only supported on Linux and macOS");
+        }
+
+        Thread thread = new Thread(new TestClass2(), "Test Thread");
+        thread.start();
+
+        try (TestSparkPlugin plugin = new TestSparkPlugin(directory)) {
+            Sampler sampler = new SamplerBuilder()
+                    .threadDumper(new ThreadDumper.Specific(thread))
+                    .threadGrouper(ThreadGrouper.BY_POOL)
+                    .samplingInterval(5)
+                    .forceJavaSampler(samplerType == SamplerType.JAVA)
+                    .completeAfter(5, TimeUnit.SECONDS)
+                    .start(plugin.platform());
+
+            sampler.getFuture().get(30, TimeUnit.SECONDS);
+
+            List<MergeStrategy> mergeStrategies = samplerType == SamplerType.JAVA
+                    ? ImmutableList.copyOf(MergeStrategy.values())
+                    : ImmutableList.of(MergeStrategy.SAME_METHOD);
+
+            for (MergeStrategy mergeStrategy : mergeStrategies) {
+                for (boolean stringTable : new boolean[]{false, true}) {
+                    for (boolean sparseTimes : new boolean[]{false, true}) {
+                        Sampler.ExportProps exportProps = new Sampler.ExportProps()
+                                .creator(TestCommandSender.INSTANCE.toData())
+                                .mergeStrategy(mergeStrategy)
+                                .stringTable(stringTable)
+                                .sparseTimes(sparseTimes);
+
+                        SparkSamplerProtos.SamplerData expected = sampler.toProto(plugin.platform(), exportProps);
+                        byte[] bytes = sampler.toProtoBytes(plugin.platform(), exportProps);
+                        SparkSamplerProtos.SamplerData actual = SparkSamplerProtos.SamplerData.parseFrom(bytes);
+
+                        // the metadata includes the current platform/system statistics, which change
+                        // between exports, so use the same metadata for both before comparing the bytes
+                        String message = mergeStrategy + " stringTable=" + stringTable + " sparseTimes=" + sparseTimes;
+                        assertEquals(stringTable, actual.getMetadata().getStringTable(), message);
+                        assertEquals(sparseTimes, actual.getMetadata().getSparseTimes(), message);
+                        assertEquals(1, actual.getThreadsCount(), message);
+                        assertArrayEquals(expected.toBuilder().setMetadata(actual.getMetadata()).build().toByteArray(), bytes, message);
+                    }
+                }
+            }
+        } finally {
+            thread.interrupt();
+        }
+    }
+
+    @Test
+    public void testJavaExportRetryAfterCancel(@TempDir Path directory) throws ExecutionException, InterruptedException, TimeoutException, InvalidProtocolBufferException {
+        Thread thread1 = new Thread(new TestClass2(), "Test Thread 1");
+        Thread thread2 = new Thread(new TestClass2(), "Test Thread 2");
+        thread1.start();
+        thread2.start();
+
+        try (TestSparkPlugin plugin = new TestSparkPlugin(directory)) {
+            Sampler sampler = new SamplerBuilder()
+                    .threadDumper(new ThreadDumper.Specific(ImmutableSet.of("Test Thread 1", "Test Thread 2")))
+                    .threadGrouper(ThreadGrouper.BY_NAME)
+                    .samplingInterval(5)
+                    .forceJavaSampler(true)
+                    .completeAfter(5, TimeUnit.SECONDS)
+                    .start(plugin.platform());
+
+            sampler.getFuture().get(30, TimeUnit.SECONDS);
+
+            // cancel the export once the first thread has been written (and its nodes merged)
+            ExportProgress progress = new ExportProgress();
+            Sampler.ExportProps cancelledProps = new Sampler.ExportProps()
+                    .creator(TestCommandSender.INSTANCE.toData())
+                    .mergeStrategy(MergeStrategy.SAME_METHOD)
+                    .classSourceLookup(() -> clazz -> {
+                        progress.cancel();
+                        return null;
+                    })
+                    .progress(progress);
+
+            try {
+                assertThrows(CancellationException.class, () -> sampler.toProtoBytes(plugin.platform(), cancelledProps));
+            } finally {
+                progress.finish();
+            }
+
+            Sampler.ExportProps exportProps = new Sampler.ExportProps()
+                    .creator(TestCommandSender.INSTANCE.toData())
+                    .mergeStrategy(MergeStrategy.SAME_METHOD);
+
+            SparkSamplerProtos.SamplerData retry = SparkSamplerProtos.SamplerData.parseFrom(sampler.toProtoBytes(plugin.platform(), exportProps));
+            SparkSamplerProtos.SamplerData again = sampler.toProto(plugin.platform(), exportProps);
+
+            assertEquals(2, retry.getThreadsCount());
+            assertEquals(retry.getThreadsList(), again.getThreadsList());
+
+            // each sample is counted once by every node on the stack, so the children
+            // of a node can never add up to more than the node itself
+            for (SparkSamplerProtos.ThreadNode protoThread : retry.getThreadsList()) {
+                assertChildTimesWithinParent(protoThread.getTimesList(), protoThread.getChildrenRefsList(), protoThread.getChildrenList());
+                for (SparkSamplerProtos.StackTraceNode node : protoThread.getChildrenList()) {
+                    assertChildTimesWithinParent(node.getTimesList(), node.getChildrenRefsList(), protoThread.getChildrenList());
+                }
+            }
+        } finally {
+            thread1.interrupt();
+            thread2.interrupt();
+        }
+    }
+
+    private static void assertChildTimesWithinParent(List<Double> times, List<Integer> childrenRefs, List<SparkSamplerProtos.StackTraceNode> nodes) {
+        for (int i = 0; i < times.size(); i++) {
+            double childTimes = 0;
+            for (int ref : childrenRefs) {
+                childTimes += nodes.get(ref).getTimes(i);
+            }
+            assertTrue(childTimes <= times.get(i) + 0.001, "children " + childTimes + " > parent " + times.get(i));
         }
     }
 
@@ -77,4 +77,11 @@ public class ThreadGrouperTest {
         assertEquals("Test Pool (x2)", label);
     }
 
+    @Test
+    public void testPoolName() {
+        assertEquals("main", ThreadGrouper.ByPool.getPoolName("main"));
+        assertEquals("Test Pool", ThreadGrouper.ByPool.getPoolName("Test Pool - #1"));
+        assertEquals("Worker-Main", ThreadGrouper.ByPool.getPoolName("Worker-Main-12"));
+    }
+
 }
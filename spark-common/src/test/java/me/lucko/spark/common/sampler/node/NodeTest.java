@@ -22,14 +22,27 @@ package me.lucko.spark.common.sampler.node;
 
 import com.google.common.collect.ImmutableList;
 import com.google.common.collect.ImmutableSet;
+import com.google.protobuf.CodedOutputStream;
 import me.lucko.spark.common.sampler.SamplerMode;
 import me.lucko.spark.common.sampler.async.AsyncNodeExporter;
 import me.lucko.spark.common.sampler.async.AsyncStackTraceElement;
+import me.lucko.spark.common.sampler.java.JavaNodeExporter;
+import me.lucko.spark.common.sampler.java.MergeStrategy;
+import me.lucko.spark.common.sampler.node.exporter.NodeExporter;
+import me.lucko.spark.common.sampler.node.exporter.StringTable;
 import me.lucko.spark.common.sampler.window.ProtoTimeEncoder;
+import me.lucko.spark.common.util.MethodDisambiguator;
+import me.lucko.spark.common.util.classfinder.FallbackClassFinder;
 import me.lucko.spark.proto.SparkSamplerProtos;
+import me.lucko.spark.test.TestClass;
 import org.junit.jupiter.api.Test;
+import org.junit.jupiter.params.ParameterizedTest;
+import org.junit.jupiter.params.provider.EnumSource;
 
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
 import java.util.Collection;
+import java.util.List;
 import java.util.concurrent.TimeUnit;
 
 import static org.junit.jupiter.api.Assertions.assertArrayEquals;
@@ -51,6 +64,28 @@ public class NodeTest {
     private static final AsyncStackTraceElement[] STACK_1 = {NODE_1_2_1, NODE_1_1, NODE_0};
     private static final AsyncStackTraceElement[] STACK_2 = {NODE_2_2_1, NODE_2_1, NODE_0};
 
+    private static final StackTraceNode.Describer<StackTraceElement> JAVA_STACK_TRACE_DESCRIBER = (element, parent) -> {
+        int parentLineNumber = parent == null ? StackTraceNode.NULL_LINE_NUMBER : parent.getLineNumber();
+        return new StackTraceNode.JavaDescription(element.getClassName(), element.getMethodName(), element.getLineNumber(), parentLineNumber);
+    };
+
+    // TestClass#test is overloaded: line 25 is in test(String) and line 31 is in test(int)
+    private static final StackTraceElement[] JAVA_STACK_1 = {
+            new StackTraceElement(TestClass.class.getName(), "test", "TestClass.java", 25),
+            new StackTraceElement("test.Caller", "run", "Caller.java", 10),
+            new StackTraceElement("java.lang.Thread", "run", "Thread.java", 1)
+    };
+    private static final StackTraceElement[] JAVA_STACK_2 = {
+            new StackTraceElement(TestClass.class.getName(), "test", "TestClass.java", 31),
+            new StackTraceElement("test.Caller", "run", "Caller.java", 11),
+            new StackTraceElement("java.lang.Thread", "run", "Thread.java", 1)
+    };
+    private static final StackTraceElement[] JAVA_STACK_3 = {
+            new StackTraceElement(TestClass.class.getName(), "test", "TestClass.java", 26),
+            new StackTraceElement("test.Caller", "run", "Caller.java", 12),
+            new StackTraceElement("java.lang.Thread", "run", "Thread.java", 1)
+    };
+
     @Test
     public void testThreadLabels() {
         ThreadNode node = new ThreadNode("Test Thread");
@@ -93,6 +128,28 @@ public class NodeTest {
         }
     }
 
+    @Test
+    public void testPrune() {
+        ThreadNode threadNode = new ThreadNode("Test Thread");
+        threadNode.log(STACK_TRACE_DESCRIBER, STACK_1, TimeUnit.SECONDS.toMicros(2), WINDOW);
+        threadNode.log(STACK_TRACE_DESCRIBER, STACK_1, TimeUnit.SECONDS.toMicros(1), WINDOW + 1);
+        threadNode.log(STACK_TRACE_DESCRIBER, STACK_2, TimeUnit.SECONDS.toMicros(1), WINDOW + 1);
+
+        StackTraceNode node1 = threadNode.getChildren().iterator().next();
+        assertEquals(TimeUnit.SECONDS.toMicros(4), node1.getTotalTime());
+        assertEquals(2, node1.getChildren().size());
+
+        threadNode.pruneRecursively(TimeUnit.SECONDS.toMicros(2));
+
+        Collection<StackTraceNode> children = node1.getChildren();
+        assertEquals(1, children.size());
+
+        StackTraceNode node2 = children.iterator().next();
+        assertEquals("test.Foo", node2.getClassName());
+        assertEquals(TimeUnit.SECONDS.toMicros(3), node2.getTotalTime());
+        assertEquals(1, node2.getChildren().size());
+    }
+
     @Test
     public void testExport() {
         ThreadNode threadNode = new ThreadNode("Test Thread");
@@ -155,6 +212,147 @@ public class NodeTest {
         assertEquals(expected, proto);
     }
 
+    @Test
+    public void testWrite() throws IOException {
+        ThreadNode threadNode = new ThreadNode("Test Thread");
+        threadNode.log(STACK_TRACE_DESCRIBER, STACK_1, TimeUnit.SECONDS.toMicros(1), WINDOW);
+        threadNode.log(STACK_TRACE_DESCRIBER, STACK_1, TimeUnit.SECONDS.toMicros(1), WINDOW + 1);
+        threadNode.log(STACK_TRACE_DESCRIBER, STACK_2, TimeUnit.SECONDS.toMicros(1), WINDOW + 1);
+
+        ProtoTimeEncoder timeEncoder = new ProtoTimeEncoder(SamplerMode.EXECUTION.valueTransformer(), ImmutableList.of(threadNode));
+        AsyncNodeExporter exporter = new AsyncNodeExporter(timeEncoder);
+
+        SparkSamplerProtos.ThreadNode expected = exporter.export(threadNode);
+        byte[] written = write(exporter, threadNode);
+
+        assertEquals(expected, SparkSamplerProtos.ThreadNode.parseFrom(written));
+        assertArrayEquals(expected.toByteArray(), written);
+    }
+
+    @Test
+    public void testWriteSparse() throws IOException {
+        ThreadNode threadNode = new ThreadNode("Test Thread");
+        for (int i = 0; i < 60; i++) {
+            threadNode.log(STACK_TRACE_DESCRIBER, STACK_1, TimeUnit.SECONDS.toMicros(1), WINDOW + i);
+        }
+        threadNode.log(STACK_TRACE_DESCRIBER, STACK_2, TimeUnit.MILLISECONDS.toMicros(5), WINDOW + 30);
+
+        ProtoTimeEncoder timeEncoder = new ProtoTimeEncoder(SamplerMode.EXECUTION.valueTransformer(), ImmutableList.of(threadNode)).withSparseEncoding();
+        AsyncNodeExporter exporter = new AsyncNodeExporter(timeEncoder);
+
+        SparkSamplerProtos.ThreadNode expected = exporter.export(threadNode);
+        assertTrue(expected.getSparseTimesCount() != 0);
+        assertTrue(expected.getChildrenList().stream().allMatch(node -> node.getSparseTimesCount() != 0));
+
+        byte[] written = write(exporter, threadNode);
+
+        assertEquals(expected, SparkSamplerProtos.ThreadNode.parseFrom(written));
+        assertArrayEquals(expected.toByteArray(), written);
+    }
+
+    @Test
+    public void testWriteEmpty() throws IOException {
+        ThreadNode threadNode = new ThreadNode("");
+
+        ProtoTimeEncoder timeEncoder = new ProtoTimeEncoder(SamplerMode.EXECUTION.valueTransformer(), ImmutableList.of(threadNode));
+        AsyncNodeExporter exporter = new AsyncNodeExporter(timeEncoder);
+
+        SparkSamplerProtos.ThreadNode expected = exporter.export(threadNode);
+        byte[] written = write(exporter, threadNode);
+
+        assertEquals(expected, SparkSamplerProtos.ThreadNode.parseFrom(written));
+        assertArrayEquals(expected.toByteArray(), written);
+    }
+
+    @Test
+    public void testExportStringTable() throws IOException {
+        ThreadNode threadNode = new ThreadNode("Test Thread");
+        threadNode.log(STACK_TRACE_DESCRIBER, STACK_1, TimeUnit.SECONDS.toMicros(1), WINDOW);
+        threadNode.log(STACK_TRACE_DESCRIBER, STACK_2, TimeUnit.SECONDS.toMicros(1), WINDOW);
+
+        ProtoTimeEncoder timeEncoder = new ProtoTimeEncoder(SamplerMode.EXECUTION.valueTransformer(), ImmutableList.of(threadNode));
+        SparkSamplerProtos.ThreadNode inline = new AsyncNodeExporter(timeEncoder).export(threadNode);
+
+        StringTable stringTable = new StringTable();
+        SparkSamplerProtos.ThreadNode proto = new AsyncNodeExporter(timeEncoder, stringTable).export(threadNode);
+
+        // each name is only included once
+        List<String> strings = stringTable.strings();
+        assertEquals(ImmutableList.of("", "test.Bar", "example", "()V", "run", "test.Foo", "java.lang.Thread"), strings);
+
+        // resolving the names gives the same nodes as the inline layout
+        assertEquals(inline.getChildrenCount(), proto.getChildrenCount());
+        for (int i = 0; i < proto.getChildrenCount(); i++) {
+            SparkSamplerProtos.StackTraceNode node = proto.getChildren(i);
+            assertEquals("", node.getClassName());
+            assertEquals("", node.getMethodName());
+            assertEquals("", node.getMethodDesc());
+
+            SparkSamplerProtos.StackTraceNode resolved = node.toBuilder()
+                    .setClassName(strings.get(node.getClassNameIndex()))
+                    .setMethodName(strings.get(node.getMethodNameIndex()))
+                    .setMethodDesc(strings.get(node.getMethodDescIndex()))
+                    .clearClassNameIndex()
+                    .clearMethodNameIndex()
+                    .clearMethodDescIndex()
+                    .build();
+            assertEquals(inline.getChildren(i), resolved);
+        }
+
+        // writing interns the strings in the same order
+        StringTable writeStringTable = new StringTable();
+        byte[] written = write(new AsyncNodeExporter(timeEncoder, writeStringTable), threadNode);
+        assertEquals(strings, writeStringTable.strings());
+        assertArrayEquals(proto.toByteArray(), written);
+    }
+
+    @ParameterizedTest
+    @EnumSource
+    public void testWriteJava(MergeStrategy mergeStrategy) throws IOException {
+        ThreadNode threadNode = new ThreadNode("Test Thread");
+        threadNode.log(JAVA_STACK_TRACE_DESCRIBER, JAVA_STACK_1, TimeUnit.SECONDS.toMicros(1), WINDOW);
+        threadNode.log(JAVA_STACK_TRACE_DESCRIBER, JAVA_STACK_2, TimeUnit.SECONDS.toMicros(1), WINDOW);
+        threadNode.log(JAVA_STACK_TRACE_DESCRIBER, JAVA_STACK_3, TimeUnit.SECONDS.toMicros(1), WINDOW + 1);
+
+        ProtoTimeEncoder timeEncoder = new ProtoTimeEncoder(SamplerMode.EXECUTION.valueTransformer(), ImmutableList.of(threadNode));
+        MethodDisambiguator methodDisambiguator = new MethodDisambiguator(FallbackClassFinder.INSTANCE);
+
+        for (boolean stringTable : new boolean[]{false, true}) {
+            NodeExporter exportExporter = new JavaNodeExporter(timeEncoder, stringTable ? new StringTable() : null, mergeStrategy, methodDisambiguator);
+            NodeExporter writeExporter = new JavaNodeExporter(timeEncoder, stringTable ? new StringTable() : null, mergeStrategy, methodDisambiguator);
+
+            SparkSamplerProtos.ThreadNode expected = exportExporter.export(threadNode);
+            byte[] written = write(writeExporter, threadNode);
+
+            assertEquals(expected, SparkSamplerProtos.ThreadNode.parseFrom(written));
+            assertArrayEquals(expected.toByteArray(), written);
+
+            if (!stringTable) {
+                // the overloads of TestClass#test are identified by their description
+                assertTrue(expected.getChildrenList().stream().anyMatch(n -> n.getMethodDesc().equals("(Ljava/lang/String;)V")));
+                assertTrue(expected.getChildrenList().stream().anyMatch(n -> n.getMethodDesc().equals("(I)V")));
+
+                // calls to the same method from different lines are only kept apart when separating parent calls
+                long stringCalls = expected.getChildrenList().stream().filter(n -> n.getMethodDesc().equals("(Ljava/lang/String;)V")).count();
+                if (mergeStrategy.separateParentCalls()) {
+                    assertEquals(2, stringCalls);
+                    assertTrue(expected.getChildrenList().stream().anyMatch(n -> n.getParentLineNumber() == 12));
+                } else {
+                    assertEquals(1, stringCalls);
+                    assertTrue(expected.getChildrenList().stream().allMatch(n -> n.getParentLineNumber() == 0));
+                }
+            }
+        }
+    }
+
+    private static byte[] write(NodeExporter exporter, ThreadNode threadNode) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        CodedOutputStream out = CodedOutputStream.newInstance(bytes);
+        exporter.write(threadNode, out);
+        out.flush();
+        return bytes.toByteArray();
+    }
+
     @Test
     public void testRemoveTimeWindows() {
         ThreadNode threadNode = new ThreadNode("Test Thread");
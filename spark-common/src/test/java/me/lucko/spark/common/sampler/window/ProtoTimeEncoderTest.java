@@ -27,6 +27,8 @@ import java.util.concurrent.atomic.LongAdder;
 import java.util.stream.IntStream;
 
 import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
 import static org.junit.jupiter.api.Assertions.assertThrows;
 import static org.junit.jupiter.api.Assertions.assertTrue;
 
@@ -45,6 +47,60 @@ public class ProtoTimeEncoderTest {
         assertTrue(ex.getMessage().startsWith("No index for key 9"));
     }
 
+    @Test
+    public void testFilter() {
+        ProtoTimeEncoder encoder = new ProtoTimeEncoder(l -> l, IntStream.of(7, 1, 3, 5)).filter(key -> key >= 3 && key < 7);
+        assertArrayEquals(new int[]{3, 5}, encoder.getKeys());
+
+        // times for keys which have been filtered out are skipped
+        assertArrayEquals(new double[]{100, 200}, encoder.encode(ImmutableMap.of(1, longAdder(50), 3, longAdder(100), 5, longAdder(200), 7, longAdder(300))));
+    }
+
+    @Test
+    public void testCompactPicksSmallerEncoding() {
+        ProtoTimeEncoder encoder = new ProtoTimeEncoder(l -> l / 1000d, IntStream.range(0, 60)).withSparseEncoding();
+
+        // one non-zero window out of 60 - sparse
+        ProtoTimeEncoder.EncodedTimes sparse = encoder.encodeCompact(ImmutableMap.of(40, longAdder(4000), 42, longAdder(8000)));
+        assertTrue(sparse.isSparse());
+        assertArrayEquals(new int[]{40, 2}, sparse.sparseIndexDeltas());
+        assertArrayEquals(new long[]{4000, 8000}, sparse.sparseValues());
+
+        // every window non-zero - dense
+        ImmutableMap.Builder<Integer, LongAdder> all = ImmutableMap.builder();
+        for (int i = 0; i < 60; i++) {
+            all.put(i, longAdder(Long.MAX_VALUE / 2));
+        }
+        ProtoTimeEncoder.EncodedTimes dense = encoder.encodeCompact(all.build());
+        assertFalse(dense.isSparse());
+        assertEquals(60, dense.dense().length);
+        assertEquals(Long.MAX_VALUE / 2 / 1000d, dense.dense()[0]);
+
+        // nothing recorded - an empty sparse encoding
+        ProtoTimeEncoder.EncodedTimes empty = encoder.encodeCompact(ImmutableMap.of());
+        assertTrue(empty.isSparse());
+        assertEquals(0, empty.sparseValues().length);
+    }
+
+    @Test
+    public void testCompactWithoutSparseEncoding() {
+        ProtoTimeEncoder encoder = new ProtoTimeEncoder(l -> l, IntStream.of(1, 3, 5));
+        ProtoTimeEncoder.EncodedTimes times = encoder.encodeCompact(ImmutableMap.of(3, longAdder(100)));
+        assertFalse(times.isSparse());
+        assertArrayEquals(new double[]{0, 100, 0}, times.dense());
+
+        // filtered encoders keep the sparse setting
+        assertTrue(encoder.withSparseEncoding().filter(key -> key > 1).encodeCompact(ImmutableMap.of(3, longAdder(100))).isSparse());
+    }
+
+    @Test
+    public void testVarintSize() {
+        assertEquals(1, ProtoTimeEncoder.varintSize(0));
+        assertEquals(1, ProtoTimeEncoder.varintSize(127));
+        assertEquals(2, ProtoTimeEncoder.varintSize(128));
+        assertEquals(10, ProtoTimeEncoder.varintSize(-1));
+    }
+
     private static LongAdder longAdder(long l) {
         LongAdder longAdder = new LongAdder();
         longAdder.add(l);
@@ -0,0 +1,198 @@
+/*
+ * This file is part of spark.
+ *
+ *  Copyright (c) lucko (Luck) <luck@lucko.me>
+ *  Copyright (c) contributors
+ *
+ *  This program is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+
+package me.lucko.spark.common.sampler.window;
+
+import me.lucko.spark.common.sampler.async.AsyncNodeExporter;
+import me.lucko.spark.common.sampler.async.AsyncStackTraceElement;
+import me.lucko.spark.common.sampler.java.JavaNodeExporter;
+import me.lucko.spark.common.sampler.java.MergeStrategy;
+import me.lucko.spark.common.sampler.node.StackTraceNode;
+import me.lucko.spark.common.sampler.node.ThreadNode;
+import me.lucko.spark.common.util.MethodDisambiguator;
+import me.lucko.spark.common.util.classfinder.FallbackClassFinder;
+import me.lucko.spark.proto.SparkSamplerProtos;
+import me.lucko.spark.proto.SparkSamplerProtos.SamplerData;
+import me.lucko.spark.proto.SparkSamplerProtos.SamplerMetadata;
+import me.lucko.spark.proto.SparkSamplerProtos.ThreadNodeDelta;
+import me.lucko.spark.test.TestClass;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.function.IntPredicate;
+import java.util.stream.IntStream;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+public class SamplerDeltaEncoderTest {
+
+    private static final StackTraceNode.Describer<AsyncStackTraceElement> ASYNC_STACK_TRACE_DESCRIBER = (element, parent) -> new StackTraceNode.AsyncDescription(element.getClassName(), element.getMethodName(), element.getMethodDescription());
+    private static final StackTraceNode.Describer<StackTraceElement> JAVA_STACK_TRACE_DESCRIBER = (element, parent) -> {
+        int parentLineNumber = parent == null ? StackTraceNode.NULL_LINE_NUMBER : parent.getLineNumber();
+        return new StackTraceNode.JavaDescription(element.getClassName(), element.getMethodName(), element.getLineNumber(), parentLineNumber);
+    };
+
+    private static final AsyncStackTraceElement MAIN = new AsyncStackTraceElement("Main", "main", "()V");
+    private static final AsyncStackTraceElement RUN = new AsyncStackTraceElement("Server", "run", "()V");
+    private static final AsyncStackTraceElement TICK = new AsyncStackTraceElement("Server", "tick", "()V");
+    private static final AsyncStackTraceElement SAVE = new AsyncStackTraceElement("Server", "save", "()V");
+
+    @Test
+    public void testWindows() {
+        SamplerDeltaEncoder encoder = new SamplerDeltaEncoder();
+        encoder.recordBase(SamplerData.getDefaultInstance(), 10);
+
+        // the window in progress when the base was exported is sent again once complete
+        assertFalse(encoder.windowsToSend(12).test(9));
+        assertTrue(encoder.windowsToSend(12).test(10));
+        assertTrue(encoder.windowsToSend(12).test(11));
+        assertFalse(encoder.windowsToSend(12).test(12));
+
+        encoder.advance(12);
+        assertFalse(encoder.windowsToSend(13).test(11));
+        assertTrue(encoder.windowsToSend(13).test(12));
+    }
+
+    @Test
+    public void testEncodeThread() {
+        // base: main -> run -> tick
+        // flattened (post-order): [tick, run, main]
+        SparkSamplerProtos.ThreadNode baseThread = SparkSamplerProtos.ThreadNode.newBuilder()
+                .setName("Server thread")
+                .addChildren(node("Server", "tick", 5))
+                .addChildren(node("Server", "run", 10, 0))
+                .addChildren(node("Main", "main", 10, 1))
+                .addChildrenRefs(2)
+                .build();
+
+        SamplerDeltaEncoder encoder = new SamplerDeltaEncoder();
+        encoder.recordBase(SamplerData.newBuilder().addThreads(baseThread).build(), 10);
+
+        // the sampler's tree, with a new node under run which was sampled in window 10
+        ThreadNode thread = new ThreadNode("Server thread");
+        thread.log(ASYNC_STACK_TRACE_DESCRIBER, new AsyncStackTraceElement[]{TICK, RUN, MAIN}, 5, 9);
+        thread.log(ASYNC_STACK_TRACE_DESCRIBER, new AsyncStackTraceElement[]{SAVE, RUN, MAIN}, 20, 10);
+
+        ProtoTimeEncoder timeEncoder = new ProtoTimeEncoder(time -> time, IntStream.of(10));
+        AsyncNodeExporter exporter = new AsyncNodeExporter(timeEncoder);
+        IntPredicate windows = window -> window == 10;
+
+        List<StackTraceNode> visited = new ArrayList<>();
+        ThreadNodeDelta delta = encoder.encodeThread(thread, exporter, timeEncoder, windows, visited::add);
+        assertEquals("Server thread", delta.getName());
+        assertEquals(Arrays.asList(20d), delta.getTimesList());
+
+        // save is new, and is given the next id after the base nodes, with run (id 1) as its parent
+        assertEquals(1, delta.getNewChildrenCount());
+        assertEquals("save", delta.getNewChildren(0).getMethodName());
+        assertEquals(0, delta.getNewChildren(0).getTimesCount());
+        assertEquals(Arrays.asList(1), delta.getNewChildrenParentsList());
+
+        // tick had no time in the window, so is not visited at all
+        assertEquals(Arrays.asList(2, 1, 3), delta.getNodeIdsList());
+        assertEquals(Arrays.asList(20d, 20d, 20d), delta.getNodeTimesList());
+        assertEquals(3, visited.size());
+
+        // once sent, the new node keeps its id, and nodes which have been seen before aren't visited again
+        ThreadNodeDelta next = encoder.encodeThread(thread, exporter, timeEncoder, windows, visited::add);
+        assertEquals(0, next.getNewChildrenCount());
+        assertEquals(Arrays.asList(2, 1, 3), next.getNodeIdsList());
+        assertEquals(3, visited.size());
+
+        // nothing new
+        ProtoTimeEncoder idleTimeEncoder = new ProtoTimeEncoder(time -> time, IntStream.of(11));
+        assertNull(encoder.encodeThread(thread, exporter, idleTimeEncoder, window -> window == 11, visited::add));
+    }
+
+    @Test
+    public void testEncodeThreadStringTableBase() {
+        // base: main -> run, with names in a string table
+        SparkSamplerProtos.ThreadNode baseThread = SparkSamplerProtos.ThreadNode.newBuilder()
+                .setName("Server thread")
+                .addChildren(SparkSamplerProtos.StackTraceNode.newBuilder().setClassNameIndex(1).setMethodNameIndex(2).setMethodDescIndex(5).addTimes(10))
+                .addChildren(SparkSamplerProtos.StackTraceNode.newBuilder().setClassNameIndex(3).setMethodNameIndex(4).setMethodDescIndex(5).addTimes(10).addChildrenRefs(0))
+                .addChildrenRefs(1)
+                .build();
+
+        SamplerDeltaEncoder encoder = new SamplerDeltaEncoder();
+        encoder.recordBase(SamplerData.newBuilder()
+                .setMetadata(SamplerMetadata.newBuilder().setStringTable(true))
+                .addAllStrings(Arrays.asList("", "Server", "run", "Main", "main", "()V"))
+                .addThreads(baseThread)
+                .build(), 10);
+
+        // the nodes exported for the delta have inline names, but still match the base nodes
+        ThreadNode thread = new ThreadNode("Server thread");
+        thread.log(ASYNC_STACK_TRACE_DESCRIBER, new AsyncStackTraceElement[]{RUN, MAIN}, 20, 10);
+
+        ProtoTimeEncoder timeEncoder = new ProtoTimeEncoder(time -> time, IntStream.of(10));
+        ThreadNodeDelta delta = encoder.encodeThread(thread, new AsyncNodeExporter(timeEncoder), timeEncoder, window -> window == 10, node -> {});
+        assertEquals(0, delta.getNewChildrenCount());
+        assertEquals(Arrays.asList(1, 0), delta.getNodeIdsList());
+    }
+
+    @Test
+    public void testEncodeThreadMergedNodes() {
+        SamplerDeltaEncoder encoder = new SamplerDeltaEncoder();
+        encoder.recordBase(SamplerData.getDefaultInstance(), 10);
+
+        // TestClass#test(String) is called from two lines of Caller#run, so the sampler's tree has
+        // two nodes for each, which are merged when exported without separating parent calls
+        ThreadNode thread = new ThreadNode("Server thread");
+        thread.log(JAVA_STACK_TRACE_DESCRIBER, new StackTraceElement[]{
+                new StackTraceElement(TestClass.class.getName(), "test", "TestClass.java", 25),
+                new StackTraceElement("test.Caller", "run", "Caller.java", 10),
+                new StackTraceElement("java.lang.Thread", "run", "Thread.java", 1)
+        }, 20, 10);
+        thread.log(JAVA_STACK_TRACE_DESCRIBER, new StackTraceElement[]{
+                new StackTraceElement(TestClass.class.getName(), "test", "TestClass.java", 26),
+                new StackTraceElement("test.Caller", "run", "Caller.java", 12),
+                new StackTraceElement("java.lang.Thread", "run", "Thread.java", 1)
+        }, 10, 10);
+
+        ProtoTimeEncoder timeEncoder = new ProtoTimeEncoder(time -> time, IntStream.of(10));
+        JavaNodeExporter exporter = new JavaNodeExporter(timeEncoder, null, MergeStrategy.SAME_METHOD, new MethodDisambiguator(FallbackClassFinder.INSTANCE));
+
+        ThreadNodeDelta delta = encoder.encodeThread(thread, exporter, timeEncoder, window -> window == 10, node -> {});
+        assertEquals(3, delta.getNewChildrenCount());
+        assertEquals(Arrays.asList(-1, 0, 1), delta.getNewChildrenParentsList());
+        assertEquals(Arrays.asList(0, 1, 2), delta.getNodeIdsList());
+        assertEquals(Arrays.asList(30d, 30d, 30d), delta.getNodeTimesList());
+    }
+
+    private static SparkSamplerProtos.StackTraceNode node(String className, String methodName, double time, int... childrenRefs) {
+        SparkSamplerProtos.StackTraceNode.Builder node = SparkSamplerProtos.StackTraceNode.newBuilder()
+                .setClassName(className)
+                .setMethodName(methodName)
+                .setMethodDesc("()V")
+                .addTimes(time);
+        for (int ref : childrenRefs) {
+            node.addChildrenRefs(ref);
+        }
+        return node.build();
+    }
+
+}
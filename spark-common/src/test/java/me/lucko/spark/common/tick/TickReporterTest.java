@@ -91,4 +91,38 @@ public class TickReporterTest {
         assertTrue(durations.get(0) > 0);
     }
 
+    @Test
+    public void testLevelTicks() {
+        SimpleTickReporter reporter = new SimpleTickReporter() {
+            @Override
+            public void start() {
+
+            }
+        };
+
+        List<String> levels = new ArrayList<>();
+        reporter.addCallback(new TickReporter.Callback() {
+            @Override
+            public void onTick(double duration) {
+
+            }
+
+            @Override
+            public void onLevelTick(String level, double duration) {
+                assertTrue(duration >= 0);
+                levels.add(level);
+            }
+        });
+
+        // ending a level tick without a start should be ignored
+        reporter.onLevelEnd("overworld");
+        assertEquals(0, levels.size());
+
+        reporter.onLevelStart();
+        reporter.onLevelEnd("overworld");
+        reporter.onLevelStart();
+        reporter.onLevelEnd("the_nether");
+        assertEquals(ImmutableList.of("overworld", "the_nether"), levels);
+    }
+
 }
@@ -0,0 +1,118 @@
+/*
+ * This file is part of spark.
+ *
+ *  Copyright (c) lucko (Luck) <luck@lucko.me>
+ *  Copyright (c) contributors
+ *
+ *  This program is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package me.lucko.spark.common.util;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+public class BytebinClientTest {
+
+    private static final String CONTENT_TYPE = "application/x-spark-test";
+
+    private static Path writeTestFile(Path dir, int size) throws IOException {
+        byte[] data = new byte[size];
+        new Random(0).nextBytes(data);
+        return Files.write(dir.resolve("data.bin"), data);
+    }
+
+    @Test
+    public void testStreamingUpload(@TempDir Path tempDir) throws IOException {
+        // larger than a single chunk
+        Path file = writeTestFile(tempDir, 300 * 1024);
+
+        try (FakeBytebinServer server = new FakeBytebinServer()) {
+            BytebinClient client = new BytebinClient(server.url(), "spark-test", 1);
+            String key = client.postContent(file, CONTENT_TYPE).key();
+
+            assertEquals("key0", key);
+            assertEquals("chunked", server.lastTransferEncoding());
+            assertArrayEquals(Files.readAllBytes(file), server.lastBody());
+        }
+    }
+
+    @Test
+    public void testRetriesServerErrors(@TempDir Path tempDir) throws IOException {
+        Path file = Files.write(tempDir.resolve("data.txt"), "hello".getBytes(StandardCharsets.UTF_8));
+
+        try (FakeBytebinServer server = new FakeBytebinServer()) {
+            server.respondWith(503, 502);
+
+            BytebinClient client = new BytebinClient(server.url(), "spark-test", 1);
+            String key = client.postContent(file, CONTENT_TYPE).key();
+
+            assertEquals("key2", key);
+            assertEquals(3, server.requests());
+            assertArrayEquals("hello".getBytes(StandardCharsets.UTF_8), server.lastBody());
+        }
+    }
+
+    @Test
+    public void testGivesUpAfterMaxAttempts(@TempDir Path tempDir) throws IOException {
+        Path file = Files.write(tempDir.resolve("data.txt"), "hello".getBytes(StandardCharsets.UTF_8));
+
+        try (FakeBytebinServer server = new FakeBytebinServer()) {
+            server.respondWith(503, 503, 503, 503);
+
+            BytebinClient client = new BytebinClient(server.url(), "spark-test", 1);
+            assertThrows(BytebinClient.TransientUploadException.class, () -> client.postContent(file, CONTENT_TYPE));
+            assertEquals(3, server.requests());
+        }
+    }
+
+    @Test
+    public void testDoesNotRetryClientErrors(@TempDir Path tempDir) throws IOException {
+        Path file = Files.write(tempDir.resolve("data.txt"), "hello".getBytes(StandardCharsets.UTF_8));
+
+        try (FakeBytebinServer server = new FakeBytebinServer()) {
+            server.respondWith(413);
+
+            BytebinClient client = new BytebinClient(server.url(), "spark-test", 1);
+            IOException e = assertThrows(IOException.class, () -> client.postContent(file, CONTENT_TYPE));
+            assertFalse(e instanceof BytebinClient.TransientUploadException);
+            assertEquals(1, server.requests());
+        }
+    }
+
+    @Test
+    public void testConnectionRefused(@TempDir Path tempDir) throws IOException {
+        Path file = Files.write(tempDir.resolve("data.txt"), "hello".getBytes(StandardCharsets.UTF_8));
+
+        String url;
+        try (FakeBytebinServer server = new FakeBytebinServer()) {
+            url = server.url();
+        }
+
+        BytebinClient client = new BytebinClient(url, "spark-test", 1);
+        assertThrows(BytebinClient.TransientUploadException.class, () -> client.postContent(file, CONTENT_TYPE));
+    }
+
+}
@@ -0,0 +1,95 @@
+/*
+ * This file is part of spark.
+ *
+ *  Copyright (c) lucko (Luck) <luck@lucko.me>
+ *  Copyright (c) contributors
+ *
+ *  This program is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package me.lucko.spark.common.util;
+
+import me.lucko.spark.common.activitylog.Activity;
+import me.lucko.spark.common.activitylog.ActivityLog;
+import me.lucko.spark.common.command.sender.CommandSender;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.UUID;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+public class BytebinOutboxTest {
+
+    private static final CommandSender.Data USER = new CommandSender.Data("Test", UUID.fromString("5937921d-7051-45e1-bac7-3bbfdc12444f"));
+
+    @Test
+    public void testRetryUntilUploaded(@TempDir Path tempDir) throws IOException {
+        Path file = Files.write(tempDir.resolve("profile.sparkprofile"), "hello".getBytes(StandardCharsets.UTF_8));
+        ActivityLog activityLog = new ActivityLog(tempDir.resolve("activity.json"));
+
+        try (FakeBytebinServer server = new FakeBytebinServer()) {
+            BytebinClient client = new BytebinClient(server.url(), "spark-test", 1);
+            BytebinOutbox outbox = new BytebinOutbox(tempDir.resolve("outbox"), client, activityLog, "https://spark.lucko.me/", Runnable::run);
+
+            assertTrue(outbox.add(file, "application/x-spark-test", USER, "Profiler"));
+            assertEquals(1, outbox.size());
+
+            // bytebin is still unavailable
+            server.respondWith(503, 503, 503);
+            outbox.run();
+            assertEquals(1, outbox.size());
+            assertTrue(activityLog.getLog().isEmpty());
+
+            // bytebin is available again
+            outbox.run();
+            assertEquals(0, outbox.size());
+            assertArrayEquals("hello".getBytes(StandardCharsets.UTF_8), server.lastBody());
+
+            List<Activity> log = activityLog.getLog();
+            assertEquals(1, log.size());
+            assertEquals("Profiler", log.get(0).getType());
+            assertEquals(Activity.DATA_TYPE_URL, log.get(0).getDataType());
+            assertEquals("https://spark.lucko.me/key3", log.get(0).getDataValue());
+            assertEquals("Test", log.get(0).getUser().getName());
+        }
+    }
+
+    @Test
+    public void testMissingFileIsDropped(@TempDir Path tempDir) throws IOException {
+        Path file = Files.write(tempDir.resolve("profile.sparkprofile"), "hello".getBytes(StandardCharsets.UTF_8));
+        ActivityLog activityLog = new ActivityLog(tempDir.resolve("activity.json"));
+
+        try (FakeBytebinServer server = new FakeBytebinServer()) {
+            BytebinClient client = new BytebinClient(server.url(), "spark-test", 1);
+            BytebinOutbox outbox = new BytebinOutbox(tempDir.resolve("outbox"), client, activityLog, "https://spark.lucko.me/", Runnable::run);
+
+            assertTrue(outbox.add(file, "application/x-spark-test", USER, "Profiler"));
+            Files.delete(file);
+
+            outbox.run();
+            assertEquals(0, outbox.size());
+            assertEquals(0, server.requests());
+            assertTrue(activityLog.getLog().isEmpty());
+        }
+    }
+
+}
@@ -0,0 +1,97 @@
+/*
+ * This file is part of spark.
+ *
+ *  Copyright (c) lucko (Luck) <luck@lucko.me>
+ *  Copyright (c) contributors
+ *
+ *  This program is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package me.lucko.spark.common.util;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.junit.jupiter.params.ParameterizedTest;
+import org.junit.jupiter.params.provider.EnumSource;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Random;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.zip.Deflater;
+import java.util.zip.GZIPInputStream;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+public class CompressionTest {
+
+    private static byte[] testData(int length) {
+        // a mix of random and repetitive data, so the compressor has something to do
+        Random random = new Random(42);
+        byte[] data = new byte[length];
+        for (int i = 0; i < length; i++) {
+            data[i] = (i / 4096) % 2 == 0 ? (byte) random.nextInt(16) : (byte) (i % 251);
+        }
+        return data;
+    }
+
+    private static byte[] gunzip(InputStream in) throws IOException {
+        try (GZIPInputStream gzip = new GZIPInputStream(in)) {
+            ByteArrayOutputStream out = new ByteArrayOutputStream();
+            byte[] buf = new byte[8192];
+            int n;
+            while ((n = gzip.read(buf)) != -1) {
+                out.write(buf, 0, n);
+            }
+            return out.toByteArray();
+        }
+    }
+
+    @Test
+    public void testParallelGzipRoundTrip() throws IOException {
+        for (int length : new int[]{0, 1, 1024 * 1024, 5 * 1024 * 1024 + 123}) {
+            byte[] data = testData(length);
+
+            ByteArrayOutputStream compressed = new ByteArrayOutputStream();
+            try (ParallelGzipOutputStream out = new ParallelGzipOutputStream(compressed, Deflater.DEFAULT_COMPRESSION, 4)) {
+                out.write(data);
+            }
+
+            assertArrayEquals(data, gunzip(new ByteArrayInputStream(compressed.toByteArray())));
+        }
+    }
+
+    @ParameterizedTest
+    @EnumSource(Compression.class)
+    public void testCompressFile(Compression compression, @TempDir Path directory) throws IOException {
+        byte[] data = testData(3 * 1024 * 1024);
+        Path file = directory.resolve("test.hprof");
+        Files.write(file, data);
+
+        AtomicLong progress = new AtomicLong();
+        Path compressedFile = compression.compress(file, progress::set);
+
+        assertTrue(Files.size(compressedFile) < data.length);
+        assertTrue(progress.get() > 0);
+        try (InputStream in = Files.newInputStream(compressedFile)) {
+            assertArrayEquals(data, gunzip(in));
+        }
+    }
+
+}
@@ -0,0 +1,99 @@
+/*
+ * This file is part of spark.
+ *
+ *  Copyright (c) lucko (Luck) <luck@lucko.me>
+ *  Copyright (c) contributors
+ *
+ *  This program is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package me.lucko.spark.common.util;
+
+import com.google.common.io.ByteStreams;
+import com.sun.net.httpserver.HttpServer;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.zip.GZIPInputStream;
+
+/**
+ * A local stand-in for a bytebin server.
+ */
+class FakeBytebinServer implements AutoCloseable {
+
+    private final HttpServer server;
+    private final List<Integer> responses = Collections.synchronizedList(new ArrayList<>());
+    private final AtomicInteger requests = new AtomicInteger();
+
+    private volatile byte[] lastBody;
+    private volatile String lastTransferEncoding;
+
+    FakeBytebinServer() throws IOException {
+        this.server = HttpServer.create(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0), 0);
+        this.server.createContext("/post", exchange -> {
+            int n = this.requests.getAndIncrement();
+            this.lastTransferEncoding = exchange.getRequestHeaders().getFirst("Transfer-Encoding");
+
+            byte[] body;
+            try (InputStream in = new GZIPInputStream(exchange.getRequestBody())) {
+                body = ByteStreams.toByteArray(in);
+            }
+
+            int status = this.responses.isEmpty() ? 201 : this.responses.remove(0);
+            if (status == 201) {
+                this.lastBody = body;
+                exchange.getResponseHeaders().add("Location", "key" + n);
+            }
+            exchange.sendResponseHeaders(status, -1);
+            exchange.close();
+        });
+        this.server.start();
+    }
+
+    String url() {
+        return "http://" + this.server.getAddress().getHostString() + ":" + this.server.getAddress().getPort() + "/";
+    }
+
+    /**
+     * Queues status codes to respond with, before returning to the default of 201.
+     *
+     * @param statuses the status codes
+     */
+    void respondWith(Integer... statuses) {
+        Collections.addAll(this.responses, statuses);
+    }
+
+    int requests() {
+        return this.requests.get();
+    }
+
+    byte[] lastBody() {
+        return this.lastBody;
+    }
+
+    String lastTransferEncoding() {
+        return this.lastTransferEncoding;
+    }
+
+    @Override
+    public void close() {
+        this.server.stop(0);
+    }
+}
@@ -27,6 +27,7 @@ import java.time.Duration;
 import static org.junit.jupiter.api.Assertions.assertArrayEquals;
 import static org.junit.jupiter.api.Assertions.assertEquals;
 import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
 import static org.junit.jupiter.api.Assertions.assertTrue;
 
 public class MetricSeriesTest {
@@ -38,6 +39,7 @@ public class MetricSeriesTest {
         assertEquals(0, series.size());
         assertEquals(0, series.newestTimestamp());
         assertEquals(0, series.oldestTimestamp());
+        assertNull(series.newest());
         series.forEach((timestamp, value) -> {
             throw new AssertionError("Should not be called");
         });
@@ -58,6 +60,7 @@ public class MetricSeriesTest {
         assertFalse(series.isEmpty());
         assertEquals(2, series.newestTimestamp());
         assertEquals(1, series.oldestTimestamp());
+        assertEquals(2.0, series.newest());
 
         series.forEach((timestamp, value) -> {
             if (timestamp == 1) {
@@ -92,4 +95,27 @@ public class MetricSeriesTest {
         assertArrayEquals(new Object[]{2.0, 3.0}, export.values());
     }
 
+    @Test
+    public void testExportAfter() {
+        MetricSeries<Double> series = new MetricSeries<>(Duration.ofMillis(100), 1);
+        series.record(10, 1.0);
+        series.record(20, 2.0);
+        series.record(35, 3.0);
+
+        MetricSeries.Export export = series.export(20);
+        assertEquals(35, export.startTimestampMs());
+        assertEquals(35, export.newestTimestampMs());
+        assertArrayEquals(new int[]{0}, export.timestampDeltasMs());
+        assertArrayEquals(new Object[]{3.0}, export.values());
+
+        export = series.export(5);
+        assertEquals(10, export.startTimestampMs());
+        assertEquals(35, export.newestTimestampMs());
+        assertArrayEquals(new int[]{0, 10, 15}, export.timestampDeltasMs());
+
+        export = series.export(35);
+        assertTrue(export.isEmpty());
+        assertEquals(0, export.newestTimestampMs());
+    }
+
 }
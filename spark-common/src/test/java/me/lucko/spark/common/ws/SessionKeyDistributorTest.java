@@ -0,0 +1,100 @@
+/*
+ * This file is part of spark.
+ *
+ *  Copyright (c) lucko (Luck) <luck@lucko.me>
+ *  Copyright (c) contributors
+ *
+ *  This program is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package me.lucko.spark.common.ws;
+
+import org.junit.jupiter.api.Test;
+
+import javax.crypto.Cipher;
+import javax.crypto.spec.OAEPParameterSpec;
+import javax.crypto.spec.PSource;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.security.KeyPair;
+import java.security.spec.MGF1ParameterSpec;
+
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+public class SessionKeyDistributorTest {
+
+    private static final ByteBuffer MESSAGE = ByteBuffer.wrap("hello".getBytes(StandardCharsets.UTF_8));
+
+    private static void assertDecryptsTo(SessionKey key, byte[] encrypted, KeyPair clientKeyPair) throws Exception {
+        assertNotNull(encrypted);
+
+        // decrypt the key as the client would
+        Cipher cipher = Cipher.getInstance("RSA/ECB/OAEPPadding");
+        cipher.init(Cipher.DECRYPT_MODE, clientKeyPair.getPrivate(), new OAEPParameterSpec("SHA-256", "MGF1", MGF1ParameterSpec.SHA256, PSource.PSpecified.DEFAULT));
+        SessionKey decrypted = new SessionKey(cipher.doFinal(encrypted));
+
+        assertTrue(decrypted.verify(MESSAGE.duplicate(), key.sign(MESSAGE.duplicate())));
+    }
+
+    @Test
+    public void testTrustedClient() throws Exception {
+        KeyPair client = CryptoAlgorithm.RSA2048.generateKeyPair();
+        SessionKey key = SessionKey.generate();
+        SessionKeyDistributor distributor = new SessionKeyDistributor(key);
+
+        assertDecryptsTo(key, distributor.onClientConnect("a", client.getPublic(), true, true), client);
+        assertTrue(distributor.canUseSessionKey());
+    }
+
+    @Test
+    public void testUntrustedClientIsSentKeyWhenTrusted() throws Exception {
+        KeyPair trustedClient = CryptoAlgorithm.RSA2048.generateKeyPair();
+        KeyPair untrustedClient = CryptoAlgorithm.RSA2048.generateKeyPair();
+        SessionKey key = SessionKey.generate();
+        SessionKeyDistributor distributor = new SessionKeyDistributor(key);
+
+        assertNotNull(distributor.onClientConnect("a", trustedClient.getPublic(), true, true));
+        assertTrue(distributor.canUseSessionKey());
+
+        // the untrusted client can't be sent the key, so packets must be signed until it is trusted
+        assertNull(distributor.onClientConnect("b", untrustedClient.getPublic(), true, false));
+        assertFalse(distributor.canUseSessionKey());
+
+        // clients which didn't connect to this socket aren't waiting for the key
+        assertNull(distributor.onClientTrusted("c"));
+        assertFalse(distributor.canUseSessionKey());
+
+        assertDecryptsTo(key, distributor.onClientTrusted("b"), untrustedClient);
+        assertTrue(distributor.canUseSessionKey());
+
+        // the key is only sent once
+        assertNull(distributor.onClientTrusted("b"));
+    }
+
+    @Test
+    public void testClientWithoutSessionKeySupport() throws Exception {
+        KeyPair client = CryptoAlgorithm.RSA2048.generateKeyPair();
+        SessionKeyDistributor distributor = new SessionKeyDistributor(SessionKey.generate());
+
+        assertNull(distributor.onClientConnect("a", client.getPublic(), false, false));
+        assertFalse(distributor.canUseSessionKey());
+
+        // trusting the client doesn't help, it can't use the key
+        assertNull(distributor.onClientTrusted("a"));
+        assertFalse(distributor.canUseSessionKey());
+    }
+
+}
@@ -0,0 +1,72 @@
+/*
+ * This file is part of spark.
+ *
+ *  Copyright (c) lucko (Luck) <luck@lucko.me>
+ *  Copyright (c) contributors
+ *
+ *  This program is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+
+package me.lucko.spark.common.ws;
+
+import org.junit.jupiter.api.Test;
+
+import javax.crypto.Cipher;
+import javax.crypto.spec.OAEPParameterSpec;
+import javax.crypto.spec.PSource;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.security.KeyPair;
+import java.security.spec.MGF1ParameterSpec;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+public class SessionKeyTest {
+
+    private static ByteBuffer message(String message) {
+        return ByteBuffer.wrap(message.getBytes(StandardCharsets.UTF_8));
+    }
+
+    @Test
+    public void testSignVerify() throws Exception {
+        SessionKey key = SessionKey.generate();
+
+        byte[] signature = key.sign(message("hello"));
+        assertEquals(32, signature.length);
+        assertTrue(key.verify(message("hello"), signature));
+        assertFalse(key.verify(message("hellp"), signature));
+
+        SessionKey otherKey = SessionKey.generate();
+        assertFalse(otherKey.verify(message("hello"), signature));
+    }
+
+    @Test
+    public void testEncrypt() throws Exception {
+        KeyPair clientKeyPair = CryptoAlgorithm.RSA2048.generateKeyPair();
+        SessionKey key = SessionKey.generate();
+
+        byte[] encrypted = key.encrypt(CryptoAlgorithm.RSA2048, clientKeyPair.getPublic());
+
+        // decrypt the key as the client would
+        Cipher cipher = Cipher.getInstance("RSA/ECB/OAEPPadding");
+        cipher.init(Cipher.DECRYPT_MODE, clientKeyPair.getPrivate(), new OAEPParameterSpec("SHA-256", "MGF1", MGF1ParameterSpec.SHA256, PSource.PSpecified.DEFAULT));
+        SessionKey decrypted = new SessionKey(cipher.doFinal(encrypted));
+
+        assertTrue(decrypted.verify(message("hello"), key.sign(message("hello"))));
+    }
+
+}
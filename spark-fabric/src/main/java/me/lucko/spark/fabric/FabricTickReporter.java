@@ -26,10 +26,11 @@ import net.fabricmc.fabric.api.client.event.lifecycle.v1.ClientTickEvents;
 import net.fabricmc.fabric.api.event.lifecycle.v1.ServerTickEvents;
 import net.minecraft.client.Minecraft;
 import net.minecraft.server.MinecraftServer;
+import net.minecraft.server.level.ServerLevel;
 
 public abstract class FabricTickReporter extends SimpleTickReporter implements TickReporter {
 
-    public static final class Server extends FabricTickReporter implements ServerTickEvents.StartTick, ServerTickEvents.EndTick {
+    public static final class Server extends FabricTickReporter implements ServerTickEvents.StartTick, ServerTickEvents.EndTick, ServerTickEvents.StartWorldTick, ServerTickEvents.EndWorldTick {
         @Override
         public void onStartTick(MinecraftServer server) {
             onStart();
@@ -40,10 +41,22 @@ public abstract class FabricTickReporter extends SimpleTickReporter implements T
             onEnd();
         }
 
+        @Override
+        public void onStartTick(ServerLevel level) {
+            onLevelStart();
+        }
+
+        @Override
+        public void onEndTick(ServerLevel level) {
+            onLevelEnd(level.dimension().identifier().toString());
+        }
+
         @Override
         public void start() {
             ServerTickEvents.START_SERVER_TICK.register(this);
             ServerTickEvents.END_SERVER_TICK.register(this);
+            ServerTickEvents.START_WORLD_TICK.register(this);
+            ServerTickEvents.END_WORLD_TICK.register(this);
         }
     }
 
@@ -0,0 +1,44 @@
+/*
+ * This file is part of spark.
+ *
+ *  Copyright (c) lucko (Luck) <luck@lucko.me>
+ *  Copyright (c) contributors
+ *
+ *  This program is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package me.lucko.spark.fabric.mixin;
+
+import me.lucko.spark.common.monitor.tick.TickPhaseStatistics;
+import me.lucko.spark.minecraft.tick.TickPhaseTimer;
+import net.minecraft.world.ticks.LevelTicks;
+import org.spongepowered.asm.mixin.Mixin;
+import org.spongepowered.asm.mixin.injection.At;
+import org.spongepowered.asm.mixin.injection.Inject;
+import org.spongepowered.asm.mixin.injection.callback.CallbackInfo;
+
+@Mixin(LevelTicks.class)
+public abstract class LevelTicksMixin {
+
+    @Inject(method = "tick(JILjava/util/function/BiConsumer;)V", at = @At("HEAD"))
+    private void spark$onTickStart(CallbackInfo ci) {
+        TickPhaseTimer.begin(TickPhaseStatistics.Phase.SCHEDULED_TICKS);
+    }
+
+    @Inject(method = "tick(JILjava/util/function/BiConsumer;)V", at = @At("RETURN"))
+    private void spark$onTickEnd(CallbackInfo ci) {
+        TickPhaseTimer.end(TickPhaseStatistics.Phase.SCHEDULED_TICKS);
+    }
+
+}
@@ -67,9 +67,44 @@ public abstract class ForgeTickReporter extends SimpleTickReporter implements Ti
     }
 
     public static final class Server extends ForgeTickReporter {
+        private EventListener levelPreListener;
+        private EventListener levelPostListener;
+
         public Server() {
             super(TickEvent.ServerTickEvent.Pre.BUS, TickEvent.ServerTickEvent.Post.BUS);
         }
+
+        public void onLevelTickStart(TickEvent.LevelTickEvent.Pre e) {
+            if (!e.level().isClientSide()) {
+                onLevelStart();
+            }
+        }
+
+        public void onLevelTickEnd(TickEvent.LevelTickEvent.Post e) {
+            if (!e.level().isClientSide()) {
+                onLevelEnd(e.level().dimension().identifier().toString());
+            }
+        }
+
+        @Override
+        public void start() {
+            super.start();
+            this.levelPreListener = TickEvent.LevelTickEvent.Pre.BUS.addListener(this::onLevelTickStart);
+            this.levelPostListener = TickEvent.LevelTickEvent.Post.BUS.addListener(this::onLevelTickEnd);
+        }
+
+        @Override
+        public void close() {
+            if (this.levelPreListener != null) {
+                TickEvent.LevelTickEvent.Pre.BUS.removeListener(this.levelPreListener);
+                this.levelPreListener = null;
+            }
+            if (this.levelPostListener != null) {
+                TickEvent.LevelTickEvent.Post.BUS.removeListener(this.levelPostListener);
+                this.levelPostListener = null;
+            }
+            super.close();
+        }
     }
 
     public static final class Client extends ForgeTickReporter {
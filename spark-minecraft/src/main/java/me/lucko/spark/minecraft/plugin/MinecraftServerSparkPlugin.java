@@ -34,6 +34,7 @@ import me.lucko.spark.minecraft.MinecraftPlayerPingProvider;
 import me.lucko.spark.minecraft.MinecraftServerConfigProvider;
 import me.lucko.spark.minecraft.SparkMinecraftMod;
 import me.lucko.spark.minecraft.sender.MinecraftServerCommandSender;
+import me.lucko.spark.minecraft.tick.TickPhaseTimer;
 import net.minecraft.commands.CommandSourceStack;
 import net.minecraft.server.MinecraftServer;
 import net.minecraft.server.level.ServerPlayer;
@@ -58,6 +59,15 @@ public abstract class MinecraftServerSparkPlugin<M extends SparkMinecraftMod> ex
 
         // register commands
         registerCommands(this.server.getCommands().getDispatcher());
+
+        // start recording tick phases, if enabled
+        TickPhaseTimer.install(this.platform.getTickPhaseStatistics());
+    }
+
+    @Override
+    public void disable() {
+        TickPhaseTimer.uninstall();
+        super.disable();
     }
 
     public void registerCommands(CommandDispatcher<CommandSourceStack> dispatcher) {
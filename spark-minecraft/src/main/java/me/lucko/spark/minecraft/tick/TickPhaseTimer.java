@@ -0,0 +1,57 @@
+/*
+ * This file is part of spark.
+ *
+ *  Copyright (c) lucko (Luck) <luck@lucko.me>
+ *  Copyright (c) contributors
+ *
+ *  This program is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package me.lucko.spark.minecraft.tick;
+
+import me.lucko.spark.common.monitor.tick.TickPhaseStatistics;
+
+/**
+ * Static entry point for the tick phase instrumentation injected into the game.
+ *
+ * <p>Calls are ignored unless tick phase timing has been enabled in the spark config.</p>
+ */
+public final class TickPhaseTimer {
+    private TickPhaseTimer() {}
+
+    private static volatile TickPhaseStatistics statistics = null;
+
+    public static void install(TickPhaseStatistics statistics) {
+        TickPhaseTimer.statistics = statistics;
+    }
+
+    public static void uninstall() {
+        TickPhaseTimer.statistics = null;
+    }
+
+    public static void begin(TickPhaseStatistics.Phase phase) {
+        TickPhaseStatistics statistics = TickPhaseTimer.statistics;
+        if (statistics != null) {
+            statistics.begin(phase);
+        }
+    }
+
+    public static void end(TickPhaseStatistics.Phase phase) {
+        TickPhaseStatistics statistics = TickPhaseTimer.statistics;
+        if (statistics != null) {
+            statistics.end(phase);
+        }
+    }
+
+}
@@ -25,6 +25,7 @@ import me.lucko.spark.common.tick.TickReporter;
 import net.neoforged.bus.api.SubscribeEvent;
 import net.neoforged.neoforge.client.event.ClientTickEvent;
 import net.neoforged.neoforge.common.NeoForge;
+import net.neoforged.neoforge.event.tick.LevelTickEvent;
 import net.neoforged.neoforge.event.tick.ServerTickEvent;
 
 public abstract class NeoForgeTickReporter extends SimpleTickReporter implements TickReporter {
@@ -51,6 +52,20 @@ public abstract class NeoForgeTickReporter extends SimpleTickReporter implements
         public void onTickEnd(ServerTickEvent.Post e) {
             onEnd();
         }
+
+        @SubscribeEvent
+        public void onLevelTickStart(LevelTickEvent.Pre e) {
+            if (!e.getLevel().isClientSide()) {
+                onLevelStart();
+            }
+        }
+
+        @SubscribeEvent
+        public void onLevelTickEnd(LevelTickEvent.Post e) {
+            if (!e.getLevel().isClientSide()) {
+                onLevelEnd(e.getLevel().dimension().identifier().toString());
+            }
+        }
     }
 
     public static final class Client extends NeoForgeTickReporter {
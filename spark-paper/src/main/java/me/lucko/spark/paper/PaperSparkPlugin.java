@@ -38,6 +38,7 @@ import me.lucko.spark.paper.api.PaperClassLookup;
 import me.lucko.spark.paper.api.PaperScheduler;
 import me.lucko.spark.paper.api.PaperSparkModule;
 import org.bukkit.Server;
+import org.bukkit.World;
 import org.bukkit.command.CommandSender;
 import org.bukkit.plugin.Plugin;
 
@@ -111,6 +112,11 @@ public class PaperSparkPlugin implements PaperSparkModule, SparkPlugin {
         this.tickReporter.onTick(duration);
     }
 
+    @Override
+    public void onWorldTickEnd(World world, double duration) {
+        this.tickReporter.onLevelTick(world.getName(), duration);
+    }
+
     @Override
     public String getVersion() {
         return SparkBuildInfo.VERSION;
@@ -43,4 +43,11 @@ public class PaperTickReporter extends AbstractTickReporter implements TickRepor
             super.onTick(duration);
         }
     }
+
+    @Override
+    public void onLevelTick(String level, double duration) {
+        if (this.open) {
+            super.onLevelTick(level, duration);
+        }
+    }
 }
@@ -31,6 +31,13 @@ public enum Compatibility {
     /**
      * Indicates that Paper supports version 1.0 of the spark module API.
      */
-    VERSION_1_0
+    VERSION_1_0,
+
+    /**
+     * Indicates that Paper supports version 1.1 of the spark module API.
+     *
+     * <p>Version 1.1 adds the {@link PaperSparkModule#onWorldTickEnd(org.bukkit.World, double)} callback.</p>
+     */
+    VERSION_1_1
 
 }
@@ -22,6 +22,7 @@ package me.lucko.spark.paper.api;
 
 import me.lucko.spark.paper.PaperSparkPlugin;
 import org.bukkit.Server;
+import org.bukkit.World;
 import org.bukkit.command.CommandSender;
 
 import java.util.Collection;
@@ -47,6 +48,7 @@ import java.util.logging.Logger;
  *     <li>call {@link #tabComplete(CommandSender, String[])} when the spark command is tab completed</li>
  *     <li>call {@link #onServerTickStart()} at the start of each server tick</li>
  *     <li>call {@link #onServerTickEnd(double)} at the end of each server tick</li>
+ *     <li>(since {@link Compatibility#VERSION_1_1}) call {@link #onWorldTickEnd(World, double)} after each world has been ticked</li>
  * </ul>
  *
  * <p>This interface and the other interfaces in this package define the API between Paper and spark. All other classes
@@ -122,4 +124,14 @@ public interface PaperSparkModule {
      */
     void onServerTickEnd(double duration);
 
+    /**
+     * Called by Paper after each world has been ticked.
+     *
+     * @param world the world
+     * @param duration the duration of the world tick
+     */
+    default void onWorldTickEnd(World world, double duration) {
+
+    }
+
 }